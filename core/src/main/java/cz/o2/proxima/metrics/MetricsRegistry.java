@@ -0,0 +1,73 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.metrics;
+
+import cz.o2.proxima.annotations.Internal;
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Registration of {@link Metric}s to the platform MBean server.
+ */
+@Internal
+@Slf4j
+public class MetricsRegistry {
+
+  /**
+   * Register given metrics to JMX. Metric already registered under the same
+   * name is replaced, so that metrics of re-created components are exposed.
+   * Failures to register are logged and do not stop registration of other
+   * metrics.
+   * @param metrics the metrics to register
+   */
+  public static void register(Metric<?>... metrics) {
+    MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+    for (Metric<?> m : metrics) {
+      try {
+        ObjectName mxbeanName = objectName(m);
+        if (mbs.isRegistered(mxbeanName)) {
+          mbs.unregisterMBean(mxbeanName);
+        }
+        mbs.registerMBean(m, mxbeanName);
+      } catch (Exception ex) {
+        log.warn("Failed to register metric {}", m.getName(), ex);
+      }
+    }
+  }
+
+  /**
+   * Retrieve name under which given metric is registered.
+   * @param metric the metric
+   * @return the name of the MBean
+   * @throws MalformedObjectNameException when group or name of the metric
+   *         is not valid
+   */
+  public static ObjectName objectName(Metric<?> metric)
+      throws MalformedObjectNameException {
+
+    return new ObjectName(
+        metric.getGroup() + "." + metric.getName()
+            + ":type=" + metric.getClass().getSimpleName());
+  }
+
+  private MetricsRegistry() {
+    // nop
+  }
+
+}
@@ -35,10 +35,12 @@ import cz.o2.proxima.storage.StorageType;
 import cz.o2.proxima.storage.StreamElement;
 import cz.o2.proxima.storage.batch.BatchLogObservable;
 import cz.o2.proxima.storage.commitlog.CommitLogReader;
+import cz.o2.proxima.storage.randomaccess.CachingRandomAccessReader;
 import cz.o2.proxima.storage.randomaccess.RandomAccessReader;
 import cz.o2.proxima.util.CamelCase;
 import cz.o2.proxima.util.Classpath;
 import cz.o2.proxima.util.Pair;
+import cz.o2.proxima.view.LocalCachedPartitionedView;
 import java.io.Serializable;
 import java.util.ServiceLoader;
 import lombok.extern.slf4j.Slf4j;
@@ -321,6 +323,8 @@ public class ConfigRepository implements Repository, Serializable {
       // Read attribute families and map them to storages by attribute. */
       readAttributeFamilies(config);
       if (shouldLoadAccessors) {
+        // Bind random access readers to bounded cached views
+        bindCachedViewFallbacks();
         // Link attribute families for proxied attribute (non replicated)
         loadProxiedFamilies();
         // modify entites based on replications
@@ -1035,10 +1039,14 @@ public class ConfigRepository implements Repository, Serializable {
               storageDesc, familyName))));
     }
     if (access.canRandomRead()) {
-      family.setRandomAccess(accessor.getRandomAccessReader(context)
+      RandomAccessReader reader = accessor.getRandomAccessReader(context)
           .orElseThrow(() -> new IllegalArgumentException(String.format(
               "Storage %s has no valid random access storage for family %s",
-               storageDesc, familyName))));
+               storageDesc, familyName)));
+      if (CachingRandomAccessReader.isEnabled(cfg)) {
+        reader = CachingRandomAccessReader.of(familyName, reader, cfg);
+      }
+      family.setRandomAccess(reader);
     }
     if (access.canReadCommitLog()) {
       family.setCommitLog(accessor.getCommitLogReader(context).orElseThrow(
@@ -1066,6 +1074,38 @@ public class ConfigRepository implements Repository, Serializable {
     }
   }
 
+  /**
+   * Bind {@link RandomAccessReader} of other family containing the same
+   * attributes to each {@link LocalCachedPartitionedView} that evicts
+   * keys, so that evicted data can be read.
+   */
+  private void bindCachedViewFallbacks() {
+    getAllFamilies()
+        .filter(af -> af.getAccess().canCreatePartitionedCachedView())
+        .forEach(af -> af.getPartitionedCachedView()
+            .filter(LocalCachedPartitionedView.class::isInstance)
+            .map(LocalCachedPartitionedView.class::cast)
+            .filter(LocalCachedPartitionedView::isEvicting)
+            .ifPresent(view -> {
+              Optional<AttributeFamilyDescriptor> fallback = getAllFamilies()
+                  .filter(other -> !other.equals(af))
+                  .filter(other -> other.getAccess().canRandomRead())
+                  .filter(other -> other.getAttributes().containsAll(af.getAttributes()))
+                  .findAny();
+              if (fallback.isPresent()) {
+                log.info(
+                    "Using family {} to read data evicted from cached view of family {}",
+                    fallback.get().getName(), af.getName());
+                view.setFallbackReader(fallback.get().getRandomAccessReader().get());
+              } else {
+                log.warn(
+                    "Family {} has bounded cached view, but there is no random "
+                        + "access family for its attributes. Evicted data will "
+                        + "not be readable.", af.getName());
+              }
+            }));
+  }
+
   private void insertFamily(AttributeFamilyDescriptor family, boolean overwrite) {
     family.getAttributes().forEach(a -> {
       Set<AttributeFamilyDescriptor> families = attributeToFamily
@@ -16,6 +16,8 @@
 package cz.o2.proxima.storage;
 
 import cz.o2.proxima.annotations.Stable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Callback for write and commit log operations.
@@ -31,5 +33,31 @@ public interface CommitCallback {
    */
   void commit(boolean success, Throwable error);
 
+  /**
+   * Create callback that commits given callback after it has been
+   * successfully committed given number of times, or after the first failure.
+   * The given callback is committed exactly once.
+   * @param numCommits number of commits to wait for
+   * @param commit the callback to commit
+   * @return callback to be committed {@code numCommits} times
+   */
+  static CommitCallback afterNumCommits(int numCommits, CommitCallback commit) {
+    if (numCommits <= 0) {
+      commit.commit(true, null);
+      return (succ, exc) -> { };
+    }
+    AtomicInteger remaining = new AtomicInteger(numCommits);
+    AtomicBoolean failed = new AtomicBoolean();
+    return (succ, exc) -> {
+      if (!succ) {
+        if (failed.compareAndSet(false, true)) {
+          commit.commit(false, exc);
+        }
+      } else if (remaining.decrementAndGet() == 0) {
+        commit.commit(true, null);
+      }
+    };
+  }
+
 }
 
@@ -0,0 +1,217 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage;
+
+import cz.o2.proxima.functional.Factory;
+import cz.o2.proxima.repository.AttributeDescriptor;
+import java.io.ObjectStreamException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import javax.annotation.Nullable;
+
+/**
+ * {@link StreamElement} backed by a buffer holding the element encoded
+ * by {@link StreamElementCodec}. The attribute descriptor and timestamp
+ * are decoded on creation, the key, attribute, UUID and value are decoded
+ * on first access. Writers using the same codec copy the encoded bytes
+ * without encoding the element again.
+ */
+public class LazyStreamElement extends StreamElement {
+
+  /**
+   * Offsets of fields in the encoded element.
+   */
+  private static final class Layout {
+
+    static Layout parse(StreamElementCodec codec, ByteBuffer encoded) {
+      ByteBuffer reader = encoded.duplicate();
+      StreamElementCodec.checkVersion(reader.get());
+      Layout ret = new Layout();
+      ret.flags = reader.get();
+      ret.desc = codec.attribute((int) StreamElementCodec.readVarLong(reader));
+      if (ret.desc.isWildcard()
+          || (ret.flags & StreamElementCodec.FLAG_RAW_ATTRIBUTE) != 0) {
+
+        ret.attributeLength = StreamElementCodec.skipString(reader);
+        ret.attributeOffset = reader.position() - ret.attributeLength;
+      }
+      ret.keyLength = StreamElementCodec.skipString(reader);
+      ret.keyOffset = reader.position() - ret.keyLength;
+      long zigzag = StreamElementCodec.readVarLong(reader);
+      ret.stamp = (zigzag >>> 1) ^ -(zigzag & 1);
+      if ((ret.flags & StreamElementCodec.FLAG_UUID) != 0) {
+        ret.uuidLength = StreamElementCodec.skipString(reader);
+        ret.uuidOffset = reader.position() - ret.uuidLength;
+      }
+      ret.valueOffset = reader.position();
+      return ret;
+    }
+
+    int flags;
+    AttributeDescriptor<?> desc;
+    long stamp;
+    int attributeOffset = -1;
+    int attributeLength;
+    int keyOffset;
+    int keyLength;
+    int uuidOffset = -1;
+    int uuidLength;
+    int valueOffset;
+
+  }
+
+  private final transient StreamElementCodec codec;
+  private final transient ByteBuffer encoded;
+  @Nullable
+  private final transient Factory<String> uuidFactory;
+  private final transient Layout layout;
+
+  @Nullable
+  private transient String uuid;
+  @Nullable
+  private transient String key;
+  @Nullable
+  private transient String attribute;
+  @Nullable
+  private transient byte[] value;
+
+  LazyStreamElement(
+      StreamElementCodec codec, ByteBuffer encoded,
+      @Nullable Factory<String> uuidFactory) {
+
+    this(codec, encoded, uuidFactory, Layout.parse(codec, encoded));
+  }
+
+  private LazyStreamElement(
+      StreamElementCodec codec, ByteBuffer encoded,
+      @Nullable Factory<String> uuidFactory, Layout layout) {
+
+    super(codec.getEntity(), layout.desc, layout.stamp);
+    this.codec = codec;
+    this.encoded = encoded;
+    this.uuidFactory = uuidFactory;
+    this.layout = layout;
+  }
+
+  @Override
+  public String getUuid() {
+    if (uuid == null) {
+      if (layout.uuidOffset >= 0) {
+        uuid = StreamElementCodec.string(
+            encoded, layout.uuidOffset, layout.uuidLength);
+      } else if (uuidFactory != null) {
+        uuid = uuidFactory.apply();
+      } else {
+        uuid = UUID.randomUUID().toString();
+      }
+    }
+    return uuid;
+  }
+
+  @Override
+  public String getKey() {
+    if (key == null) {
+      key = StreamElementCodec.string(encoded, layout.keyOffset, layout.keyLength);
+    }
+    return key;
+  }
+
+  @Override
+  public String getAttribute() {
+    if (attribute == null) {
+      AttributeDescriptor<?> desc = getAttributeDescriptor();
+      if ((layout.flags & StreamElementCodec.FLAG_RAW_ATTRIBUTE) != 0) {
+        attribute = StreamElementCodec.string(
+            encoded, layout.attributeOffset, layout.attributeLength);
+      } else if (desc.isWildcard()) {
+        attribute = desc.toAttributePrefix() + StreamElementCodec.string(
+            encoded, layout.attributeOffset, layout.attributeLength);
+      } else {
+        attribute = desc.getName();
+      }
+    }
+    return attribute;
+  }
+
+  @Override
+  @Nullable
+  public byte[] getValue() {
+    if (value == null && !isDelete()) {
+      byte[] bytes = new byte[encoded.limit() - layout.valueOffset];
+      ByteBuffer dup = encoded.duplicate();
+      dup.position(layout.valueOffset);
+      dup.get(bytes);
+      value = bytes;
+    }
+    return value;
+  }
+
+  @Override
+  public boolean isDelete() {
+    return (layout.flags & StreamElementCodec.FLAG_DELETE) != 0;
+  }
+
+  /**
+   * Retrieve read-only view of the encoded element.
+   * @return buffer holding the encoded element
+   */
+  public ByteBuffer getEncoded() {
+    return encoded.asReadOnlyBuffer();
+  }
+
+  /**
+   * Check if the encoded bytes can be used as output of given codec.
+   */
+  boolean isEncodedBy(StreamElementCodec other, boolean withUuid) {
+    return withUuid == (layout.uuidOffset >= 0)
+        && (other == codec
+            || other.getDictionary().equals(codec.getDictionary())
+                && other.getEntity().getName().equals(codec.getEntity().getName()));
+  }
+
+  /**
+   * Serialize as materialized {@link StreamElement}, because the buffer
+   * is not serializable.
+   */
+  private Object writeReplace() throws ObjectStreamException {
+    if (isDeleteWildcard()) {
+      return StreamElement.deleteWildcard(
+          getEntityDescriptor(), getAttributeDescriptor(), getUuid(),
+          getKey(), getAttribute(), getStamp());
+    }
+    if (isDelete()) {
+      return StreamElement.delete(
+          getEntityDescriptor(), getAttributeDescriptor(), getUuid(),
+          getKey(), getAttribute(), getStamp());
+    }
+    return StreamElement.update(
+        getEntityDescriptor(), getAttributeDescriptor(), getUuid(),
+        getKey(), getAttribute(), getStamp(), getValue());
+  }
+
+  @Override
+  public String toString() {
+    return "LazyStreamElement(entityDesc=" + getEntityDescriptor()
+        + ", attributeDesc=" + getAttributeDescriptor()
+        + ", uuid=" + getUuid()
+        + ", key=" + getKey()
+        + ", attribute=" + getAttribute()
+        + ", stamp=" + getStamp()
+        + ", value.length=" + (isDelete() ? -1 : encoded.limit() - layout.valueOffset)
+        + ")";
+  }
+
+}
@@ -16,6 +16,7 @@
 package cz.o2.proxima.storage;
 
 import cz.o2.proxima.annotations.Stable;
+import java.util.List;
 
 /**
  * Writer for attribute values. This is online version, where each
@@ -53,4 +54,20 @@ public interface OnlineAttributeWriter extends AttributeWriterBase {
    */
   void write(StreamElement data, CommitCallback statusCallback);
 
+  /**
+   * Write given group of elements. The callback is committed once, after all
+   * elements have been written, or after the first failure. Elements are not
+   * written atomically, some of them might have been written on failure.
+   * The default implementation writes the elements one by one.
+   * @param data the data to write
+   * @param statusCallback callback used to commit processing of all the data
+   */
+  default void writeBatch(List<StreamElement> data, CommitCallback statusCallback) {
+    CommitCallback callback = CommitCallback.afterNumCommits(
+        data.size(), statusCallback);
+    for (StreamElement element : data) {
+      write(element, callback);
+    }
+  }
+
 }
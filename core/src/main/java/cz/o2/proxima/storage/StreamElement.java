@@ -130,7 +130,7 @@ public class StreamElement implements Serializable {
   @Getter
   private final AttributeDescriptor<?> attributeDescriptor;
 
-  @Getter
+  @Nullable
   private final String uuid;
 
   @Getter
@@ -146,6 +146,10 @@ public class StreamElement implements Serializable {
   @Nullable
   private final byte[] value;
 
+  /** Result of first call to {@link #getParsed}, {@code null} if not parsed. */
+  @Nullable
+  private transient volatile Optional<?> parsed;
+
   protected StreamElement(
       EntityDescriptor entityDesc,
       AttributeDescriptor<?> attributeDesc,
@@ -164,14 +168,71 @@ public class StreamElement implements Serializable {
     this.value = value;
   }
 
+  /**
+   * Constructor for subclasses that create UUID lazily by overriding
+   * {@link #getUuid}.
+   * @param entityDesc descriptor of entity
+   * @param attributeDesc descriptor of attribute
+   * @param key key of entity
+   * @param attribute name of attribute of the entity
+   * @param stamp timestamp of the event
+   * @param value serialized value
+   */
+  protected StreamElement(
+      EntityDescriptor entityDesc,
+      AttributeDescriptor<?> attributeDesc,
+      String key,
+      String attribute,
+      long stamp,
+      @Nullable byte[] value) {
+
+    this.entityDescriptor = Objects.requireNonNull(entityDesc);
+    this.attributeDescriptor = Objects.requireNonNull(attributeDesc);
+    this.uuid = null;
+    this.key = Objects.requireNonNull(key);
+    this.attribute = Objects.requireNonNull(attribute);
+    this.stamp = stamp;
+    this.value = value;
+  }
+
+  /**
+   * Constructor for subclasses that decode UUID, key, attribute and value
+   * lazily by overriding {@link #getUuid}, {@link #getKey},
+   * {@link #getAttribute}, {@link #getValue} and {@link #isDelete}.
+   * @param entityDesc descriptor of entity
+   * @param attributeDesc descriptor of attribute
+   * @param stamp timestamp of the event
+   */
+  protected StreamElement(
+      EntityDescriptor entityDesc,
+      AttributeDescriptor<?> attributeDesc,
+      long stamp) {
+
+    this.entityDescriptor = Objects.requireNonNull(entityDesc);
+    this.attributeDescriptor = Objects.requireNonNull(attributeDesc);
+    this.uuid = null;
+    this.key = null;
+    this.attribute = null;
+    this.stamp = stamp;
+    this.value = null;
+  }
+
+  /**
+   * Retrieve UUID of the element.
+   * @return the UUID
+   */
+  public String getUuid() {
+    return uuid;
+  }
+
   @Override
   public String toString() {
-    return "StreamElement(uuid=" + uuid
+    return "StreamElement(uuid=" + getUuid()
         + ", entityDesc=" + entityDescriptor
         + ", attributeDesc=" + attributeDescriptor
-        + ", key=" + key + ", attribute=" + attribute
+        + ", key=" + getKey() + ", attribute=" + getAttribute()
         + ", stamp=" + stamp
-        + ", value.length=" + (value == null ? -1 : value.length) + ")";
+        + ", value.length=" + (isDelete() ? -1 : getValue().length) + ")";
   }
 
   /**
@@ -179,7 +240,7 @@ public class StreamElement implements Serializable {
    * @return {@code true} if this is delete or delete wildcard event
    */
   public boolean isDelete() {
-    return value == null;
+    return getValue() == null;
   }
 
   /**
@@ -188,33 +249,57 @@ public class StreamElement implements Serializable {
    */
   public boolean isDeleteWildcard() {
     return isDelete()
-        && attribute.equals(attributeDescriptor.toAttributePrefix() + "*");
+        && getAttribute().equals(attributeDescriptor.toAttributePrefix() + "*");
+  }
+
+  /**
+   * Retrieve parsed value. The value is parsed on first call and the
+   * result is cached in the element, so all callers share the same
+   * instance of the parsed value and must not modify it.
+   * @param <T> the deserialized datatype
+   * @return optional deserialized value
+   */
+  public <T> Optional<T> getParsed() {
+    return getParsed(true);
   }
 
   /**
    * Retrieve parsed value.
    * @param <T> the deserialized datatype
+   * @param cache {@code false} not to keep the parsed value in the element,
+   *              used for large values which would otherwise stay in memory
+   *              as long as the element; cached result of previous call
+   *              is returned in both cases
    * @return optional deserialized value
    */
   @SuppressWarnings("unchecked")
-  public <T> Optional<T> getParsed() {
-    if (value == null) {
+  public <T> Optional<T> getParsed(boolean cache) {
+    if (isDelete()) {
       return Optional.empty();
     }
-    return (Optional<T>) attributeDescriptor.getValueSerializer().deserialize(value);
+    Optional<?> ret = parsed;
+    if (ret == null) {
+      // concurrent calls might parse the value more than once, which is
+      // harmless
+      ret = attributeDescriptor.getValueSerializer().deserialize(getValue());
+      if (cache) {
+        parsed = ret;
+      }
+    }
+    return (Optional<T>) ret;
   }
 
   @Override
   public boolean equals(Object obj) {
     if (obj instanceof StreamElement) {
-      return ((StreamElement) obj).uuid.equals(uuid);
+      return ((StreamElement) obj).getUuid().equals(getUuid());
     }
     return false;
   }
 
   @Override
   public int hashCode() {
-    return uuid.hashCode();
+    return getUuid().hashCode();
   }
 
 
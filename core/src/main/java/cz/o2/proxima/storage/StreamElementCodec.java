@@ -0,0 +1,388 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage;
+
+import cz.o2.proxima.functional.Factory;
+import cz.o2.proxima.repository.AttributeDescriptor;
+import cz.o2.proxima.repository.EntityDescriptor;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+
+/**
+ * Compact binary encoding of {@link StreamElement}s of single entity.
+ *
+ * Each encoded element consists of
+ * <ul>
+ *  <li>codec version (single byte)</li>
+ *  <li>flags (single byte)</li>
+ *  <li>varint ID of attribute descriptor in dictionary of the codec</li>
+ *  <li>name of attribute without prefix of the wildcard attribute, present
+ *      only for wildcard attributes</li>
+ *  <li>key of the entity</li>
+ *  <li>zig-zag varint timestamp</li>
+ *  <li>UUID, if not elided</li>
+ *  <li>value, spanning to the end of the encoded element, present only
+ *      for updates</li>
+ * </ul>
+ * Strings are encoded as varint length followed by UTF-8 bytes. Elements
+ * have to be framed by the storage, because the value is not length
+ * delimited.
+ *
+ * The dictionary is the sorted list of names of all attributes of the
+ * entity. Storages that persist encoded data should persist the dictionary
+ * too (see {@link #getDictionary}) and decode the data with codec created
+ * by {@link #of(EntityDescriptor, List)}, so that the data remain readable
+ * after attributes are added or removed.
+ */
+public final class StreamElementCodec implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /** Current version of the encoding. */
+  public static final byte VERSION = 1;
+
+  static final int FLAG_DELETE = 0x01;
+  static final int FLAG_UUID = 0x02;
+  static final int FLAG_RAW_ATTRIBUTE = 0x04;
+
+  /**
+   * Create codec with dictionary of all attributes of given entity.
+   * @param entity the entity to encode elements of
+   * @return the codec
+   */
+  public static StreamElementCodec of(EntityDescriptor entity) {
+    return of(entity, entity.getAllAttributes(true)
+        .stream()
+        .map(AttributeDescriptor::getName)
+        .sorted()
+        .collect(Collectors.toList()));
+  }
+
+  /**
+   * Create codec with given dictionary, typically when decoding data
+   * encoded with dictionary persisted by storage.
+   * @param entity the entity to encode elements of
+   * @param dictionary names of attributes indexed by their IDs
+   * @return the codec
+   */
+  public static StreamElementCodec of(
+      EntityDescriptor entity, List<String> dictionary) {
+
+    return new StreamElementCodec(entity, dictionary);
+  }
+
+  private final EntityDescriptor entity;
+  private final List<String> dictionary;
+  private final AttributeDescriptor<?>[] attributes;
+  private final Map<String, Integer> ids = new HashMap<>();
+
+  private StreamElementCodec(EntityDescriptor entity, List<String> dictionary) {
+    this.entity = entity;
+    this.dictionary = Collections.unmodifiableList(new ArrayList<>(dictionary));
+    this.attributes = new AttributeDescriptor<?>[dictionary.size()];
+    for (int i = 0; i < attributes.length; i++) {
+      String name = dictionary.get(i);
+      // attributes removed from the entity stay in the dictionary
+      attributes[i] = entity.findAttribute(name, true).orElse(null);
+      ids.put(name, i);
+    }
+  }
+
+  /**
+   * Retrieve names of attributes indexed by their IDs.
+   * @return the dictionary
+   */
+  public List<String> getDictionary() {
+    return dictionary;
+  }
+
+  /**
+   * Encode given element. Bytes of {@link LazyStreamElement} decoded by
+   * codec with the same dictionary are copied without encoding.
+   * @param element the element to encode
+   * @param withUuid {@code false} to elide UUID of the element, UUID is then
+   *                 supplied on decoding
+   * @return the encoded element
+   */
+  public byte[] encode(StreamElement element, boolean withUuid) {
+    if (element instanceof LazyStreamElement) {
+      LazyStreamElement lazy = (LazyStreamElement) element;
+      if (lazy.isEncodedBy(this, withUuid)) {
+        ByteBuffer encoded = lazy.getEncoded();
+        byte[] ret = new byte[encoded.remaining()];
+        encoded.get(ret);
+        return ret;
+      }
+    }
+    AttributeDescriptor<?> desc = element.getAttributeDescriptor();
+    Integer id = ids.get(desc.getName());
+    if (id == null) {
+      throw new IllegalArgumentException(
+          "Attribute " + desc.getName() + " is not in dictionary " + dictionary);
+    }
+    String attribute = element.getAttribute();
+    String prefix = desc.isWildcard() ? desc.toAttributePrefix() : null;
+    int flags = 0;
+    byte[] attributeBytes = null;
+    if (prefix != null) {
+      if (attribute.startsWith(prefix)) {
+        attributeBytes = utf8(attribute.substring(prefix.length()));
+      } else {
+        flags |= FLAG_RAW_ATTRIBUTE;
+        attributeBytes = utf8(attribute);
+      }
+    } else if (!attribute.equals(desc.getName())) {
+      flags |= FLAG_RAW_ATTRIBUTE;
+      attributeBytes = utf8(attribute);
+    }
+    byte[] value = element.getValue();
+    if (value == null) {
+      flags |= FLAG_DELETE;
+    }
+    byte[] uuidBytes = null;
+    if (withUuid) {
+      flags |= FLAG_UUID;
+      uuidBytes = utf8(element.getUuid());
+    }
+    byte[] keyBytes = utf8(element.getKey());
+
+    Output out = new Output(
+        27 + keyBytes.length
+            + (attributeBytes == null ? 0 : 5 + attributeBytes.length)
+            + (uuidBytes == null ? 0 : 5 + uuidBytes.length)
+            + (value == null ? 0 : value.length));
+    out.writeByte(VERSION);
+    out.writeByte(flags);
+    out.writeVarLong(id);
+    if (attributeBytes != null) {
+      out.writeBytes(attributeBytes);
+    }
+    out.writeBytes(keyBytes);
+    out.writeVarLong((element.getStamp() << 1) ^ (element.getStamp() >> 63));
+    if (uuidBytes != null) {
+      out.writeBytes(uuidBytes);
+    }
+    if (value != null) {
+      out.write(value, 0, value.length);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Decode element encoded with UUID.
+   * @param data the encoded element
+   * @return decoded element
+   */
+  public StreamElement decode(byte[] data) {
+    return decode(ByteBuffer.wrap(data), null);
+  }
+
+  /**
+   * Decode element from remaining bytes of given buffer. Strings are decoded
+   * directly from the backing array of heap buffers and the value is the only
+   * copied part of the buffer. Position of the buffer is moved to its limit.
+   * @param buffer buffer holding single encoded element
+   * @param uuidFactory factory of UUID of elements with elided UUID,
+   *                    {@code null} to generate random UUID
+   * @return decoded element
+   */
+  public StreamElement decode(
+      ByteBuffer buffer, @Nullable Factory<String> uuidFactory) {
+
+    checkVersion(buffer.get());
+    int flags = buffer.get();
+    AttributeDescriptor<?> desc = attribute((int) readVarLong(buffer));
+    final String attribute;
+    if ((flags & FLAG_RAW_ATTRIBUTE) != 0) {
+      attribute = readString(buffer);
+    } else if (desc.isWildcard()) {
+      attribute = desc.toAttributePrefix() + readString(buffer);
+    } else {
+      attribute = desc.getName();
+    }
+    String key = readString(buffer);
+    long zigzag = readVarLong(buffer);
+    long stamp = (zigzag >>> 1) ^ -(zigzag & 1);
+    final String uuid;
+    if ((flags & FLAG_UUID) != 0) {
+      uuid = readString(buffer);
+    } else if (uuidFactory != null) {
+      uuid = uuidFactory.apply();
+    } else {
+      uuid = UUID.randomUUID().toString();
+    }
+    if ((flags & FLAG_DELETE) != 0) {
+      buffer.position(buffer.limit());
+      if (attribute.equals(desc.toAttributePrefix() + "*")) {
+        return StreamElement.deleteWildcard(
+            entity, desc, uuid, key, attribute, stamp);
+      }
+      return StreamElement.delete(entity, desc, uuid, key, attribute, stamp);
+    }
+    byte[] value = new byte[buffer.remaining()];
+    buffer.get(value);
+    return StreamElement.update(entity, desc, uuid, key, attribute, stamp, value);
+  }
+
+  /**
+   * Wrap remaining bytes of given buffer into {@link LazyStreamElement}.
+   * Only the attribute descriptor and timestamp are decoded, other fields
+   * are decoded on first access. The buffer must not be modified while
+   * the element is in use. Position of the buffer is moved to its limit.
+   * @param buffer buffer holding single encoded element
+   * @param uuidFactory factory of UUID of elements with elided UUID,
+   *                    {@code null} to generate random UUID
+   * @return the lazily decoded element
+   */
+  public LazyStreamElement decodeLazy(
+      ByteBuffer buffer, @Nullable Factory<String> uuidFactory) {
+
+    ByteBuffer slice = buffer.slice();
+    buffer.position(buffer.limit());
+    return new LazyStreamElement(this, slice, uuidFactory);
+  }
+
+  EntityDescriptor getEntity() {
+    return entity;
+  }
+
+  AttributeDescriptor<?> attribute(int id) {
+    AttributeDescriptor<?> desc = id < attributes.length ? attributes[id] : null;
+    if (desc == null) {
+      throw new IllegalArgumentException(
+          "Unknown attribute with ID " + id + " in entity " + entity.getName()
+              + ", dictionary " + dictionary);
+    }
+    return desc;
+  }
+
+  static void checkVersion(int version) {
+    if (version != VERSION) {
+      throw new IllegalArgumentException(
+          "Unsupported codec version " + version + ", expected " + VERSION);
+    }
+  }
+
+  private static byte[] utf8(String str) {
+    return str.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    int length = skipString(buffer);
+    return string(buffer, buffer.position() - length, length);
+  }
+
+  /**
+   * Move position of the buffer after string at the position.
+   * @return length of the string in bytes
+   */
+  static int skipString(ByteBuffer buffer) {
+    int length = (int) readVarLong(buffer);
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IllegalArgumentException(
+          "String of length " + length + " exceeds remaining "
+              + buffer.remaining() + " bytes");
+    }
+    buffer.position(buffer.position() + length);
+    return length;
+  }
+
+  static String string(ByteBuffer buffer, int offset, int length) {
+    if (buffer.hasArray()) {
+      return new String(
+          buffer.array(), buffer.arrayOffset() + offset, length,
+          StandardCharsets.UTF_8);
+    }
+    byte[] bytes = new byte[length];
+    ByteBuffer dup = buffer.duplicate();
+    dup.position(offset);
+    dup.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  static long readVarLong(ByteBuffer buffer) {
+    long ret = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = buffer.get();
+      ret |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return ret;
+      }
+    }
+    throw new IllegalArgumentException("Malformed varint");
+  }
+
+  /**
+   * Growable output buffer.
+   */
+  private static final class Output {
+
+    private byte[] buf;
+    private int size;
+
+    Output(int capacity) {
+      this.buf = new byte[capacity];
+    }
+
+    void writeByte(int b) {
+      ensureCapacity(1);
+      buf[size++] = (byte) b;
+    }
+
+    void writeVarLong(long value) {
+      ensureCapacity(10);
+      long v = value;
+      while ((v & ~0x7FL) != 0) {
+        buf[size++] = (byte) ((v & 0x7F) | 0x80);
+        v >>>= 7;
+      }
+      buf[size++] = (byte) v;
+    }
+
+    void writeBytes(byte[] bytes) {
+      writeVarLong(bytes.length);
+      write(bytes, 0, bytes.length);
+    }
+
+    void write(byte[] bytes, int offset, int length) {
+      ensureCapacity(length);
+      System.arraycopy(bytes, offset, buf, size, length);
+      size += length;
+    }
+
+    byte[] toByteArray() {
+      return size == buf.length ? buf : Arrays.copyOf(buf, size);
+    }
+
+    private void ensureCapacity(int length) {
+      if (size + length > buf.length) {
+        buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + length));
+      }
+    }
+
+  }
+
+}
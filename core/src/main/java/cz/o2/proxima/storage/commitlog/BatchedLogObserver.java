@@ -0,0 +1,59 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.commitlog;
+
+import cz.o2.proxima.annotations.Evolving;
+import cz.o2.proxima.storage.Partition;
+import cz.o2.proxima.storage.StreamElement;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link BulkLogObserver} that receives elements in batches. Each batch
+ * contains elements of single partition in order of the commit log and
+ * has single {@link BulkLogObserver.OffsetCommitter}.
+ *
+ * Readers that are not able to deliver batches call
+ * {@link #onNext(StreamElement, Partition, BulkLogObserver.OffsetCommitter)},
+ * which passes the element as a batch of single element.
+ */
+@Evolving
+public interface BatchedLogObserver extends BulkLogObserver {
+
+  /**
+   * Process next batch of records in the commit log.
+   * @param elements the ingested data written to the commit log
+   * @param partition the source partition of the elements
+   * @param committer a callback that the application *might* use to commit
+   * the batch. When committed, all elements of the batch and all elements
+   * preceding the batch are considered as committed.
+   * @return {@code true} if the processing should continue, {@code false} otherwise
+   */
+  boolean onNextBatch(
+      List<StreamElement> elements,
+      Partition partition,
+      OffsetCommitter committer);
+
+  @Override
+  default boolean onNext(
+      StreamElement ingest,
+      Partition partition,
+      OffsetCommitter committer) {
+
+    return onNextBatch(Collections.singletonList(ingest), partition, committer);
+  }
+
+}
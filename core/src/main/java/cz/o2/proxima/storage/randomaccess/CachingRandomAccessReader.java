@@ -0,0 +1,356 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.randomaccess;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import cz.o2.proxima.annotations.Evolving;
+import cz.o2.proxima.functional.Consumer;
+import cz.o2.proxima.metrics.AbsoluteMetric;
+import cz.o2.proxima.metrics.Metric;
+import cz.o2.proxima.metrics.MetricsRegistry;
+import cz.o2.proxima.repository.AttributeDescriptor;
+import cz.o2.proxima.repository.EntityDescriptor;
+import cz.o2.proxima.util.Pair;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import lombok.Getter;
+import lombok.Value;
+
+/**
+ * A {@link RandomAccessReader} caching results of point reads of another
+ * reader. The cache is bounded by number of entries, entries expire after
+ * configured time and missing (key, attribute) pairs are cached as well.
+ * Scans are always passed to the wrapped reader.
+ *
+ * The cache serves reads with timestamp not older than timestamp of the read
+ * that populated the cache entry, other reads go to the wrapped reader.
+ * Writes are not observed by the reader, entries of updated (key, attribute)
+ * pairs must be removed by {@link #invalidate}.
+ */
+@Evolving
+public class CachingRandomAccessReader implements RandomAccessReader {
+
+  /**
+   * Maximal number of cached entries. Caching is enabled for random access
+   * reader of attribute family if this is present in config of the family.
+   */
+  public static final String MAX_ENTRIES_CFG = "random-access-cache.max-entries";
+
+  /**
+   * Time in milliseconds after which cached entries expire. Defaults to one minute.
+   */
+  public static final String TTL_CFG = "random-access-cache.ttl-ms";
+
+  /**
+   * Time in milliseconds after which cached missing entries expire.
+   * Defaults to the value of {@link #TTL_CFG}, zero disables negative caching.
+   */
+  public static final String NEGATIVE_TTL_CFG = "random-access-cache.negative-ttl-ms";
+
+  /** Group of the metrics of all caches. */
+  public static final String METRICS_GROUP = "cz.o2.proxima.randomaccess.cache";
+
+  private static final long DEFAULT_TTL_MS = 60_000L;
+
+  /**
+   * Check if caching is enabled by config of attribute family.
+   * @param cfg configuration of the family
+   * @return {@code true} if reader of the family should be cached
+   */
+  public static boolean isEnabled(Map<String, Object> cfg) {
+    return cfg.containsKey(MAX_ENTRIES_CFG);
+  }
+
+  /**
+   * Wrap given reader with cache configured by settings of attribute family.
+   * @param name name of the cache (used as name of metrics)
+   * @param reader the reader to wrap
+   * @param cfg configuration of the family
+   * @return the caching reader
+   */
+  public static CachingRandomAccessReader of(
+      String name, RandomAccessReader reader, Map<String, Object> cfg) {
+
+    long maxEntries = Long.valueOf(cfg.get(MAX_ENTRIES_CFG).toString());
+    long ttl = Optional.ofNullable(cfg.get(TTL_CFG))
+        .map(v -> Long.valueOf(v.toString()))
+        .orElse(DEFAULT_TTL_MS);
+    long negativeTtl = Optional.ofNullable(cfg.get(NEGATIVE_TTL_CFG))
+        .map(v -> Long.valueOf(v.toString()))
+        .orElse(ttl);
+    return new CachingRandomAccessReader(name, reader, maxEntries, ttl, negativeTtl);
+  }
+
+  @Value
+  private static class CacheKey implements Serializable {
+    String key;
+    String attribute;
+  }
+
+  @Value
+  private static class Cached {
+    /** The cached value, {@code null} for missing value. */
+    @Nullable
+    KeyValue<?> value;
+    /** Timestamp of the read that populated the entry. */
+    long stamp;
+    /** Time of creation of the entry. */
+    long created;
+  }
+
+  private final String name;
+  private final RandomAccessReader reader;
+  private final long maxEntries;
+  private final long ttlMs;
+  private final long negativeTtlMs;
+
+  @Getter
+  private final Metric<Double> hits;
+
+  @Getter
+  private final Metric<Double> misses;
+
+  @Getter
+  private final Metric<Double> evictions;
+
+  @Nullable
+  private transient Cache<CacheKey, Cached> cache;
+
+  public CachingRandomAccessReader(
+      String name, RandomAccessReader reader,
+      long maxEntries, long ttlMs, long negativeTtlMs) {
+
+    this.name = name;
+    this.reader = reader;
+    this.maxEntries = maxEntries;
+    this.ttlMs = ttlMs;
+    this.negativeTtlMs = negativeTtlMs;
+    this.hits = AbsoluteMetric.of(METRICS_GROUP, name + "-hits");
+    this.misses = AbsoluteMetric.of(METRICS_GROUP, name + "-misses");
+    this.evictions = AbsoluteMetric.of(METRICS_GROUP, name + "-evictions");
+  }
+
+  private Cache<CacheKey, Cached> cache() {
+    if (cache == null) {
+      synchronized (this) {
+        if (cache == null) {
+          CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+              .maximumSize(maxEntries);
+          if (ttlMs > 0) {
+            builder.expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS);
+          }
+          cache = builder
+              .removalListener((RemovalNotification<Object, Object> n) -> {
+                if (n.wasEvicted()) {
+                  evictions.increment();
+                }
+              })
+              .build();
+          MetricsRegistry.register(hits, misses, evictions);
+        }
+      }
+    }
+    return cache;
+  }
+
+  /**
+   * Remove cached value of given (key, attribute) pair.
+   * @param key key of the entity
+   * @param attribute name of the attribute
+   */
+  public void invalidate(String key, String attribute) {
+    cache().invalidate(new CacheKey(key, attribute));
+  }
+
+  /**
+   * Remove cached values of all attributes of given key with given prefix.
+   * @param key key of the entity
+   * @param prefix prefix of the attributes
+   */
+  public void invalidatePrefix(String key, String prefix) {
+    cache().asMap().keySet().removeIf(
+        k -> k.getKey().equals(key) && k.getAttribute().startsWith(prefix));
+  }
+
+  /**
+   * Retrieve the wrapped reader.
+   * @return the wrapped reader
+   */
+  public RandomAccessReader getReader() {
+    return reader;
+  }
+
+  @Nullable
+  private Cached lookup(String key, String attribute, long stamp) {
+    CacheKey cacheKey = new CacheKey(key, attribute);
+    Cached cached = cache().getIfPresent(cacheKey);
+    if (cached == null || stamp < cached.getStamp()) {
+      return null;
+    }
+    if (cached.getValue() == null
+        && System.currentTimeMillis() - cached.getCreated() >= negativeTtlMs) {
+      cache().invalidate(cacheKey);
+      return null;
+    }
+    return cached;
+  }
+
+  private void store(
+      String key, String attribute, long stamp, @Nullable KeyValue<?> value) {
+
+    if (value == null && negativeTtlMs <= 0) {
+      return;
+    }
+    Cached cached = new Cached(value, stamp, System.currentTimeMillis());
+    // do not replace entry of more recent read
+    cache().asMap().merge(
+        new CacheKey(key, attribute), cached,
+        (old, update) -> old.getStamp() > update.getStamp() ? old : update);
+  }
+
+  @Override
+  public RandomOffset fetchOffset(Listing type, String key) {
+    return reader.fetchOffset(type, key);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T> Optional<KeyValue<T>> get(
+      String key, String attribute, AttributeDescriptor<T> desc, long stamp) {
+
+    Cached cached = lookup(key, attribute, stamp);
+    if (cached != null) {
+      hits.increment();
+      return Optional.ofNullable((KeyValue<T>) cached.getValue());
+    }
+    misses.increment();
+    Optional<KeyValue<T>> ret = reader.get(key, attribute, desc, stamp);
+    store(key, attribute, stamp, ret.orElse(null));
+    return ret;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T> CompletableFuture<Optional<KeyValue<T>>> getAsync(
+      String key, String attribute, AttributeDescriptor<T> desc, long stamp) {
+
+    Cached cached = lookup(key, attribute, stamp);
+    if (cached != null) {
+      hits.increment();
+      return CompletableFuture.completedFuture(
+          Optional.ofNullable((KeyValue<T>) cached.getValue()));
+    }
+    misses.increment();
+    return reader.getAsync(key, attribute, desc, stamp)
+        .thenApply(ret -> {
+          store(key, attribute, stamp, ret.orElse(null));
+          return ret;
+        });
+  }
+
+  @Override
+  public List<Optional<KeyValue<?>>> multiGet(
+      List<KeyAttribute> requests, long stamp) {
+
+    List<Optional<KeyValue<?>>> ret = new ArrayList<>(requests.size());
+    List<Integer> missing = new ArrayList<>();
+    for (KeyAttribute request : requests) {
+      Cached cached = lookup(request.getKey(), request.getAttribute(), stamp);
+      if (cached != null) {
+        hits.increment();
+        ret.add(Optional.ofNullable(cached.getValue()));
+      } else {
+        misses.increment();
+        missing.add(ret.size());
+        ret.add(Optional.empty());
+      }
+    }
+    if (!missing.isEmpty()) {
+      List<KeyAttribute> toRead = new ArrayList<>(missing.size());
+      missing.forEach(i -> toRead.add(requests.get(i)));
+      List<Optional<KeyValue<?>>> read = reader.multiGet(toRead, stamp);
+      for (int i = 0; i < missing.size(); i++) {
+        KeyAttribute request = toRead.get(i);
+        store(
+            request.getKey(), request.getAttribute(), stamp,
+            read.get(i).orElse(null));
+        ret.set(missing.get(i), read.get(i));
+      }
+    }
+    return ret;
+  }
+
+  @Override
+  public void scanWildcardAll(
+      String key, @Nullable RandomOffset offset, long stamp, int limit,
+      Consumer<KeyValue<?>> consumer) {
+
+    reader.scanWildcardAll(key, offset, stamp, limit, consumer);
+  }
+
+  @Override
+  public <T> void scanWildcard(
+      String key, AttributeDescriptor<T> wildcard,
+      @Nullable RandomOffset offset, long stamp, int limit,
+      Consumer<KeyValue<T>> consumer) {
+
+    reader.scanWildcard(key, wildcard, offset, stamp, limit, consumer);
+  }
+
+  @Override
+  public <T> CompletableFuture<List<KeyValue<T>>> scanWildcardAsync(
+      String key, AttributeDescriptor<T> wildcard,
+      @Nullable RandomOffset offset, long stamp, int limit) {
+
+    return reader.scanWildcardAsync(key, wildcard, offset, stamp, limit);
+  }
+
+  @Override
+  public void listEntities(
+      @Nullable RandomOffset offset, int limit,
+      Consumer<Pair<RandomOffset, String>> consumer) {
+
+    reader.listEntities(offset, limit, consumer);
+  }
+
+  @Override
+  public EntityDescriptor getEntityDescriptor() {
+    return reader.getEntityDescriptor();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (cache != null) {
+      cache.invalidateAll();
+    }
+    reader.close();
+  }
+
+  @Override
+  public String toString() {
+    return "CachingRandomAccessReader(" + name + ", " + reader + ")";
+  }
+
+}
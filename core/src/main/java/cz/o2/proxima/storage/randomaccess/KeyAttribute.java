@@ -0,0 +1,62 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.randomaccess;
+
+import cz.o2.proxima.annotations.Evolving;
+import cz.o2.proxima.repository.AttributeDescriptor;
+import java.io.Serializable;
+import lombok.Value;
+
+/**
+ * A (key, attribute) pair to be read by {@link RandomAccessReader#multiGet}.
+ */
+@Evolving
+@Value
+public class KeyAttribute implements Serializable {
+
+  /**
+   * Create request to read non-wildcard attribute of given key.
+   * @param key key of the entity
+   * @param desc the attribute (not wildcard)
+   * @return the (key, attribute) pair
+   */
+  public static KeyAttribute of(String key, AttributeDescriptor<?> desc) {
+    return new KeyAttribute(key, desc.getName(), desc);
+  }
+
+  /**
+   * Create request to read attribute of given key.
+   * @param key key of the entity
+   * @param attribute name of the attribute
+   * @param desc descriptor of the attribute
+   * @return the (key, attribute) pair
+   */
+  public static KeyAttribute of(
+      String key, String attribute, AttributeDescriptor<?> desc) {
+
+    return new KeyAttribute(key, attribute, desc);
+  }
+
+  /** Key of the entity. */
+  String key;
+
+  /** Name of the attribute. */
+  String attribute;
+
+  /** Descriptor of the attribute. */
+  AttributeDescriptor<?> attributeDescriptor;
+
+}
@@ -25,13 +25,20 @@ import cz.o2.proxima.util.Pair;
 import cz.seznam.euphoria.core.util.ExceptionUtils;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import lombok.extern.slf4j.Slf4j;
@@ -51,23 +58,105 @@ public class MultiAccessBuilder implements Serializable {
       this.offsetMap = offsetMap;
     }
 
-    SequentialOffset(SequentialOffset copy) {
-      this.offsetMap = new HashMap<>(copy.offsetMap);
+  }
+
+  /**
+   * Offsets of underlying readers of elements emitted by single scan.
+   * Offset of each emitted element is resolved to {@link SequentialOffset}
+   * only when needed, so that the offsets of all readers need not be
+   * copied for each element.
+   */
+  private static class ScanLog {
+
+    private final List<RandomAccessReader> readers;
+    private final RandomOffset[] initial;
+    private int[] emittedBy = new int[16];
+    private RandomOffset[] offsets = new RandomOffset[16];
+    private int size = 0;
+
+    ScanLog(List<RandomAccessReader> readers, RandomOffset[] initial) {
+      this.readers = readers;
+      this.initial = initial;
+    }
+
+    /**
+     * Record next emitted element.
+     * @param reader index of the reader that read the element
+     * @param offset offset of the element in the reader
+     * @return offset of the element in the compound reader
+     */
+    synchronized RandomOffset append(int reader, RandomOffset offset) {
+      if (size == offsets.length) {
+        emittedBy = Arrays.copyOf(emittedBy, 2 * size);
+        offsets = Arrays.copyOf(offsets, 2 * size);
+      }
+      emittedBy[size] = reader;
+      offsets[size] = offset;
+      return new ScanOffset(this, size++);
+    }
+
+    synchronized SequentialOffset resolve(int position) {
+      RandomOffset[] resolved = new RandomOffset[initial.length];
+      boolean[] found = new boolean[initial.length];
+      int missing = initial.length;
+      for (int i = position; i >= 0 && missing > 0; i--) {
+        if (!found[emittedBy[i]]) {
+          found[emittedBy[i]] = true;
+          resolved[emittedBy[i]] = offsets[i];
+          missing--;
+        }
+      }
+      Map<RandomAccessReader, RandomOffset> offsetMap = new HashMap<>();
+      for (int i = 0; i < initial.length; i++) {
+        offsetMap.put(readers.get(i), found[i] ? resolved[i] : initial[i]);
+      }
+      return new SequentialOffset(offsetMap);
+    }
+
+  }
+
+  private static class ScanOffset implements RandomOffset {
+
+    private final transient ScanLog log;
+    private final int position;
+
+    ScanOffset(ScanLog log, int position) {
+      this.log = log;
+      this.position = position;
+    }
+
+    SequentialOffset resolve() {
+      return log.resolve(position);
     }
 
-    SequentialOffset update(RandomAccessReader reader, RandomOffset offset) {
-      offsetMap.put(reader, offset);
-      return this;
+    private Object writeReplace() {
+      return resolve();
     }
 
   }
 
   private final Map<AttributeDescriptor<?>, RandomAccessReader> attrMap;
 
+  @Nullable
+  private transient Executor executor;
+
   MultiAccessBuilder() {
     this.attrMap = new HashMap<>();
   }
 
+  /**
+   * Query the underlying readers concurrently in
+   * {@link RandomAccessReader#scanWildcardAll} using given executor.
+   * Results of the readers are then merged in order of attributes.
+   * By default, the readers are queried one after another.
+   * @param executor executor to run the queries in
+   * @return this
+   */
+  public MultiAccessBuilder parallel(Executor executor) {
+    this.executor = Objects.requireNonNull(executor);
+    return this;
+  }
+
   /**
    * Add specified attributes to be read with given reader.
    * @param reader the reader to use to read attributes
@@ -106,9 +195,17 @@ public class MultiAccessBuilder implements Serializable {
   public RandomAccessReader build() {
 
     final EntityDescriptor entity = getSingleEntityOrNull(attrMap);
+    final List<RandomAccessReader> readers = attrMap.values()
+        .stream()
+        .distinct()
+        .collect(Collectors.toList());
 
     return new RandomAccessReader() {
 
+      /** Executor of parallel scans, scans are sequential when deserialized. */
+      @Nullable
+      private final transient Executor scanExecutor = executor;
+
       @Override
       public RandomOffset fetchOffset(
           RandomAccessReader.Listing type, String key) {
@@ -117,9 +214,8 @@ public class MultiAccessBuilder implements Serializable {
           throw new UnsupportedOperationException(
               "Please use specific attribute family to scan entities.");
         }
-        Map<RandomAccessReader, RandomOffset> offsets = attrMap.values()
+        Map<RandomAccessReader, RandomOffset> offsets = readers
             .stream()
-            .distinct()
             .map(ra -> Pair.of(ra, ra.fetchOffset(type, key)))
             .collect(Collectors.toMap(Pair::getFirst, Pair::getSecond));
         return new SequentialOffset(offsets);
@@ -137,36 +233,140 @@ public class MultiAccessBuilder implements Serializable {
             });
       }
 
-      @SuppressWarnings("unchecked")
+      @Override
+      public <T> CompletableFuture<Optional<KeyValue<T>>> getAsync(
+          String key, String attribute, AttributeDescriptor<T> desc, long stamp) {
+
+        return Optional.ofNullable(attrMap.get(desc))
+            .map(ra -> ra.getAsync(key, attribute, desc, stamp))
+            .orElseGet(() -> {
+              log.warn("Missing family for attribute {} in MultiAccessBuilder", desc);
+              return CompletableFuture.completedFuture(Optional.empty());
+            });
+      }
+
+      @Override
+      public List<Optional<KeyValue<?>>> multiGet(
+          List<KeyAttribute> requests, long stamp) {
+
+        // split the requests by readers and keep positions of the requests
+        Map<RandomAccessReader, List<Integer>> positions = new HashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+          RandomAccessReader ra = attrMap.get(
+              requests.get(i).getAttributeDescriptor());
+          if (ra == null) {
+            log.warn(
+                "Missing family for attribute {} in MultiAccessBuilder",
+                requests.get(i).getAttributeDescriptor());
+          } else {
+            positions.computeIfAbsent(ra, k -> new ArrayList<>()).add(i);
+          }
+        }
+        List<Optional<KeyValue<?>>> ret = new ArrayList<>(
+            Collections.nCopies(requests.size(), Optional.empty()));
+        positions.forEach((ra, indices) -> {
+          List<Optional<KeyValue<?>>> result = ra.multiGet(
+              indices.stream().map(requests::get).collect(Collectors.toList()),
+              stamp);
+          for (int i = 0; i < indices.size(); i++) {
+            ret.set(indices.get(i), result.get(i));
+          }
+        });
+        return ret;
+      }
+
       @Override
       public void scanWildcardAll(
-          String key, RandomOffset offset, long stamp, int limit,
+          String key, @Nullable RandomOffset offset, long stamp, int limit,
           Consumer<KeyValue<?>> consumer) {
 
-        AtomicInteger missing = new AtomicInteger(limit);
-        SequentialOffset soff = (SequentialOffset) offset;
-        final AtomicReference<SequentialOffset> current = new AtomicReference<>();
-        if (soff != null) {
-          current.set(new SequentialOffset(soff));
+        ScanLog scanLog = new ScanLog(readers, initialOffsets(offset));
+        if (scanExecutor == null || readers.size() < 2) {
+          scanSequential(key, scanLog, stamp, limit, consumer);
         } else {
-          Map<RandomAccessReader, RandomOffset> m = new HashMap<>();
-          attrMap.values()
-              .stream()
-              .distinct()
-              .forEach(ra -> m.put(ra, null));
-          current.set(new SequentialOffset(m));
+          scanParallel(key, scanLog, stamp, limit, consumer);
+        }
+      }
+
+      private RandomOffset[] initialOffsets(@Nullable RandomOffset offset) {
+        RandomOffset[] ret = new RandomOffset[readers.size()];
+        if (offset != null) {
+          SequentialOffset soff = offset instanceof ScanOffset
+              ? ((ScanOffset) offset).resolve()
+              : (SequentialOffset) offset;
+          for (int i = 0; i < ret.length; i++) {
+            ret[i] = soff.offsetMap.get(readers.get(i));
+          }
+        }
+        return ret;
+      }
+
+      private void scanSequential(
+          String key, ScanLog scanLog, long stamp, int limit,
+          Consumer<KeyValue<?>> consumer) {
+
+        AtomicInteger missing = new AtomicInteger(limit);
+        for (int i = 0; i < readers.size(); i++) {
+          if (limit > 0 && missing.get() <= 0) {
+            return;
+          }
+          final int reader = i;
+          readers.get(i).scanWildcardAll(
+              key, scanLog.initial[i], stamp, limit > 0 ? missing.get() : limit,
+              kv -> {
+                missing.decrementAndGet();
+                consumer.accept(withOffset(
+                    kv, scanLog.append(reader, kv.getOffset())));
+              });
+        }
+      }
+
+      private void scanParallel(
+          String key, ScanLog scanLog, long stamp, int limit,
+          Consumer<KeyValue<?>> consumer) {
+
+        List<CompletableFuture<List<KeyValue<?>>>> futures = new ArrayList<>();
+        for (int i = 0; i < readers.size(); i++) {
+          RandomAccessReader reader = readers.get(i);
+          RandomOffset readerOffset = scanLog.initial[i];
+          futures.add(CompletableFuture.supplyAsync(() -> {
+            List<KeyValue<?>> ret = new ArrayList<>();
+            reader.scanWildcardAll(key, readerOffset, stamp, limit, ret::add);
+            // readers are not required to return attributes sorted
+            ret.sort(Comparator.comparing(KeyValue::getAttribute));
+            return ret;
+          }, scanExecutor));
+        }
+        List<List<KeyValue<?>>> results = new ArrayList<>(futures.size());
+        try {
+          for (CompletableFuture<List<KeyValue<?>>> f : futures) {
+            results.add(f.join());
+          }
+        } catch (CompletionException ex) {
+          if (ex.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) ex.getCause();
+          }
+          throw ex;
+        }
+        // merge results of all readers in order of attributes
+        int[] positions = new int[results.size()];
+        int emitted = 0;
+        while (limit <= 0 || emitted < limit) {
+          int next = -1;
+          for (int i = 0; i < results.size(); i++) {
+            if (positions[i] < results.get(i).size() && (next < 0
+                || results.get(i).get(positions[i]).getAttribute().compareTo(
+                    results.get(next).get(positions[next]).getAttribute()) < 0)) {
+              next = i;
+            }
+          }
+          if (next < 0) {
+            break;
+          }
+          KeyValue<?> kv = results.get(next).get(positions[next]++);
+          consumer.accept(withOffset(kv, scanLog.append(next, kv.getOffset())));
+          emitted++;
         }
-        current.get().offsetMap.entrySet().forEach(e ->
-            e.getKey().scanWildcardAll(key, e.getValue(), stamp, missing.get(), kv -> {
-              missing.decrementAndGet();
-              current.set(new SequentialOffset(current.get())
-                  .update(e.getKey(), kv.getOffset()));
-              KeyValue mapped = KeyValue.of(
-                  kv.getEntityDescriptor(), (AttributeDescriptor) kv.getAttrDescriptor(),
-                  kv.getKey(), kv.getAttribute(),
-                  current.get(), kv.getValue(), kv.getValueBytes(), kv.getStamp());
-              consumer.accept(mapped);
-            }));
       }
 
       @Override
@@ -179,6 +379,17 @@ public class MultiAccessBuilder implements Serializable {
                 key, wildcard, offset, stamp, limit, consumer));
       }
 
+      @Override
+      public <T> CompletableFuture<List<KeyValue<T>>> scanWildcardAsync(
+          String key, AttributeDescriptor<T> wildcard,
+          RandomOffset offset, long stamp, int limit) {
+
+        return Optional.ofNullable(attrMap.get(wildcard))
+            .map(ra -> ra.scanWildcardAsync(key, wildcard, offset, stamp, limit))
+            .orElseGet(() -> CompletableFuture.completedFuture(
+                Collections.emptyList()));
+      }
+
       @Override
       public void listEntities(
           RandomOffset offset, int limit, Consumer<Pair<RandomOffset, String>> consumer) {
@@ -206,6 +417,14 @@ public class MultiAccessBuilder implements Serializable {
     };
   }
 
+  @SuppressWarnings("unchecked")
+  private static KeyValue<?> withOffset(KeyValue<?> kv, RandomOffset offset) {
+    return KeyValue.of(
+        kv.getEntityDescriptor(), (AttributeDescriptor) kv.getAttrDescriptor(),
+        kv.getKey(), kv.getAttribute(),
+        offset, kv.getValue(), kv.getValueBytes(), kv.getStamp());
+  }
+
   private @Nullable EntityDescriptor getSingleEntityOrNull(
       Map<AttributeDescriptor<?>, RandomAccessReader> attrMap) {
 
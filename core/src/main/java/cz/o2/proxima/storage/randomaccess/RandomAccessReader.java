@@ -22,7 +22,10 @@ import cz.o2.proxima.repository.EntityDescriptor;
 import cz.o2.proxima.util.Pair;
 import java.io.Closeable;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import javax.annotation.Nullable;
 
 /**
@@ -122,6 +125,79 @@ public interface RandomAccessReader extends Closeable, Serializable {
       AttributeDescriptor<T> desc,
       long stamp);
 
+  /**
+   * Asynchronously retrieve data stored under given (key, attribute) pair.
+   * @param <T> value type
+   * @param key key of the entity
+   * @param desc the attribute to search for (not wildcard)
+   * @return future completed with optional {@link KeyValue}
+   */
+  default <T> CompletableFuture<Optional<KeyValue<T>>> getAsync(
+      String key,
+      AttributeDescriptor<T> desc) {
+
+    return getAsync(key, desc.getName(), desc, System.currentTimeMillis());
+  }
+
+  /**
+   * Asynchronously retrieve data stored under given (key, attribute) pair.
+   * Default implementation calls {@link #get} in the calling thread
+   * and returns completed future, readers with non-blocking clients
+   * should override it.
+   * @param <T> value type
+   * @param key key of the entity
+   * @param attribute name of the attribute
+   * @param desc the attribute to search for
+   * @param stamp timestamp to relatively to which retrieve the data
+   * @return future completed with optional {@link KeyValue}
+   */
+  default <T> CompletableFuture<Optional<KeyValue<T>>> getAsync(
+      String key,
+      String attribute,
+      AttributeDescriptor<T> desc,
+      long stamp) {
+
+    CompletableFuture<Optional<KeyValue<T>>> ret = new CompletableFuture<>();
+    try {
+      ret.complete(get(key, attribute, desc, stamp));
+    } catch (Exception ex) {
+      ret.completeExceptionally(ex);
+    }
+    return ret;
+  }
+
+  /**
+   * Retrieve data stored under given (key, attribute) pairs in single batch.
+   * @param requests the (key, attribute) pairs to read
+   * @return list of optional {@link KeyValue}s, i-th element of which
+   *         corresponds to i-th element of {@code requests}
+   */
+  default List<Optional<KeyValue<?>>> multiGet(List<KeyAttribute> requests) {
+    return multiGet(requests, System.currentTimeMillis());
+  }
+
+  /**
+   * Retrieve data stored under given (key, attribute) pairs in single batch.
+   * Default implementation calls {@link #get} for each pair, readers
+   * that are able to process the batch more efficiently should override it.
+   * @param requests the (key, attribute) pairs to read
+   * @param stamp timestamp to relatively to which retrieve the data
+   * @return list of optional {@link KeyValue}s, i-th element of which
+   *         corresponds to i-th element of {@code requests}
+   */
+  default List<Optional<KeyValue<?>>> multiGet(
+      List<KeyAttribute> requests,
+      long stamp) {
+
+    List<Optional<KeyValue<?>>> ret = new ArrayList<>(requests.size());
+    for (KeyAttribute request : requests) {
+      ret.add(get(
+          request.getKey(), request.getAttribute(),
+          request.getAttributeDescriptor(), stamp).map(kv -> kv));
+    }
+    return ret;
+  }
+
   /**
    * Scan all data stored per given key.
    * @param key the key whose {@link KeyValue}s to scan
@@ -250,6 +326,37 @@ public interface RandomAccessReader extends Closeable, Serializable {
       int limit,
       Consumer<KeyValue<T>> consumer);
 
+  /**
+   * Asynchronously list data stored for a particular wildcard attribute.
+   * Default implementation calls {@link #scanWildcard} in the calling thread
+   * and returns completed future, readers with non-blocking clients
+   * should override it.
+   * @param <T> value type
+   * @param key key of the entity
+   * @param wildcard wildcard attribute to scan
+   * @param offset name of attribute (including the prefix) to start from
+   * @param stamp timestamp to relatively to which retrieve the data
+   * @param limit maximal number of items to return
+   * @return future completed with scanned {@link KeyValue}s
+   */
+  default <T> CompletableFuture<List<KeyValue<T>>> scanWildcardAsync(
+      String key,
+      AttributeDescriptor<T> wildcard,
+      @Nullable RandomOffset offset,
+      long stamp,
+      int limit) {
+
+    CompletableFuture<List<KeyValue<T>>> ret = new CompletableFuture<>();
+    try {
+      List<KeyValue<T>> result = new ArrayList<>();
+      scanWildcard(key, wildcard, offset, stamp, limit, result::add);
+      ret.complete(result);
+    } catch (Exception ex) {
+      ret.completeExceptionally(ex);
+    }
+    return ret;
+  }
+
   /**
    * List all entity keys.
    * @param consumer consumer that will receive keys of entities in the
@@ -15,6 +15,8 @@
  */
 package cz.o2.proxima.view;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
 import cz.o2.proxima.functional.BiConsumer;
 import cz.o2.proxima.functional.Consumer;
 import cz.o2.proxima.repository.AttributeDescriptor;
@@ -28,22 +30,41 @@ import cz.o2.proxima.storage.commitlog.CommitLogReader;
 import cz.o2.proxima.storage.commitlog.ObserveHandle;
 import cz.o2.proxima.storage.commitlog.Offset;
 import cz.o2.proxima.storage.commitlog.Position;
+import cz.o2.proxima.storage.randomaccess.KeyAttribute;
 import cz.o2.proxima.storage.randomaccess.KeyValue;
+import cz.o2.proxima.storage.randomaccess.RandomAccessReader;
 import cz.o2.proxima.storage.randomaccess.RandomOffset;
 import cz.o2.proxima.storage.randomaccess.RawOffset;
 import cz.o2.proxima.util.Pair;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -52,6 +73,65 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class LocalCachedPartitionedView implements PartitionedCachedView {
 
+  /**
+   * Maximal (estimated) size of the cached data in bytes. When exceeded, least
+   * recently used keys are evicted from the cache. Unbounded if not set.
+   */
+  public static final String MAX_BYTES_CFG = "cache.max-bytes";
+
+  /**
+   * When {@code true} the cached values are stored serialized outside of java
+   * heap and are deserialized on each access.
+   */
+  public static final String OFF_HEAP_CFG = "cache.off-heap";
+
+  /**
+   * Directory to periodically store snapshots of the cache to. When set,
+   * the view restores its state from the snapshot on {@link #assign} and
+   * continues reading the commit log from offsets stored in the snapshot.
+   */
+  public static final String SNAPSHOT_DIR_CFG = "cache.snapshot.dir";
+
+  /**
+   * Interval of snapshots in milliseconds. Defaults to five minutes.
+   */
+  public static final String SNAPSHOT_INTERVAL_CFG = "cache.snapshot.interval-ms";
+
+  /**
+   * Number of groups of partitions prefetched concurrently, each group
+   * is read by its own consumer. Defaults to one.
+   */
+  public static final String PREFETCH_PARALLELISM_CFG = "cache.prefetch.parallelism";
+
+  /**
+   * Number of threads deserializing and caching prefetched data. When
+   * greater than one, deserialization runs outside of the consumer threads.
+   * Defaults to one, which deserializes in the consumer thread.
+   */
+  public static final String PREFETCH_THREADS_CFG = "cache.prefetch.threads";
+
+  /**
+   * Maximal number of prefetched elements waiting for deserialization
+   * in each thread.
+   */
+  private static final int PREFETCH_QUEUE_SIZE = 1024;
+
+  /**
+   * Interval of logging progress of prefetch in milliseconds.
+   */
+  private static final long PREFETCH_PROGRESS_INTERVAL_MS = 10_000L;
+
+  /**
+   * Version of the format of the snapshot.
+   */
+  private static final int SNAPSHOT_VERSION = 2;
+
+  /**
+   * Maximal number of attempts to read off heap value of version
+   * replaced concurrently with writing of snapshot.
+   */
+  private static final int MAX_SNAPSHOT_READ_ATTEMPTS = 10;
+
   private final CommitLogReader reader;
   private final EntityDescriptor entity;
 
@@ -65,6 +145,61 @@ public class LocalCachedPartitionedView implements PartitionedCachedView {
    */
   private final TimeBoundedVersionedCache cache;
 
+  /**
+   * Maximal size of the cache in bytes, non-positive means unbounded.
+   */
+  private final long maxCacheBytes;
+
+  /**
+   * Store values serialized in direct buffers.
+   */
+  @Getter
+  private final boolean offHeap;
+
+  /**
+   * Direct memory holding serialized values when off heap.
+   */
+  @Nullable
+  private final OffHeapArena arena;
+
+  /**
+   * Reader to use for keys that were evicted from the cache.
+   */
+  @Nullable
+  private volatile RandomAccessReader fallbackReader;
+
+  /**
+   * Directory to store snapshots to, {@code null} to disable snapshots.
+   */
+  @Nullable
+  private File snapshotDir;
+
+  /**
+   * Interval of snapshots in milliseconds.
+   */
+  private long snapshotIntervalMs = 300_000L;
+
+  /**
+   * Executor of periodic snapshots.
+   */
+  @Nullable
+  private transient ScheduledExecutorService snapshotter;
+
+  /**
+   * Number of groups of partitions prefetched concurrently.
+   */
+  private int prefetchParallelism = 1;
+
+  /**
+   * Number of threads deserializing prefetched data.
+   */
+  private int prefetchThreads = 1;
+
+  /**
+   * Partitions assigned to this view.
+   */
+  private Collection<Partition> assignedPartitions = Collections.emptyList();
+
   /**
    * Handle of the observation thread (if any running).
    */
@@ -82,18 +217,121 @@ public class LocalCachedPartitionedView implements PartitionedCachedView {
       EntityDescriptor entity, CommitLogReader reader, OnlineAttributeWriter writer,
       long keepCachedDuration) {
 
-    this.cache = new TimeBoundedVersionedCache(keepCachedDuration);
+    this(entity, reader, writer, keepCachedDuration, -1L, false);
+  }
+
+  /**
+   * Create the view configured by settings of the attribute family.
+   * @param entity the entity
+   * @param reader commit log to cache
+   * @param writer writer to persist data to
+   * @param cfg configuration of the attribute family
+   * @see #MAX_BYTES_CFG
+   * @see #OFF_HEAP_CFG
+   * @see #SNAPSHOT_DIR_CFG
+   * @see #SNAPSHOT_INTERVAL_CFG
+   * @see #PREFETCH_PARALLELISM_CFG
+   * @see #PREFETCH_THREADS_CFG
+   */
+  public LocalCachedPartitionedView(
+      EntityDescriptor entity, CommitLogReader reader, OnlineAttributeWriter writer,
+      Map<String, Object> cfg) {
+
+    this(
+        entity, reader, writer, 60_000L,
+        Optional.ofNullable(cfg.get(MAX_BYTES_CFG))
+            .map(v -> Long.valueOf(v.toString()))
+            .orElse(-1L),
+        Optional.ofNullable(cfg.get(OFF_HEAP_CFG))
+            .map(v -> Boolean.valueOf(v.toString()))
+            .orElse(false));
+
+    setSnapshotDir(
+        Optional.ofNullable(cfg.get(SNAPSHOT_DIR_CFG))
+            .map(v -> new File(v.toString()))
+            .orElse(null),
+        Optional.ofNullable(cfg.get(SNAPSHOT_INTERVAL_CFG))
+            .map(v -> Long.valueOf(v.toString()))
+            .orElse(snapshotIntervalMs));
+
+    setPrefetchParallelism(
+        Optional.ofNullable(cfg.get(PREFETCH_PARALLELISM_CFG))
+            .map(v -> Integer.valueOf(v.toString()))
+            .orElse(prefetchParallelism),
+        Optional.ofNullable(cfg.get(PREFETCH_THREADS_CFG))
+            .map(v -> Integer.valueOf(v.toString()))
+            .orElse(prefetchThreads));
+  }
+
+  /**
+   * Create the view.
+   * @param entity the entity
+   * @param reader commit log to cache
+   * @param writer writer to persist data to
+   * @param keepCachedDuration duration in milliseconds to keep old versions of
+   *                           attributes for
+   * @param maxCacheBytes maximal estimated size of the cache in bytes,
+   *                      non-positive value means unbounded
+   * @param offHeap {@code true} to store values serialized outside of java heap
+   */
+  public LocalCachedPartitionedView(
+      EntityDescriptor entity, CommitLogReader reader, OnlineAttributeWriter writer,
+      long keepCachedDuration, long maxCacheBytes, boolean offHeap) {
+
+    OffHeapArena offHeapArena = offHeap ? new OffHeapArena() : null;
+    this.cache = new TimeBoundedVersionedCache(
+        keepCachedDuration, maxCacheBytes,
+        offHeapArena == null ? null : offHeapArena::release);
+    this.maxCacheBytes = maxCacheBytes;
+    this.offHeap = offHeap;
+    this.arena = offHeapArena;
     this.reader = reader;
     this.entity = entity;
     this.writer = writer;
   }
 
+  /**
+   * Check if keys might be evicted from this view.
+   * @return {@code true} if the cache of this view is bounded
+   */
+  public boolean isEvicting() {
+    return maxCacheBytes > 0;
+  }
+
+  /**
+   * Set reader to read data of keys evicted from the cache.
+   * @param fallbackReader the reader to use, {@code null} to read only
+   *                       cached data
+   */
+  public void setFallbackReader(@Nullable RandomAccessReader fallbackReader) {
+    this.fallbackReader = fallbackReader;
+  }
+
+  /**
+   * Enable periodic snapshots of the cache. Takes effect on next
+   * call to {@link #assign}.
+   * @param snapshotDir directory to store snapshots to, {@code null}
+   *                    to disable snapshots
+   * @param snapshotIntervalMs interval of snapshots in milliseconds
+   */
+  public void setSnapshotDir(@Nullable File snapshotDir, long snapshotIntervalMs) {
+    Preconditions.checkArgument(
+        snapshotIntervalMs > 0, "Snapshot interval must be positive");
+    this.snapshotDir = snapshotDir;
+    this.snapshotIntervalMs = snapshotIntervalMs;
+  }
+
   @SuppressWarnings("unchecked")
   protected void onCache(StreamElement ingest, boolean overwrite) {
 
-    final Optional<Object> parsed = ingest.isDelete()
-        ? Optional.empty()
-        : ingest.getParsed();
+    final Optional<Object> parsed;
+    if (ingest.isDelete()) {
+      parsed = Optional.empty();
+    } else if (offHeap) {
+      parsed = Optional.of(arena.allocate(ingest.getValue()));
+    } else {
+      parsed = ingest.getParsed();
+    }
     if (ingest.isDelete() || parsed.isPresent()) {
       final String attrName;
       if (ingest.isDeleteWildcard()) {
@@ -103,11 +341,19 @@ public class LocalCachedPartitionedView implements PartitionedCachedView {
       }
       Pair<Long, Object> oldVal = cache.get(
           ingest.getKey(), attrName, Long.MAX_VALUE);
+      if (offHeap && oldVal != null && oldVal.getSecond() != null) {
+        // decode before the put, which might release the old value
+        oldVal = Pair.of(oldVal.getFirst(), fromOffHeap(
+            ingest.getAttributeDescriptor(), oldVal.getSecond()).orElse(null));
+      }
       boolean updated = cache.put(
           ingest.getKey(), attrName, ingest.getStamp(),
-          overwrite, ingest.isDelete() ? null : parsed.get());
+          overwrite, ingest.isDelete() ? null : parsed.get(),
+          ingest.isDelete() ? 0 : ingest.getValue().length);
       if (updated) {
         updateCallback.accept(ingest, oldVal);
+      } else if (offHeap && !ingest.isDelete()) {
+        arena.release(parsed.get());
       }
     }
   }
@@ -120,88 +366,209 @@ public class LocalCachedPartitionedView implements PartitionedCachedView {
 
     close();
     this.updateCallback = Objects.requireNonNull(updateCallback);
-    CountDownLatch latch = new CountDownLatch(1);
-    AtomicLong prefetchedCount = new AtomicLong();
+    this.assignedPartitions = new ArrayList<>(partitions);
 
-    BulkLogObserver prefetchObserver = new BulkLogObserver() {
+    BulkLogObserver observer = new BulkLogObserver() {
 
       @Override
       public boolean onNext(
           StreamElement ingest,
           Partition partition,
-          OffsetCommitter committer) {
+          OffsetCommitter confirm) {
 
         try {
-          prefetchedCount.incrementAndGet();
           onCache(ingest, false);
-          committer.confirm();
+          confirm.confirm();
           return true;
-        } catch (Throwable ex) {
-          committer.fail(ex);
+        } catch (Throwable err) {
+          confirm.fail(err);
           return false;
         }
       }
 
       @Override
       public boolean onError(Throwable error) {
-        log.error("Failed to prefetch data", error);
+        log.error("Error in caching data. Restarting consumption", error);
         assign(partitions);
         return false;
       }
 
-      @Override
-      public void onCompleted() {
-        latch.countDown();
+    };
+    try {
+      List<Offset> offsets = restoreSnapshot(partitions);
+      if (offsets == null) {
+        offsets = prefetch(partitions, updateCallback);
       }
+      // continue the processing
+      handle.set(reader.observeBulkOffsets(offsets, observer));
+      handle.get().waitUntilReady();
+      scheduleSnapshots();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(ex);
+    }
+  }
 
-    };
-    BulkLogObserver observer = new BulkLogObserver() {
+  private List<Offset> prefetch(
+      Collection<Partition> partitions,
+      BiConsumer<StreamElement, Pair<Long, Object>> updateCallback)
+      throws InterruptedException {
+
+    List<List<Partition>> groups = partitionGroups(partitions, prefetchParallelism);
+    CountDownLatch latch = new CountDownLatch(groups.size());
+    AtomicLong prefetchedCount = new AtomicLong();
+    AtomicLong prefetchedBytes = new AtomicLong();
+    long start = System.currentTimeMillis();
+    @Nullable
+    PrefetchLanes lanes = prefetchThreads > 1
+        ? new PrefetchLanes(
+            "prefetch-" + entity.getName(), prefetchThreads, PREFETCH_QUEUE_SIZE)
+        : null;
+
+    BulkLogObserver prefetchObserver = new BulkLogObserver() {
 
       @Override
       public boolean onNext(
           StreamElement ingest,
           Partition partition,
-          OffsetCommitter confirm) {
+          OffsetCommitter committer) {
 
         try {
-          onCache(ingest, false);
-          confirm.confirm();
+          prefetchedCount.incrementAndGet();
+          prefetchedBytes.addAndGet(sizeOf(ingest));
+          if (lanes == null) {
+            onCache(ingest, false);
+          } else {
+            Throwable err = lanes.getError();
+            if (err != null) {
+              throw new IllegalStateException("Failed to cache data", err);
+            }
+            // the offsets are not used before all lanes are drained
+            lanes.submit(ingest.getKey(), () -> onCache(ingest, false));
+          }
+          committer.confirm();
           return true;
-        } catch (Throwable err) {
-          confirm.fail(err);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          committer.fail(ex);
+          return false;
+        } catch (Throwable ex) {
+          committer.fail(ex);
           return false;
         }
       }
 
       @Override
       public boolean onError(Throwable error) {
-        log.error("Error in caching data. Restarting consumption", error);
+        log.error("Failed to prefetch data", error);
         assign(partitions);
         return false;
       }
 
+      @Override
+      public void onCompleted() {
+        latch.countDown();
+      }
+
     };
+    // prefetch the data
+    log.info(
+        "Starting prefetching old topic data for partitions {} in {} groups "
+            + "using {} threads with preUpdate {}",
+        partitions.stream().map(Partition::getId).collect(Collectors.toList()),
+        groups.size(), prefetchThreads, updateCallback);
+    ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(
+        r -> {
+          Thread t = new Thread(r, "prefetch-progress-" + entity.getName());
+          t.setDaemon(true);
+          return t;
+        });
     try {
-      // prefetch the data
-      log.info(
-          "Starting prefetching old topic data for partitions {} with preUpdate {}",
-          partitions.stream().map(Partition::getId).collect(Collectors.toList()),
-          updateCallback);
-      ObserveHandle h = reader.observeBulkPartitions(
-          partitions, Position.OLDEST, true, prefetchObserver);
+      reporter.scheduleAtFixedRate(
+          () -> logPrefetchProgress(
+              start, prefetchedCount.get(), prefetchedBytes.get(),
+              groups.size() - (int) latch.getCount(), groups.size()),
+          PREFETCH_PROGRESS_INTERVAL_MS, PREFETCH_PROGRESS_INTERVAL_MS,
+          TimeUnit.MILLISECONDS);
+      List<ObserveHandle> handles = new ArrayList<>();
+      for (List<Partition> group : groups) {
+        handles.add(reader.observeBulkPartitions(
+            group, Position.OLDEST, true, prefetchObserver));
+      }
       latch.await();
+      if (lanes != null) {
+        lanes.drain();
+        if (lanes.getError() != null) {
+          throw new IllegalStateException(
+              "Failed to prefetch data", lanes.getError());
+        }
+      }
+      long duration = Math.max(1, System.currentTimeMillis() - start);
       log.info(
-          "Finished prefetching of data after {} records. Starting consumption "
-              + "of updates.",
-          prefetchedCount.get());
-      List<Offset> offsets = h.getCommittedOffsets();
-      // continue the processing
-      handle.set(reader.observeBulkOffsets(offsets, observer));
-      handle.get().waitUntilReady();
-    } catch (InterruptedException ex) {
-      Thread.currentThread().interrupt();
-      throw new RuntimeException(ex);
+          "Finished prefetching of data after {} records ({} bytes) in {} ms "
+              + "({} records/s, {} bytes/s). Starting consumption of updates.",
+          prefetchedCount.get(), prefetchedBytes.get(), duration,
+          prefetchedCount.get() * 1000 / duration,
+          prefetchedBytes.get() * 1000 / duration);
+      return handles.stream()
+          .flatMap(h -> h.getCommittedOffsets().stream())
+          .collect(Collectors.toList());
+    } finally {
+      reporter.shutdownNow();
+      if (lanes != null) {
+        lanes.close();
+      }
+    }
+  }
+
+  private void logPrefetchProgress(
+      long start, long records, long bytes, int finishedGroups, int groups) {
+
+    long duration = Math.max(1, System.currentTimeMillis() - start);
+    // the groups are of similar size, so estimate remaining time
+    // by the fraction of finished groups
+    String eta = finishedGroups == 0
+        ? "unknown"
+        : (duration * (groups - finishedGroups) / finishedGroups / 1000) + " s";
+    log.info(
+        "Prefetched {} records ({} bytes) of {}: {} records/s, {} bytes/s, "
+            + "{} of {} partition groups finished, ETA {}",
+        records, bytes, getUri(), records * 1000 / duration,
+        bytes * 1000 / duration, finishedGroups, groups, eta);
+  }
+
+  private static List<List<Partition>> partitionGroups(
+      Collection<Partition> partitions, int parallelism) {
+
+    int numGroups = Math.max(1, Math.min(parallelism, partitions.size()));
+    List<List<Partition>> groups = new ArrayList<>();
+    for (int i = 0; i < numGroups; i++) {
+      groups.add(new ArrayList<>());
+    }
+    int i = 0;
+    for (Partition p : partitions) {
+      groups.get(i++ % numGroups).add(p);
     }
+    return groups;
+  }
+
+  private static long sizeOf(StreamElement ingest) {
+    return ingest.getKey().length() + ingest.getAttribute().length()
+        + (ingest.getValue() == null ? 0 : ingest.getValue().length);
+  }
+
+  /**
+   * Configure parallelism of prefetch of data during {@link #assign}.
+   * Note that when using more than one thread, the update callback
+   * might be called concurrently for different keys during prefetch.
+   * @param parallelism number of groups of partitions to read concurrently
+   * @param threads number of threads to deserialize prefetched data with
+   */
+  public void setPrefetchParallelism(int parallelism, int threads) {
+    Preconditions.checkArgument(parallelism > 0, "Parallelism must be positive");
+    Preconditions.checkArgument(threads > 0, "Number of threads must be positive");
+    this.prefetchParallelism = parallelism;
+    this.prefetchThreads = threads;
   }
 
   @Override
@@ -226,6 +593,52 @@ public class LocalCachedPartitionedView implements PartitionedCachedView {
       AttributeDescriptor<T> desc,
       long stamp) {
 
+    Pair<Long, Object> cached = cache.get(key, attribute, stamp);
+    RandomAccessReader fallback = fallbackReader;
+    if (cached == null && fallback != null && cache.isPossiblyEvicted(key)) {
+      return fallback.get(key, attribute, desc, stamp);
+    }
+    return fromCache(key, attribute, desc, stamp, cached);
+  }
+
+  @Override
+  public List<Optional<KeyValue<?>>> multiGet(
+      List<KeyAttribute> requests, long stamp) {
+
+    List<Optional<KeyValue<?>>> ret = new ArrayList<>(requests.size());
+    List<Integer> missing = new ArrayList<>();
+    RandomAccessReader fallback = fallbackReader;
+    for (KeyAttribute request : requests) {
+      String key = request.getKey();
+      Pair<Long, Object> cached = cache.get(key, request.getAttribute(), stamp);
+      if (cached == null && fallback != null && cache.isPossiblyEvicted(key)) {
+        missing.add(ret.size());
+        ret.add(Optional.empty());
+      } else {
+        ret.add(fromCache(
+            key, request.getAttribute(), request.getAttributeDescriptor(),
+            stamp, cached).map(kv -> kv));
+      }
+    }
+    if (!missing.isEmpty()) {
+      // read all evicted keys in single batch
+      List<Optional<KeyValue<?>>> fetched = fallback.multiGet(
+          missing.stream().map(requests::get).collect(Collectors.toList()),
+          stamp);
+      for (int i = 0; i < missing.size(); i++) {
+        ret.set(missing.get(i), fetched.get(i));
+      }
+    }
+    return ret;
+  }
+
+  private <T> Optional<KeyValue<T>> fromCache(
+      String key,
+      String attribute,
+      AttributeDescriptor<T> desc,
+      long stamp,
+      @Nullable Pair<Long, Object> cached) {
+
     long deleteStamp = Long.MIN_VALUE;
     if (desc.isWildcard()) {
       // check there is not wildcard delete
@@ -237,17 +650,27 @@ public class LocalCachedPartitionedView implements PartitionedCachedView {
       }
     }
     final long filterStamp = deleteStamp;
-    return Optional.ofNullable(cache.get(key, attribute, stamp))
+    return Optional.ofNullable(cached)
         .filter(e -> e.getFirst() >= filterStamp)
         .flatMap(e -> Optional.ofNullable(toKv(key, attribute, e)));
   }
 
+  @SuppressWarnings("unchecked")
   @Override
   public void scanWildcardAll(
       String key, RandomOffset offset, long stamp,
       int limit, Consumer<KeyValue<?>> consumer) {
 
     String off = offset == null ? "" : ((RawOffset) offset).getOffset();
+    RandomAccessReader fallback = fallbackReader;
+    if (fallback != null && cache.isPossiblyEvicted(key)) {
+      fallback.scanWildcardAll(
+          key, offset == null
+              ? null
+              : fallback.fetchOffset(Listing.ATTRIBUTE, off),
+          stamp, limit, kv -> consumer.accept(withRawOffset((KeyValue) kv)));
+      return;
+    }
     scanWildcardPrefix(key, "", off, stamp, limit, consumer);
   }
 
@@ -264,6 +687,15 @@ public class LocalCachedPartitionedView implements PartitionedCachedView {
     String off = offset == null
         ? wildcard.toAttributePrefix()
         : ((RawOffset) offset).getOffset();
+    RandomAccessReader fallback = fallbackReader;
+    if (fallback != null && cache.isPossiblyEvicted(key)) {
+      fallback.scanWildcard(
+          key, wildcard, offset == null
+              ? null
+              : fallback.fetchOffset(Listing.ATTRIBUTE, off),
+          stamp, limit, kv -> consumer.accept(withRawOffset(kv)));
+      return;
+    }
     scanWildcardPrefix(
         key, wildcard.toAttributePrefix(), off, stamp, limit, (Consumer) consumer);
   }
@@ -313,8 +745,252 @@ public class LocalCachedPartitionedView implements PartitionedCachedView {
 
   @Override
   public void close() {
+    ScheduledExecutorService executor = snapshotter;
+    snapshotter = null;
+    if (executor != null) {
+      executor.shutdownNow();
+      try {
+        writeSnapshot();
+      } catch (Exception ex) {
+        log.warn("Failed to write snapshot of view of {}", getUri(), ex);
+      }
+    }
     Optional.ofNullable(handle.getAndSet(null)).ifPresent(ObserveHandle::cancel);
-    cache.clear();
+    clearCache();
+  }
+
+  private void scheduleSnapshots() {
+    if (snapshotDir == null) {
+      return;
+    }
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+        r -> {
+          Thread t = new Thread(r, "cache-snapshot-" + entity.getName());
+          t.setDaemon(true);
+          return t;
+        });
+    executor.scheduleWithFixedDelay(() -> {
+      try {
+        writeSnapshot();
+      } catch (Exception ex) {
+        log.warn("Failed to write snapshot of view of {}", getUri(), ex);
+      }
+    }, snapshotIntervalMs, snapshotIntervalMs, TimeUnit.MILLISECONDS);
+    snapshotter = executor;
+  }
+
+  @VisibleForTesting
+  File getSnapshotFile(Collection<Partition> partitions) {
+    Preconditions.checkState(snapshotDir != null, "Snapshots are not enabled");
+    return new File(snapshotDir, String.format(
+        "%s-%08x.snapshot", entity.getName(),
+        Objects.hash(getUri().toString(), partitionIds(partitions))));
+  }
+
+  /**
+   * Store content of the cache to local disk. The snapshot is first written
+   * to temporary file, which then atomically replaces the previous snapshot.
+   * @throws IOException on IO errors
+   */
+  @VisibleForTesting
+  synchronized void writeSnapshot() throws IOException {
+    ObserveHandle h = handle.get();
+    if (h == null || snapshotDir == null) {
+      return;
+    }
+    // offsets have to be read before the cache, all data up to these
+    // offsets are already cached, data after them will be read again
+    List<Offset> offsets = new ArrayList<>(h.getCommittedOffsets());
+    File target = getSnapshotFile(assignedPartitions);
+    File tmp = new File(target.getPath() + ".tmp");
+    if (!snapshotDir.exists() && !snapshotDir.mkdirs()) {
+      throw new IOException("Cannot create directory " + snapshotDir);
+    }
+    long start = System.currentTimeMillis();
+    AtomicLong written = new AtomicLong();
+    try (ObjectOutputStream out = new ObjectOutputStream(
+        new BufferedOutputStream(new FileOutputStream(tmp)))) {
+
+      out.writeInt(SNAPSHOT_VERSION);
+      out.writeUTF(getUri().toString());
+      out.writeObject(partitionIds(assignedPartitions));
+      out.writeObject(offsets);
+      cache.forEach((key, attribute, stamp, value) -> {
+        byte[] bytes = null;
+        if (value != null) {
+          bytes = offHeap
+              ? readSnapshotValue(key, attribute, stamp, value)
+              : serialize(attribute, value);
+          if (bytes == null) {
+            return;
+          }
+        }
+        out.writeBoolean(true);
+        out.writeUTF(key);
+        out.writeUTF(attribute);
+        out.writeLong(stamp);
+        if (bytes == null) {
+          out.writeInt(-1);
+        } else {
+          out.writeInt(bytes.length);
+          out.write(bytes);
+        }
+        written.incrementAndGet();
+      });
+      out.writeBoolean(false);
+      // evicted keys are written last to include keys evicted
+      // while writing the cached values
+      cache.writeEvicted(out);
+    }
+    Files.move(
+        tmp.toPath(), target.toPath(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    log.info(
+        "Written snapshot of {} values to {} in {} ms",
+        written.get(), target, System.currentTimeMillis() - start);
+  }
+
+  /**
+   * Load content of the cache from snapshot.
+   * @param partitions partitions assigned to the view
+   * @return offsets to continue reading from or {@code null} if
+   *         the snapshot is missing or invalid
+   */
+  @SuppressWarnings("unchecked")
+  @Nullable
+  private List<Offset> restoreSnapshot(Collection<Partition> partitions) {
+    if (snapshotDir == null) {
+      return null;
+    }
+    File file = getSnapshotFile(partitions);
+    if (!file.exists()) {
+      log.info("Missing snapshot {}, prefetching data from {}", file, getUri());
+      return null;
+    }
+    long start = System.currentTimeMillis();
+    long restored = 0;
+    try (ObjectInputStream in = new ObjectInputStream(
+        new BufferedInputStream(new FileInputStream(file)))) {
+
+      int version = in.readInt();
+      if (version != SNAPSHOT_VERSION) {
+        log.warn("Unsupported version {} of snapshot {}", version, file);
+        return null;
+      }
+      String uri = in.readUTF();
+      Object ids = in.readObject();
+      if (!uri.equals(getUri().toString()) || !partitionIds(partitions).equals(ids)) {
+        log.warn(
+            "Snapshot {} of {} and partitions {} doesn't match the view",
+            file, uri, ids);
+        return null;
+      }
+      List<Offset> offsets = (List<Offset>) in.readObject();
+      while (in.readBoolean()) {
+        String key = in.readUTF();
+        String attribute = in.readUTF();
+        long stamp = in.readLong();
+        int length = in.readInt();
+        byte[] bytes = null;
+        if (length >= 0) {
+          bytes = new byte[length];
+          in.readFully(bytes);
+        }
+        StreamElement element = toElement(key, attribute, stamp, bytes);
+        if (element != null) {
+          onCache(element, false);
+          restored++;
+        }
+      }
+      if (!cache.readEvicted(in)) {
+        log.warn(
+            "Snapshot {} contains evicted keys not matching size of the cache, "
+                + "prefetching data from {}", file, getUri());
+        clearCache();
+        return null;
+      }
+      log.info(
+          "Restored {} values from snapshot {} in {} ms. Continuing "
+              + "consumption from offsets {}",
+          restored, file, System.currentTimeMillis() - start, offsets);
+      return offsets;
+    } catch (IOException | ClassNotFoundException | RuntimeException ex) {
+      log.warn("Invalid snapshot {}, prefetching data from {}", file, getUri(), ex);
+      clearCache();
+      return null;
+    }
+  }
+
+  /**
+   * Read serialized off heap value of version to be written to snapshot.
+   * When the value is released concurrently, read the value replacing it.
+   * @return the value or {@code null} if the version was removed
+   * @throws IOException when the value cannot be read
+   */
+  @Nullable
+  private byte[] readSnapshotValue(
+      String key, String attribute, long stamp, Object value) throws IOException {
+
+    Object address = value;
+    for (int attempt = 0; attempt < MAX_SNAPSHOT_READ_ATTEMPTS; attempt++) {
+      byte[] bytes = arena.read((Long) address);
+      if (bytes != null) {
+        return bytes;
+      }
+      Pair<Long, Object> current = cache.get(key, attribute, stamp);
+      if (current == null || current.getFirst() != stamp
+          || current.getSecond() == null) {
+        // the version was evicted, expired or deleted, evicted keys
+        // are part of the snapshot and other changes are after
+        // the snapshot offsets, so they will be read again
+        return null;
+      }
+      address = current.getSecond();
+    }
+    throw new IOException(String.format(
+        "Cannot read value of attribute %s of key %s at %d",
+        attribute, key, stamp));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Nullable
+  private byte[] serialize(String attribute, Object value) {
+    Optional<AttributeDescriptor<Object>> attr = entity.findAttribute(
+        attribute, true);
+    if (!attr.isPresent()) {
+      log.warn("Missing attribute {} in entity {}", attribute, entity);
+      return null;
+    }
+    return attr.get().getValueSerializer().serialize(value);
+  }
+
+  @Nullable
+  private StreamElement toElement(
+      String key, String attribute, long stamp, @Nullable byte[] value) {
+
+    Optional<AttributeDescriptor<Object>> attr = entity.findAttribute(
+        attribute, true);
+    if (!attr.isPresent()) {
+      log.warn("Missing attribute {} in entity {}", attribute, entity);
+      return null;
+    }
+    AttributeDescriptor<?> desc = attr.get();
+    String uuid = UUID.randomUUID().toString();
+    if (value != null) {
+      return StreamElement.update(
+          entity, desc, uuid, key, attribute, stamp, value);
+    }
+    if (desc.isWildcard() && attribute.equals(desc.toAttributePrefix())) {
+      return StreamElement.deleteWildcard(entity, desc, uuid, key, stamp);
+    }
+    return StreamElement.delete(entity, desc, uuid, key, attribute, stamp);
+  }
+
+  private static ArrayList<Integer> partitionIds(Collection<Partition> partitions) {
+    return partitions.stream()
+        .map(Partition::getId)
+        .sorted()
+        .collect(Collectors.toCollection(ArrayList::new));
   }
 
   @SuppressWarnings("unchecked")
@@ -338,12 +1014,71 @@ public class LocalCachedPartitionedView implements PartitionedCachedView {
     if (p == null || p.getSecond() == null) {
       return null;
     }
+    if (offHeap) {
+      byte[] bytes = readOffHeap(key, attribute, p);
+      if (bytes == null) {
+        return null;
+      }
+      Optional<?> value = attr.getValueSerializer().deserialize(bytes);
+      if (!value.isPresent()) {
+        log.warn("Failed to deserialize value of attribute {} of key {}", attribute, key);
+        return null;
+      }
+      return (KeyValue) KeyValue.of(
+          entity, (AttributeDescriptor) attr, key, attribute,
+          new RawOffset(attribute), value.get(), bytes, p.getFirst());
+    }
     return (KeyValue) KeyValue.of(
         entity, (AttributeDescriptor) attr, key, attribute,
         new RawOffset(attribute), (T) p.getSecond(), null,
         p.getFirst());
   }
 
+  private <T> KeyValue<T> withRawOffset(KeyValue<T> kv) {
+    return KeyValue.of(
+        kv.getEntityDescriptor(), kv.getAttrDescriptor(), kv.getKey(),
+        kv.getAttribute(), new RawOffset(kv.getAttribute()), kv.getValue(),
+        kv.getValueBytes(), kv.getStamp());
+  }
+
+  /**
+   * Read serialized value of cached version. When the version is
+   * released concurrently, read its replacement (if any).
+   */
+  @Nullable
+  private byte[] readOffHeap(String key, String attribute, Pair<Long, Object> p) {
+    Pair<Long, Object> version = p;
+    while (version != null && version.getSecond() != null) {
+      byte[] bytes = arena.read((Long) version.getSecond());
+      if (bytes != null) {
+        return bytes;
+      }
+      version = cache.get(key, attribute, version.getFirst());
+      if (version != null && version.getSecond() == p.getSecond()) {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Optional<Object> fromOffHeap(
+      AttributeDescriptor<?> attr, Object value) {
+
+    byte[] bytes = arena.read((Long) value);
+    if (bytes == null) {
+      return Optional.empty();
+    }
+    return (Optional) attr.getValueSerializer().deserialize(bytes);
+  }
+
+  private void clearCache() {
+    cache.clear();
+    if (arena != null) {
+      arena.clear();
+    }
+  }
+
   @Override
   public EntityDescriptor getEntityDescriptor() {
     return entity;
@@ -0,0 +1,284 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.view;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * Storage of byte arrays in a few large direct buffers (slabs) outside
+ * of java heap. Values are allocated sequentially in the current slab and
+ * addressed by single {@code long} holding index of the slab, generation
+ * of the slab and offset of the value, so that the only heap object
+ * per value is the (boxed) address.
+ *
+ * Space of released values is reclaimed when all values of a slab are
+ * released, the slab is then reused with incremented generation. Values
+ * larger than a slab are stored in dedicated slabs released together
+ * with the value. Reads are lock-free, reading an address released
+ * concurrently with the read returns {@code null}.
+ */
+class OffHeapArena implements Serializable {
+
+  /** Default size of single slab in bytes. */
+  static final int DEFAULT_SLAB_SIZE = 8 << 20;
+
+  /** Maximal number of empty slabs kept for reuse. */
+  private static final int MAX_FREE_SLABS = 2;
+
+  /** Size of header (length) of each value. */
+  private static final int HEADER_SIZE = 4;
+
+  private static final int INDEX_BITS = 20;
+  private static final int GENERATION_BITS = 12;
+  private static final int INDEX_SHIFT = 32 + GENERATION_BITS;
+  private static final int MAX_SLABS = 1 << INDEX_BITS;
+  private static final int GENERATION_MASK = (1 << GENERATION_BITS) - 1;
+
+  private static class Slab {
+
+    final int index;
+    final AtomicInteger live = new AtomicInteger();
+    @Nullable
+    volatile ByteBuffer buffer;
+    volatile int generation;
+    /** Position of next allocation, guarded by the arena. */
+    int position;
+
+    Slab(int index) {
+      this.index = index;
+    }
+
+  }
+
+  private final int slabSize;
+
+  private transient volatile Slab[] slabs;
+  private transient Deque<Slab> free;
+  private transient Deque<Slab> unused;
+  @Nullable
+  private transient Slab current;
+  private transient long allocatedBytes;
+
+  OffHeapArena() {
+    this(DEFAULT_SLAB_SIZE);
+  }
+
+  OffHeapArena(int slabSize) {
+    Preconditions.checkArgument(
+        slabSize > HEADER_SIZE, "Slab size must be greater than %s", HEADER_SIZE);
+    this.slabSize = slabSize;
+    init();
+  }
+
+  private void init() {
+    slabs = new Slab[0];
+    free = new ArrayDeque<>();
+    unused = new ArrayDeque<>();
+    current = null;
+    allocatedBytes = 0;
+  }
+
+  /**
+   * Copy given value to the arena.
+   * @param value the value
+   * @return address of the value
+   */
+  synchronized long allocate(byte[] value) {
+    int length = HEADER_SIZE + value.length;
+    Slab slab;
+    if (length > slabSize) {
+      slab = newSlab(length);
+    } else {
+      if (current == null || current.position + length > slabSize) {
+        Slab full = current;
+        current = free.isEmpty() ? newSlab(slabSize) : free.poll();
+        if (full != null && full.live.get() == 0) {
+          recycle(full);
+        }
+      }
+      slab = current;
+    }
+    int offset = slab.position;
+    ByteBuffer write = slab.buffer.duplicate();
+    write.position(offset);
+    write.putInt(value.length);
+    write.put(value);
+    slab.position += length;
+    slab.live.addAndGet(length);
+    return ((long) slab.index << INDEX_SHIFT)
+        | ((long) slab.generation << 32)
+        | offset;
+  }
+
+  /**
+   * Read value stored at given address.
+   * @param address address returned by {@link #allocate}
+   * @return copy of the value or {@code null} if the value was released
+   *         and its space reused
+   */
+  @Nullable
+  byte[] read(long address) {
+    Slab[] all = slabs;
+    int index = index(address);
+    int generation = generation(address);
+    Slab slab = index < all.length ? all[index] : null;
+    if (slab == null || slab.generation != generation) {
+      return null;
+    }
+    ByteBuffer buffer = slab.buffer;
+    if (buffer == null) {
+      return null;
+    }
+    ByteBuffer read = buffer.duplicate();
+    int offset = offset(address);
+    int length = read.getInt(offset);
+    if (length < 0 || offset + HEADER_SIZE + length > read.capacity()) {
+      return null;
+    }
+    byte[] ret = new byte[length];
+    read.position(offset + HEADER_SIZE);
+    read.get(ret);
+    // the slab might have been reused during the copy
+    return slab.generation == generation ? ret : null;
+  }
+
+  /**
+   * Release value at given address. The address must not be released twice.
+   * @param address address returned by {@link #allocate}
+   */
+  void release(long address) {
+    Slab[] all = slabs;
+    int index = index(address);
+    if (index >= all.length) {
+      return;
+    }
+    Slab slab = all[index];
+    if (slab == null || slab.generation != generation(address)) {
+      return;
+    }
+    ByteBuffer buffer = slab.buffer;
+    if (buffer == null) {
+      return;
+    }
+    int length = HEADER_SIZE + buffer.getInt(offset(address));
+    if (slab.live.addAndGet(-length) == 0) {
+      synchronized (this) {
+        if (slab != this.current && slab.live.get() == 0
+            && slab.generation == generation(address)) {
+          recycle(slab);
+        }
+      }
+    }
+  }
+
+  /**
+   * Release value given as {@link Long} address.
+   * @param address the address
+   */
+  void release(Object address) {
+    release((long) (Long) address);
+  }
+
+  /**
+   * Release all values and memory of the arena.
+   */
+  synchronized void clear() {
+    // keep the slabs to invalidate all addresses allocated so far
+    free.clear();
+    unused.clear();
+    for (Slab slab : slabs) {
+      slab.generation = (slab.generation + 1) & GENERATION_MASK;
+      slab.buffer = null;
+      slab.position = 0;
+      slab.live.set(0);
+      unused.add(slab);
+    }
+    current = null;
+    allocatedBytes = 0;
+  }
+
+  /**
+   * Retrieve number of bytes of direct memory held by the arena.
+   * @return number of allocated bytes
+   */
+  @VisibleForTesting
+  synchronized long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  private Slab newSlab(int size) {
+    Slab slab = unused.poll();
+    if (slab == null) {
+      Slab[] all = slabs;
+      Preconditions.checkState(
+          all.length < MAX_SLABS, "Too many slabs in off-heap arena");
+      slab = new Slab(all.length);
+      Slab[] grown = Arrays.copyOf(all, all.length + 1);
+      grown[slab.index] = slab;
+      slabs = grown;
+    }
+    slab.buffer = ByteBuffer.allocateDirect(size);
+    slab.position = 0;
+    slab.live.set(0);
+    allocatedBytes += size;
+    return slab;
+  }
+
+  private void recycle(Slab slab) {
+    // invalidate addresses of the slab before reusing it
+    slab.generation = (slab.generation + 1) & GENERATION_MASK;
+    slab.position = 0;
+    ByteBuffer buffer = slab.buffer;
+    if (buffer != null && buffer.capacity() == slabSize
+        && free.size() < MAX_FREE_SLABS) {
+      free.add(slab);
+    } else {
+      slab.buffer = null;
+      allocatedBytes -= buffer == null ? 0 : buffer.capacity();
+      unused.add(slab);
+    }
+  }
+
+  private static int index(long address) {
+    return (int) (address >>> INDEX_SHIFT);
+  }
+
+  private static int generation(long address) {
+    return (int) (address >>> 32) & GENERATION_MASK;
+  }
+
+  private static int offset(long address) {
+    return (int) address;
+  }
+
+  private void readObject(ObjectInputStream in)
+      throws IOException, ClassNotFoundException {
+
+    in.defaultReadObject();
+    init();
+  }
+
+}
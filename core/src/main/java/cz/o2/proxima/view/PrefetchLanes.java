@@ -0,0 +1,110 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.view;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Fixed number of threads (lanes) processing tasks submitted from
+ * commit log consumers. Tasks of the same key are always processed
+ * by the same lane in order of submission, so the consumer thread
+ * only polls the data and the (expensive) deserialization and caching
+ * runs in parallel.
+ */
+@Slf4j
+class PrefetchLanes implements AutoCloseable {
+
+  private final List<BlockingQueue<Runnable>> queues = new ArrayList<>();
+  private final List<Thread> threads = new ArrayList<>();
+  private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+  /**
+   * Create and start the lanes.
+   * @param name name of the lanes used for names of threads
+   * @param lanes number of lanes
+   * @param queueSize maximal number of tasks waiting in each lane
+   */
+  PrefetchLanes(String name, int lanes, int queueSize) {
+    for (int i = 0; i < lanes; i++) {
+      BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(queueSize);
+      Thread thread = new Thread(() -> run(queue), name + "-" + i);
+      thread.setDaemon(true);
+      queues.add(queue);
+      threads.add(thread);
+    }
+    threads.forEach(Thread::start);
+  }
+
+  private void run(BlockingQueue<Runnable> queue) {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        Runnable task = queue.take();
+        try {
+          task.run();
+        } catch (Throwable err) {
+          log.error("Error processing task in lane", err);
+          error.compareAndSet(null, err);
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Submit task to lane of given key. Blocks when the lane is full.
+   * @param key key of the processed data
+   * @param task the task
+   * @throws InterruptedException when interrupted while waiting
+   */
+  void submit(String key, Runnable task) throws InterruptedException {
+    queues.get((key.hashCode() & Integer.MAX_VALUE) % queues.size()).put(task);
+  }
+
+  /**
+   * Wait until all tasks submitted so far are processed.
+   * @throws InterruptedException when interrupted while waiting
+   */
+  void drain() throws InterruptedException {
+    CountDownLatch barrier = new CountDownLatch(queues.size());
+    for (BlockingQueue<Runnable> queue : queues) {
+      queue.put(barrier::countDown);
+    }
+    barrier.await();
+  }
+
+  /**
+   * Retrieve first error thrown by any task.
+   * @return the error or {@code null}
+   */
+  @Nullable
+  Throwable getError() {
+    return error.get();
+  }
+
+  @Override
+  public void close() {
+    threads.forEach(Thread::interrupt);
+  }
+
+}
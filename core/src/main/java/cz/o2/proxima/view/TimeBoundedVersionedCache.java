@@ -16,52 +16,176 @@
 package cz.o2.proxima.view;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
 import cz.o2.proxima.functional.BiFunction;
+import cz.o2.proxima.functional.Consumer;
 import cz.o2.proxima.functional.UnaryFunction;
 import cz.o2.proxima.util.Pair;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Objects;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.annotation.Nullable;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * A cache for data based on timestamp.
+ *
+ * The cache is safe for concurrent access. Reads are lock-free, writes
+ * to the same key are serialized by the key's bin in the top-level
+ * {@link ConcurrentHashMap}, so writes to different keys do not block
+ * each other and reads never wait for a write in progress.
+ *
+ * The cache can be bounded by an (estimated) number of bytes. When the
+ * bound is exceeded, whole keys are evicted in least recently used order
+ * and remembered in a bloom filter, so that reads of these keys can
+ * be passed to the source of the data.
  */
 @Slf4j
 class TimeBoundedVersionedCache implements Serializable {
 
+  /** Estimated heap overhead of single cached version. */
+  private static final int VERSION_OVERHEAD = 96;
+
+  /** Estimated heap overhead of single cached attribute or key. */
+  private static final int ENTRY_OVERHEAD = 128;
+
+  /** Evict down to this fraction of the maximal size. */
+  private static final double EVICT_TO_RATIO = 0.9;
+
+  /** Maximal expected number of evicted keys tracked by the bloom filter. */
+  private static final long MAX_TRACKED_EVICTIONS = 10_000_000L;
+
+  /** False positive probability of check if a key was evicted. */
+  private static final double EVICTED_FPP = 0.01;
+
   @Value
   private static class Payload {
     Object data;
     boolean overridable;
+    long size;
+  }
+
+  /**
+   * Consumer of all cached versions.
+   */
+  @FunctionalInterface
+  interface VersionConsumer {
+
+    void accept(
+        String key, String attribute, long stamp,
+        @Nullable Object value) throws IOException;
+
+  }
+
+  private static class KeyEntry {
+
+    final NavigableMap<String, NavigableMap<Long, Payload>> attributes;
+    /** {@code true} if the key might have been evicted before. */
+    volatile boolean partial;
+    volatile long size;
+    volatile long lastAccess = System.nanoTime();
+
+    KeyEntry(String key, boolean partial) {
+      this.attributes = new ConcurrentSkipListMap<>();
+      this.partial = partial;
+      this.size = ENTRY_OVERHEAD + 2 * key.length();
+    }
+
+    void touch() {
+      lastAccess = System.nanoTime();
+    }
+
   }
 
   private final long keepDuration;
 
+  /** Maximal estimated size of the cache in bytes, unbounded if non-positive. */
+  private final long maxBytes;
+
   @SuppressFBWarnings("SE_BAD_FIELD")
-  private final Map<String, NavigableMap<
-      String, NavigableMap<Long, Payload>>> cache;
+  private final ConcurrentMap<String, KeyEntry> cache;
+
+  private final AtomicLong totalBytes = new AtomicLong();
+  private final AtomicLong evictedKeys = new AtomicLong();
+  private final ReentrantLock evictionLock = new ReentrantLock();
+
+  /** Called with each (non-null) value removed from the cache. */
+  @Nullable
+  private final Consumer<Object> releaser;
+
+  /** Keys evicted from the cache, {@code null} if the cache is unbounded. */
+  @Nullable
+  private volatile BloomFilter<CharSequence> evictedFilter;
 
   TimeBoundedVersionedCache(long keepDuration) {
+    this(keepDuration, -1L);
+  }
+
+  TimeBoundedVersionedCache(long keepDuration, long maxBytes) {
+    this(keepDuration, maxBytes, null);
+  }
+
+  /**
+   * Create the cache.
+   * @param keepDuration duration of kept old versions
+   * @param maxBytes maximal estimated size in bytes, unbounded if non-positive
+   * @param releaser consumer of values removed from the cache (when
+   *                 overwritten, expired or evicted), values removed by
+   *                 {@link #clear} are not passed to the releaser
+   */
+  TimeBoundedVersionedCache(
+      long keepDuration, long maxBytes, @Nullable Consumer<Object> releaser) {
+
     this.keepDuration = keepDuration;
-    this.cache = new HashMap<>();
+    this.maxBytes = maxBytes;
+    this.releaser = releaser;
+    this.cache = new ConcurrentHashMap<>();
+    this.evictedFilter = newEvictedFilter();
   }
 
   @Nullable
-  synchronized Pair<Long, Object> get(
+  private BloomFilter<CharSequence> newEvictedFilter() {
+    if (maxBytes <= 0) {
+      return null;
+    }
+    long expected = Math.min(
+        MAX_TRACKED_EVICTIONS, Math.max(1024L, maxBytes / ENTRY_OVERHEAD));
+    return BloomFilter.create(
+        Funnels.stringFunnel(StandardCharsets.UTF_8), expected, EVICTED_FPP);
+  }
+
+  private boolean mightBeEvicted(String key) {
+    BloomFilter<CharSequence> filter = evictedFilter;
+    return evictedKeys.get() > 0 && filter != null && filter.mightContain(key);
+  }
+
+  @Nullable
+  Pair<Long, Object> get(
       String key, String attribute, long stamp) {
 
-    NavigableMap<String, NavigableMap<Long, Payload>> attrMap;
-    attrMap = cache.get(key);
-    if (attrMap != null) {
-      NavigableMap<Long, Payload> valueMap = attrMap.get(attribute);
+    KeyEntry entry = cache.get(key);
+    if (entry != null) {
+      entry.touch();
+      NavigableMap<Long, Payload> valueMap = entry.attributes.get(attribute);
       if (valueMap != null) {
         Map.Entry<Long, Payload> floorEntry = valueMap.floorEntry(stamp);
         if (floorEntry != null) {
@@ -74,7 +198,21 @@ class TimeBoundedVersionedCache implements Serializable {
 
   @VisibleForTesting
   NavigableMap<String, NavigableMap<Long, Payload>> get(String key) {
-    return cache.get(key);
+    KeyEntry entry = cache.get(key);
+    return entry == null ? null : entry.attributes;
+  }
+
+  /**
+   * Check if data of given key might be missing in the cache due to eviction.
+   * @param key the key to check
+   * @return {@code true} if the cache might not contain all data of the key
+   */
+  boolean isPossiblyEvicted(String key) {
+    if (evictedKeys.get() == 0) {
+      return false;
+    }
+    KeyEntry entry = cache.get(key);
+    return entry == null ? mightBeEvicted(key) : entry.partial;
   }
 
   void scan(
@@ -85,21 +223,21 @@ class TimeBoundedVersionedCache implements Serializable {
     scan(key, prefix, prefix, stamp, parentRecordExtractor, consumer);
   }
 
-  synchronized void scan(
+  void scan(
       String key, String prefix, String offset, long stamp,
       UnaryFunction<String, String> parentRecordExtractor,
       BiFunction<String, Pair<Long, Object>, Boolean> consumer) {
 
-    NavigableMap<String, NavigableMap<Long, Payload>> attrMap;
-    attrMap = cache.get(key);
-    if (attrMap == null) {
+    KeyEntry entry = cache.get(key);
+    if (entry == null) {
       return;
     }
+    entry.touch();
     String lastParent = null;
     Pair<Long, Object> parentEntry = null;
     long parentTombstoneStamp = stamp;
     for (Map.Entry<String, NavigableMap<Long, Payload>> e
-        : attrMap.tailMap(offset).entrySet()) {
+        : entry.attributes.tailMap(offset).entrySet()) {
 
       if (e.getKey().startsWith(prefix)) {
         if (!e.getKey().equals(offset)) {
@@ -122,41 +260,216 @@ class TimeBoundedVersionedCache implements Serializable {
     }
   }
 
-  synchronized boolean put(
+  /**
+   * Pass all cached versions of all keys to given consumer.
+   * Iteration does not affect order of eviction.
+   * @param consumer consumer of the versions
+   * @throws IOException when thrown by the consumer
+   */
+  void forEach(VersionConsumer consumer) throws IOException {
+    for (Map.Entry<String, KeyEntry> key : cache.entrySet()) {
+      for (Map.Entry<String, NavigableMap<Long, Payload>> attr
+          : key.getValue().attributes.entrySet()) {
+
+        for (Map.Entry<Long, Payload> version : attr.getValue().entrySet()) {
+          consumer.accept(
+              key.getKey(), attr.getKey(), version.getKey(),
+              version.getValue().getData());
+        }
+      }
+    }
+  }
+
+  boolean put(
       String key, String attribute, long stamp,
       boolean overwrite,
       @Nullable Object value) {
 
+    return put(key, attribute, stamp, overwrite, value, 0);
+  }
+
+  /**
+   * Put value into the cache.
+   * @param key the key
+   * @param attribute the attribute
+   * @param stamp timestamp of the value
+   * @param overwrite {@code true} if existing value with the same stamp
+   *                  should be overwritten
+   * @param value the value, {@code null} for tombstone
+   * @param valueSize estimated size of the value in bytes
+   * @return {@code true} if the value was written
+   */
+  boolean put(
+      String key, String attribute, long stamp,
+      boolean overwrite,
+      @Nullable Object value,
+      int valueSize) {
+
     AtomicBoolean updated = new AtomicBoolean();
-    cache.compute(key, (k, attrMap) -> {
-      if (attrMap == null) {
-        attrMap = new TreeMap<>();
+    // the remapping function is called with the key locked, which
+    // serializes all writers of the same key, readers access the
+    // (concurrent) inner maps without any locking
+    cache.compute(key, (k, entry) -> {
+      if (entry == null) {
+        entry = new KeyEntry(key, mightBeEvicted(key));
+        totalBytes.addAndGet(entry.size);
+      }
+      entry.touch();
+      long sizeBefore = entry.size;
+      long size = sizeBefore;
+      NavigableMap<Long, Payload> valueMap = entry.attributes.get(attribute);
+      if (valueMap == null) {
+        valueMap = new ConcurrentSkipListMap<>();
+        entry.attributes.put(attribute, valueMap);
+        size += ENTRY_OVERHEAD + 2 * attribute.length();
       }
-      NavigableMap<Long, Payload> valueMap = attrMap.computeIfAbsent(
-          attribute, tmp -> new TreeMap<>());
       if (valueMap.isEmpty() || valueMap.firstKey() - keepDuration < stamp) {
         boolean canWrite = true;
+        Payload current = valueMap.get(stamp);
         if (!overwrite) {
-          Payload current = valueMap.get(stamp);
           canWrite = current == null || current.overridable;
         }
         if (canWrite) {
           log.debug(
               "Caching attribute {} for key {} at {} with payload {}",
               attribute, key, stamp, value);
-          valueMap.put(stamp, new Payload(value, !overwrite));
+          Payload payload = new Payload(
+              value, !overwrite, VERSION_OVERHEAD + valueSize);
+          valueMap.put(stamp, payload);
+          size += payload.size - (current == null ? 0 : current.size);
           updated.set(true);
+          if (current != null) {
+            release(current);
+          }
         }
       }
       long first;
       while ((first = valueMap.firstKey()) + keepDuration < stamp) {
-        valueMap.remove(first);
+        Payload removed = valueMap.remove(first);
+        size -= removed.size;
+        release(removed);
       }
-      return attrMap;
+      entry.size = size;
+      totalBytes.addAndGet(size - sizeBefore);
+      return entry;
     });
+    if (maxBytes > 0 && totalBytes.get() > maxBytes) {
+      evict();
+    }
     return updated.get();
   }
 
+  /**
+   * Evict least recently used keys until the size of the cache drops
+   * under the limit.
+   */
+  private void evict() {
+    // if any other thread is evicting, there is no need to wait for it
+    if (!evictionLock.tryLock()) {
+      return;
+    }
+    try {
+      long target = (long) (maxBytes * EVICT_TO_RATIO);
+      if (totalBytes.get() <= target) {
+        return;
+      }
+      List<Map.Entry<String, KeyEntry>> candidates = new ArrayList<>(cache.entrySet());
+      candidates.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+      int evicted = 0;
+      for (Map.Entry<String, KeyEntry> e : candidates) {
+        if (totalBytes.get() <= target) {
+          break;
+        }
+        // mark the key evicted first so that concurrent writers
+        // to the key will create partial entry
+        evictedFilter.put(e.getKey());
+        evictedKeys.incrementAndGet();
+        if (cache.remove(e.getKey(), e.getValue())) {
+          totalBytes.addAndGet(-e.getValue().size);
+          e.getValue().attributes.values().forEach(m -> m.values().forEach(
+              this::release));
+          evicted++;
+        } else {
+          evictedKeys.decrementAndGet();
+        }
+      }
+      log.debug(
+          "Evicted {} keys from cache, current estimated size {} bytes",
+          evicted, totalBytes.get());
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  private void release(Payload payload) {
+    if (releaser != null && payload.getData() != null) {
+      releaser.accept(payload.getData());
+    }
+  }
+
+  /**
+   * Retrieve estimated size of the cache.
+   * @return estimated size of cached data in bytes
+   */
+  long getEstimatedSize() {
+    return totalBytes.get();
+  }
+
+  /**
+   * Retrieve number of keys evicted from the cache so far.
+   * @return number of evicted keys
+   */
+  long getEvictedKeys() {
+    return evictedKeys.get();
+  }
+
+  /**
+   * Store keys evicted from the cache so far, so that they can be restored
+   * by {@link #readEvicted}.
+   * @param out stream to write to
+   * @throws IOException on IO errors
+   */
+  void writeEvicted(OutputStream out) throws IOException {
+    BloomFilter<CharSequence> filter = evictedFilter;
+    long evicted = filter == null ? 0 : evictedKeys.get();
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeLong(evicted);
+    data.flush();
+    if (evicted > 0) {
+      filter.writeTo(out);
+    }
+  }
+
+  /**
+   * Add keys stored by {@link #writeEvicted} to keys evicted from the cache.
+   * Cached keys that might have been evicted are marked as possibly
+   * incomplete.
+   * @param in stream to read from
+   * @return {@code false} if the keys cannot be restored, because the bound
+   *         of this cache differs from the cache that stored the keys
+   * @throws IOException on IO errors
+   */
+  boolean readEvicted(InputStream in) throws IOException {
+    long evicted = new DataInputStream(in).readLong();
+    if (evicted == 0) {
+      return true;
+    }
+    BloomFilter<CharSequence> stored = BloomFilter.readFrom(
+        in, Funnels.stringFunnel(StandardCharsets.UTF_8));
+    BloomFilter<CharSequence> filter = evictedFilter;
+    if (filter == null || !filter.isCompatible(stored)) {
+      return false;
+    }
+    filter.putAll(stored);
+    evictedKeys.addAndGet(evicted);
+    cache.forEach((key, entry) -> {
+      if (stored.mightContain(key)) {
+        entry.partial = true;
+      }
+    });
+    return true;
+  }
+
   @Override
   public int hashCode() {
     return Objects.hash(super.hashCode(), keepDuration);
@@ -171,8 +484,11 @@ class TimeBoundedVersionedCache implements Serializable {
     return false;
   }
 
-  public synchronized void clear() {
+  public void clear() {
     cache.clear();
+    totalBytes.set(0);
+    evictedKeys.set(0);
+    evictedFilter = newEvictedFilter();
   }
 
 }
@@ -0,0 +1,63 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.metrics;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test {@link MetricsRegistry}.
+ */
+public class MetricsRegistryTest {
+
+  private final MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+
+  @Test
+  public void testRegisterReplacesMetricWithSameName() throws Exception {
+    AbsoluteMetric first = AbsoluteMetric.of("test.registry", "metric");
+    AbsoluteMetric second = AbsoluteMetric.of("test.registry", "metric");
+    ObjectName name = MetricsRegistry.objectName(first);
+    assertEquals(
+        "test.registry.metric:type=AbsoluteMetric", name.getCanonicalName());
+    try {
+      MetricsRegistry.register(first);
+      first.increment(1.0);
+      assertEquals(1.0, mbs.getAttribute(name, "Value"));
+      MetricsRegistry.register(second);
+      second.increment(2.0);
+      assertEquals(2.0, mbs.getAttribute(name, "Value"));
+    } finally {
+      mbs.unregisterMBean(name);
+    }
+  }
+
+  @Test
+  public void testInvalidNameDoesNotStopRegistration() throws Exception {
+    AbsoluteMetric invalid = AbsoluteMetric.of("test.registry", "invalid:name");
+    AbsoluteMetric valid = AbsoluteMetric.of("test.registry", "valid");
+    ObjectName name = MetricsRegistry.objectName(valid);
+    try {
+      MetricsRegistry.register(invalid, valid);
+      assertTrue(mbs.isRegistered(name));
+    } finally {
+      mbs.unregisterMBean(name);
+    }
+  }
+
+}
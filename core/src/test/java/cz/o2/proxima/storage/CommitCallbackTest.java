@@ -0,0 +1,60 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test suite for {@link CommitCallback}.
+ */
+public class CommitCallbackTest {
+
+  private final List<Boolean> commits = new ArrayList<>();
+  private final CommitCallback callback = (succ, exc) -> commits.add(succ);
+
+  @Test
+  public void testAfterNumCommitsSuccess() {
+    CommitCallback commit = CommitCallback.afterNumCommits(3, callback);
+    commit.commit(true, null);
+    commit.commit(true, null);
+    assertTrue(commits.isEmpty());
+    commit.commit(true, null);
+    assertEquals(1, commits.size());
+    assertTrue(commits.get(0));
+  }
+
+  @Test
+  public void testAfterNumCommitsFailure() {
+    CommitCallback commit = CommitCallback.afterNumCommits(3, callback);
+    commit.commit(true, null);
+    commit.commit(false, new RuntimeException("fail"));
+    commit.commit(true, null);
+    commit.commit(false, new RuntimeException("fail"));
+    assertEquals(1, commits.size());
+    assertFalse(commits.get(0));
+  }
+
+  @Test
+  public void testAfterZeroCommits() {
+    CommitCallback.afterNumCommits(0, callback);
+    assertEquals(1, commits.size());
+    assertTrue(commits.get(0));
+  }
+
+}
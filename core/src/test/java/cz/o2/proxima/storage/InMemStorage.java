@@ -24,6 +24,7 @@ import cz.o2.proxima.repository.Context;
 import cz.o2.proxima.repository.EntityDescriptor;
 import cz.o2.proxima.storage.batch.BatchLogObservable;
 import cz.o2.proxima.storage.batch.BatchLogObserver;
+import cz.o2.proxima.storage.commitlog.BatchedLogObserver;
 import cz.o2.proxima.storage.commitlog.BulkLogObserver;
 import cz.o2.proxima.storage.commitlog.CommitLogReader;
 import cz.o2.proxima.storage.commitlog.LogObserver;
@@ -305,9 +306,13 @@ public class InMemStorage extends StorageDescriptor {
         BulkLogObserver observer) {
 
       try {
-        flushBasedOnPosition(
-            position,
-            (el, committer) -> observer.onNext(el, () -> 0, committer::accept));
+        if (observer instanceof BatchedLogObserver) {
+          flushBatchBasedOnPosition(position, (BatchedLogObserver) observer);
+        } else {
+          flushBasedOnPosition(
+              position,
+              (el, committer) -> observer.onNext(el, () -> 0, committer::accept));
+        }
       } catch (InterruptedException ex) {
         log.warn("Interrupted while reading old data", ex);
         Thread.currentThread().interrupt();
@@ -388,36 +393,62 @@ public class InMemStorage extends StorageDescriptor {
 
       if (position == Position.OLDEST) {
         synchronized (data) {
-          int prefix = getUri().getPath().length() + 1;
-          CountDownLatch latch = new CountDownLatch(data.size());
-          data.entrySet()
-              .stream()
-              .sorted((a, b) ->
-                  Long.compare(a.getValue().getFirst(), b.getValue().getFirst()))
-              .forEach(e -> {
-                String[] parts = e.getKey().substring(prefix).split("#");
-                String key = parts[0];
-                String attribute = parts[1];
-                AttributeDescriptor<?> desc = getEntityDescriptor()
-                    .findAttribute(attribute, true)
-                    .orElseThrow(() -> new IllegalArgumentException(
-                        "Missing attribute " + attribute));
-                byte[] value = e.getValue().getSecond();
-                StreamElement element = StreamElement.update(
-                    getEntityDescriptor(), desc, UUID.randomUUID().toString(),
-                    key, attribute, e.getValue().getFirst(), value);
-                consumer.accept(element, (succ, exc) -> {
-                  if (!succ) {
-                    throw new IllegalStateException("Error in observing old data", exc);
-                  }
-                  latch.countDown();
-                });
-              });
+          List<StreamElement> elements = readAll();
+          CountDownLatch latch = new CountDownLatch(elements.size());
+          elements.forEach(element -> consumer.accept(element, (succ, exc) -> {
+            if (!succ) {
+              throw new IllegalStateException("Error in observing old data", exc);
+            }
+            latch.countDown();
+          }));
           latch.await();
         }
       }
     }
 
+    private void flushBatchBasedOnPosition(
+        Position position, BatchedLogObserver observer)
+        throws InterruptedException {
+
+      if (position == Position.OLDEST) {
+        synchronized (data) {
+          List<StreamElement> elements = readAll();
+          if (!elements.isEmpty()) {
+            CountDownLatch latch = new CountDownLatch(1);
+            observer.onNextBatch(elements, () -> 0, (succ, exc) -> {
+              if (!succ) {
+                throw new IllegalStateException("Error in observing old data", exc);
+              }
+              latch.countDown();
+            });
+            latch.await();
+          }
+        }
+      }
+    }
+
+    private List<StreamElement> readAll() {
+      int prefix = getUri().getPath().length() + 1;
+      return data.entrySet()
+          .stream()
+          .sorted((a, b) ->
+              Long.compare(a.getValue().getFirst(), b.getValue().getFirst()))
+          .map(e -> {
+            String[] parts = e.getKey().substring(prefix).split("#");
+            String key = parts[0];
+            String attribute = parts[1];
+            AttributeDescriptor<?> desc = getEntityDescriptor()
+                .findAttribute(attribute, true)
+                .orElseThrow(() -> new IllegalArgumentException(
+                    "Missing attribute " + attribute));
+            byte[] value = e.getValue().getSecond();
+            return StreamElement.update(
+                getEntityDescriptor(), desc, UUID.randomUUID().toString(),
+                key, attribute, e.getValue().getFirst(), value);
+          })
+          .collect(Collectors.toList());
+    }
+
   }
 
   private static final class Reader
@@ -17,10 +17,14 @@ package cz.o2.proxima.storage;
 
 import com.typesafe.config.ConfigFactory;
 import cz.o2.proxima.functional.Consumer;
+import cz.o2.proxima.repository.AttributeDescriptor;
 import cz.o2.proxima.repository.ConfigRepository;
 import cz.o2.proxima.repository.Context;
 import cz.o2.proxima.repository.EntityDescriptor;
 import cz.o2.proxima.repository.Repository;
+import cz.o2.proxima.storage.commitlog.BatchedLogObserver;
+import cz.o2.proxima.storage.commitlog.CommitLogReader;
+import cz.o2.proxima.storage.commitlog.Position;
 import cz.o2.proxima.view.PartitionedLogObserver;
 import cz.o2.proxima.view.PartitionedView;
 import cz.seznam.euphoria.core.client.dataset.Dataset;
@@ -30,13 +34,17 @@ import cz.seznam.euphoria.executor.local.LocalExecutor;
 import java.io.Serializable;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -122,6 +130,53 @@ public class InMemStorageTest implements Serializable {
     latch.get().await();
   }
 
+  @Test(timeout = 10000)
+  public void testObserveBatchFromOldest() throws URISyntaxException {
+    InMemStorage storage = new InMemStorage();
+    DataAccessor accessor = storage.getAccessor(
+        entity, new URI("inmem:///inmemstoragetest-batch"),
+        Collections.emptyMap());
+    CommitLogReader reader = accessor.getCommitLogReader(context())
+        .orElseThrow(() -> new IllegalStateException("Missing commit log reader"));
+    AttributeWriterBase writer = accessor.getWriter(context())
+        .orElseThrow(() -> new IllegalStateException("Missing writer"));
+    AttributeDescriptor<?> data = entity.findAttribute("data")
+        .orElseThrow(() -> new IllegalStateException("Missing attribute data"));
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < 3; i++) {
+      writer.online().write(
+          StreamElement.update(
+              entity, data, UUID.randomUUID().toString(), "key" + i, "data",
+              now + i, new byte[] { 1, 2, 3}),
+          (succ, exc) -> { });
+    }
+    List<List<StreamElement>> batches = new ArrayList<>();
+    reader.observeBulk("test", Position.OLDEST, true, new BatchedLogObserver() {
+
+      @Override
+      public boolean onNextBatch(
+          List<StreamElement> elements, Partition partition,
+          OffsetCommitter committer) {
+
+        batches.add(elements);
+        committer.confirm();
+        return true;
+      }
+
+      @Override
+      public boolean onError(Throwable error) {
+        throw new RuntimeException(error);
+      }
+
+    });
+    assertEquals(1, batches.size());
+    assertEquals(
+        Arrays.asList("key0", "key1", "key2"),
+        batches.get(0).stream()
+            .map(StreamElement::getKey)
+            .collect(Collectors.toList()));
+  }
+
   private Context context() {
     return new Context(() -> Executors.newCachedThreadPool()) { };
   }
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage;
+
+import com.typesafe.config.ConfigFactory;
+import cz.o2.proxima.repository.AttributeDescriptor;
+import cz.o2.proxima.repository.AttributeDescriptorBase;
+import cz.o2.proxima.repository.ConfigRepository;
+import cz.o2.proxima.repository.EntityDescriptor;
+import cz.o2.proxima.repository.Repository;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test suite for {@link LazyStreamElement}.
+ */
+public class LazyStreamElementTest {
+
+  final Repository repo = ConfigRepository.Builder
+      .ofTest(ConfigFactory.empty())
+      .build();
+  final AttributeDescriptorBase<byte[]> attr;
+  final AttributeDescriptorBase<byte[]> attrWildcard;
+  final EntityDescriptor entity;
+  final StreamElementCodec codec;
+
+  {
+    try {
+      attr = AttributeDescriptor
+            .newBuilder(repo)
+            .setEntity("entity")
+            .setName("attr")
+            .setSchemeUri(new URI("bytes:///"))
+            .build();
+
+      attrWildcard = AttributeDescriptor
+            .newBuilder(repo)
+            .setEntity("entity")
+            .setName("wildcard.*")
+            .setSchemeUri(new URI("bytes:///"))
+            .build();
+
+      entity = EntityDescriptor.newBuilder()
+            .setName("entity")
+            .addAttribute(attr)
+            .addAttribute(attrWildcard)
+            .build();
+      codec = StreamElementCodec.of(entity);
+    } catch (Exception ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  @Test
+  public void testUpdate() {
+    StreamElement update = StreamElement.update(
+        entity, attrWildcard, UUID.randomUUID().toString(),
+        "key", "wildcard.1", 1234L, new byte[] { 1, 2 });
+    ByteBuffer buffer = ByteBuffer.wrap(codec.encode(update, true));
+    LazyStreamElement lazy = codec.decodeLazy(buffer, null);
+    assertFalse(buffer.hasRemaining());
+    assertEquals(attrWildcard, lazy.getAttributeDescriptor());
+    assertEquals(entity, lazy.getEntityDescriptor());
+    assertEquals(1234L, lazy.getStamp());
+    assertFalse(lazy.isDelete());
+    assertFalse(lazy.isDeleteWildcard());
+    assertEquals(update.getUuid(), lazy.getUuid());
+    assertEquals("key", lazy.getKey());
+    assertEquals("wildcard.1", lazy.getAttribute());
+    assertArrayEquals(new byte[] { 1, 2 }, lazy.getValue());
+    assertSame(lazy.getValue(), lazy.getValue());
+    assertEquals(update, lazy);
+  }
+
+  @Test
+  public void testDeleteWildcard() {
+    StreamElement delete = StreamElement.deleteWildcard(
+        entity, attrWildcard, UUID.randomUUID().toString(), "key", 1L);
+    LazyStreamElement lazy = codec.decodeLazy(
+        ByteBuffer.wrap(codec.encode(delete, false)), () -> "uuid");
+    assertTrue(lazy.isDelete());
+    assertTrue(lazy.isDeleteWildcard());
+    assertNull(lazy.getValue());
+    assertFalse(lazy.getParsed().isPresent());
+    assertEquals("uuid", lazy.getUuid());
+    assertEquals(delete.getAttribute(), lazy.getAttribute());
+  }
+
+  @Test
+  public void testEncodedBytesPassedThrough() {
+    StreamElement update = StreamElement.update(
+        entity, attr, UUID.randomUUID().toString(),
+        "key", "attr", 1L, new byte[] { 1 });
+    byte[] encoded = codec.encode(update, true);
+    LazyStreamElement lazy = codec.decodeLazy(ByteBuffer.wrap(encoded), null);
+    assertArrayEquals(encoded, codec.encode(lazy, true));
+    assertArrayEquals(
+        encoded,
+        StreamElementCodec.of(entity, codec.getDictionary()).encode(lazy, true));
+    // different dictionary requires encoding
+    StreamElementCodec other = StreamElementCodec.of(
+        entity, Arrays.asList("wildcard.*", "attr"));
+    byte[] reencoded = other.encode(lazy, true);
+    assertFalse(Arrays.equals(encoded, reencoded));
+    assertEquals("attr", other.decode(reencoded).getAttribute());
+    // elided UUID requires encoding
+    assertTrue(codec.encode(lazy, false).length < encoded.length);
+  }
+
+  @Test
+  public void testJavaSerialization() throws Exception {
+    StreamElement update = StreamElement.update(
+        entity, attr, UUID.randomUUID().toString(),
+        "key", "attr", 1L, new byte[] { 1 });
+    LazyStreamElement lazy = codec.decodeLazy(
+        ByteBuffer.wrap(codec.encode(update, true)), null);
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+      oos.writeObject(lazy);
+    }
+    try (ObjectInputStream ois = new ObjectInputStream(
+        new ByteArrayInputStream(baos.toByteArray()))) {
+      StreamElement deserialized = (StreamElement) ois.readObject();
+      assertEquals(update.getUuid(), deserialized.getUuid());
+      assertEquals("key", deserialized.getKey());
+      assertArrayEquals(new byte[] { 1 }, deserialized.getValue());
+    }
+  }
+
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage;
+
+import com.typesafe.config.ConfigFactory;
+import cz.o2.proxima.repository.AttributeDescriptor;
+import cz.o2.proxima.repository.AttributeDescriptorBase;
+import cz.o2.proxima.repository.ConfigRepository;
+import cz.o2.proxima.repository.EntityDescriptor;
+import cz.o2.proxima.repository.Repository;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test suite for {@link StreamElementCodec}.
+ */
+public class StreamElementCodecTest {
+
+  final Repository repo = ConfigRepository.Builder
+      .ofTest(ConfigFactory.empty())
+      .build();
+  final AttributeDescriptorBase<byte[]> attr;
+  final AttributeDescriptorBase<byte[]> attrWildcard;
+  final EntityDescriptor entity;
+  final StreamElementCodec codec;
+
+  {
+    try {
+      attr = AttributeDescriptor
+            .newBuilder(repo)
+            .setEntity("entity")
+            .setName("attr")
+            .setSchemeUri(new URI("bytes:///"))
+            .build();
+
+      attrWildcard = AttributeDescriptor
+            .newBuilder(repo)
+            .setEntity("entity")
+            .setName("wildcard.*")
+            .setSchemeUri(new URI("bytes:///"))
+            .build();
+
+      entity = EntityDescriptor.newBuilder()
+            .setName("entity")
+            .addAttribute(attr)
+            .addAttribute(attrWildcard)
+            .build();
+      codec = StreamElementCodec.of(entity);
+    } catch (Exception ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  @Test
+  public void testDictionary() {
+    assertEquals(Arrays.asList("attr", "wildcard.*"), codec.getDictionary());
+  }
+
+  @Test
+  public void testUpdate() {
+    StreamElement update = StreamElement.update(
+        entity, attr, UUID.randomUUID().toString(),
+        "key", attr.getName(), 1234567890123L, new byte[] { 1, 2 });
+    StreamElement decoded = codec.decode(codec.encode(update, true));
+    assertEqualElements(update, decoded);
+  }
+
+  @Test
+  public void testWildcardUpdate() {
+    StreamElement update = StreamElement.update(
+        entity, attrWildcard, UUID.randomUUID().toString(),
+        "key", "wildcard.1", -1L, new byte[] { 1, 2 });
+    StreamElement decoded = codec.decode(codec.encode(update, true));
+    assertEqualElements(update, decoded);
+  }
+
+  @Test
+  public void testDelete() {
+    StreamElement delete = StreamElement.delete(
+        entity, attrWildcard, UUID.randomUUID().toString(),
+        "key", "wildcard.1", 1L);
+    StreamElement decoded = codec.decode(codec.encode(delete, true));
+    assertEqualElements(delete, decoded);
+    assertTrue(decoded.isDelete());
+    assertFalse(decoded.isDeleteWildcard());
+  }
+
+  @Test
+  public void testDeleteWildcard() {
+    StreamElement delete = StreamElement.deleteWildcard(
+        entity, attrWildcard, UUID.randomUUID().toString(), "key", 1L);
+    StreamElement decoded = codec.decode(codec.encode(delete, true));
+    assertEqualElements(delete, decoded);
+    assertTrue(decoded.isDeleteWildcard());
+  }
+
+  @Test
+  public void testElidedUuid() {
+    StreamElement update = StreamElement.update(
+        entity, attr, UUID.randomUUID().toString(),
+        "key", attr.getName(), 1L, new byte[] { 1 });
+    byte[] withUuid = codec.encode(update, true);
+    byte[] withoutUuid = codec.encode(update, false);
+    assertTrue(withoutUuid.length < withUuid.length);
+    StreamElement decoded = codec.decode(ByteBuffer.wrap(withoutUuid), () -> "uuid");
+    assertEquals("uuid", decoded.getUuid());
+    assertEquals("key", decoded.getKey());
+    assertArrayEquals(new byte[] { 1 }, decoded.getValue());
+  }
+
+  @Test
+  public void testDecodeSliceOfBuffer() {
+    StreamElement update = StreamElement.update(
+        entity, attrWildcard, UUID.randomUUID().toString(),
+        "key", "wildcard.1", 1L, new byte[] { 1, 2, 3 });
+    byte[] encoded = codec.encode(update, true);
+    byte[] framed = new byte[encoded.length + 4];
+    System.arraycopy(encoded, 0, framed, 2, encoded.length);
+    ByteBuffer buffer = ByteBuffer.wrap(framed, 2, encoded.length).slice();
+    assertEqualElements(update, codec.decode(buffer, null));
+    assertFalse(buffer.hasRemaining());
+
+    ByteBuffer direct = ByteBuffer.allocateDirect(encoded.length);
+    direct.put(encoded).flip();
+    assertEqualElements(update, codec.decode(direct, null));
+  }
+
+  @Test
+  public void testDecodeWithPersistedDictionary() {
+    StreamElement update = StreamElement.update(
+        entity, attrWildcard, UUID.randomUUID().toString(),
+        "key", "wildcard.1", 1L, new byte[] { 1 });
+    StreamElementCodec old = StreamElementCodec.of(
+        entity, Arrays.asList("removed", "wildcard.*", "attr"));
+    StreamElement decoded = StreamElementCodec
+        .of(entity, old.getDictionary())
+        .decode(old.encode(update, true));
+    assertEqualElements(update, decoded);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnsupportedVersion() {
+    byte[] encoded = codec.encode(StreamElement.update(
+        entity, attr, UUID.randomUUID().toString(),
+        "key", attr.getName(), 1L, new byte[] { 1 }), true);
+    encoded[0] = StreamElementCodec.VERSION + 1;
+    codec.decode(encoded);
+  }
+
+  private static void assertEqualElements(StreamElement expected, StreamElement actual) {
+    assertEquals(expected.getUuid(), actual.getUuid());
+    assertEquals(expected.getEntityDescriptor(), actual.getEntityDescriptor());
+    assertEquals(expected.getAttributeDescriptor(), actual.getAttributeDescriptor());
+    assertEquals(expected.getKey(), actual.getKey());
+    assertEquals(expected.getAttribute(), actual.getAttribute());
+    assertEquals(expected.getStamp(), actual.getStamp());
+    assertArrayEquals(expected.getValue(), actual.getValue());
+  }
+
+}
@@ -115,4 +115,14 @@ public class StreamElementTest {
     assertFalse(delete.getParsed().isPresent());
   }
 
+  @Test
+  public void testParsedValueCached() {
+    StreamElement update = StreamElement.update(
+        entity, attr, UUID.randomUUID().toString(),
+        "key", attr.getName(), System.currentTimeMillis(), new byte[] { 1, 2 });
+    assertNotSame(update.getParsed(false), update.getParsed(false));
+    assertSame(update.getParsed(), update.getParsed());
+    assertSame(update.getParsed(), update.getParsed(false));
+  }
+
 }
@@ -0,0 +1,181 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.randomaccess;
+
+import com.typesafe.config.ConfigFactory;
+import cz.o2.proxima.repository.AttributeDescriptor;
+import cz.o2.proxima.repository.AttributeFamilyDescriptor;
+import cz.o2.proxima.repository.ConfigRepository;
+import cz.o2.proxima.repository.EntityDescriptor;
+import cz.o2.proxima.repository.Repository;
+import cz.o2.proxima.storage.StreamElement;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test suite for {@link CachingRandomAccessReader}.
+ */
+public class CachingRandomAccessReaderTest {
+
+  final Repository repo;
+  final EntityDescriptor gateway;
+  final AttributeDescriptor<byte[]> armed;
+  final AttributeDescriptor<byte[]> device;
+
+  CachingRandomAccessReader reader;
+  long now;
+
+  @SuppressWarnings("unchecked")
+  public CachingRandomAccessReaderTest() {
+    this.repo = ConfigRepository.Builder.of(
+        ConfigFactory.load()
+            .withFallback(ConfigFactory.load("test-reference.conf"))
+            .resolve()).build();
+    this.gateway = repo.findEntity("gateway").orElseThrow(
+        () -> new IllegalStateException("Missing entity gateway"));
+    this.armed = (AttributeDescriptor) gateway.findAttribute("armed").orElseThrow(
+        () -> new IllegalStateException("Missing attribute armed in gateway"));
+    this.device = (AttributeDescriptor) gateway.findAttribute("device.*").orElseThrow(
+        () -> new IllegalStateException("Missing attribute device.* in gateway"));
+  }
+
+  @Before
+  public void setUp() {
+    now = System.currentTimeMillis();
+    reader = create(10, 60_000L, 60_000L);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    reader.close();
+  }
+
+  private CachingRandomAccessReader create(
+      long maxEntries, long ttl, long negativeTtl) {
+
+    RandomAccessReader base = repo.getAllFamilies()
+        .filter(af -> af.getName().equals("gateway-storage-stream"))
+        .findAny()
+        .flatMap(AttributeFamilyDescriptor::getRandomAccessReader)
+        .orElseThrow(() -> new IllegalStateException(
+            "Cannot get random access reader"));
+    return new CachingRandomAccessReader(
+        "test-" + UUID.randomUUID(), base, maxEntries, ttl, negativeTtl);
+  }
+
+  private void write(AttributeDescriptor<?> attr, String attribute, byte[] value) {
+    repo.getWriter(attr).get().write(StreamElement.update(
+        gateway, attr, UUID.randomUUID().toString(), "gw", attribute,
+        now, value), (succ, exc) -> { });
+  }
+
+  @Test
+  public void testCachedRead() {
+    write(armed, armed.getName(), new byte[] { 1 });
+    Optional<KeyValue<byte[]>> kv = reader.get("gw", armed);
+    assertTrue(kv.isPresent());
+    assertArrayEquals(new byte[] { 1 }, kv.get().getValueBytes());
+    assertEquals(1.0, reader.getMisses().getValue(), 0.0001);
+
+    write(armed, armed.getName(), new byte[] { 2 });
+    kv = reader.get("gw", armed);
+    assertArrayEquals(new byte[] { 1 }, kv.get().getValueBytes());
+    assertEquals(1.0, reader.getHits().getValue(), 0.0001);
+
+    reader.invalidate("gw", armed.getName());
+    kv = reader.get("gw", armed);
+    assertArrayEquals(new byte[] { 2 }, kv.get().getValueBytes());
+    assertEquals(2.0, reader.getMisses().getValue(), 0.0001);
+  }
+
+  @Test
+  public void testReadOlderThanCachedIsNotCached() {
+    write(armed, armed.getName(), new byte[] { 1 });
+    assertTrue(reader.get("gw", armed, now).isPresent());
+    assertFalse(reader.get("gw", armed, now - 1).isPresent());
+    assertEquals(2.0, reader.getMisses().getValue(), 0.0001);
+  }
+
+  @Test
+  public void testNegativeCaching() {
+    assertFalse(reader.get("gw", armed).isPresent());
+    write(armed, armed.getName(), new byte[] { 1 });
+    assertFalse(reader.get("gw", armed).isPresent());
+    assertEquals(1.0, reader.getHits().getValue(), 0.0001);
+  }
+
+  @Test
+  public void testNegativeCachingDisabled() throws IOException {
+    reader.close();
+    reader = create(10, 60_000L, 0L);
+    assertFalse(reader.get("gw", armed).isPresent());
+    write(armed, armed.getName(), new byte[] { 1 });
+    assertTrue(reader.get("gw", armed).isPresent());
+    assertEquals(0.0, reader.getHits().getValue(), 0.0001);
+  }
+
+  @Test
+  public void testInvalidatePrefix() {
+    write(device, device.toAttributePrefix() + "1", new byte[] { 1 });
+    write(armed, armed.getName(), new byte[] { 1 });
+    assertTrue(reader.get("gw", device.toAttributePrefix() + "1", device).isPresent());
+    assertTrue(reader.get("gw", armed).isPresent());
+    reader.invalidatePrefix("gw", device.toAttributePrefix());
+    assertTrue(reader.get("gw", device.toAttributePrefix() + "1", device).isPresent());
+    assertTrue(reader.get("gw", armed).isPresent());
+    assertEquals(1.0, reader.getHits().getValue(), 0.0001);
+    assertEquals(3.0, reader.getMisses().getValue(), 0.0001);
+  }
+
+  @Test
+  public void testEviction() throws IOException {
+    reader.close();
+    reader = create(1, 60_000L, 60_000L);
+    write(device, device.toAttributePrefix() + "1", new byte[] { 1 });
+    write(device, device.toAttributePrefix() + "2", new byte[] { 2 });
+    reader.get("gw", device.toAttributePrefix() + "1", device);
+    reader.get("gw", device.toAttributePrefix() + "2", device);
+    reader.get("gw", device.toAttributePrefix() + "1", device);
+    assertEquals(3.0, reader.getMisses().getValue(), 0.0001);
+    assertEquals(2.0, reader.getEvictions().getValue(), 0.0001);
+  }
+
+  @Test
+  public void testMultiGet() {
+    write(armed, armed.getName(), new byte[] { 1 });
+    write(device, device.toAttributePrefix() + "1", new byte[] { 2 });
+    assertTrue(reader.get("gw", armed).isPresent());
+    List<Optional<KeyValue<?>>> result = reader.multiGet(Arrays.asList(
+        KeyAttribute.of("gw", armed),
+        KeyAttribute.of("gw", device.toAttributePrefix() + "1", device),
+        KeyAttribute.of("gw", device.toAttributePrefix() + "2", device)));
+    assertEquals(3, result.size());
+    assertArrayEquals(new byte[] { 1 }, result.get(0).get().getValueBytes());
+    assertArrayEquals(new byte[] { 2 }, result.get(1).get().getValueBytes());
+    assertFalse(result.get(2).isPresent());
+    assertEquals(1.0, reader.getHits().getValue(), 0.0001);
+    assertEquals(3.0, reader.getMisses().getValue(), 0.0001);
+  }
+
+}
@@ -22,13 +22,21 @@ import cz.o2.proxima.repository.ConfigRepository;
 import cz.o2.proxima.repository.EntityDescriptor;
 import cz.o2.proxima.repository.Repository;
 import cz.o2.proxima.storage.StreamElement;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -98,6 +106,41 @@ public class MultiAccessBuilderTest {
     assertFalse(kv.isPresent());
   }
 
+  @Test
+  public void testMultiGet() {
+    EntityDescriptor gateway = repo.findEntity("gateway").orElseThrow(
+        () -> new IllegalStateException("Missing entity gateway"));
+    AttributeDescriptor<?> armed = gateway.findAttribute("armed").orElseThrow(
+        () -> new IllegalStateException("Missing attribute armed in gateway"));
+    AttributeDescriptor<?> device = gateway.findAttribute("device.*").orElseThrow(
+        () -> new IllegalStateException("Missing attribute device.* in gateway"));
+    RandomAccessReader base = repo.getAllFamilies()
+        .filter(af -> af.getName().equals("gateway-storage-stream"))
+        .findAny()
+        .flatMap(AttributeFamilyDescriptor::getRandomAccessReader)
+        .orElseThrow(() -> new IllegalStateException(
+            "Cannot get random access reader"));
+    reader = RandomAccessReader.newBuilder()
+        .addAttributes(base, armed, device)
+        .build();
+
+    repo.getWriter(armed).get().write(StreamElement.update(
+        gateway, armed, UUID.randomUUID().toString(), "gw", armed.getName(),
+        now, new byte[] { 1, 2 }), (succ, exc) -> { });
+    repo.getWriter(device).get().write(StreamElement.update(
+        gateway, device, UUID.randomUUID().toString(),
+        "gw", device.toAttributePrefix() + "1",
+        now, new byte[] { 2, 3 }), (succ, exc) -> { });
+    List<Optional<KeyValue<?>>> kvs = reader.multiGet(Arrays.asList(
+        KeyAttribute.of("gw", device.toAttributePrefix() + "1", device),
+        KeyAttribute.of("gw", device.toAttributePrefix() + "2", device),
+        KeyAttribute.of("gw", armed)));
+    assertEquals(3, kvs.size());
+    assertArrayEquals(new byte[] { 2, 3 }, kvs.get(0).get().getValueBytes());
+    assertFalse(kvs.get(1).isPresent());
+    assertArrayEquals(new byte[] { 1, 2 }, kvs.get(2).get().getValueBytes());
+  }
+
   @Test
   public void testSingleFamily() {
     EntityDescriptor gateway = repo.findEntity("gateway").orElseThrow(
@@ -282,4 +325,142 @@ public class MultiAccessBuilderTest {
     assertEquals(device.toAttributePrefix() + "1", ordered.get(0).getAttribute());
   }
 
+  @Test
+  public void testParallelScanAllMergesInAttributeOrder() {
+    EntityDescriptor proxied = repo.findEntity("proxied").orElseThrow(
+        () -> new IllegalStateException("Missing entity proxied"));
+    AttributeDescriptor<?> raw = proxied.findAttribute("raw.*").orElseThrow(
+        () -> new IllegalStateException("Missing attribute raw.* in proxied"));
+    AttributeDescriptor<?> event = proxied.findAttribute("_e.*").orElseThrow(
+        () -> new IllegalStateException("Missing attribute _e.* in proxied"));
+    AttributeFamilyDescriptor rawFamily = repo.getAllFamilies()
+        .filter(af -> af.getName().equals("raw-storage"))
+        .findAny()
+        .orElseThrow(() -> new IllegalStateException("Cannot get raw-storage"));
+    AttributeFamilyDescriptor eventFamily = repo.getAllFamilies()
+        .filter(af -> af.getName().equals("proxy-primary"))
+        .findAny()
+        .orElseThrow(() -> new IllegalStateException("Cannot get proxy-primary"));
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      reader = RandomAccessReader.newBuilder()
+          .addFamily(rawFamily)
+          .addFamily(eventFamily)
+          .parallel(executor)
+          .build();
+
+      for (int i = 2; i >= 1; i--) {
+        repo.getWriter(raw).get().write(StreamElement.update(
+            proxied, raw, UUID.randomUUID().toString(), "parallel-key",
+            raw.toAttributePrefix() + i, now, new byte[] { 1 }),
+            (succ, exc) -> { });
+        repo.getWriter(event).get().write(StreamElement.update(
+            proxied, event, UUID.randomUUID().toString(), "parallel-key",
+            event.toAttributePrefix() + i, now, new byte[] { 2 }),
+            (succ, exc) -> { });
+      }
+      List<KeyValue<?>> kvs = new ArrayList<>();
+      reader.scanWildcardAll("parallel-key", null, now, 3, kvs::add);
+      assertEquals(
+          Arrays.asList(
+              event.toAttributePrefix() + 1, event.toAttributePrefix() + 2,
+              raw.toAttributePrefix() + 1),
+          kvs.stream().map(KeyValue::getAttribute).collect(Collectors.toList()));
+
+      List<KeyValue<?>> rest = new ArrayList<>();
+      reader.scanWildcardAll("parallel-key", kvs.get(2).getOffset(), now, -1, rest::add);
+      assertEquals(
+          Arrays.asList(raw.toAttributePrefix() + 2),
+          rest.stream().map(KeyValue::getAttribute).collect(Collectors.toList()));
+
+      // offset of element in the middle of the scan
+      rest.clear();
+      reader.scanWildcardAll("parallel-key", kvs.get(0).getOffset(), now, -1, rest::add);
+      assertEquals(
+          Arrays.asList(
+              event.toAttributePrefix() + 2,
+              raw.toAttributePrefix() + 1, raw.toAttributePrefix() + 2),
+          rest.stream().map(KeyValue::getAttribute).collect(Collectors.toList()));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testParallelReaderSerializable() throws Exception {
+    EntityDescriptor proxied = repo.findEntity("proxied").orElseThrow(
+        () -> new IllegalStateException("Missing entity proxied"));
+    AttributeDescriptor<?> raw = proxied.findAttribute("raw.*").orElseThrow(
+        () -> new IllegalStateException("Missing attribute raw.* in proxied"));
+    AttributeFamilyDescriptor rawFamily = repo.getAllFamilies()
+        .filter(af -> af.getName().equals("raw-storage"))
+        .findAny()
+        .orElseThrow(() -> new IllegalStateException("Cannot get raw-storage"));
+    AttributeFamilyDescriptor eventFamily = repo.getAllFamilies()
+        .filter(af -> af.getName().equals("proxy-primary"))
+        .findAny()
+        .orElseThrow(() -> new IllegalStateException("Cannot get proxy-primary"));
+    repo.getWriter(raw).get().write(StreamElement.update(
+        proxied, raw, UUID.randomUUID().toString(), "serialized-key",
+        raw.toAttributePrefix() + 1, now, new byte[] { 1 }),
+        (succ, exc) -> { });
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      RandomAccessReader parallel = RandomAccessReader.newBuilder()
+          .addFamily(rawFamily)
+          .addFamily(eventFamily)
+          .parallel(executor)
+          .build();
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+        oos.writeObject(parallel);
+      }
+      try (ObjectInputStream ois = new ObjectInputStream(
+          new ByteArrayInputStream(bytes.toByteArray()))) {
+        reader = (RandomAccessReader) ois.readObject();
+      }
+      // the executor is not serialized, the readers are scanned serially
+      List<KeyValue<?>> kvs = new ArrayList<>();
+      reader.scanWildcardAll("serialized-key", null, now, -1, kvs::add);
+      assertEquals(1, kvs.size());
+      assertEquals(raw.toAttributePrefix() + 1, kvs.get(0).getAttribute());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testSequentialScanAllRespectsLimit() {
+    EntityDescriptor proxied = repo.findEntity("proxied").orElseThrow(
+        () -> new IllegalStateException("Missing entity proxied"));
+    AttributeDescriptor<?> raw = proxied.findAttribute("raw.*").orElseThrow(
+        () -> new IllegalStateException("Missing attribute raw.* in proxied"));
+    AttributeDescriptor<?> event = proxied.findAttribute("_e.*").orElseThrow(
+        () -> new IllegalStateException("Missing attribute _e.* in proxied"));
+    reader = RandomAccessReader.newBuilder()
+        .addFamily(repo.getAllFamilies()
+            .filter(af -> af.getName().equals("raw-storage"))
+            .findAny()
+            .orElseThrow(() -> new IllegalStateException("Cannot get raw-storage")))
+        .addFamily(repo.getAllFamilies()
+            .filter(af -> af.getName().equals("proxy-primary"))
+            .findAny()
+            .orElseThrow(() -> new IllegalStateException("Cannot get proxy-primary")))
+        .build();
+    repo.getWriter(raw).get().write(StreamElement.update(
+        proxied, raw, UUID.randomUUID().toString(), "sequential-key",
+        raw.toAttributePrefix() + 1, now, new byte[] { 1 }),
+        (succ, exc) -> { });
+    repo.getWriter(event).get().write(StreamElement.update(
+        proxied, event, UUID.randomUUID().toString(), "sequential-key",
+        event.toAttributePrefix() + 1, now, new byte[] { 2 }),
+        (succ, exc) -> { });
+    List<KeyValue<?>> kvs = new ArrayList<>();
+    reader.scanWildcardAll("sequential-key", null, now, 1, kvs::add);
+    assertEquals(1, kvs.size());
+    reader.scanWildcardAll("sequential-key", kvs.get(0).getOffset(), now, 1, kvs::add);
+    assertEquals(2, kvs.size());
+    assertNotEquals(kvs.get(0).getAttribute(), kvs.get(1).getAttribute());
+  }
+
 }
@@ -25,22 +25,33 @@ import cz.o2.proxima.storage.Partition;
 import cz.o2.proxima.storage.StorageType;
 import cz.o2.proxima.storage.StreamElement;
 import cz.o2.proxima.storage.commitlog.CommitLogReader;
+import cz.o2.proxima.storage.randomaccess.KeyAttribute;
 import cz.o2.proxima.storage.randomaccess.KeyValue;
+import cz.o2.proxima.storage.randomaccess.RandomAccessReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import static org.junit.Assert.*;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 /**
  * Test suite for {@link LocalCachedPartitionedView}.
  */
 public class LocalCachedPartitionedViewTest {
 
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   Repository repo = Repository.of(ConfigFactory.load("test-reference.conf").resolve());
   EntityDescriptor gateway = repo.findEntity("gateway").orElseThrow(
       () -> new IllegalStateException("Missing entity 'gateway'"));
@@ -196,6 +207,139 @@ public class LocalCachedPartitionedViewTest {
     assertEquals(1, elements.size());
   }
 
+  @Test
+  public void testOffHeapBoundedView() {
+    LocalCachedPartitionedView view = new LocalCachedPartitionedView(
+        gateway, reader, writer, 60_000L, 100_000L, true);
+    assertTrue(view.isOffHeap());
+    assertTrue(view.isEvicting());
+    view.assign(singlePartition());
+    writer.write(update("key", armed, now), (succ, exc) -> { });
+    writer.write(update("key", "device.1", device, now), (succ, exc) -> { });
+    KeyValue<?> kv = view.get("key", armed, now).orElseThrow(
+        () -> new IllegalStateException("Missing armed"));
+    assertArrayEquals(new byte[] { 1, 2, 3 }, kv.getValueBytes());
+    List<KeyValue<?>> kvs = new ArrayList<>();
+    view.scanWildcard("key", device, now, kvs::add);
+    assertEquals(1, kvs.size());
+    assertArrayEquals(new byte[] { 1, 2, 3 }, kvs.get(0).getValueBytes());
+  }
+
+  @Test
+  public void testRestoreFromSnapshot() throws IOException {
+    File dir = folder.newFolder();
+    view.setSnapshotDir(dir, 60_000L);
+    view.assign(singlePartition());
+    writer.write(update("key", armed, now), (succ, exc) -> { });
+    // cache only, the element is not in the commit log
+    view.cache(update("key2", "device.1", device, now));
+    view.cache(deleteWildcard("key2", device, now + 1));
+    view.close();
+    assertTrue(view.getSnapshotFile(singlePartition()).exists());
+
+    LocalCachedPartitionedView restored = new LocalCachedPartitionedView(
+        gateway, reader, writer);
+    restored.setSnapshotDir(dir, 60_000L);
+    restored.assign(singlePartition());
+    assertTrue(restored.get("key", armed, now).isPresent());
+    assertTrue(restored.get("key2", "device.1", device, now).isPresent());
+    assertFalse(restored.get("key2", "device.1", device, now + 1).isPresent());
+    restored.close();
+  }
+
+  @Test
+  public void testRestoreFromSnapshotAfterEviction() throws IOException {
+    File dir = folder.newFolder();
+    LocalCachedPartitionedView view = new LocalCachedPartitionedView(
+        gateway, reader, writer, 60_000L, 10_000L, true);
+    view.setSnapshotDir(dir, 60_000L);
+    view.assign(singlePartition());
+    for (int i = 0; i < 100; i++) {
+      writer.write(update("key" + i, armed, now), (succ, exc) -> { });
+    }
+    view.close();
+
+    // keys evicted before the snapshot have to be read from the fallback
+    RandomAccessReader fallback = repo.getFamiliesForAttribute(armed)
+        .stream()
+        .filter(af -> af.getType() == StorageType.PRIMARY)
+        .findAny()
+        .flatMap(af -> af.getRandomAccessReader())
+        .orElseThrow(() -> new IllegalStateException("Missing random access"));
+    LocalCachedPartitionedView restored = new LocalCachedPartitionedView(
+        gateway, reader, writer, 60_000L, 10_000L, true);
+    restored.setFallbackReader(fallback);
+    restored.setSnapshotDir(dir, 60_000L);
+    restored.assign(singlePartition());
+    for (int i = 0; i < 100; i++) {
+      assertTrue(restored.get("key" + i, armed, now).isPresent());
+    }
+    restored.close();
+  }
+
+  @Test
+  public void testSnapshotAfterEvictionNotRestoredToUnboundedView()
+      throws IOException {
+
+    File dir = folder.newFolder();
+    LocalCachedPartitionedView view = new LocalCachedPartitionedView(
+        gateway, reader, writer, 60_000L, 10_000L, false);
+    view.setSnapshotDir(dir, 60_000L);
+    view.assign(singlePartition());
+    for (int i = 0; i < 100; i++) {
+      writer.write(update("key" + i, armed, now), (succ, exc) -> { });
+    }
+    view.close();
+
+    // the snapshot is refused and all data are prefetched
+    this.view.setSnapshotDir(dir, 60_000L);
+    this.view.assign(singlePartition());
+    for (int i = 0; i < 100; i++) {
+      assertTrue(this.view.get("key" + i, armed, now).isPresent());
+    }
+  }
+
+  @Test
+  public void testInvalidSnapshotFallsBackToPrefetch() throws IOException {
+    File dir = folder.newFolder();
+    view.setSnapshotDir(dir, 60_000L);
+    writer.write(update("key", armed, now), (succ, exc) -> { });
+    Files.write(
+        view.getSnapshotFile(singlePartition()).toPath(),
+        new byte[] { 1, 2, 3 });
+    view.assign(singlePartition());
+    assertTrue(view.get("key", armed, now).isPresent());
+    view.close();
+  }
+
+  @Test
+  public void testPrefetchWithMultipleThreads() {
+    for (int i = 0; i < 100; i++) {
+      writer.write(update("key" + i, armed, now), (succ, exc) -> { });
+      writer.write(delete("key" + i, armed, now + 1), (succ, exc) -> { });
+    }
+    view.setPrefetchParallelism(2, 4);
+    view.assign(singlePartition());
+    for (int i = 0; i < 100; i++) {
+      assertTrue(view.get("key" + i, armed, now).isPresent());
+      assertFalse(view.get("key" + i, armed, now + 1).isPresent());
+    }
+  }
+
+  @Test
+  public void testMultiGet() {
+    view.assign(singlePartition());
+    writer.write(update("key", armed, now), (succ, exc) -> { });
+    writer.write(update("key", "device.1", device, now), (succ, exc) -> { });
+    List<Optional<KeyValue<?>>> kvs = view.multiGet(Arrays.asList(
+        KeyAttribute.of("key", armed),
+        KeyAttribute.of("key2", armed),
+        KeyAttribute.of("key", "device.1", device)), now);
+    assertEquals(3, kvs.size());
+    assertTrue(kvs.get(0).isPresent());
+    assertFalse(kvs.get(1).isPresent());
+    assertEquals("device.1", kvs.get(2).get().getAttribute());
+  }
 
   private StreamElement deleteWildcard(
       String key, AttributeDescriptor<?> desc, long stamp) {
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.view;
+
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test suite for {@link OffHeapArena}.
+ */
+public class OffHeapArenaTest {
+
+  @Test
+  public void testAllocateAndRead() {
+    OffHeapArena arena = new OffHeapArena(64);
+    long first = arena.allocate(new byte[] { 1, 2, 3 });
+    long second = arena.allocate(new byte[0]);
+    assertArrayEquals(new byte[] { 1, 2, 3 }, arena.read(first));
+    assertArrayEquals(new byte[0], arena.read(second));
+    assertEquals(64, arena.getAllocatedBytes());
+  }
+
+  @Test
+  public void testSlabReusedWhenReleased() {
+    OffHeapArena arena = new OffHeapArena(64);
+    List<Long> addresses = new ArrayList<>();
+    // 8 bytes per value, fills two slabs
+    for (int i = 0; i < 16; i++) {
+      addresses.add(arena.allocate(new byte[] { 1, 2, 3, (byte) i }));
+    }
+    assertEquals(128, arena.getAllocatedBytes());
+    for (int i = 0; i < 8; i++) {
+      arena.release(addresses.get(i));
+    }
+    // the first slab is reused, its old addresses are invalid
+    for (int i = 16; i < 24; i++) {
+      addresses.add(arena.allocate(new byte[] { 1, 2, 3, (byte) i }));
+    }
+    assertEquals(128, arena.getAllocatedBytes());
+    assertNull(arena.read(addresses.get(0)));
+    assertArrayEquals(new byte[] { 1, 2, 3, 8 }, arena.read(addresses.get(8)));
+    assertArrayEquals(new byte[] { 1, 2, 3, 23 }, arena.read(addresses.get(23)));
+  }
+
+  @Test
+  public void testLargeValue() {
+    OffHeapArena arena = new OffHeapArena(64);
+    byte[] large = new byte[100];
+    large[99] = 1;
+    long address = arena.allocate(large);
+    assertArrayEquals(large, arena.read(address));
+    assertEquals(104, arena.getAllocatedBytes());
+    arena.release(address);
+    assertEquals(0, arena.getAllocatedBytes());
+    assertNull(arena.read(address));
+  }
+
+  @Test
+  public void testClear() {
+    OffHeapArena arena = new OffHeapArena(64);
+    long address = arena.allocate(new byte[] { 1 });
+    arena.clear();
+    assertEquals(0, arena.getAllocatedBytes());
+    assertNull(arena.read(address));
+    long next = arena.allocate(new byte[] { 2 });
+    assertNotEquals(address, next);
+    assertArrayEquals(new byte[] { 2 }, arena.read(next));
+  }
+
+}
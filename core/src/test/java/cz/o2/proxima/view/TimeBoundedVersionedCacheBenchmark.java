@@ -0,0 +1,116 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.view;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Mixed read/write throughput of {@link TimeBoundedVersionedCache}.
+ * The {@code locked} mode wraps every call into a single monitor, which is
+ * how the cache behaved before it was made concurrent.
+ * Run {@link #main} from test classpath to get results for 1 to 32 threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeBoundedVersionedCacheBenchmark {
+
+  private static final int NUM_KEYS = 10_000;
+  private static final int NUM_ATTRIBUTES = 10;
+
+  @Param({ "concurrent", "locked" })
+  String mode;
+
+  /** Percent of operations that are writes. */
+  @Param({ "10" })
+  int writePercent;
+
+  TimeBoundedVersionedCache cache;
+  final Object lock = new Object();
+  final long now = System.currentTimeMillis();
+
+  @Setup
+  public void setup() {
+    cache = new TimeBoundedVersionedCache(60_000L);
+    for (int i = 0; i < NUM_KEYS; i++) {
+      for (int j = 0; j < NUM_ATTRIBUTES; j++) {
+        cache.put("key" + i, "attr." + j, now, false, "value");
+      }
+    }
+  }
+
+  @Benchmark
+  public void mixed(Blackhole bh) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    String key = "key" + random.nextInt(NUM_KEYS);
+    int op = random.nextInt(100);
+    if (mode.equals("locked")) {
+      synchronized (lock) {
+        apply(bh, key, op, random);
+      }
+    } else {
+      apply(bh, key, op, random);
+    }
+  }
+
+  private void apply(
+      Blackhole bh, String key, int op, ThreadLocalRandom random) {
+
+    String attribute = "attr." + random.nextInt(NUM_ATTRIBUTES);
+    if (op < writePercent) {
+      bh.consume(cache.put(
+          key, attribute, now + random.nextInt(1000), false, "value"));
+    } else if (op % 2 == 0) {
+      bh.consume(cache.get(key, attribute, now + 1000));
+    } else {
+      cache.scan(key, "attr.", now + 1000, attr -> null, (attr, value) -> {
+        bh.consume(value);
+        return true;
+      });
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    for (int threads = 1; threads <= 32; threads *= 2) {
+      Options opts = new OptionsBuilder()
+          .include(TimeBoundedVersionedCacheBenchmark.class.getSimpleName())
+          .threads(threads)
+          .build();
+      new Runner(opts).run();
+    }
+  }
+
+}
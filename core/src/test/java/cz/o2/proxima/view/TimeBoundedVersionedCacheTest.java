@@ -16,8 +16,12 @@
 package cz.o2.proxima.view;
 
 import cz.o2.proxima.util.Pair;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
@@ -178,4 +182,98 @@ public class TimeBoundedVersionedCacheTest {
 
   }
 
+  @Test(timeout = 20000)
+  public void testConcurrentPutAndGet() throws InterruptedException {
+    TimeBoundedVersionedCache cache = new TimeBoundedVersionedCache(60_000L);
+    int numThreads = 4;
+    int numWrites = 1000;
+    CountDownLatch latch = new CountDownLatch(2 * numThreads);
+    AtomicReference<Throwable> error = new AtomicReference<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < numThreads; i++) {
+      final String key = "key" + i;
+      threads.add(new Thread(() -> {
+        try {
+          for (int j = 0; j < numWrites; j++) {
+            assertTrue(cache.put(key, "a." + j, now + j, false, j));
+          }
+        } catch (Throwable err) {
+          error.set(err);
+        }
+        latch.countDown();
+      }));
+      threads.add(new Thread(() -> {
+        try {
+          for (int j = 0; j < numWrites; j++) {
+            Pair<Long, Object> value = cache.get(key, "a." + j, Long.MAX_VALUE);
+            if (value != null) {
+              assertEquals(now + j, (long) value.getFirst());
+            }
+            cache.scan(key, "a.", Long.MAX_VALUE, k -> null, (k, v) -> true);
+          }
+        } catch (Throwable err) {
+          error.set(err);
+        }
+        latch.countDown();
+      }));
+    }
+    threads.forEach(Thread::start);
+    latch.await();
+    assertNull(error.get());
+    for (int i = 0; i < numThreads; i++) {
+      assertEquals(numWrites, cache.get("key" + i).size());
+      assertEquals(
+          Pair.of(now + numWrites - 1, numWrites - 1),
+          cache.get("key" + i, "a." + (numWrites - 1), Long.MAX_VALUE));
+    }
+  }
+
+  @Test
+  public void testEvictionWhenSizeExceeded() {
+    TimeBoundedVersionedCache cache = new TimeBoundedVersionedCache(
+        60_000L, 10_000L);
+    assertFalse(cache.isPossiblyEvicted("key0"));
+    for (int i = 0; i < 100; i++) {
+      assertTrue(cache.put("key" + i, "a.1", now, false, i, 4));
+    }
+    assertTrue(cache.getEvictedKeys() > 0);
+    assertTrue(cache.getEstimatedSize() <= 10_000L);
+    // least recently used keys are evicted first
+    assertNull(cache.get("key0"));
+    assertTrue(cache.isPossiblyEvicted("key0"));
+    assertNotNull(cache.get("key99"));
+    assertFalse(cache.isPossiblyEvicted("key99"));
+    // key written after eviction might be incomplete
+    cache.put("key0", "a.2", now, false, 0, 4);
+    assertTrue(cache.isPossiblyEvicted("key0"));
+    // key never evicted is complete even when written after eviction
+    cache.put("new-key", "a.1", now, false, 0, 4);
+    assertFalse(cache.isPossiblyEvicted("new-key"));
+    assertFalse(cache.isPossiblyEvicted("missing-key"));
+    cache.clear();
+    assertEquals(0, cache.getEstimatedSize());
+    assertFalse(cache.isPossiblyEvicted("key0"));
+  }
+
+  @Test
+  public void testReleaseRemovedValues() {
+    List<Object> released = new ArrayList<>();
+    TimeBoundedVersionedCache cache = new TimeBoundedVersionedCache(
+        1_000L, 10_000L, released::add);
+    assertTrue(cache.put("key", "a.1", now, true, "first", 4));
+    // overwritten
+    assertTrue(cache.put("key", "a.1", now, true, "second", 4));
+    assertEquals(1, released.size());
+    assertEquals("first", released.get(0));
+    // expired
+    assertTrue(cache.put("key", "a.1", now + 2_000L, true, "third", 4));
+    assertEquals(2, released.size());
+    assertEquals("second", released.get(1));
+    // evicted
+    for (int i = 0; i < 100; i++) {
+      cache.put("key" + i, "a.1", now, false, i, 4);
+    }
+    assertTrue(released.contains("third"));
+  }
+
 }
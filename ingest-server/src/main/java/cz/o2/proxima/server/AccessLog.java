@@ -0,0 +1,234 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.server;
+
+import com.google.common.base.Preconditions;
+import cz.o2.proxima.server.metrics.Metrics;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Access log of requests of the server. Successful requests are sampled,
+ * failed requests (with status 400 and above) are always logged. Records
+ * are queued without formatting and written in batches by a background
+ * thread to logger {@value #LOGGER_NAME}, records not fitting into the
+ * queue are dropped. The thread runs until the access log is closed.
+ */
+@Slf4j
+public class AccessLog implements AutoCloseable {
+
+  /** Name of the logger of the access log. */
+  static final String LOGGER_NAME = "cz.o2.proxima.server.access";
+
+  /** Maximal number of records written by single log event. */
+  private static final int MAX_BATCH_SIZE = 1000;
+
+  /** Time in milliseconds the writer waits for records before checking close. */
+  private static final long POLL_TIMEOUT_MS = 100;
+
+  /** Maximal time in milliseconds to wait for the writer on close. */
+  private static final long CLOSE_TIMEOUT_MS = 5000;
+
+  private static final Logger ACCESS = LoggerFactory.getLogger(LOGGER_NAME);
+
+  private static class Record {
+
+    final String call;
+    @Nullable
+    final String uuid;
+    @Nullable
+    final String entity;
+    @Nullable
+    final String key;
+    @Nullable
+    final String attribute;
+    final int status;
+    @Nullable
+    final String message;
+    final long durationNanos;
+
+    Record(
+        String call, @Nullable String uuid, @Nullable String entity,
+        @Nullable String key, @Nullable String attribute,
+        int status, @Nullable String message, long durationNanos) {
+
+      this.call = call;
+      this.uuid = uuid;
+      this.entity = entity;
+      this.key = key;
+      this.attribute = attribute;
+      this.status = status;
+      this.message = message;
+      this.durationNanos = durationNanos;
+    }
+
+    void appendTo(StringBuilder sb) {
+      sb.append(call)
+          .append(" status=").append(status)
+          .append(" durationUs=")
+          .append(TimeUnit.NANOSECONDS.toMicros(durationNanos));
+      append(sb, "uuid", uuid);
+      append(sb, "entity", entity);
+      append(sb, "key", key);
+      append(sb, "attribute", attribute);
+      append(sb, "message", message);
+    }
+
+    private static void append(StringBuilder sb, String name, @Nullable String value) {
+      if (value != null && !value.isEmpty()) {
+        sb.append(' ').append(name).append('=').append(value);
+      }
+    }
+
+  }
+
+  private static class DefaultHolder {
+
+    static final AccessLog DEFAULT = new AccessLog(
+        Constants.DEFAULT_ACCESS_LOG_SAMPLE_RATE,
+        Constants.DEFAULT_ACCESS_LOG_QUEUE_SIZE);
+
+  }
+
+  /**
+   * Retrieve access log with default settings shared by services
+   * not configured otherwise. The shared access log is never closed.
+   * @return the shared access log
+   */
+  public static AccessLog getDefault() {
+    return DefaultHolder.DEFAULT;
+  }
+
+  private final double sampleRate;
+  private final BlockingQueue<Record> queue;
+  private final Thread writer;
+  private volatile boolean closed;
+
+  /**
+   * Create access log and start its writer thread.
+   * @param sampleRate ratio of logged successful requests in interval [0, 1]
+   * @param queueSize maximal number of records waiting to be written
+   */
+  public AccessLog(double sampleRate, int queueSize) {
+    Preconditions.checkArgument(
+        sampleRate >= 0 && sampleRate <= 1,
+        "Sample rate must be in interval [0, 1], got %s", sampleRate);
+    Preconditions.checkArgument(queueSize > 0, "Queue size must be positive");
+    this.sampleRate = sampleRate;
+    this.queue = new ArrayBlockingQueue<>(queueSize);
+    this.writer = new Thread(this::run, "access-log-writer");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  /**
+   * Stop the writer thread after it writes the queued records. Records
+   * logged after the access log is closed are dropped.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    try {
+      writer.join(CLOSE_TIMEOUT_MS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Log finished request.
+   * @param call name of the call
+   * @param uuid UUID of the request (if any)
+   * @param entity entity of the request (if any)
+   * @param key key of the request (if any)
+   * @param attribute attribute of the request (if any)
+   * @param status status of the response
+   * @param message status message of the response (if any)
+   * @param startNanos {@link System#nanoTime()} when the request was received
+   */
+  void log(
+      String call, @Nullable String uuid, @Nullable String entity,
+      @Nullable String key, @Nullable String attribute,
+      int status, @Nullable String message, long startNanos) {
+
+    if ((status < 400 && !isSampled()) || !ACCESS.isInfoEnabled()) {
+      return;
+    }
+    if (closed) {
+      Metrics.ACCESS_LOG_DROPPED.increment();
+      return;
+    }
+    Record record = new Record(
+        call, uuid, entity, key, attribute, status,
+        status < 400 ? null : message, System.nanoTime() - startNanos);
+    if (!queue.offer(record)) {
+      Metrics.ACCESS_LOG_DROPPED.increment();
+    }
+  }
+
+  private boolean isSampled() {
+    return sampleRate >= 1.0
+        || sampleRate > 0.0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+  }
+
+  private void run() {
+    List<Record> batch = new ArrayList<>();
+    StringBuilder sb = new StringBuilder();
+    try {
+      while (!closed || !queue.isEmpty()) {
+        Record record = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        if (record != null) {
+          batch.add(record);
+          queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+          write(batch, sb);
+          batch.clear();
+          sb.setLength(0);
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  boolean isRunning() {
+    return writer.isAlive();
+  }
+
+  private void write(List<Record> batch, StringBuilder sb) {
+    try {
+      for (Record record : batch) {
+        if (sb.length() > 0) {
+          sb.append('\n');
+        }
+        record.appendTo(sb);
+      }
+      ACCESS.info(sb.toString());
+      Metrics.ACCESS_LOG_RECORDS.increment(batch.size());
+    } catch (Exception ex) {
+      log.error("Failed to write {} access log records", batch.size(), ex);
+      Metrics.ACCESS_LOG_DROPPED.increment(batch.size());
+    }
+  }
+
+}
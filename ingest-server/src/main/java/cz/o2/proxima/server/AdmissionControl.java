@@ -0,0 +1,107 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.server;
+
+import com.google.common.base.Preconditions;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Global limit of ingest requests that are being written to commit logs.
+ * Streams of requests are paused while the limit is reached and resumed
+ * after enough requests are finished. Single requests over the limit
+ * are rejected.
+ */
+class AdmissionControl {
+
+  private final int maxInflight;
+  private final AtomicInteger inflight = new AtomicInteger();
+  private final Queue<Runnable> paused = new ConcurrentLinkedQueue<>();
+
+  AdmissionControl(int maxInflight) {
+    Preconditions.checkArgument(
+        maxInflight > 0, "Maximal number of inflight requests must be positive");
+    this.maxInflight = maxInflight;
+  }
+
+  /**
+   * Admit given number of requests if the limit is not reached.
+   * @param count number of requests
+   * @return {@code true} if the requests were admitted
+   */
+  boolean tryAcquire(int count) {
+    int current;
+    do {
+      current = inflight.get();
+      if (current >= maxInflight) {
+        return false;
+      }
+    } while (!inflight.compareAndSet(current, current + count));
+    return true;
+  }
+
+  /**
+   * Admit given number of requests that were already accepted by flow control.
+   * @param count number of requests
+   */
+  void acquire(int count) {
+    inflight.addAndGet(count);
+  }
+
+  /**
+   * Mark given number of requests as finished.
+   * @param count number of requests
+   */
+  void release(int count) {
+    if (inflight.addAndGet(-count) < maxInflight) {
+      resumePaused();
+    }
+  }
+
+  /**
+   * Run given action (typically request of next message of a stream)
+   * when the limit is not reached, or after enough requests are released.
+   * @param resume the action to run
+   */
+  void whenAdmitted(Runnable resume) {
+    if (inflight.get() < maxInflight) {
+      resume.run();
+    } else {
+      paused.add(resume);
+      // requests might have been released before the action was queued
+      if (inflight.get() < maxInflight) {
+        resumePaused();
+      }
+    }
+  }
+
+  int getInflight() {
+    return inflight.get();
+  }
+
+  int getPaused() {
+    return paused.size();
+  }
+
+  private void resumePaused() {
+    Runnable resume;
+    while (inflight.get() < maxInflight && (resume = paused.poll()) != null) {
+      resume.run();
+    }
+  }
+
+}
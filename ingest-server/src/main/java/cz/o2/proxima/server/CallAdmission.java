@@ -0,0 +1,211 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.server;
+
+import com.google.common.base.Preconditions;
+import cz.o2.proxima.server.metrics.Metrics;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Global limit of active gRPC calls of the server. The server executes
+ * calls directly in transport threads, so calls over the limit are closed
+ * with retryable status {@code UNAVAILABLE} before any of their work
+ * is queued. Callbacks of admitted calls are dispatched to the call
+ * executor (if any) one at a time in order of their arrival, so that
+ * the executor holds at most one task of each admitted call.
+ */
+@Slf4j
+class CallAdmission implements ServerInterceptor {
+
+  static final Status OVERLOADED = Status.UNAVAILABLE.withDescription(
+      "Too many active calls, retry later");
+
+  private final int maxCalls;
+  @Nullable
+  private final Executor executor;
+  private final AtomicInteger active = new AtomicInteger();
+
+  /**
+   * Create the interceptor.
+   * @param maxCalls maximal number of active calls
+   * @param executor executor of callbacks of the calls, {@code null}
+   *                 to run the callbacks in transport threads
+   */
+  CallAdmission(int maxCalls, @Nullable Executor executor) {
+    Preconditions.checkArgument(
+        maxCalls > 0, "Maximal number of active calls must be positive");
+    this.maxCalls = maxCalls;
+    this.executor = executor;
+  }
+
+  @Override
+  public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+      ServerCall<ReqT, RespT> call,
+      Metadata headers,
+      ServerCallHandler<ReqT, RespT> next) {
+
+    if (active.incrementAndGet() > maxCalls) {
+      active.decrementAndGet();
+      Metrics.OVERLOADED_REQUEST.increment();
+      call.close(OVERLOADED, new Metadata());
+      return new ServerCall.Listener<ReqT>() { };
+    }
+    if (executor == null) {
+      return startDirect(call, headers, next);
+    }
+    return new DispatchingListener<>(call, headers, next);
+  }
+
+  private <ReqT, RespT> ServerCall.Listener<ReqT> startDirect(
+      ServerCall<ReqT, RespT> call,
+      Metadata headers,
+      ServerCallHandler<ReqT, RespT> next) {
+
+    AtomicBoolean released = new AtomicBoolean();
+    ServerCall.Listener<ReqT> delegate;
+    try {
+      delegate = next.startCall(call, headers);
+    } catch (RuntimeException ex) {
+      release(released);
+      throw ex;
+    }
+    return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(
+        delegate) {
+
+      @Override
+      public void onCancel() {
+        release(released);
+        super.onCancel();
+      }
+
+      @Override
+      public void onComplete() {
+        release(released);
+        super.onComplete();
+      }
+
+    };
+  }
+
+  int getActive() {
+    return active.get();
+  }
+
+  private void release(AtomicBoolean released) {
+    if (released.compareAndSet(false, true)) {
+      active.decrementAndGet();
+    }
+  }
+
+  /**
+   * Listener running callbacks of the call in the call executor.
+   */
+  private class DispatchingListener<ReqT, RespT> extends ServerCall.Listener<ReqT> {
+
+    final ServerCall<ReqT, RespT> call;
+    final Executor serial = new SerialExecutor(executor);
+    final AtomicBoolean released = new AtomicBoolean();
+    /** Listener of the service, accessed only by tasks of {@link #serial}. */
+    ServerCall.Listener<ReqT> delegate;
+    /** Set in transport thread when a callback was rejected by the executor. */
+    boolean rejected;
+
+    DispatchingListener(
+        ServerCall<ReqT, RespT> call,
+        Metadata headers,
+        ServerCallHandler<ReqT, RespT> next) {
+
+      this.call = call;
+      dispatch(() -> {
+        try {
+          delegate = next.startCall(call, headers);
+        } catch (RuntimeException ex) {
+          delegate = new ServerCall.Listener<ReqT>() { };
+          throw ex;
+        }
+      });
+    }
+
+    @Override
+    public void onMessage(ReqT message) {
+      dispatch(() -> delegate.onMessage(message));
+    }
+
+    @Override
+    public void onHalfClose() {
+      dispatch(() -> delegate.onHalfClose());
+    }
+
+    @Override
+    public void onReady() {
+      dispatch(() -> delegate.onReady());
+    }
+
+    @Override
+    public void onCancel() {
+      release(released);
+      dispatch(() -> delegate.onCancel());
+    }
+
+    @Override
+    public void onComplete() {
+      release(released);
+      dispatch(() -> delegate.onComplete());
+    }
+
+    private void dispatch(Runnable callback) {
+      if (rejected) {
+        return;
+      }
+      try {
+        serial.execute(() -> {
+          try {
+            callback.run();
+          } catch (RuntimeException ex) {
+            log.error("Error in call {}", call.getMethodDescriptor(), ex);
+            close(Status.fromThrowable(ex));
+          }
+        });
+      } catch (RejectedExecutionException ex) {
+        // the executor rejects only when no callback of the call is running
+        rejected = true;
+        Metrics.OVERLOADED_REQUEST.increment();
+        close(OVERLOADED);
+      }
+    }
+
+    private void close(Status status) {
+      try {
+        call.close(status, new Metadata());
+      } catch (IllegalStateException ex) {
+        log.debug("Call {} already closed", call.getMethodDescriptor(), ex);
+      }
+    }
+
+  }
+
+}
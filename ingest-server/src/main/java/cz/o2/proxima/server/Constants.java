@@ -22,6 +22,71 @@ public class Constants {
 
   public static final String CFG_IGNORE_ERRORS = "ingest.ignore-errors";
   public static final String CFG_PORT = "ingest.server.port";
+
+  /**
+   * Number of lanes used to write elements by consumers of commit logs
+   * into online writers of replica families. Can be overridden for single
+   * family by {@code ingest.consumer.<family>.parallelism}.
+   */
+  public static final String CFG_CONSUMER_PARALLELISM = "ingest.consumer.parallelism";
+  public static final int DEFAULT_CONSUMER_PARALLELISM = 1;
+
+  /**
+   * Number of queued statuses of bulk ingest that triggers sending
+   * of the statuses to the client.
+   */
+  public static final String CFG_BULK_STATUS_FLUSH_COUNT =
+      "ingest.bulk.status-flush-count";
+  public static final int DEFAULT_BULK_STATUS_FLUSH_COUNT = 500;
+
+  /**
+   * Maximal time in milliseconds a status of bulk ingest waits before it
+   * is sent to the client.
+   */
+  public static final String CFG_BULK_STATUS_MAX_LATENCY_MS =
+      "ingest.bulk.status-max-latency-ms";
+  public static final long DEFAULT_BULK_STATUS_MAX_LATENCY_MS = 100L;
+
+  /**
+   * Maximal number of ingest requests being written to commit logs.
+   * Streams of requests are paused and single requests are rejected
+   * with retryable status 503 when the limit is reached.
+   */
+  public static final String CFG_MAX_INFLIGHT_REQUESTS =
+      "ingest.max-inflight-requests";
+  public static final int DEFAULT_MAX_INFLIGHT_REQUESTS = 10000;
+
+  /**
+   * Maximal number of active gRPC calls of the server, calls over the limit
+   * are closed with retryable status {@code UNAVAILABLE}. The limit also
+   * bounds queues of executors of the calls.
+   */
+  public static final String CFG_MAX_ACTIVE_CALLS = "ingest.max-active-calls";
+  public static final int DEFAULT_MAX_ACTIVE_CALLS = 10000;
+
+  /**
+   * Threading of gRPC calls and consumer lanes, one of {@code pool},
+   * {@code virtual} or {@code direct}. See {@link ExecutionMode}.
+   */
+  public static final String CFG_EXECUTION_MODE = "ingest.execution-mode";
+  public static final String DEFAULT_EXECUTION_MODE = "pool";
+
+  /**
+   * Ratio of successful requests written to the access log, failed requests
+   * are always written.
+   */
+  public static final String CFG_ACCESS_LOG_SAMPLE_RATE =
+      "ingest.access-log.sample-rate";
+  public static final double DEFAULT_ACCESS_LOG_SAMPLE_RATE = 0.01;
+
+  /**
+   * Maximal number of access log records waiting to be written, records
+   * over the limit are dropped.
+   */
+  public static final String CFG_ACCESS_LOG_QUEUE_SIZE =
+      "ingest.access-log.queue-size";
+  public static final int DEFAULT_ACCESS_LOG_QUEUE_SIZE = 10000;
+
   public static final int DEFALT_PORT = 4001;
 
   private Constants() {
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.server;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Threading of gRPC calls and of lanes of commit log consumers.
+ */
+@Slf4j
+public enum ExecutionMode {
+
+  /**
+   * Calls are executed in a pool of platform threads, writes are done
+   * in the thread executing the call.
+   */
+  POOL,
+
+  /**
+   * Each call and each consumer lane runs in its own virtual thread,
+   * so that blocking writers don't pin platform threads. Falls back
+   * to {@link #POOL} on JVMs without virtual threads.
+   */
+  VIRTUAL,
+
+  /**
+   * Calls are executed directly in transport (event loop) threads and
+   * the (possibly blocking) writes and reads are offloaded to a pool
+   * of platform threads.
+   */
+  DIRECT;
+
+  /**
+   * Parse mode from configuration.
+   * @param name name of the mode (case insensitive)
+   * @return the mode, resolved to mode supported by this JVM
+   */
+  public static ExecutionMode of(String name) {
+    ExecutionMode ret;
+    try {
+      ret = valueOf(name.toUpperCase());
+    } catch (IllegalArgumentException ex) {
+      throw new IllegalArgumentException(
+          "Unknown execution mode " + name + ", expected one of "
+              + Arrays.toString(values()),
+          ex);
+    }
+    return ret.resolve();
+  }
+
+  /**
+   * Resolve this mode to mode supported by this JVM.
+   * @return the supported mode
+   */
+  public ExecutionMode resolve() {
+    if (this == VIRTUAL && !VirtualThreads.isSupported()) {
+      log.warn(
+          "Virtual threads are not supported by JVM {}, falling back to {}",
+          System.getProperty("java.version"), POOL);
+      return POOL;
+    }
+    return this;
+  }
+
+  /**
+   * Create executor of gRPC calls.
+   * @param queueSize maximal number of calls waiting for a thread
+   * @return the executor or {@code null} if calls should be executed
+   * directly in transport threads
+   */
+  @Nullable
+  Executor newCallExecutor(int queueSize) {
+    switch (this) {
+      case VIRTUAL:
+        return VirtualThreads.newThreadPerTaskExecutor();
+      case DIRECT:
+        return null;
+      default:
+        return newPool(queueSize);
+    }
+  }
+
+  /**
+   * Create executor of writes and reads of gRPC calls.
+   * @param queueSize maximal number of writes and reads waiting for a thread
+   * @return the executor
+   */
+  Executor newOffloadExecutor(int queueSize) {
+    return this == DIRECT ? newPool(queueSize) : MoreExecutors.directExecutor();
+  }
+
+  /**
+   * Create (unstarted daemon) thread of consumer lane.
+   * @param name name of the thread
+   * @param task the task to run in the thread
+   * @return the thread
+   */
+  Thread newThread(String name, Runnable task) {
+    Thread ret = this == VIRTUAL
+        ? VirtualThreads.newThread(name, task)
+        : new Thread(task, name);
+    ret.setDaemon(true);
+    return ret;
+  }
+
+  private static ThreadPoolExecutor newPool(int queueSize) {
+    ThreadPoolExecutor ret = new ThreadPoolExecutor(
+        10 * IngestServer.CORES,
+        10 * IngestServer.CORES,
+        10, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(queueSize));
+    ret.allowCoreThreadTimeOut(true);
+    return ret;
+  }
+
+}
@@ -18,6 +18,7 @@ package cz.o2.proxima.server;
 import com.google.common.collect.Sets;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigUtil;
 import cz.o2.proxima.proto.service.Rpc;
 import cz.o2.proxima.repository.AttributeDescriptor;
 import cz.o2.proxima.repository.AttributeFamilyDescriptor;
@@ -28,6 +29,7 @@ import cz.o2.proxima.repository.TransformationDescriptor;
 import cz.o2.proxima.server.metrics.Metrics;
 import cz.o2.proxima.storage.AttributeWriterBase;
 import cz.o2.proxima.storage.BulkAttributeWriter;
+import cz.o2.proxima.storage.CommitCallback;
 import cz.o2.proxima.storage.OnlineAttributeWriter;
 import cz.o2.proxima.storage.StorageFilter;
 import cz.o2.proxima.storage.StorageType;
@@ -37,8 +39,10 @@ import cz.o2.proxima.storage.commitlog.CommitLogReader;
 import cz.o2.proxima.storage.commitlog.Offset;
 import cz.o2.proxima.storage.commitlog.RetryableBulkObserver;
 import cz.o2.proxima.storage.commitlog.RetryableLogObserver;
+import cz.o2.proxima.storage.randomaccess.CachingRandomAccessReader;
 import cz.o2.proxima.util.Pair;
 import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import net.jodah.failsafe.Failsafe;
@@ -46,18 +50,18 @@ import net.jodah.failsafe.RetryPolicy;
 
 import javax.annotation.Nullable;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -86,14 +90,27 @@ public class IngestServer {
   }
 
 
+  /** Maximal number of elements waiting in single lane of consumer. */
+  private static final int LANE_QUEUE_SIZE = 100;
+
   @Getter
   static final int CORES = Math.max(2, Runtime.getRuntime().availableProcessors());
+
   @Getter
-  final Executor executor = new ThreadPoolExecutor(
-      CORES,
-      10 * CORES,
-      10, TimeUnit.SECONDS,
-      new ArrayBlockingQueue<>(10 * CORES));
+  final ExecutionMode executionMode;
+
+  /**
+   * Executor of gRPC calls, {@code null} when calls are executed in transport
+   * threads. Calls are admitted by {@link CallAdmission} before they are
+   * queued, so the queue holds at most one task of each active call.
+   */
+  @Getter
+  @Nullable
+  final Executor executor;
+
+  /** Executor of writes and reads of gRPC calls. */
+  @Getter
+  final Executor offloadExecutor;
 
   @Getter
   final ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(5);
@@ -126,6 +143,12 @@ public class IngestServer {
     this.ignoreErrors =
         cfg.hasPath(Constants.CFG_IGNORE_ERRORS)
             && cfg.getBoolean(Constants.CFG_IGNORE_ERRORS);
+    this.executionMode = ExecutionMode.of(
+        cfg.hasPath(Constants.CFG_EXECUTION_MODE)
+            ? cfg.getString(Constants.CFG_EXECUTION_MODE)
+            : Constants.DEFAULT_EXECUTION_MODE);
+    this.executor = executionMode.newCallExecutor(getMaxActiveCalls());
+    this.offloadExecutor = executionMode.newOffloadExecutor(getMaxActiveCalls());
   }
 
 
@@ -150,31 +173,24 @@ public class IngestServer {
       return false;
     }
 
-    boolean valid = ingest.isDelete() /* delete is always valid */
-        || attributeDesc.getValueSerializer().isValid(ingest.getValue());
-
-    if (!valid) {
+    if (!isValid(ingest)) {
       log.info("Request {} is not valid", ingest);
       responseConsumer.accept(status(uuid, 412, "Invalid scheme for "
           + entityDesc.getName() + "." + attributeDesc.getName()));
       return false;
     }
 
-    if (ingest.isDelete()) {
-      if (ingest.isDeleteWildcard()) {
-        Metrics.DELETE_WILDCARD_REQUESTS.increment();
-      } else {
-        Metrics.DELETE_REQUESTS.increment();
-      }
-    } else {
-      Metrics.UPDATE_REQUESTS.increment();
-    }
-
+    countRequest(ingest);
     Metrics.COMMIT_LOG_APPEND.increment();
+    invalidateCachedReads(repo, ingest);
     // write the ingest into the commit log and confirm to the client
     log.debug("Writing {} to commit log {}", ingest, writer.getUri());
     writer.write(ingest, (s, exc) -> {
       if (s) {
+        // reads between the invalidation and the write might have cached
+        // the old value again, replicas are invalidated again by consumers
+        // of the commit log once they write the element
+        invalidateCachedReads(repo, ingest);
         responseConsumer.accept(ok(uuid));
       } else {
         responseConsumer.accept(status(uuid, 500, exc.getMessage()));
@@ -183,6 +199,130 @@ public class IngestServer {
     return true;
   }
 
+  /**
+   * Validate and write bulk of ingests. Valid ingests are grouped by their
+   * writer and each group is written by single call to
+   * {@link OnlineAttributeWriter#writeBatch}. Status of each ingest is still
+   * passed to the consumer.
+   * @param repo the repository
+   * @param ingests the ingests to write
+   * @param responseConsumer consumer of statuses of the ingests
+   * @return number of invalid ingests
+   */
+  static int ingestBulk(
+      Repository repo,
+      List<StreamElement> ingests,
+      Consumer<Rpc.Status> responseConsumer) {
+
+    Map<OnlineAttributeWriter, List<StreamElement>> groups = new LinkedHashMap<>();
+    int invalid = 0;
+    for (StreamElement ingest : ingests) {
+      AttributeDescriptor<?> attributeDesc = ingest.getAttributeDescriptor();
+      Optional<OnlineAttributeWriter> writer = repo.getWriter(attributeDesc);
+      if (!writer.isPresent()) {
+        log.warn("Missing writer for request {}", ingest);
+        responseConsumer.accept(
+            status(ingest.getUuid(), 503, "No writer for attribute "
+                + attributeDesc.getName()));
+        invalid++;
+      } else if (!isValid(ingest)) {
+        log.info("Request {} is not valid", ingest);
+        responseConsumer.accept(status(ingest.getUuid(), 412, "Invalid scheme for "
+            + ingest.getEntityDescriptor().getName() + "." + attributeDesc.getName()));
+        invalid++;
+      } else {
+        countRequest(ingest);
+        invalidateCachedReads(repo, ingest);
+        groups.computeIfAbsent(writer.get(), w -> new ArrayList<>()).add(ingest);
+      }
+    }
+    groups.forEach((writer, group) -> {
+      Metrics.COMMIT_LOG_APPEND.increment(group.size());
+      log.debug("Writing {} ingests to commit log {}", group.size(), writer.getUri());
+      CommitCallback callback = (s, exc) -> {
+        for (StreamElement ingest : group) {
+          if (s) {
+            // reads between the invalidation and the write might have cached
+            // the old value again, replicas are invalidated again by consumers
+            // of the commit log once they write the element
+            try {
+              invalidateCachedReads(repo, ingest);
+            } catch (Exception ex) {
+              log.warn("Failed to invalidate cached reads of {}", ingest, ex);
+            }
+            responseConsumer.accept(ok(ingest.getUuid()));
+          } else {
+            responseConsumer.accept(status(ingest.getUuid(), 500, exc.getMessage()));
+          }
+        }
+      };
+      try {
+        writer.writeBatch(group, callback);
+      } catch (Exception ex) {
+        log.error("Failed to write {} ingests to {}", group.size(), writer.getUri(), ex);
+        callback.commit(false, ex);
+      }
+    });
+    return invalid;
+  }
+
+  /**
+   * Check that value of the ingest matches scheme of its attribute.
+   * The value is validated by
+   * {@link cz.o2.proxima.scheme.ValueSerializer#isValid} and not
+   * by {@link StreamElement#getParsed}, because writers of the server
+   * write the serialized value and nothing in the server reads the value
+   * parsed from the ingest. The cached parsed value would only be kept
+   * in memory with the element until it is written.
+   */
+  private static boolean isValid(StreamElement ingest) {
+    return ingest.isDelete() /* delete is always valid */
+        || ingest.getAttributeDescriptor().getValueSerializer().isValid(
+            ingest.getValue());
+  }
+
+  private static void countRequest(StreamElement ingest) {
+    if (ingest.isDelete()) {
+      if (ingest.isDeleteWildcard()) {
+        Metrics.DELETE_WILDCARD_REQUESTS.increment();
+      } else {
+        Metrics.DELETE_REQUESTS.increment();
+      }
+    } else {
+      Metrics.UPDATE_REQUESTS.increment();
+    }
+  }
+
+  /**
+   * Remove cached values of attribute of the ingest from all caching
+   * random access readers.
+   */
+  private static void invalidateCachedReads(Repository repo, StreamElement ingest) {
+    AttributeDescriptor<?> attributeDesc = ingest.getAttributeDescriptor();
+    for (AttributeFamilyDescriptor family : repo.getFamiliesForAttribute(attributeDesc)) {
+      cachingReader(family).ifPresent(reader -> invalidate(reader, ingest));
+    }
+  }
+
+  private static Optional<CachingRandomAccessReader> cachingReader(
+      AttributeFamilyDescriptor family) {
+
+    return family.getRandomAccessReader()
+        .filter(CachingRandomAccessReader.class::isInstance)
+        .map(CachingRandomAccessReader.class::cast);
+  }
+
+  private static void invalidate(
+      CachingRandomAccessReader reader, StreamElement ingest) {
+
+    if (ingest.isDeleteWildcard()) {
+      reader.invalidatePrefix(
+          ingest.getKey(), ingest.getAttributeDescriptor().toAttributePrefix());
+    } else {
+      reader.invalidate(ingest.getKey(), ingest.getAttribute());
+    }
+  }
+
   static Rpc.Status notFound(String uuid, String what) {
     return Rpc.Status.newBuilder()
         .setUuid(uuid)
@@ -206,19 +346,73 @@ public class IngestServer {
         .build();
   }
 
+  private int getBulkStatusFlushCount() {
+    return cfg.hasPath(Constants.CFG_BULK_STATUS_FLUSH_COUNT)
+        ? cfg.getInt(Constants.CFG_BULK_STATUS_FLUSH_COUNT)
+        : Constants.DEFAULT_BULK_STATUS_FLUSH_COUNT;
+  }
+
+  private int getMaxInflightRequests() {
+    return cfg.hasPath(Constants.CFG_MAX_INFLIGHT_REQUESTS)
+        ? cfg.getInt(Constants.CFG_MAX_INFLIGHT_REQUESTS)
+        : Constants.DEFAULT_MAX_INFLIGHT_REQUESTS;
+  }
+
+  private int getMaxActiveCalls() {
+    return cfg.hasPath(Constants.CFG_MAX_ACTIVE_CALLS)
+        ? cfg.getInt(Constants.CFG_MAX_ACTIVE_CALLS)
+        : Constants.DEFAULT_MAX_ACTIVE_CALLS;
+  }
+
+  private double getAccessLogSampleRate() {
+    return cfg.hasPath(Constants.CFG_ACCESS_LOG_SAMPLE_RATE)
+        ? cfg.getDouble(Constants.CFG_ACCESS_LOG_SAMPLE_RATE)
+        : Constants.DEFAULT_ACCESS_LOG_SAMPLE_RATE;
+  }
+
+  private int getAccessLogQueueSize() {
+    return cfg.hasPath(Constants.CFG_ACCESS_LOG_QUEUE_SIZE)
+        ? cfg.getInt(Constants.CFG_ACCESS_LOG_QUEUE_SIZE)
+        : Constants.DEFAULT_ACCESS_LOG_QUEUE_SIZE;
+  }
+
+  private long getBulkStatusMaxLatencyMs() {
+    return cfg.hasPath(Constants.CFG_BULK_STATUS_MAX_LATENCY_MS)
+        ? cfg.getLong(Constants.CFG_BULK_STATUS_MAX_LATENCY_MS)
+        : Constants.DEFAULT_BULK_STATUS_MAX_LATENCY_MS;
+  }
+
   /** Run the server. */
   private void run() {
     final int port = cfg.hasPath(Constants.CFG_PORT)
         ? cfg.getInt(Constants.CFG_PORT)
         : Constants.DEFALT_PORT;
+    // calls are admitted in transport threads and then dispatched
+    // to the executor
+    CallAdmission admission = new CallAdmission(getMaxActiveCalls(), executor);
+    AccessLog accessLog = new AccessLog(
+        getAccessLogSampleRate(), getAccessLogQueueSize());
     io.grpc.Server server = ServerBuilder.forPort(port)
-        .executor(executor)
-        .addService(new IngestService(repo, scheduler))
-        .addService(new RetrieveService(repo))
+        .directExecutor()
+        .addService(ServerInterceptors.intercept(
+            IngestService.newBuilder()
+                .setRepo(repo)
+                .setScheduler(scheduler)
+                .setFlushCount(getBulkStatusFlushCount())
+                .setMaxLatencyMs(getBulkStatusMaxLatencyMs())
+                .setMaxInflight(getMaxInflightRequests())
+                .setOffload(offloadExecutor)
+                .setAccessLog(accessLog)
+                .build(),
+            admission))
+        .addService(ServerInterceptors.intercept(
+            new RetrieveService(repo, offloadExecutor, accessLog), admission))
         .build();
+    log.info("Executing calls in {} mode", executionMode);
     Runtime.getRuntime().addShutdownHook(new Thread(() -> {
       log.info("Gracefully shuting down server.");
       server.shutdown();
+      accessLog.close();
     }));
     Metrics.register();
     startConsumerThreads();
@@ -259,7 +453,8 @@ public class IngestServer {
               new HashSet<>(family.getAttributes());
           final String name = "consumer-" + family.getName();
           registerWriterTo(name, commitLog, allowedAttributes, filter,
-              writer, retryPolicy);
+              writer, cachingReader(family).orElse(null), retryPolicy,
+              getConsumerParallelism(family.getName()));
           log.info(
               "Started consumer {} consuming from log {} with URI {} into {} "
                   + "attributes {}",
@@ -370,7 +565,9 @@ public class IngestServer {
       Set<AttributeDescriptor<?>> allowedAttributes,
       StorageFilter filter,
       AttributeWriterBase writerBase,
-      RetryPolicy retry) {
+      @Nullable CachingRandomAccessReader cachedReads,
+      RetryPolicy retry,
+      int parallelism) {
 
     AbstractRetryableLogObserver observer;
     log.info(
@@ -380,11 +577,13 @@ public class IngestServer {
     if (writerBase.getType() == AttributeWriterBase.Type.ONLINE) {
       OnlineAttributeWriter writer = writerBase.online();
       observer = getOnlineObserver(
-          consumerName, commitLog, allowedAttributes, filter, writer);
+          consumerName, commitLog, allowedAttributes, filter, writer,
+          cachedReads, parallelism);
     } else {
       BulkAttributeWriter writer = writerBase.bulk();
       observer = getBulkObserver(
-          consumerName, commitLog, allowedAttributes, filter, writer, retry);
+          consumerName, commitLog, allowedAttributes, filter, writer,
+          cachedReads, retry);
     }
 
     observer.start();
@@ -397,6 +596,7 @@ public class IngestServer {
       Set<AttributeDescriptor<?>> allowedAttributes,
       StorageFilter filter,
       BulkAttributeWriter writer,
+      @Nullable CachingRandomAccessReader cachedReads,
       RetryPolicy retry) {
 
     return new RetryableBulkObserver(3, consumerName, commitLog) {
@@ -450,7 +650,7 @@ public class IngestServer {
             consumerName, ingest, writer);
 
         writer.write(ingest, (succ, exc) -> confirmWrite(
-            consumerName, ingest, writer, succ, exc,
+            consumerName, ingest, writer, cachedReads, succ, exc,
             committer::confirm, committer::fail));
       }
 
@@ -462,7 +662,19 @@ public class IngestServer {
       CommitLogReader commitLog,
       Set<AttributeDescriptor<?>> allowedAttributes,
       StorageFilter filter,
-      OnlineAttributeWriter writer) {
+      OnlineAttributeWriter writer,
+      @Nullable CachingRandomAccessReader cachedReads,
+      int parallelism) {
+
+    final KeyOrderedLanes lanes = parallelism > 1
+        ? new KeyOrderedLanes(
+            consumerName, parallelism, LANE_QUEUE_SIZE, executionMode)
+        : null;
+    if (lanes != null) {
+      log.info(
+          "Consumer {}: writing into {} with parallelism {}",
+          consumerName, writer.getUri(), parallelism);
+    }
 
     return new RetryableLogObserver(3, consumerName, commitLog) {
 
@@ -475,8 +687,15 @@ public class IngestServer {
         log.debug(
             "Consumer {}: received new stream element {}", consumerName, ingest);
         if (allowed && filter.apply(ingest)) {
-          Failsafe.with(retryPolicy).run(
-              () -> ingestOnlineInternal(ingest, committer));
+          if (lanes != null) {
+            submitToLane(ingest, committer);
+          } else {
+            Failsafe.with(retryPolicy).run(
+                () -> ingestOnlineInternal(ingest, committer));
+          }
+        } else if (lanes != null) {
+          Metrics.COMMIT_UPDATE_DISCARDED.increment();
+          lanes.skip(committer);
         } else {
           Metrics.COMMIT_UPDATE_DISCARDED.increment();
           log.debug(
@@ -490,14 +709,51 @@ public class IngestServer {
         return true;
       }
 
+      @Override
+      public boolean onError(Throwable error) {
+        if (lanes != null) {
+          // the consumer restarts from the last committed offset,
+          // elements processed by lanes would be redelivered
+          lanes.discard(error);
+        }
+        return super.onError(error);
+      }
+
+      @Override
+      public void onCompleted() {
+        closeLanes();
+      }
+
+      @Override
+      public void onCancelled() {
+        closeLanes();
+      }
+
       @Override
       protected void failure() {
+        closeLanes();
         die(String.format(
             "Consumer %s: too many errors retrying the consumption of commit "
                 + "log %s. Killing self.",
             consumerName, commitLog.getUri()));
       }
 
+      private void closeLanes() {
+        if (lanes != null) {
+          lanes.close();
+        }
+      }
+
+      private void submitToLane(StreamElement ingest, OffsetCommitter committer) {
+        try {
+          lanes.submit(ingest, committer, (e, c) -> Failsafe.with(retryPolicy).run(
+              () -> ingestOnlineInternal(e, c)));
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(ex);
+        }
+      }
+
       private void ingestOnlineInternal(
           StreamElement ingest, OffsetCommitter committer) {
 
@@ -505,17 +761,29 @@ public class IngestServer {
             "Consumer {}: writing element {} into {}",
             consumerName, ingest, writer);
         writer.write(ingest, (success, exc) -> confirmWrite(
-            consumerName, ingest, writer, success, exc,
+            consumerName, ingest, writer, cachedReads, success, exc,
             committer::confirm, committer::fail));
       }
 
     };
   }
 
+  private int getConsumerParallelism(String family) {
+    String familyPath = ConfigUtil.joinPath("ingest", "consumer", family, "parallelism");
+    if (cfg.hasPath(familyPath)) {
+      return cfg.getInt(familyPath);
+    }
+    if (cfg.hasPath(Constants.CFG_CONSUMER_PARALLELISM)) {
+      return cfg.getInt(Constants.CFG_CONSUMER_PARALLELISM);
+    }
+    return Constants.DEFAULT_CONSUMER_PARALLELISM;
+  }
+
   private void confirmWrite(
       String consumerName,
       StreamElement ingest,
       AttributeWriterBase writer,
+      @Nullable CachingRandomAccessReader cachedReads,
       boolean success, Throwable exc,
       Runnable onSuccess,
       Consumer<Throwable> onError) {
@@ -540,6 +808,11 @@ public class IngestServer {
       } else {
         Metrics.NON_COMMIT_LOG_UPDATES.increment();
       }
+      if (cachedReads != null) {
+        // reads between the commit log write and this write might have
+        // cached the old value of the replica
+        invalidate(cachedReads, ingest);
+      }
       onSuccess.run();
     }
   }
@@ -15,30 +15,40 @@
  */
 package cz.o2.proxima.server;
 
+import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
-import com.google.protobuf.TextFormat;
+import com.google.common.util.concurrent.MoreExecutors;
 import cz.o2.proxima.proto.service.IngestServiceGrpc;
 import cz.o2.proxima.proto.service.Rpc;
 import cz.o2.proxima.repository.AttributeDescriptor;
 import cz.o2.proxima.repository.EntityDescriptor;
 import cz.o2.proxima.repository.Repository;
+import static cz.o2.proxima.server.IngestServer.ingestBulk;
 import static cz.o2.proxima.server.IngestServer.ingestRequest;
 import static cz.o2.proxima.server.IngestServer.notFound;
 import static cz.o2.proxima.server.IngestServer.status;
 import cz.o2.proxima.server.metrics.Metrics;
 import cz.o2.proxima.storage.StreamElement;
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import javax.annotation.Nullable;
+import lombok.Setter;
+import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -47,143 +57,301 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class IngestService extends IngestServiceGrpc.IngestServiceImplBase {
 
+  /**
+   * Builder of the service.
+   */
+  @Accessors(chain = true)
+  public static final class Builder {
+
+    /** The repository. */
+    @Setter
+    private Repository repo;
+
+    /** Scheduler used to send statuses of bulk ingests. */
+    @Setter
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Number of queued statuses of bulk ingest that are sent to the client
+     * immediately.
+     */
+    @Setter
+    private int flushCount = Constants.DEFAULT_BULK_STATUS_FLUSH_COUNT;
+
+    /**
+     * Maximal time in milliseconds a status of bulk ingest waits before
+     * it is sent to the client.
+     */
+    @Setter
+    private long maxLatencyMs = Constants.DEFAULT_BULK_STATUS_MAX_LATENCY_MS;
+
+    /** Maximal number of requests being written to commit logs. */
+    @Setter
+    private int maxInflight = Constants.DEFAULT_MAX_INFLIGHT_REQUESTS;
+
+    /**
+     * Executor of writes of requests, messages of single stream are written
+     * in order of their arrival.
+     */
+    @Setter
+    private Executor offload = MoreExecutors.directExecutor();
+
+    /** Access log of the requests, the shared one when not set. */
+    @Setter
+    @Nullable
+    private AccessLog accessLog;
+
+    private Builder() { }
+
+    public IngestService build() {
+      return new IngestService(this);
+    }
+
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
   private final Repository repo;
   private final ScheduledExecutorService scheduler;
+  private final int flushCount;
+  private final long maxLatencyNanos;
+  final AdmissionControl admission;
+  private final Executor offload;
+  private final AccessLog accessLog;
 
   public IngestService(
       Repository repo,
       ScheduledExecutorService scheduler) {
 
-    this.repo = repo;
-    this.scheduler = scheduler;
+    this(newBuilder().setRepo(repo).setScheduler(scheduler));
+  }
+
+  private IngestService(Builder builder) {
+    Preconditions.checkArgument(builder.repo != null, "Missing repository");
+    Preconditions.checkArgument(builder.scheduler != null, "Missing scheduler");
+    Preconditions.checkArgument(
+        builder.flushCount > 0, "Flush count must be positive");
+    Preconditions.checkArgument(
+        builder.maxLatencyMs > 0, "Max latency must be positive");
+    Preconditions.checkArgument(builder.offload != null, "Missing offload executor");
+    this.repo = builder.repo;
+    this.scheduler = builder.scheduler;
+    this.flushCount = builder.flushCount;
+    this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(builder.maxLatencyMs);
+    this.admission = new AdmissionControl(builder.maxInflight);
+    this.offload = builder.offload;
+    this.accessLog = builder.accessLog != null
+        ? builder.accessLog
+        : AccessLog.getDefault();
+  }
+
+  /**
+   * Create executor of writes of messages of single stream.
+   */
+  private Executor newStreamExecutor() {
+    return offload == MoreExecutors.directExecutor()
+        ? offload
+        : new SerialExecutor(offload);
+  }
+
+  /**
+   * Switch the call to manual inbound flow control, so that next message
+   * of the stream is requested only after it is admitted by
+   * {@link AdmissionControl}. The caller requests the first message,
+   * gRPC requests it only with automatic flow control.
+   * @param responseObserver observer of responses of the call
+   * @return action requesting next message of the call
+   */
+  private static Runnable requestNextMessage(StreamObserver<?> responseObserver) {
+    if (responseObserver instanceof ServerCallStreamObserver) {
+      ServerCallStreamObserver<?> call = (ServerCallStreamObserver<?>) responseObserver;
+      call.disableAutoInboundFlowControl();
+      return () -> {
+        if (!call.isCancelled()) {
+          call.request(1);
+        }
+      };
+    }
+    // not a gRPC call (e.g. in tests), messages are pushed without flow control
+    return () -> { };
   }
 
+  /**
+   * Observer of single ingests. The response is completed by the status
+   * of the last inflight request after the client completes the stream.
+   */
   private class IngestObserver implements StreamObserver<Rpc.Ingest> {
 
     final StreamObserver<Rpc.Status> responseObserver;
     final AtomicInteger inflightRequests = new AtomicInteger(0);
+    final AtomicBoolean completed = new AtomicBoolean();
+    final AtomicBoolean closed = new AtomicBoolean();
     final Object responseObserverLock = new Object();
+    final Runnable requestNext;
+    final Executor executor = newStreamExecutor();
 
     IngestObserver(StreamObserver<Rpc.Status> responseObserver) {
       this.responseObserver = responseObserver;
+      this.requestNext = requestNextMessage(responseObserver);
+      admission.whenAdmitted(requestNext);
+    }
+
+    private void onStatus(Rpc.Status status) {
+      synchronized (responseObserverLock) {
+        if (!closed.get()) {
+          responseObserver.onNext(status);
+        }
+      }
+      admission.release(1);
+      if (inflightRequests.decrementAndGet() == 0 && completed.get()) {
+        complete();
+      }
+    }
+
+    private void complete() {
+      synchronized (responseObserverLock) {
+        if (closed.compareAndSet(false, true)) {
+          responseObserver.onCompleted();
+        }
+      }
     }
 
     @Override
     public void onNext(Rpc.Ingest request) {
       Metrics.INGEST_SINGLE.increment();
       inflightRequests.incrementAndGet();
-      processSingleIngest(request, status -> {
-        synchronized (responseObserverLock) {
-          responseObserver.onNext(status);
-        }
-        if (inflightRequests.decrementAndGet() == 0) {
-          synchronized (inflightRequests) {
-            inflightRequests.notifyAll();
-          }
-        }
-      });
+      admission.acquire(1);
+      try {
+        executor.execute(() -> processSingleIngest(request, this::onStatus));
+      } catch (RejectedExecutionException ex) {
+        onStatus(overloaded("ingestSingle", request));
+      }
+      admission.whenAdmitted(requestNext);
     }
 
     @Override
     public void onError(Throwable thrwbl) {
       log.error("Error on channel", thrwbl);
       synchronized (responseObserverLock) {
-        responseObserver.onError(thrwbl);
+        if (closed.compareAndSet(false, true)) {
+          responseObserver.onError(thrwbl);
+        }
       }
     }
 
     @Override
     public void onCompleted() {
-      inflightRequests.accumulateAndGet(0, (a, b) -> {
-        int res = a + b;
-        if (res > 0) {
-          synchronized (inflightRequests) {
-            try {
-              while (inflightRequests.get() > 0) {
-                inflightRequests.wait();
-              }
-            } catch (InterruptedException ex) {
-              Thread.currentThread().interrupt();
-            }
-          }
-        }
-        synchronized (responseObserverLock) {
-          responseObserver.onCompleted();
-        }
-        return res;
-      });
+      completed.set(true);
+      // otherwise the status of the last inflight request completes
+      // the response
+      if (inflightRequests.get() == 0) {
+        complete();
+      }
     }
 
   }
 
+  /**
+   * Observer of bulk ingests. Statuses are collected in a multi-producer
+   * queue and sent to the client by a single drain at a time, when
+   * {@code flushCount} statuses are queued or when the oldest queued status
+   * waits for {@code maxLatencyNanos}. Next bulk is requested from the client
+   * only when the number of inflight requests is below the global limit.
+   */
   private class IngestBulkObserver implements StreamObserver<Rpc.IngestBulk> {
 
+    static final int MAX_STATUSES_PER_BULK = 1000;
+
     final StreamObserver<Rpc.StatusBulk> responseObserver;
     final Queue<Rpc.Status> statusQueue = new ConcurrentLinkedQueue<>();
-    final AtomicBoolean completed = new AtomicBoolean(false);
+    /** Number of statuses in {@link #statusQueue}. */
+    final AtomicInteger queued = new AtomicInteger();
     final AtomicInteger inflightRequests = new AtomicInteger();
-    final AtomicLong lastFlushNanos = new AtomicLong(System.nanoTime());
+    final AtomicBoolean completed = new AtomicBoolean();
+    final AtomicBoolean closed = new AtomicBoolean();
+    /** Number of requested drains, the drain runs while non-zero. */
+    final AtomicInteger drainRequests = new AtomicInteger();
+    final AtomicBoolean flushScheduled = new AtomicBoolean();
+    final AtomicBoolean timerScheduled = new AtomicBoolean();
     final Rpc.StatusBulk.Builder builder = Rpc.StatusBulk.newBuilder();
-    static final long MAX_SLEEP_NANOS = 100000000L;
-    static final int MAX_QUEUED_STATUSES = 500;
-
-    Runnable flushTask = createFlushTask();
-
-    // schedule the flush periodically
-    ScheduledFuture<?> flushFuture = scheduler.scheduleAtFixedRate(
-        flushTask, MAX_SLEEP_NANOS, MAX_SLEEP_NANOS, TimeUnit.NANOSECONDS);
+    final Runnable flushTask = () -> {
+      flushScheduled.set(false);
+      drain();
+    };
+    final Runnable timerTask = () -> {
+      timerScheduled.set(false);
+      drain();
+    };
+    final Runnable requestNext;
+    final Executor executor = newStreamExecutor();
 
     IngestBulkObserver(StreamObserver<Rpc.StatusBulk> responseObserver) {
       this.responseObserver = responseObserver;
+      this.requestNext = requestNextMessage(responseObserver);
+      admission.whenAdmitted(requestNext);
     }
 
-    private Runnable createFlushTask() {
-      return () -> {
+    private void onStatus(Rpc.Status status) {
+      admission.release(1);
+      statusQueue.add(status);
+      int size = queued.incrementAndGet();
+      if (size >= flushCount) {
+        if (flushScheduled.compareAndSet(false, true)) {
+          scheduler.execute(flushTask);
+        }
+      } else if (timerScheduled.compareAndSet(false, true)) {
+        scheduler.schedule(timerTask, maxLatencyNanos, TimeUnit.NANOSECONDS);
+      }
+      if (inflightRequests.decrementAndGet() == 0 && completed.get()) {
+        drain();
+      }
+    }
+
+    /**
+     * Send queued statuses to the client. Concurrent calls are merged into
+     * the call that is already draining.
+     */
+    private void drain() {
+      if (drainRequests.getAndIncrement() != 0) {
+        return;
+      }
+      int missed = 1;
+      do {
         try {
-          synchronized (builder) {
-            while (statusQueue.size() > MAX_QUEUED_STATUSES) {
-              peekQueueToBuilderAndFlush();
-            }
-            long now = System.nanoTime();
-            if (now - lastFlushNanos.get() >= MAX_SLEEP_NANOS) {
-              while (!statusQueue.isEmpty()) {
-                peekQueueToBuilderAndFlush();
-              }
-            }
-            if (builder.getStatusCount() > 0) {
-              responseObserver.onNext(builder.build());
-              builder.clear();
-            }
-            if (completed.get()
-                && inflightRequests.get() == 0
-                && statusQueue.isEmpty()) {
-
-              responseObserver.onCompleted();
-            }
-          }
+          drainQueue();
         } catch (Exception ex) {
           log.error("Failed to send bulk status", ex);
         }
-      };
+        missed = drainRequests.addAndGet(-missed);
+      } while (missed != 0);
     }
 
-    private void peekQueueToBuilderAndFlush() {
-      synchronized (builder) {
-        builder.addStatus(statusQueue.poll());
-        if (builder.getStatusCount() >= 1000) {
+    private void drainQueue() {
+      // all statuses are queued before the last inflight request is finished
+      boolean done = completed.get() && inflightRequests.get() == 0;
+      Rpc.Status status;
+      while ((status = statusQueue.poll()) != null) {
+        queued.decrementAndGet();
+        builder.addStatus(status);
+        if (builder.getStatusCount() >= MAX_STATUSES_PER_BULK) {
           flush();
         }
       }
+      flush();
+      if (done && closed.compareAndSet(false, true)) {
+        responseObserver.onCompleted();
+      }
     }
 
     /** Flush response(s) to the observer. */
     private void flush() {
-      synchronized (builder) {
-        lastFlushNanos.set(System.nanoTime());
-        Rpc.StatusBulk bulk = builder.build();
-        if (bulk.getStatusCount() > 0) {
-          responseObserver.onNext(bulk);
-        }
+      if (closed.get()) {
+        // the call was terminated by error
+        builder.clear();
+      } else if (builder.getStatusCount() > 0) {
+        responseObserver.onNext(builder.build());
         builder.clear();
       }
     }
@@ -193,72 +361,41 @@ public class IngestService extends IngestServiceGrpc.IngestServiceImplBase {
       Metrics.INGEST_BULK.increment();
       Metrics.BULK_SIZE.increment(bulk.getIngestCount());
       inflightRequests.addAndGet(bulk.getIngestCount());
-      bulk.getIngestList().stream()
-          .forEach(r -> processSingleIngest(r, status -> {
-            statusQueue.add(status);
-            if (statusQueue.size() >= MAX_QUEUED_STATUSES) {
-              // enqueue flush
-              scheduler.execute(flushTask);
-            }
-            if (inflightRequests.decrementAndGet() == 0) {
-              // there is no more inflight requests
-              synchronized (inflightRequests) {
-                inflightRequests.notifyAll();
-              }
-            }
-          }));
+      admission.acquire(bulk.getIngestCount());
+      try {
+        executor.execute(() -> processBulkIngest(bulk, this::onStatus));
+      } catch (RejectedExecutionException ex) {
+        bulk.getIngestList().forEach(r -> onStatus(overloaded("ingestBulk", r)));
+      }
+      admission.whenAdmitted(requestNext);
     }
 
     @Override
     public void onError(Throwable error) {
       log.error("Error from client", error);
       // close the connection
-      responseObserver.onError(error);
-      flushFuture.cancel(true);
+      if (closed.compareAndSet(false, true)) {
+        responseObserver.onError(error);
+      }
     }
 
-    @SuppressFBWarnings(
-        value = "JLM_JSR166_UTILCONCURRENT_MONITORENTER",
-        justification = "The synchronization on `inflighRequests` is used only for "
-            + "waiting before the flush thread finishes (wait() - notify())")
     @Override
     public void onCompleted() {
       completed.set(true);
-      flushFuture.cancel(true);
-      // flush all responses to the observer
-      synchronized (inflightRequests) {
-        while (inflightRequests.get() > 0) {
-          try {
-            inflightRequests.wait(100);
-          } catch (InterruptedException ex) {
-            log.warn("Interrupted while waiting to send responses to client", ex);
-            Thread.currentThread().interrupt();
-          }
-        }
-      }
-      while (!statusQueue.isEmpty()) {
-        peekQueueToBuilderAndFlush();
-      }
-      flush();
-      responseObserver.onCompleted();
+      // the last status of inflight requests sends the remaining statuses
+      // and completes the response
+      drain();
     }
 
-
   }
 
   private void processSingleIngest(
       Rpc.Ingest request,
       Consumer<Rpc.Status> consumer) {
 
-    if (log.isDebugEnabled()) {
-      log.debug("Processing input ingest {}", TextFormat.shortDebugString(request));
-    }
+    long start = System.nanoTime();
     Consumer<Rpc.Status> loggingConsumer = rpc -> {
-      log.info(
-          "Input ingest {}: {}, {}",
-          TextFormat.shortDebugString(request),
-          rpc.getStatus(),
-          rpc.getStatus() == 200 ? "OK" : rpc.getStatusMessage());
+      logAccess("ingest", request, rpc, start);
       consumer.accept(rpc);
     };
     Metrics.INGESTS.increment();
@@ -272,6 +409,109 @@ public class IngestService extends IngestServiceGrpc.IngestServiceImplBase {
     }
   }
 
+  private void logAccess(
+      String call, Rpc.Ingest request, Rpc.Status status, long start) {
+
+    accessLog.log(
+        call, request.getUuid(), request.getEntity(), request.getKey(),
+        request.getAttribute(), status.getStatus(), status.getStatusMessage(),
+        start);
+  }
+
+  /**
+   * Statuses of requests of single bulk. Each request gets exactly one
+   * status, so that requests failed after an error are not reported
+   * again by writes finished later.
+   */
+  private static class BulkStatuses implements Consumer<Rpc.Status> {
+
+    final Consumer<Rpc.Status> consumer;
+    /** Number of requests waiting for status by their UUIDs. */
+    final Map<String, Integer> pending = new HashMap<>();
+
+    BulkStatuses(Rpc.IngestBulk bulk, Consumer<Rpc.Status> consumer) {
+      this.consumer = consumer;
+      bulk.getIngestList().forEach(r -> pending.merge(r.getUuid(), 1, Integer::sum));
+    }
+
+    @Override
+    public void accept(Rpc.Status status) {
+      synchronized (pending) {
+        Integer count = pending.get(status.getUuid());
+        if (count == null) {
+          // the request was already failed
+          return;
+        }
+        if (count > 1) {
+          pending.put(status.getUuid(), count - 1);
+        } else {
+          pending.remove(status.getUuid());
+        }
+      }
+      consumer.accept(status);
+    }
+
+    /**
+     * Fail all requests waiting for status.
+     * @param error the error
+     */
+    void failPending(Throwable error) {
+      List<String> failed = new ArrayList<>();
+      synchronized (pending) {
+        pending.forEach((uuid, count) -> failed.addAll(Collections.nCopies(count, uuid)));
+        pending.clear();
+      }
+      failed.forEach(uuid -> consumer.accept(
+          status(uuid, 500, String.valueOf(error.getMessage()))));
+    }
+
+  }
+
+  /**
+   * Validate and write all requests of the bulk. Statuses of invalid requests
+   * are passed to the consumer immediately, the valid requests are written
+   * in groups by their writers. When processing of the bulk fails,
+   * all requests without status are failed.
+   */
+  private void processBulkIngest(
+      Rpc.IngestBulk bulk,
+      Consumer<Rpc.Status> consumer) {
+
+    long start = System.nanoTime();
+    BulkStatuses statuses = new BulkStatuses(bulk, rpc -> {
+      accessLog.log(
+          "ingestBulk", rpc.getUuid(), null, null, null,
+          rpc.getStatus(), rpc.getStatusMessage(), start);
+      consumer.accept(rpc);
+    });
+    try {
+      Metrics.INGESTS.increment(bulk.getIngestCount());
+      List<StreamElement> elements = new ArrayList<>(bulk.getIngestCount());
+      int invalid = 0;
+      for (Rpc.Ingest request : bulk.getIngestList()) {
+        try {
+          StreamElement element = toValidStreamElement(request, statuses);
+          if (element != null) {
+            elements.add(element);
+          } else {
+            invalid++;
+          }
+        } catch (Exception err) {
+          log.error("Error processing user request {}", request, err);
+          statuses.accept(status(request.getUuid(), 500, err.getMessage()));
+        }
+      }
+      invalid += ingestBulk(repo, elements, statuses);
+      if (invalid > 0) {
+        Metrics.INVALID_REQUEST.increment(invalid);
+      }
+    } catch (Exception err) {
+      log.error("Error processing bulk of {} requests", bulk.getIngestCount(), err);
+      // statuses of the failed requests release their admission
+      statuses.failPending(err);
+    }
+  }
+
   /**
    * Ingest the given request and return {@code true} if successfully
    * ingested and {@code false} if the request is invalid.
@@ -280,19 +520,35 @@ public class IngestService extends IngestServiceGrpc.IngestServiceImplBase {
       Rpc.Ingest request,
       Consumer<Rpc.Status> consumer) {
 
+    StreamElement element = toValidStreamElement(request, consumer);
+    if (element == null) {
+      return false;
+    }
+    return ingestRequest(repo, element, request.getUuid(), consumer);
+  }
+
+  /**
+   * Convert the request to {@link StreamElement}, or pass status to the
+   * consumer and return {@code null} if the request is invalid.
+   */
+  @Nullable
+  private StreamElement toValidStreamElement(
+      Rpc.Ingest request,
+      Consumer<Rpc.Status> consumer) {
+
     if (Strings.isNullOrEmpty(request.getKey())
         || Strings.isNullOrEmpty(request.getEntity())
         || Strings.isNullOrEmpty(request.getAttribute())) {
       consumer.accept(status(request.getUuid(),
           400, "Missing required fields in input message"));
-      return false;
+      return null;
     }
     Optional<EntityDescriptor> entity = repo.findEntity(request.getEntity());
 
     if (!entity.isPresent()) {
       consumer.accept(notFound(request.getUuid(),
           "Entity " + request.getEntity() + " not found"));
-      return false;
+      return null;
     }
     Optional<AttributeDescriptor<Object>> attr = entity.get().findAttribute(
         request.getAttribute());
@@ -300,11 +556,9 @@ public class IngestService extends IngestServiceGrpc.IngestServiceImplBase {
       consumer.accept(notFound(request.getUuid(),
           "Attribute " + request.getAttribute() + " of entity "
               + entity.get().getName() + " not found"));
-      return false;
+      return null;
     }
-    return ingestRequest(
-        repo, toStreamElement(request, entity.get(), attr.get()),
-        request.getUuid(), consumer);
+    return toStreamElement(request, entity.get(), attr.get());
   }
 
 
@@ -314,10 +568,34 @@ public class IngestService extends IngestServiceGrpc.IngestServiceImplBase {
       Rpc.Ingest request, StreamObserver<Rpc.Status> responseObserver) {
 
     Metrics.INGEST_SINGLE.increment();
-    processSingleIngest(request, status -> {
-      responseObserver.onNext(status);
+    if (!admission.tryAcquire(1)) {
+      responseObserver.onNext(overloaded("ingest", request));
       responseObserver.onCompleted();
-    });
+      return;
+    }
+    try {
+      offload.execute(() -> processSingleIngest(request, status -> {
+        admission.release(1);
+        responseObserver.onNext(status);
+        responseObserver.onCompleted();
+      }));
+    } catch (RejectedExecutionException ex) {
+      admission.release(1);
+      responseObserver.onNext(overloaded("ingest", request));
+      responseObserver.onCompleted();
+    }
+  }
+
+  /**
+   * Create retryable status of request rejected because the server
+   * is overloaded.
+   */
+  private Rpc.Status overloaded(String call, Rpc.Ingest request) {
+    Metrics.OVERLOADED_REQUEST.increment();
+    Rpc.Status status = status(
+        request.getUuid(), 503, "Too many inflight requests, retry later");
+    logAccess(call, request, status, System.nanoTime());
+    return status;
   }
 
 
@@ -0,0 +1,184 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.server;
+
+import cz.o2.proxima.functional.BiConsumer;
+import cz.o2.proxima.storage.StreamElement;
+import cz.o2.proxima.storage.commitlog.LogObserver.OffsetCommitter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Fixed number of threads (lanes) processing elements of single commit log
+ * consumer. Elements are assigned to lanes by hash of their key, so that
+ * elements of the same key are processed in order in which they were
+ * submitted.
+ *
+ * Elements can complete out of order, but the commit log is confirmed
+ * only in order of submission, so that an element is confirmed only after
+ * all preceding elements have been confirmed. When processing of an element
+ * fails, all pending elements are discarded and their committers failed,
+ * because they will be redelivered after the consumer restarts.
+ */
+@Slf4j
+class KeyOrderedLanes implements AutoCloseable {
+
+  private static class Pending {
+
+    final OffsetCommitter committer;
+    boolean done;
+    /** {@code true} when the element was discarded and its committer failed. */
+    boolean discarded;
+
+    Pending(OffsetCommitter committer) {
+      this.committer = committer;
+    }
+
+  }
+
+  private final List<BlockingQueue<Runnable>> queues = new ArrayList<>();
+  private final List<Thread> threads = new ArrayList<>();
+  private final Deque<Pending> pending = new ArrayDeque<>();
+
+  /**
+   * Create and start the lanes.
+   * @param name name of the lanes used for names of threads
+   * @param lanes number of lanes
+   * @param queueSize maximal number of elements waiting in each lane
+   */
+  KeyOrderedLanes(String name, int lanes, int queueSize) {
+    this(name, lanes, queueSize, ExecutionMode.POOL);
+  }
+
+  /**
+   * Create and start the lanes.
+   * @param name name of the lanes used for names of threads
+   * @param lanes number of lanes
+   * @param queueSize maximal number of elements waiting in each lane
+   * @param mode execution mode creating threads of lanes
+   */
+  KeyOrderedLanes(String name, int lanes, int queueSize, ExecutionMode mode) {
+    for (int i = 0; i < lanes; i++) {
+      BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(queueSize);
+      Thread thread = mode.newThread(name + "-lane-" + i, () -> run(queue));
+      queues.add(queue);
+      threads.add(thread);
+    }
+    threads.forEach(Thread::start);
+  }
+
+  private void run(BlockingQueue<Runnable> queue) {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        queue.take().run();
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Submit element to lane of its key. Blocks when the lane is full.
+   * @param ingest the element
+   * @param committer committer of the element
+   * @param processor processor of the element, that has to commit
+   *                  the committer passed to it
+   * @throws InterruptedException when interrupted while waiting
+   */
+  void submit(
+      StreamElement ingest, OffsetCommitter committer,
+      BiConsumer<StreamElement, OffsetCommitter> processor)
+      throws InterruptedException {
+
+    OffsetCommitter ordered = register(committer);
+    int lane = (ingest.getKey().hashCode() & Integer.MAX_VALUE) % queues.size();
+    queues.get(lane).put(() -> {
+      try {
+        processor.accept(ingest, ordered);
+      } catch (Throwable err) {
+        log.error("Error processing {} in lane", ingest, err);
+        ordered.fail(err);
+      }
+    });
+  }
+
+  /**
+   * Confirm element that needs no processing, but that has to be confirmed
+   * after all preceding elements.
+   * @param committer committer of the element
+   */
+  void skip(OffsetCommitter committer) {
+    register(committer).confirm();
+  }
+
+  private OffsetCommitter register(OffsetCommitter committer) {
+    Pending p = new Pending(committer);
+    synchronized (pending) {
+      pending.add(p);
+    }
+    return (success, error) -> {
+      if (success) {
+        synchronized (pending) {
+          if (p.discarded) {
+            return;
+          }
+          p.done = true;
+          while (!pending.isEmpty() && pending.peekFirst().done) {
+            pending.pollFirst().committer.confirm();
+          }
+        }
+      } else {
+        discard(error);
+      }
+    };
+  }
+
+  /**
+   * Discard all elements waiting for processing or confirmation and fail
+   * their committers. Called when the consumer is about to be restarted,
+   * the discarded elements will be redelivered.
+   * @param error the cause of the restart
+   */
+  void discard(Throwable error) {
+    List<Pending> discarded;
+    synchronized (pending) {
+      queues.forEach(BlockingQueue::clear);
+      discarded = new ArrayList<>(pending);
+      discarded.forEach(p -> p.discarded = true);
+      pending.clear();
+    }
+    if (!discarded.isEmpty()) {
+      log.debug("Discarding {} pending elements", discarded.size(), error);
+    }
+    discarded.forEach(p -> p.committer.fail(error));
+  }
+
+  /**
+   * Stop the threads of the lanes and fail committers of elements not yet
+   * confirmed.
+   */
+  @Override
+  public void close() {
+    threads.forEach(Thread::interrupt);
+    discard(new IllegalStateException("Lanes closed"));
+  }
+
+}
@@ -15,8 +15,8 @@
  */
 package cz.o2.proxima.server;
 
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.protobuf.ByteString;
-import com.google.protobuf.TextFormat;
 import cz.o2.proxima.proto.service.RetrieveServiceGrpc;
 import cz.o2.proxima.proto.service.Rpc;
 import cz.o2.proxima.repository.AttributeDescriptor;
@@ -24,12 +24,23 @@ import cz.o2.proxima.repository.AttributeFamilyDescriptor;
 import cz.o2.proxima.repository.EntityDescriptor;
 import cz.o2.proxima.repository.Repository;
 import cz.o2.proxima.server.metrics.Metrics;
+import cz.o2.proxima.storage.randomaccess.KeyAttribute;
 import cz.o2.proxima.storage.randomaccess.KeyValue;
 import cz.o2.proxima.storage.randomaccess.RandomAccessReader;
+import cz.o2.proxima.util.Pair;
 import io.grpc.stub.StreamObserver;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -40,9 +51,23 @@ public class RetrieveService extends RetrieveServiceGrpc.RetrieveServiceImplBase
 
   private final Map<AttributeDescriptor<?>, RandomAccessReader> readerMap;
   private final Repository repo;
+  private final Executor offload;
+  private final AccessLog accessLog;
 
   public RetrieveService(Repository repo) {
+    this(repo, MoreExecutors.directExecutor(), AccessLog.getDefault());
+  }
+
+  /**
+   * Create the service.
+   * @param repo the repository
+   * @param offload executor of (possibly blocking) reads
+   * @param accessLog access log of the requests
+   */
+  public RetrieveService(Repository repo, Executor offload, AccessLog accessLog) {
     this.repo = repo;
+    this.offload = offload;
+    this.accessLog = accessLog;
     this.readerMap = Collections.synchronizedMap(new HashMap<>());
   }
 
@@ -60,9 +85,20 @@ public class RetrieveService extends RetrieveServiceGrpc.RetrieveServiceImplBase
       Rpc.ListRequest request,
       StreamObserver<Rpc.ListResponse> responseObserver) {
 
+    try {
+      offload.execute(() -> processListAttributes(request, responseObserver));
+    } catch (RejectedExecutionException ex) {
+      onListError(request, responseObserver, overloaded(), System.nanoTime());
+    }
+  }
+
+  private void processListAttributes(
+      Rpc.ListRequest request,
+      StreamObserver<Rpc.ListResponse> responseObserver) {
+
+    long start = System.nanoTime();
     try {
       Metrics.LIST_REQUESTS.increment();
-      log.info("Processing listAttributes {}", TextFormat.shortDebugString(request));
       if (request.getEntity().isEmpty() || request.getKey().isEmpty()
           || request.getWildcardPrefix().isEmpty()) {
         throw new Status(400, "Missing some required fields");
@@ -80,90 +116,290 @@ public class RetrieveService extends RetrieveServiceGrpc.RetrieveServiceImplBase
 
       RandomAccessReader reader = instantiateReader(wildcard);
 
-      Rpc.ListResponse.Builder response = Rpc.ListResponse.newBuilder()
-          .setStatus(200);
-
-      reader.scanWildcard(
+      // the response is sent from the thread completing the read,
+      // so that we don't block the calling thread
+      reader.scanWildcardAsync(
           request.getKey(), wildcard,
           reader.fetchOffset(RandomAccessReader.Listing.ATTRIBUTE, request.getOffset()),
-          request.getLimit() > 0 ? request.getLimit() : -1,
-          kv -> response.addValue(
-              Rpc.ListResponse.AttrValue.newBuilder()
-                  .setAttribute(kv.getAttribute())
-                  .setValue(ByteString.copyFrom(kv.getValueBytes()))));
+          System.currentTimeMillis(),
+          request.getLimit() > 0 ? request.getLimit() : -1)
+          .whenComplete((kvs, err) -> {
+            // exceptions thrown here would be swallowed by the future
+            try {
+              if (err != null) {
+                onListError(request, responseObserver, unwrap(err), start);
+              } else {
+                Rpc.ListResponse.Builder response = Rpc.ListResponse.newBuilder()
+                    .setStatus(200);
+                kvs.forEach(kv -> response.addValue(
+                    Rpc.ListResponse.AttrValue.newBuilder()
+                        .setAttribute(kv.getAttribute())
+                        .setValue(ByteString.copyFrom(kv.getValueBytes()))));
+                logList(request, 200, null, start);
+                respond(responseObserver, response.build());
+              }
+            } catch (Exception ex) {
+              onListError(request, responseObserver, ex, start);
+            }
+          });
+    } catch (Exception ex) {
+      onListError(request, responseObserver, ex, start);
+    }
+  }
 
-      responseObserver.onNext(response.build());
-      responseObserver.onCompleted();
-    } catch (Status s) {
-      responseObserver.onNext(Rpc.ListResponse.newBuilder()
+  private void onListError(
+      Rpc.ListRequest request,
+      StreamObserver<Rpc.ListResponse> responseObserver,
+      Throwable error,
+      long start) {
+
+    Rpc.ListResponse response;
+    if (error instanceof Status) {
+      Status s = (Status) error;
+      response = Rpc.ListResponse.newBuilder()
             .setStatus(s.statusCode)
             .setStatusMessage(s.message)
-            .build());
-      responseObserver.onCompleted();
-    } catch (Exception ex) {
-      log.error("Failed to process request {}", request, ex);
-      responseObserver.onNext(Rpc.ListResponse.newBuilder()
+            .build();
+    } else {
+      log.error("Failed to process request {}", request, error);
+      response = Rpc.ListResponse.newBuilder()
           .setStatus(500)
-          .setStatusMessage(ex.getMessage())
-          .build());
-      responseObserver.onCompleted();
+          .setStatusMessage(String.valueOf(error.getMessage()))
+          .build();
     }
+    logList(request, response.getStatus(), response.getStatusMessage(), start);
+    respond(responseObserver, response);
+  }
+
+  private void logList(
+      Rpc.ListRequest request, int status, @Nullable String message, long start) {
+
+    accessLog.log(
+        "listAttributes", null, request.getEntity(), request.getKey(),
+        request.getWildcardPrefix(), status, message, start);
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   public void get(
       Rpc.GetRequest request,
       StreamObserver<Rpc.GetResponse> responseObserver) {
 
-    Metrics.GET_REQUESTS.increment();
-    log.info("Processing get {}", TextFormat.shortDebugString(request));
     try {
-      if (request.getEntity().isEmpty() || request.getKey().isEmpty()
-          || request.getAttribute().isEmpty()) {
-        throw new Status(400, "Missing some required fields");
-      }
-
-      EntityDescriptor entity = repo.findEntity(request.getEntity())
-          .orElseThrow(() -> new Status(
-              404, "Entity " + request.getEntity() + " not found"));
+      offload.execute(() -> processGet(request, responseObserver));
+    } catch (RejectedExecutionException ex) {
+      onGetError(request, responseObserver, overloaded(), System.nanoTime());
+    }
+  }
 
-      AttributeDescriptor<Object> attribute = entity.findAttribute(
-          request.getAttribute()).orElseThrow(
-              () -> new Status(404, "Entity " + request.getEntity()
-                  + " does not have attribute "
-                  + request.getAttribute()));
+  private void processGet(
+      Rpc.GetRequest request,
+      StreamObserver<Rpc.GetResponse> responseObserver) {
 
+    Metrics.GET_REQUESTS.increment();
+    long start = System.nanoTime();
+    try {
+      AttributeDescriptor<Object> attribute = findAttribute(request);
       RandomAccessReader reader = instantiateReader(attribute);
 
-      KeyValue<Object> kv = reader
-          .get(request.getKey(), request.getAttribute(), attribute)
-          .orElseThrow(() -> new Status(
-              404,
-              "Key " + request.getKey() + " and/or attribute "
-                  + request.getAttribute() + " not found"));
+      // the response is sent from the thread completing the read,
+      // so that we don't block the calling thread
+      reader.getAsync(
+          request.getKey(), request.getAttribute(), attribute,
+          System.currentTimeMillis())
+          .whenComplete((kv, err) -> {
+            // exceptions thrown here would be swallowed by the future
+            try {
+              if (err != null) {
+                onGetError(request, responseObserver, unwrap(err), start);
+              } else if (!kv.isPresent()) {
+                onGetError(request, responseObserver, new Status(
+                    404,
+                    "Key " + request.getKey() + " and/or attribute "
+                        + request.getAttribute() + " not found"), start);
+              } else {
+                logGet("get", request, 200, null, start);
+                respond(responseObserver, Rpc.GetResponse.newBuilder()
+                    .setStatus(200)
+                    .setValue(ByteString.copyFrom(kv.get().getValueBytes()))
+                    .build());
+              }
+            } catch (Exception ex) {
+              onGetError(request, responseObserver, ex, start);
+            }
+          });
+    } catch (Exception ex) {
+      onGetError(request, responseObserver, ex, start);
+    }
+  }
 
-      responseObserver.onNext(Rpc.GetResponse.newBuilder()
-          .setStatus(200)
-          .setValue(ByteString.copyFrom(kv.getValueBytes()))
-          .build());
+  private void onGetError(
+      Rpc.GetRequest request,
+      StreamObserver<Rpc.GetResponse> responseObserver,
+      Throwable error,
+      long start) {
 
-      responseObserver.onCompleted();
-    } catch (Status s) {
-      responseObserver.onNext(Rpc.GetResponse.newBuilder()
+    Rpc.GetResponse response = toGetResponse(request, error);
+    logGet("get", request, response.getStatus(), response.getStatusMessage(), start);
+    respond(responseObserver, response);
+  }
+
+  private static Rpc.GetResponse toGetResponse(
+      Rpc.GetRequest request, Throwable error) {
+
+    if (error instanceof Status) {
+      Status s = (Status) error;
+      return Rpc.GetResponse.newBuilder()
             .setStatus(s.statusCode)
             .setStatusMessage(s.message)
-            .build());
+            .build();
+    }
+    log.error("Failed to process request {}", request, error);
+    return Rpc.GetResponse.newBuilder()
+        .setStatus(500)
+        .setStatusMessage(String.valueOf(error.getMessage()))
+        .build();
+  }
+
+  /**
+   * Send the response and complete the call. When the response cannot
+   * be sent (e.g. the call was cancelled), try to fail the call.
+   */
+  private static <T> void respond(StreamObserver<T> responseObserver, T response) {
+    try {
+      responseObserver.onNext(response);
       responseObserver.onCompleted();
     } catch (Exception ex) {
-      log.error("Failed to process request {}", request, ex);
-      responseObserver.onNext(Rpc.GetResponse.newBuilder()
-          .setStatus(500)
-          .setStatusMessage(ex.getMessage())
-          .build());
-      responseObserver.onCompleted();
+      log.warn("Failed to send response", ex);
+      try {
+        responseObserver.onError(ex);
+      } catch (Exception err) {
+        log.debug("Failed to close call", err);
+      }
+    }
+  }
+
+  private void logGet(
+      String call, Rpc.GetRequest request,
+      int status, @Nullable String message, long start) {
+
+    accessLog.log(
+        call, null, request.getEntity(), request.getKey(),
+        request.getAttribute(), status, message, start);
+  }
+
+  /**
+   * Create retryable status of request rejected because the offload
+   * executor is overloaded.
+   */
+  private Status overloaded() {
+    Metrics.OVERLOADED_REQUEST.increment();
+    return new Status(503, "Too many active requests, retry later");
+  }
+
+  private static Throwable unwrap(Throwable error) {
+    if (error instanceof CompletionException && error.getCause() != null) {
+      return error.getCause();
+    }
+    return error;
+  }
+
+  @Override
+  public void multiGet(
+      Rpc.MultiGetRequest request,
+      StreamObserver<Rpc.MultiGetResponse> responseObserver) {
+
+    try {
+      offload.execute(() -> processMultiGet(request, responseObserver));
+    } catch (RejectedExecutionException ex) {
+      Status s = overloaded();
+      Rpc.GetResponse overloaded = Rpc.GetResponse.newBuilder()
+          .setStatus(s.statusCode)
+          .setStatusMessage(s.message)
+          .build();
+      long start = System.nanoTime();
+      Rpc.MultiGetResponse.Builder response = Rpc.MultiGetResponse.newBuilder();
+      for (Rpc.GetRequest get : request.getGetList()) {
+        logGet("multiGet", get, s.statusCode, s.message, start);
+        response.addGet(overloaded);
+      }
+      respond(responseObserver, response.build());
+    }
+  }
+
+  private void processMultiGet(
+      Rpc.MultiGetRequest request,
+      StreamObserver<Rpc.MultiGetResponse> responseObserver) {
+
+    Metrics.MULTI_GET_REQUESTS.increment();
+    long start = System.nanoTime();
+    Rpc.GetResponse[] responses = new Rpc.GetResponse[request.getGetCount()];
+    // requests (with their positions) grouped by readers to read them with
+    Map<RandomAccessReader, List<Pair<Integer, KeyAttribute>>> batches = new HashMap<>();
+    for (int i = 0; i < request.getGetCount(); i++) {
+      Rpc.GetRequest get = request.getGet(i);
+      try {
+        AttributeDescriptor<Object> attribute = findAttribute(get);
+        RandomAccessReader reader = instantiateReader(attribute);
+        batches.computeIfAbsent(reader, k -> new ArrayList<>()).add(Pair.of(
+            i, KeyAttribute.of(get.getKey(), get.getAttribute(), attribute)));
+      } catch (Exception ex) {
+        responses[i] = toGetResponse(get, ex);
+      }
+    }
+    batches.forEach((reader, batch) -> {
+      try {
+        List<Optional<KeyValue<?>>> kvs = reader.multiGet(batch.stream()
+            .map(Pair::getSecond)
+            .collect(Collectors.toList()));
+        for (int i = 0; i < batch.size(); i++) {
+          KeyAttribute get = batch.get(i).getSecond();
+          responses[batch.get(i).getFirst()] = kvs.get(i)
+              .map(kv -> Rpc.GetResponse.newBuilder()
+                  .setStatus(200)
+                  .setValue(ByteString.copyFrom(kv.getValueBytes()))
+                  .build())
+              .orElseGet(() -> Rpc.GetResponse.newBuilder()
+                  .setStatus(404)
+                  .setStatusMessage(
+                      "Key " + get.getKey() + " and/or attribute "
+                          + get.getAttribute() + " not found")
+                  .build());
+        }
+      } catch (Exception ex) {
+        log.error("Failed to process batch of {} requests", batch.size(), ex);
+        Rpc.GetResponse error = Rpc.GetResponse.newBuilder()
+            .setStatus(500)
+            .setStatusMessage(String.valueOf(ex.getMessage()))
+            .build();
+        batch.forEach(p -> responses[p.getFirst()] = error);
+      }
+    });
+    for (int i = 0; i < responses.length; i++) {
+      logGet(
+          "multiGet", request.getGet(i), responses[i].getStatus(),
+          responses[i].getStatusMessage(), start);
     }
+    respond(responseObserver, Rpc.MultiGetResponse.newBuilder()
+        .addAllGet(Arrays.asList(responses))
+        .build());
+  }
+
+  private AttributeDescriptor<Object> findAttribute(
+      Rpc.GetRequest request) throws Status {
+
+    if (request.getEntity().isEmpty() || request.getKey().isEmpty()
+        || request.getAttribute().isEmpty()) {
+      throw new Status(400, "Missing some required fields");
+    }
+
+    EntityDescriptor entity = repo.findEntity(request.getEntity())
+        .orElseThrow(() -> new Status(
+            404, "Entity " + request.getEntity() + " not found"));
 
+    return entity.findAttribute(request.getAttribute()).orElseThrow(
+        () -> new Status(404, "Entity " + request.getEntity()
+            + " does not have attribute "
+            + request.getAttribute()));
   }
 
   private RandomAccessReader instantiateReader(
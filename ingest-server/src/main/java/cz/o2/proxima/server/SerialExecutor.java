@@ -0,0 +1,74 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Executor running tasks one at a time in order of submission
+ * in a delegate executor. Used to keep order of messages of single
+ * stream that are offloaded to a shared pool.
+ */
+@Slf4j
+class SerialExecutor implements Executor {
+
+  private final Executor delegate;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  /** Number of submitted tasks not yet run. */
+  private final AtomicInteger pending = new AtomicInteger();
+
+  SerialExecutor(Executor delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * Run the task after all previously submitted tasks.
+   * @param task the task
+   * @throws RejectedExecutionException when no task is running and the
+   *         delegate rejects to run the task, the task is then discarded
+   */
+  @Override
+  public void execute(Runnable task) {
+    tasks.add(task);
+    if (pending.getAndIncrement() == 0) {
+      try {
+        delegate.execute(this::runAll);
+      } catch (RejectedExecutionException ex) {
+        // tasks of single stream are submitted serially, so no other task
+        // was added in the meantime
+        tasks.remove(task);
+        pending.decrementAndGet();
+        throw ex;
+      }
+    }
+  }
+
+  private void runAll() {
+    do {
+      try {
+        tasks.poll().run();
+      } catch (Exception ex) {
+        log.error("Error running task", ex);
+      }
+    } while (pending.decrementAndGet() != 0);
+  }
+
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Access to virtual threads of JVMs that support them. The server is
+ * compiled for older JVMs, so the API is called by reflection.
+ */
+@Slf4j
+final class VirtualThreads {
+
+  @Nullable
+  private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+  @Nullable
+  private static final Method UNSTARTED = findMethod(
+      "java.lang.Thread$Builder", "unstarted", Runnable.class);
+  @Nullable
+  private static final Method NEW_EXECUTOR = findMethod(
+      Executors.class, "newVirtualThreadPerTaskExecutor");
+  private static final boolean SUPPORTED = checkSupported();
+
+  /**
+   * Check if virtual threads can be created in this JVM.
+   * @return {@code true} if virtual threads are supported
+   */
+  static boolean isSupported() {
+    return SUPPORTED;
+  }
+
+  /**
+   * Create executor starting new virtual thread for each task.
+   * @return the executor
+   */
+  static ExecutorService newThreadPerTaskExecutor() {
+    return (ExecutorService) invoke(NEW_EXECUTOR, null);
+  }
+
+  /**
+   * Create new (unstarted) virtual thread.
+   * @param name name of the thread
+   * @param task the task to run in the thread
+   * @return the thread
+   */
+  static Thread newThread(String name, Runnable task) {
+    Thread ret = (Thread) invoke(UNSTARTED, invoke(OF_VIRTUAL, null), task);
+    ret.setName(name);
+    return ret;
+  }
+
+  @Nullable
+  private static Method findMethod(
+      String cls, String name, Class<?>... parameterTypes) {
+
+    try {
+      return findMethod(Class.forName(cls), name, parameterTypes);
+    } catch (ClassNotFoundException ex) {
+      return null;
+    }
+  }
+
+  @Nullable
+  private static Method findMethod(
+      Class<?> cls, String name, Class<?>... parameterTypes) {
+
+    try {
+      return cls.getMethod(name, parameterTypes);
+    } catch (NoSuchMethodException ex) {
+      return null;
+    }
+  }
+
+  private static Object invoke(
+      @Nullable Method method, @Nullable Object target, Object... args) {
+
+    if (method == null) {
+      throw new UnsupportedOperationException(
+          "Virtual threads are not supported by JVM "
+              + System.getProperty("java.version"));
+    }
+    try {
+      return method.invoke(target, args);
+    } catch (Exception ex) {
+      throw new UnsupportedOperationException(
+          "Failed to call " + method.getName(), ex);
+    }
+  }
+
+  private static boolean checkSupported() {
+    if (OF_VIRTUAL == null || UNSTARTED == null || NEW_EXECUTOR == null) {
+      return false;
+    }
+    try {
+      // virtual threads are preview feature of some JVMs
+      newThread("virtual-threads-check", () -> { });
+      return true;
+    } catch (UnsupportedOperationException ex) {
+      log.debug("Virtual threads are not available", ex);
+      return false;
+    }
+  }
+
+  private VirtualThreads() {
+    // nop
+  }
+
+}
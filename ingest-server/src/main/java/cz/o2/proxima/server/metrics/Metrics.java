@@ -17,11 +17,9 @@ package cz.o2.proxima.server.metrics;
 
 import cz.o2.proxima.metrics.ApproxPercentileMetric;
 import cz.o2.proxima.metrics.Metric;
+import cz.o2.proxima.metrics.MetricsRegistry;
 import cz.o2.proxima.metrics.TimeAveragingMetric;
-import java.lang.management.ManagementFactory;
 import java.time.Duration;
-import javax.management.MBeanServer;
-import javax.management.ObjectName;
 
 /**
  * Metrics related to the ingest server.
@@ -49,6 +47,9 @@ public class Metrics {
   public static final Metric<Double> GET_REQUESTS = TimeAveragingMetric.of(
       GROUP, "get-requests", 1_000);
 
+  public static final Metric<Double> MULTI_GET_REQUESTS = TimeAveragingMetric.of(
+      GROUP, "multi-get-requests", 1_000);
+
   public static final Metric<Double> LIST_REQUESTS = TimeAveragingMetric.of(
       GROUP, "list-requests", 1_000);
 
@@ -82,6 +83,15 @@ public class Metrics {
   public static final Metric<Double> INVALID_ATTRIBUTE = TimeAveragingMetric.of(
       GROUP, "invalid-attribute", 1_000);
 
+  public static final Metric<Double> OVERLOADED_REQUEST = TimeAveragingMetric.of(
+      GROUP, "overloaded-request", 1_000);
+
+  public static final Metric<Double> ACCESS_LOG_RECORDS = TimeAveragingMetric.of(
+      GROUP, "access-log-records", 1_000);
+
+  public static final Metric<Double> ACCESS_LOG_DROPPED = TimeAveragingMetric.of(
+      GROUP, "access-log-dropped", 1_000);
+
   private static final Metric[] ALL = {
     INGEST_SINGLE,
     INGEST_BULK,
@@ -89,6 +99,7 @@ public class Metrics {
     INGESTS,
     COMMIT_LOG_APPEND,
     GET_REQUESTS,
+    MULTI_GET_REQUESTS,
     LIST_REQUESTS,
     UPDATE_REQUESTS,
     DELETE_REQUESTS,
@@ -99,22 +110,15 @@ public class Metrics {
     NON_COMMIT_WRITES_RETRIES,
     INVALID_REQUEST,
     INVALID_ENTITY,
-    INVALID_ATTRIBUTE
+    INVALID_ATTRIBUTE,
+    OVERLOADED_REQUEST,
+    ACCESS_LOG_RECORDS,
+    ACCESS_LOG_DROPPED
   };
 
 
   public static void register() {
-
-    MBeanServer mbs =  ManagementFactory.getPlatformMBeanServer();
-    try {
-      for (Metric m : ALL) {
-        ObjectName mxbeanName = new ObjectName(
-            m.getGroup() + "." + m.getName() + ":type=" + m.getClass().getSimpleName());
-        mbs.registerMBean(m, mxbeanName);
-      }
-    } catch (Exception ex) {
-      throw new RuntimeException(ex);
-    }
+    MetricsRegistry.register(ALL);
   }
 
   private Metrics() {
@@ -0,0 +1,118 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.server;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test suite for {@link AccessLog}.
+ */
+public class AccessLogTest {
+
+  final BlockingQueue<String> written = new LinkedBlockingQueue<>();
+  final AppenderSkeleton appender = new AppenderSkeleton() {
+
+    @Override
+    protected void append(LoggingEvent event) {
+      written.add(event.getRenderedMessage());
+    }
+
+    @Override
+    public void close() {
+      // nop
+    }
+
+    @Override
+    public boolean requiresLayout() {
+      return false;
+    }
+
+  };
+
+  @Before
+  public void setUp() {
+    Logger.getLogger(AccessLog.LOGGER_NAME).addAppender(appender);
+  }
+
+  @After
+  public void tearDown() {
+    Logger.getLogger(AccessLog.LOGGER_NAME).removeAppender(appender);
+  }
+
+  @Test(timeout = 10000)
+  public void testErrorsLoggedWhenNotSampled() throws InterruptedException {
+    try (AccessLog accessLog = new AccessLog(0.0, 10)) {
+      long start = System.nanoTime();
+      accessLog.log("get", null, "gateway", "ok-key", "armed", 200, null, start);
+      accessLog.log(
+          "get", null, "gateway", "missing-key", "armed", 404, "not found", start);
+      String batch = written.take();
+      assertTrue(batch, batch.startsWith("get status=404 durationUs="));
+      assertTrue(batch, batch.contains(" key=missing-key"));
+      assertTrue(batch, batch.contains(" message=not found"));
+      assertFalse(batch, batch.contains("ok-key"));
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testAllSampled() throws InterruptedException {
+    try (AccessLog accessLog = new AccessLog(1.0, 100)) {
+      for (int i = 0; i < 10; i++) {
+        accessLog.log(
+            "ingest", "uuid" + i, "gateway", "key", "armed", 200, "",
+            System.nanoTime());
+      }
+      int records = 0;
+      while (records < 10) {
+        for (String line : written.take().split("\n")) {
+          assertTrue(line, line.startsWith("ingest status=200"));
+          assertTrue(line, line.contains(" uuid=uuid" + records));
+          assertFalse(line, line.contains("message="));
+          records++;
+        }
+      }
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testCloseWritesQueuedRecords() {
+    AccessLog accessLog = new AccessLog(1.0, 100);
+    accessLog.log("get", null, "gateway", "key", "armed", 200, null, System.nanoTime());
+    accessLog.close();
+    assertFalse(accessLog.isRunning());
+    assertEquals(1, written.size());
+    assertTrue(written.poll().startsWith("get status=200"));
+
+    // records logged after close are dropped
+    accessLog.log("get", null, "gateway", "key", "armed", 200, null, System.nanoTime());
+    assertTrue(written.isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSampleRate() {
+    new AccessLog(2.0, 10);
+  }
+
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test suite for {@link AdmissionControl}.
+ */
+public class AdmissionControlTest {
+
+  final AdmissionControl admission = new AdmissionControl(2);
+
+  @Test
+  public void testTryAcquireRejectsOverLimit() {
+    assertTrue(admission.tryAcquire(1));
+    assertTrue(admission.tryAcquire(1));
+    assertFalse(admission.tryAcquire(1));
+    assertEquals(2, admission.getInflight());
+    admission.release(1);
+    assertTrue(admission.tryAcquire(1));
+  }
+
+  @Test
+  public void testStreamPausedUntilReleased() {
+    AtomicInteger requested = new AtomicInteger();
+    admission.acquire(1);
+    admission.whenAdmitted(requested::incrementAndGet);
+    assertEquals(1, requested.get());
+
+    // bulk over the limit pauses the stream
+    admission.acquire(3);
+    admission.whenAdmitted(requested::incrementAndGet);
+    assertEquals(1, requested.get());
+    assertEquals(1, admission.getPaused());
+
+    admission.release(2);
+    assertEquals(1, requested.get());
+    admission.release(1);
+    assertEquals(2, requested.get());
+    assertEquals(0, admission.getPaused());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidLimit() {
+    new AdmissionControl(0);
+  }
+
+}
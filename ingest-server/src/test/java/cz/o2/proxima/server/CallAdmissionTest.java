@@ -0,0 +1,168 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.server;
+
+import com.google.protobuf.ByteString;
+import com.typesafe.config.ConfigFactory;
+import cz.o2.proxima.proto.service.IngestServiceGrpc;
+import cz.o2.proxima.proto.service.Rpc;
+import cz.o2.proxima.repository.Repository;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test suite for {@link CallAdmission}.
+ */
+public class CallAdmissionTest {
+
+  final Repository repo = Repository.of(ConfigFactory.parseString(
+      "entities.slow.attributes.data.scheme: \"bytes:///\"\n"
+          + "attributeFamilies.slow-storage {\n"
+          + "  entity: slow\n"
+          + "  attributes: [ data ]\n"
+          + "  storage: \"slow:///slow\"\n"
+          + "  type: primary\n"
+          + "  access: write-only\n"
+          + "  latency-ms: 500\n"
+          + "}\n").resolve());
+  final Rpc.Ingest request = Rpc.Ingest.newBuilder()
+      .setEntity("slow")
+      .setAttribute("data")
+      .setKey("key")
+      .setUuid(UUID.randomUUID().toString())
+      .setValue(ByteString.EMPTY)
+      .build();
+  final BlockingQueue<Rpc.Status> statuses = new LinkedBlockingQueue<>();
+  final BlockingQueue<Throwable> errors = new LinkedBlockingQueue<>();
+  final StreamObserver<Rpc.Status> observer = new StreamObserver<Rpc.Status>() {
+
+    @Override
+    public void onNext(Rpc.Status status) {
+      statuses.add(status);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      errors.add(error);
+    }
+
+    @Override
+    public void onCompleted() {
+      // nop
+    }
+
+  };
+
+  ScheduledExecutorService scheduler;
+  Server server;
+  ManagedChannel channel;
+
+  @Before
+  public void setUp() {
+    scheduler = new ScheduledThreadPoolExecutor(1);
+  }
+
+  @After
+  public void tearDown() {
+    if (channel != null) {
+      channel.shutdownNow();
+    }
+    if (server != null) {
+      server.shutdownNow();
+    }
+    scheduler.shutdownNow();
+  }
+
+  @Test(timeout = 10000)
+  public void testCallsOverLimitRejected() throws Exception {
+    ExecutorService executor = (ExecutorService) ExecutionMode.POOL
+        .newCallExecutor(1);
+    CallAdmission admission = new CallAdmission(1, executor);
+    IngestServiceGrpc.IngestServiceStub stub = start(admission);
+
+    // the first call blocks in the writer
+    stub.ingest(request, observer);
+    assertEquals(1, admission.getActive());
+    stub.ingest(request, observer);
+    assertEquals(
+        Status.Code.UNAVAILABLE, Status.fromThrowable(errors.take()).getCode());
+
+    assertEquals(200, statuses.take().getStatus());
+    while (admission.getActive() > 0) {
+      Thread.sleep(10);
+    }
+    stub.ingest(request, observer);
+    assertEquals(200, statuses.take().getStatus());
+    assertTrue(errors.isEmpty());
+    executor.shutdownNow();
+  }
+
+  @Test(timeout = 10000)
+  public void testCallRejectedByExecutor() throws Exception {
+    Executor executor = task -> {
+      throw new RejectedExecutionException("Queue is full");
+    };
+    CallAdmission admission = new CallAdmission(10, executor);
+    IngestServiceGrpc.IngestServiceStub stub = start(admission);
+
+    stub.ingest(request, observer);
+    assertEquals(
+        Status.Code.UNAVAILABLE, Status.fromThrowable(errors.take()).getCode());
+    while (admission.getActive() > 0) {
+      Thread.sleep(10);
+    }
+    assertTrue(statuses.isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidLimit() {
+    new CallAdmission(0, null);
+  }
+
+  private IngestServiceGrpc.IngestServiceStub start(CallAdmission admission)
+      throws IOException {
+
+    String name = "call-admission-" + UUID.randomUUID();
+    server = InProcessServerBuilder.forName(name)
+        .directExecutor()
+        .addService(ServerInterceptors.intercept(
+            new IngestService(repo, scheduler), admission))
+        .build()
+        .start();
+    channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+    return IngestServiceGrpc.newStub(channel);
+  }
+
+}
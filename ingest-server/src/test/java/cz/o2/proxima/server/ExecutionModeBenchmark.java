@@ -0,0 +1,186 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.server;
+
+import com.google.protobuf.ByteString;
+import com.typesafe.config.ConfigFactory;
+import cz.o2.proxima.proto.service.IngestServiceGrpc;
+import cz.o2.proxima.proto.service.Rpc;
+import cz.o2.proxima.repository.Repository;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Throughput and latency of unary ingests written by a blocking writer
+ * ({@link SlowStorage}) in each {@link ExecutionMode}. Each operation
+ * sends {@code concurrency} requests at once through an in-process
+ * channel and waits for all their statuses, so the sampled time is
+ * the latency of the slowest request of the batch.
+ * Run {@link #main} from test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecutionModeBenchmark {
+
+  @Param({ "pool", "virtual", "direct" })
+  String mode;
+
+  /** Time in milliseconds the writer blocks for each write. */
+  @Param({ "2" })
+  long writerLatencyMs;
+
+  /** Number of concurrent requests. */
+  @Param({ "1000" })
+  int concurrency;
+
+  final AtomicInteger failed = new AtomicInteger();
+  ScheduledExecutorService scheduler;
+  Executor callExecutor;
+  Executor offloadExecutor;
+  AccessLog accessLog;
+  Server server;
+  ManagedChannel channel;
+  IngestServiceGrpc.IngestServiceStub stub;
+  Rpc.Ingest request;
+
+  @Setup
+  public void setup() throws IOException {
+    Repository repo = Repository.of(ConfigFactory.parseString(
+        "entities.bench.attributes.data.scheme: \"bytes:///\"\n"
+            + "attributeFamilies.bench-slow {\n"
+            + "  entity: bench\n"
+            + "  attributes: [ data ]\n"
+            + "  storage: \"slow:///bench\"\n"
+            + "  type: primary\n"
+            + "  access: write-only\n"
+            + "  latency-ms: " + writerLatencyMs + "\n"
+            + "}\n").resolve());
+    ExecutionMode executionMode = ExecutionMode.of(mode);
+    scheduler = new ScheduledThreadPoolExecutor(1);
+    callExecutor = executionMode.newCallExecutor(
+        Constants.DEFAULT_MAX_ACTIVE_CALLS);
+    offloadExecutor = executionMode.newOffloadExecutor(
+        Constants.DEFAULT_MAX_ACTIVE_CALLS);
+    accessLog = new AccessLog(0.0, Constants.DEFAULT_ACCESS_LOG_QUEUE_SIZE);
+    String name = "bench-" + mode;
+    server = InProcessServerBuilder.forName(name)
+        .directExecutor()
+        .addService(ServerInterceptors.intercept(
+            IngestService.newBuilder()
+                .setRepo(repo)
+                .setScheduler(scheduler)
+                .setOffload(offloadExecutor)
+                .setAccessLog(accessLog)
+                .build(),
+            new CallAdmission(Constants.DEFAULT_MAX_ACTIVE_CALLS, callExecutor)))
+        .build()
+        .start();
+    channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+    stub = IngestServiceGrpc.newStub(channel);
+    request = Rpc.Ingest.newBuilder()
+        .setEntity("bench")
+        .setAttribute("data")
+        .setKey("key")
+        .setUuid(UUID.randomUUID().toString())
+        .setValue(ByteString.copyFrom(new byte[100]))
+        .build();
+  }
+
+  @TearDown
+  public void tearDown() {
+    channel.shutdownNow();
+    server.shutdownNow();
+    scheduler.shutdownNow();
+    accessLog.close();
+    if (callExecutor instanceof ExecutorService) {
+      ((ExecutorService) callExecutor).shutdownNow();
+    }
+    if (offloadExecutor instanceof ExecutorService) {
+      ((ExecutorService) offloadExecutor).shutdownNow();
+    }
+    if (failed.get() > 0) {
+      throw new IllegalStateException(failed.get() + " requests failed");
+    }
+  }
+
+  @Benchmark
+  public void ingest() throws InterruptedException {
+    CountDownLatch latch = new CountDownLatch(concurrency);
+    for (int i = 0; i < concurrency; i++) {
+      stub.ingest(request, new StreamObserver<Rpc.Status>() {
+
+        @Override
+        public void onNext(Rpc.Status status) {
+          if (status.getStatus() != 200) {
+            failed.incrementAndGet();
+          }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+          failed.incrementAndGet();
+          latch.countDown();
+        }
+
+        @Override
+        public void onCompleted() {
+          latch.countDown();
+        }
+
+      });
+    }
+    latch.await();
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(ExecutionModeBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+
+}
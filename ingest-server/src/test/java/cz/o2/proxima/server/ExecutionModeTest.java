@@ -0,0 +1,88 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test suite for {@link ExecutionMode}.
+ */
+public class ExecutionModeTest {
+
+  @Test
+  public void testParse() {
+    assertEquals(ExecutionMode.POOL, ExecutionMode.of("pool"));
+    assertEquals(ExecutionMode.DIRECT, ExecutionMode.of("DIRECT"));
+    assertEquals(
+        VirtualThreads.isSupported() ? ExecutionMode.VIRTUAL : ExecutionMode.POOL,
+        ExecutionMode.of("virtual"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testParseUnknown() {
+    ExecutionMode.of("event-loop");
+  }
+
+  @Test
+  public void testDirectModeOffloads() {
+    assertNull(ExecutionMode.DIRECT.newCallExecutor(10));
+    Executor offload = ExecutionMode.DIRECT.newOffloadExecutor(10);
+    assertTrue(offload instanceof ExecutorService);
+    ((ExecutorService) offload).shutdown();
+  }
+
+  @Test(timeout = 10000)
+  public void testLaneThread() throws InterruptedException {
+    CountDownLatch latch = new CountDownLatch(1);
+    Thread thread = ExecutionMode.of("virtual").newThread("lane", latch::countDown);
+    assertTrue(thread.isDaemon());
+    assertEquals("lane", thread.getName());
+    thread.start();
+    latch.await();
+  }
+
+  @Test(timeout = 10000)
+  public void testStreamOrderKeptWhenOffloaded() throws InterruptedException {
+    ExecutorService offload = (ExecutorService) ExecutionMode.DIRECT
+        .newOffloadExecutor(10);
+    Executor serial = new SerialExecutor(offload);
+    List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch latch = new CountDownLatch(1000);
+    for (int i = 0; i < 1000; i++) {
+      int value = i;
+      serial.execute(() -> {
+        processed.add(value);
+        latch.countDown();
+      });
+    }
+    latch.await();
+    offload.shutdown();
+    assertEquals(
+        IntStream.range(0, 1000).boxed().collect(Collectors.toList()),
+        processed);
+  }
+
+}
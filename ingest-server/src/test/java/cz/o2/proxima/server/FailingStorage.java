@@ -0,0 +1,104 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.server;
+
+import cz.o2.proxima.functional.Consumer;
+import cz.o2.proxima.repository.AttributeDescriptor;
+import cz.o2.proxima.repository.Context;
+import cz.o2.proxima.repository.EntityDescriptor;
+import cz.o2.proxima.storage.DataAccessor;
+import cz.o2.proxima.storage.StorageDescriptor;
+import cz.o2.proxima.storage.randomaccess.KeyValue;
+import cz.o2.proxima.storage.randomaccess.RandomAccessReader;
+import cz.o2.proxima.storage.randomaccess.RandomOffset;
+import cz.o2.proxima.util.Pair;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Storage with random access reader failing each read with
+ * {@link IllegalStateException}.
+ */
+public class FailingStorage extends StorageDescriptor {
+
+  public static final class Reader implements RandomAccessReader {
+
+    private final EntityDescriptor entityDesc;
+
+    private Reader(EntityDescriptor entityDesc) {
+      this.entityDesc = entityDesc;
+    }
+
+    @Override
+    public RandomOffset fetchOffset(Listing type, String key) {
+      throw new IllegalStateException("Failed to fetch offset");
+    }
+
+    @Override
+    public <T> Optional<KeyValue<T>> get(
+        String key, String attribute, AttributeDescriptor<T> desc, long stamp) {
+
+      throw new IllegalStateException("Failed to read " + key);
+    }
+
+    @Override
+    public void scanWildcardAll(
+        String key, RandomOffset offset, long stamp, int limit,
+        Consumer<KeyValue<?>> consumer) {
+
+      throw new IllegalStateException("Failed to scan " + key);
+    }
+
+    @Override
+    public void listEntities(
+        RandomOffset offset, int limit,
+        Consumer<Pair<RandomOffset, String>> consumer) {
+
+      throw new IllegalStateException("Failed to list entities");
+    }
+
+    @Override
+    public EntityDescriptor getEntityDescriptor() {
+      return entityDesc;
+    }
+
+    @Override
+    public void close() {
+      // nop
+    }
+
+  }
+
+  public FailingStorage() {
+    super(Arrays.asList("failing"));
+  }
+
+  @Override
+  public DataAccessor getAccessor(
+      EntityDescriptor entityDesc, URI uri, Map<String, Object> cfg) {
+
+    Reader reader = new Reader(entityDesc);
+    return new DataAccessor() {
+      @Override
+      public Optional<RandomAccessReader> getRandomAccessReader(Context context) {
+        return Optional.of(reader);
+      }
+    };
+  }
+
+}
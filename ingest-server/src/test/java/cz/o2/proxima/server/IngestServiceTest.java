@@ -18,6 +18,7 @@ package cz.o2.proxima.server;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.typesafe.config.ConfigFactory;
+import cz.o2.proxima.proto.service.IngestServiceGrpc;
 import cz.o2.proxima.proto.service.Rpc;
 import cz.o2.proxima.repository.Repository;
 import cz.o2.proxima.scheme.proto.test.Scheme;
@@ -25,13 +26,24 @@ import cz.o2.proxima.server.test.Test.ExtendedMessage;
 import cz.o2.proxima.storage.InMemBulkStorage;
 import cz.o2.proxima.storage.InMemStorage;
 import cz.o2.proxima.util.Pair;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
 import io.grpc.stub.StreamObserver;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
 import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import static org.junit.Assert.*;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -46,6 +58,8 @@ public class IngestServiceTest {
   BlockingQueue<Rpc.Status> responses;
   StreamObserver<Rpc.StatusBulk> responseObserver;
   CountDownLatch latch;
+  Server grpcServer;
+  ManagedChannel channel;
 
   @Before
   public void setup() throws InterruptedException {
@@ -80,6 +94,16 @@ public class IngestServiceTest {
   }
 
 
+  @After
+  public void tearDown() {
+    if (channel != null) {
+      channel.shutdownNow();
+    }
+    if (grpcServer != null) {
+      grpcServer.shutdownNow();
+    }
+  }
+
   @Test(timeout = 10000)
   public void testIngestBulkInvalidScheme() throws InterruptedException {
 
@@ -183,6 +207,36 @@ public class IngestServiceTest {
         new byte[0], data.get("/proxima/dummy/my-dummy-entity#data").getSecond());
   }
 
+  @Test(timeout = 10000)
+  public void testIngestBulkStatusesSentBeforeCompletion() throws InterruptedException {
+
+    ingest = IngestService.newBuilder()
+        .setRepo(server.repo)
+        .setScheduler(server.scheduler)
+        .setFlushCount(2)
+        .setMaxLatencyMs(10)
+        .build();
+    StreamObserver<Rpc.IngestBulk> result = ingest.ingestBulk(responseObserver);
+    for (int i = 0; i < 5; i++) {
+      result.onNext(bulk(Rpc.Ingest.newBuilder()
+          .setEntity("dummy")
+          .setAttribute("data")
+          .setUuid("uuid" + i)
+          .setKey("my-dummy-entity" + i)
+          .setValue(ByteString.EMPTY)
+          .build()));
+    }
+    // flushed by count and by latency without completing the call
+    for (int i = 0; i < 5; i++) {
+      Rpc.Status status = responses.take();
+      assertEquals(200, status.getStatus());
+    }
+    assertEquals(1, latch.getCount());
+    result.onCompleted();
+    latch.await();
+    assertTrue(responses.isEmpty());
+  }
+
   @Test(timeout = 10000)
   public void testIngestBulkWildcardEntityAttribute() throws Exception {
 
@@ -247,6 +301,65 @@ public class IngestServiceTest {
     assertEquals(412, status.getStatus());
   }
 
+  @Test(timeout = 10000)
+  public void testIngestBulkMixedStatusesPerUuid() throws Exception {
+
+    StreamObserver<Rpc.IngestBulk> result = ingest.ingestBulk(responseObserver);
+    Rpc.Ingest.Builder device = Rpc.Ingest.newBuilder()
+        .setEntity("dummy")
+        .setValue(Scheme.Device.newBuilder()
+            .setType("motion")
+            .setPayload(ByteString.copyFromUtf8("muhehe"))
+            .build()
+            .toByteString());
+    result.onNext(bulk(
+        device.clone().setUuid("valid1")
+            .setAttribute("wildcard.1").setKey("dummy1").build(),
+        device.clone().setUuid("invalid-scheme")
+            .setAttribute("wildcard.2").setKey("dummy1")
+            .setValue(ByteString.copyFromUtf8("muhehe")).build(),
+        device.clone().setUuid("missing-key")
+            .setAttribute("wildcard.3").build(),
+        device.clone().setUuid("valid2")
+            .setAttribute("wildcard.4").setKey("dummy2").build(),
+        Rpc.Ingest.newBuilder().setUuid("valid3")
+            .setEntity("dummy").setAttribute("wildcard.*")
+            .setKey("dummy3").setDelete(true).build()));
+
+    result.onCompleted();
+    latch.await();
+
+    Map<String, Integer> statuses = new HashMap<>();
+    responses.forEach(s -> statuses.put(s.getUuid(), s.getStatus()));
+    assertEquals(5, statuses.size());
+    assertEquals(200, (int) statuses.get("valid1"));
+    assertEquals(412, (int) statuses.get("invalid-scheme"));
+    assertEquals(400, (int) statuses.get("missing-key"));
+    assertEquals(200, (int) statuses.get("valid2"));
+    assertEquals(200, (int) statuses.get("valid3"));
+
+    InMemStorage storage = (InMemStorage) server.repo.getStorageDescriptor("inmem");
+    Map<String, Pair<Long, byte[]>> data = storage.getData();
+    assertTrue(data.containsKey("/proxima/dummy/dummy1#wildcard.1"));
+    assertTrue(data.containsKey("/proxima/dummy/dummy2#wildcard.4"));
+    assertFalse(data.containsKey("/proxima/dummy/dummy1#wildcard.2"));
+  }
+
+  /**
+   * Start in-process server of the service.
+   * @return stub of the service
+   */
+  private IngestServiceGrpc.IngestServiceStub startInProcess() throws IOException {
+    String name = "ingest-" + UUID.randomUUID();
+    grpcServer = InProcessServerBuilder.forName(name)
+        .directExecutor()
+        .addService(ingest)
+        .build()
+        .start();
+    channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+    return IngestServiceGrpc.newStub(channel);
+  }
+
   private Rpc.IngestBulk bulk(Rpc.Ingest... ingests) {
     Rpc.IngestBulk.Builder ret = Rpc.IngestBulk.newBuilder();
     for (Rpc.Ingest ingest : ingests) {
@@ -301,6 +414,175 @@ public class IngestServiceTest {
     assertTrue(data.containsKey("/proxima/dummy/my-dummy-entity#data"));
   }
 
+  @Test(timeout = 10000)
+  public void testIngestSingleOffloaded() throws InterruptedException {
+    ExecutorService offload = (ExecutorService) ExecutionMode.DIRECT
+        .newOffloadExecutor(10);
+    ingest = IngestService.newBuilder()
+        .setRepo(server.repo)
+        .setScheduler(server.scheduler)
+        .setOffload(offload)
+        .build();
+    latch = new CountDownLatch(1);
+
+    StreamObserver<Rpc.Ingest> result = ingest.ingestSingle(
+        new StreamObserver<Rpc.Status>() {
+
+          @Override
+          public void onNext(Rpc.Status status) {
+            responses.add(status);
+          }
+
+          @Override
+          public void onError(Throwable thrwbl) {
+            // nop
+          }
+
+          @Override
+          public void onCompleted() {
+            latch.countDown();
+          }
+
+        });
+    for (int i = 0; i < 10; i++) {
+      result.onNext(Rpc.Ingest.newBuilder()
+          .setEntity("dummy")
+          .setAttribute("data")
+          .setUuid(UUID.randomUUID().toString())
+          .setKey("my-dummy-entity-" + i)
+          .setValue(ByteString.EMPTY)
+          .build());
+    }
+    result.onCompleted();
+    latch.await();
+    offload.shutdown();
+
+    assertEquals(10, responses.size());
+    responses.forEach(s -> assertEquals(200, s.getStatus()));
+    InMemStorage storage = (InMemStorage) server.repo.getStorageDescriptor("inmem");
+    for (int i = 0; i < 10; i++) {
+      assertTrue(storage.getData().containsKey(
+          "/proxima/dummy/my-dummy-entity-" + i + "#data"));
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testIngestSingleOverGrpc() throws Exception {
+    StreamObserver<Rpc.Ingest> result = startInProcess().ingestSingle(
+        new StreamObserver<Rpc.Status>() {
+
+          @Override
+          public void onNext(Rpc.Status status) {
+            responses.add(status);
+          }
+
+          @Override
+          public void onError(Throwable thrwbl) {
+            // nop
+          }
+
+          @Override
+          public void onCompleted() {
+            latch.countDown();
+          }
+
+        });
+    for (int i = 0; i < 3; i++) {
+      result.onNext(Rpc.Ingest.newBuilder()
+          .setEntity("dummy")
+          .setAttribute("data")
+          .setUuid(UUID.randomUUID().toString())
+          .setKey("my-dummy-entity-" + i)
+          .setValue(ByteString.EMPTY)
+          .build());
+    }
+    result.onCompleted();
+    latch.await();
+
+    assertEquals(3, responses.size());
+    responses.forEach(s -> assertEquals(200, s.getStatus()));
+    assertEquals(0, ingest.admission.getInflight());
+  }
+
+  @Test(timeout = 10000)
+  public void testIngestBulkOverGrpc() throws Exception {
+    StreamObserver<Rpc.IngestBulk> result = startInProcess()
+        .ingestBulk(responseObserver);
+    for (int i = 0; i < 3; i++) {
+      result.onNext(bulk(
+          Rpc.Ingest.newBuilder()
+              .setEntity("dummy")
+              .setAttribute("data")
+              .setUuid(UUID.randomUUID().toString())
+              .setKey("my-dummy-entity-" + i)
+              .setValue(ByteString.EMPTY)
+              .build(),
+          Rpc.Ingest.newBuilder()
+              .setEntity("dummy")
+              .setAttribute("data")
+              .setUuid(UUID.randomUUID().toString())
+              .setKey("my-dummy-entity-" + i + "-2")
+              .setValue(ByteString.EMPTY)
+              .build()));
+    }
+    result.onCompleted();
+    latch.await();
+
+    assertEquals(6, responses.size());
+    responses.forEach(s -> assertEquals(200, s.getStatus()));
+    assertEquals(0, ingest.admission.getInflight());
+  }
+
+  @Test(timeout = 10000)
+  public void testIngestSingleCompletedByLastStatus() {
+    Queue<Runnable> offloaded = new ArrayDeque<>();
+    ingest = IngestService.newBuilder()
+        .setRepo(server.repo)
+        .setScheduler(server.scheduler)
+        .setOffload(offloaded::add)
+        .build();
+    latch = new CountDownLatch(1);
+
+    StreamObserver<Rpc.Ingest> result = ingest.ingestSingle(
+        new StreamObserver<Rpc.Status>() {
+
+          @Override
+          public void onNext(Rpc.Status status) {
+            responses.add(status);
+          }
+
+          @Override
+          public void onError(Throwable thrwbl) {
+            // nop
+          }
+
+          @Override
+          public void onCompleted() {
+            latch.countDown();
+          }
+
+        });
+    for (int i = 0; i < 2; i++) {
+      result.onNext(Rpc.Ingest.newBuilder()
+          .setEntity("dummy")
+          .setAttribute("data")
+          .setUuid(UUID.randomUUID().toString())
+          .setKey("my-dummy-entity-" + i)
+          .setValue(ByteString.EMPTY)
+          .build());
+    }
+    // completing the stream doesn't wait for the inflight requests
+    result.onCompleted();
+    assertEquals(1, latch.getCount());
+    assertTrue(responses.isEmpty());
+
+    offloaded.poll().run();
+    assertEquals(0, latch.getCount());
+    assertEquals(2, responses.size());
+    responses.forEach(s -> assertEquals(200, s.getStatus()));
+    assertTrue(offloaded.isEmpty());
+  }
+
   @Test(timeout = 10000)
   public void testIngestSingleValidButFilteredOut() throws InterruptedException {
 
@@ -374,6 +656,83 @@ public class IngestServiceTest {
     assertTrue(data.containsKey("/proxima/dummy/my-dummy-entity#data"));
   }
 
+  @Test(timeout = 10000)
+  public void testIngestRejectedWhenOverloaded() throws InterruptedException {
+    ingest = IngestService.newBuilder()
+        .setRepo(server.repo)
+        .setScheduler(server.scheduler)
+        .setMaxInflight(1)
+        .build();
+    ingest.admission.acquire(1);
+
+    Rpc.Ingest request = Rpc.Ingest.newBuilder()
+        .setEntity("dummy")
+        .setAttribute("data")
+        .setUuid(UUID.randomUUID().toString())
+        .setKey("my-dummy-entity")
+        .setValue(ByteString.EMPTY)
+        .build();
+
+    flushToIngest(request);
+    assertEquals(1, responses.size());
+    assertEquals(503, responses.poll().getStatus());
+    InMemStorage storage = (InMemStorage) server.repo.getStorageDescriptor("inmem");
+    assertTrue(storage.getData().isEmpty());
+
+    ingest.admission.release(1);
+    latch = new CountDownLatch(1);
+    flushToIngest(request);
+    assertEquals(200, responses.poll().getStatus());
+    assertEquals(0, ingest.admission.getInflight());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBuilderWithoutScheduler() {
+    IngestService.newBuilder().setRepo(server.repo).build();
+  }
+
+  @Test(timeout = 10000)
+  public void testIngestRejectedByOffloadExecutor() throws InterruptedException {
+    ingest = IngestService.newBuilder()
+        .setRepo(server.repo)
+        .setScheduler(server.scheduler)
+        .setOffload(task -> {
+          throw new RejectedExecutionException("Queue is full");
+        })
+        .build();
+
+    ingest.ingest(
+        Rpc.Ingest.newBuilder()
+            .setEntity("dummy")
+            .setAttribute("data")
+            .setUuid(UUID.randomUUID().toString())
+            .setKey("my-dummy-entity")
+            .setValue(ByteString.EMPTY)
+            .build(),
+        new StreamObserver<Rpc.Status>() {
+
+          @Override
+          public void onNext(Rpc.Status status) {
+            responses.add(status);
+          }
+
+          @Override
+          public void onError(Throwable thrwbl) {
+            // nop
+          }
+
+          @Override
+          public void onCompleted() {
+            latch.countDown();
+          }
+
+        });
+    latch.await();
+    assertEquals(1, responses.size());
+    assertEquals(503, responses.poll().getStatus());
+    assertEquals(0, ingest.admission.getInflight());
+  }
+
 
   @Test(timeout = 10000)
   public void testIngestValidBulk() throws InterruptedException {
@@ -0,0 +1,240 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.server;
+
+import com.typesafe.config.ConfigFactory;
+import cz.o2.proxima.repository.AttributeDescriptor;
+import cz.o2.proxima.repository.EntityDescriptor;
+import cz.o2.proxima.repository.Repository;
+import cz.o2.proxima.storage.StreamElement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test suite for {@link KeyOrderedLanes}.
+ */
+public class KeyOrderedLanesTest {
+
+  final Repository repo = Repository.of(
+      ConfigFactory.load("test-reference.conf").resolve());
+  final EntityDescriptor gateway = repo.findEntity("gateway")
+      .orElseThrow(() -> new IllegalStateException("Missing entity gateway"));
+  final AttributeDescriptor<?> armed = gateway.findAttribute("armed")
+      .orElseThrow(() -> new IllegalStateException("Missing attribute armed"));
+
+  KeyOrderedLanes lanes;
+
+  @Before
+  public void setUp() {
+    lanes = new KeyOrderedLanes("test", 2, 10);
+  }
+
+  @After
+  public void tearDown() {
+    lanes.close();
+  }
+
+  @Test(timeout = 10000)
+  public void testConfirmOnlyContiguousOffsets() throws InterruptedException {
+    // find two keys processed by different lanes
+    String first = "key0";
+    String second = "key1";
+    for (int i = 1; lane(first) == lane(second); i++) {
+      second = "key" + i;
+    }
+    List<String> confirmed = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch secondDone = new CountDownLatch(1);
+    CountDownLatch allConfirmed = new CountDownLatch(2);
+    lanes.submit(element(first), (succ, exc) -> {
+      confirmed.add("first");
+      allConfirmed.countDown();
+    }, (e, c) -> {
+      try {
+        release.await();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      c.confirm();
+    });
+    lanes.submit(element(second), (succ, exc) -> {
+      confirmed.add("second");
+      allConfirmed.countDown();
+    }, (e, c) -> {
+      c.confirm();
+      secondDone.countDown();
+    });
+    assertTrue(secondDone.await(5, TimeUnit.SECONDS));
+    assertTrue(confirmed.isEmpty());
+    release.countDown();
+    allConfirmed.await();
+    assertEquals(Arrays.asList("first", "second"), confirmed);
+  }
+
+  @Test(timeout = 10000)
+  public void testOrderingOfKeys() throws InterruptedException {
+    int numElements = 100;
+    Map<String, List<Integer>> processed = new HashMap<>();
+    List<Integer> confirmed = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch latch = new CountDownLatch(numElements);
+    for (int i = 0; i < numElements; i++) {
+      final int seq = i;
+      lanes.submit(element("key" + (i % 7)), (succ, exc) -> {
+        confirmed.add(seq);
+        latch.countDown();
+      }, (e, c) -> {
+        synchronized (processed) {
+          processed.computeIfAbsent(e.getKey(), k -> new ArrayList<>()).add(seq);
+        }
+        c.confirm();
+      });
+    }
+    latch.await();
+    for (List<Integer> seqs : processed.values()) {
+      for (int i = 1; i < seqs.size(); i++) {
+        assertTrue(seqs.get(i - 1) < seqs.get(i));
+      }
+    }
+    for (int i = 0; i < numElements; i++) {
+      assertEquals(i, (int) confirmed.get(i));
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testSkippedElementConfirmedInOrder() throws InterruptedException {
+    List<String> confirmed = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch allConfirmed = new CountDownLatch(2);
+    lanes.submit(element("key"), (succ, exc) -> {
+      confirmed.add("processed");
+      allConfirmed.countDown();
+    }, (e, c) -> {
+      try {
+        release.await();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      c.confirm();
+    });
+    lanes.skip((succ, exc) -> {
+      confirmed.add("skipped");
+      allConfirmed.countDown();
+    });
+    assertTrue(confirmed.isEmpty());
+    release.countDown();
+    allConfirmed.await();
+    assertEquals(Arrays.asList("processed", "skipped"), confirmed);
+  }
+
+  @Test(timeout = 10000)
+  public void testFailureDiscardsPending() throws InterruptedException {
+    List<Boolean> results = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch failed = new CountDownLatch(1);
+    lanes.submit(element("key"), (succ, exc) -> {
+      results.add(succ);
+      failed.countDown();
+    }, (e, c) -> {
+      throw new IllegalStateException("Fail!");
+    });
+    failed.await();
+    CountDownLatch confirmed = new CountDownLatch(1);
+    lanes.submit(element("key"), (succ, exc) -> {
+      results.add(succ);
+      confirmed.countDown();
+    }, (e, c) -> c.confirm());
+    confirmed.await();
+    assertEquals(Arrays.asList(false, true), results);
+  }
+
+  @Test(timeout = 10000)
+  public void testFailureFailsCommittersOfPending() throws InterruptedException {
+    String first = "key0";
+    String second = "key1";
+    for (int i = 1; lane(first) == lane(second); i++) {
+      second = "key" + i;
+    }
+    List<String> results = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch firstDone = new CountDownLatch(1);
+    CountDownLatch bothFailed = new CountDownLatch(2);
+    lanes.submit(element(first), (succ, exc) -> {
+      results.add("first " + succ);
+      bothFailed.countDown();
+    }, (e, c) -> {
+      try {
+        release.await();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      // confirmation of discarded element is ignored
+      c.confirm();
+      firstDone.countDown();
+    });
+    lanes.submit(element(second), (succ, exc) -> {
+      results.add("second " + succ);
+      bothFailed.countDown();
+    }, (e, c) -> {
+      throw new IllegalStateException("Fail!");
+    });
+    bothFailed.await();
+    release.countDown();
+    firstDone.await();
+    assertEquals(2, results.size());
+    assertTrue(results.contains("first false"));
+    assertTrue(results.contains("second false"));
+  }
+
+  @Test(timeout = 10000)
+  public void testCloseFailsPending() throws InterruptedException {
+    List<Boolean> results = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch started = new CountDownLatch(1);
+    lanes.submit(element("key"), (succ, exc) -> results.add(succ), (e, c) -> {
+      started.countDown();
+      try {
+        new CountDownLatch(1).await();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    lanes.submit(element("key"), (succ, exc) -> results.add(succ), (e, c) -> c.confirm());
+    started.await();
+    lanes.close();
+    assertEquals(Arrays.asList(false, false), results);
+  }
+
+  private int lane(String key) {
+    return (key.hashCode() & Integer.MAX_VALUE) % 2;
+  }
+
+  private StreamElement element(String key) {
+    return StreamElement.update(
+        gateway, armed, UUID.randomUUID().toString(), key, armed.getName(),
+        System.currentTimeMillis(), new byte[] { 1 });
+  }
+
+}
@@ -19,9 +19,11 @@ import com.google.protobuf.InvalidProtocolBufferException;
 import com.typesafe.config.ConfigFactory;
 import cz.o2.proxima.repository.AttributeDescriptor;
 import cz.o2.proxima.repository.EntityDescriptor;
+import cz.o2.proxima.repository.Repository;
 import cz.o2.proxima.server.test.Test.ExtendedMessage;
 import cz.o2.proxima.storage.StreamElement;
 import cz.o2.proxima.proto.service.Rpc;
+import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 import java.util.ArrayList;
 import java.util.List;
@@ -164,6 +166,149 @@ public class RetrieveServiceTest {
     assertArrayEquals(new byte[] { 1, 2, 3 }, response.getValue().toByteArray());
   }
 
+  @Test
+  public void testGetFailsWhenResponseCannotBeSent() {
+    EntityDescriptor entity = server.repo.findEntity("dummy").get();
+    AttributeDescriptor attribute = entity.findAttribute("data").get();
+    String key = "my-fancy-entity-key";
+    server.repo.getWriter(attribute).get().write(
+        StreamElement.update(entity, attribute, UUID.randomUUID().toString(),
+            key, attribute.getName(),
+            System.currentTimeMillis(),
+            new byte[] { 1, 2, 3 }),
+        (s, err) -> { });
+    Rpc.GetRequest request = Rpc.GetRequest.newBuilder()
+        .setEntity(entity.getName())
+        .setAttribute(attribute.getName())
+        .setKey(key)
+        .build();
+
+    final AtomicBoolean failed = new AtomicBoolean(false);
+    retrieve.get(request, new StreamObserver<Rpc.GetResponse>() {
+      @Override
+      public void onNext(Rpc.GetResponse res) {
+        throw Status.CANCELLED.asRuntimeException();
+      }
+
+      @Override
+      public void onError(Throwable thrwbl) {
+        failed.set(true);
+      }
+
+      @Override
+      public void onCompleted() {
+        fail("Call should not be completed");
+      }
+    });
+
+    assertTrue(failed.get());
+  }
+
+  @Test
+  public void testMultiGet() throws InterruptedException {
+
+    EntityDescriptor entity = server.repo.findEntity("dummy").get();
+    AttributeDescriptor attribute = entity.findAttribute("data").get();
+    String key = "my-fancy-entity-key";
+    server.repo.getWriter(attribute).get().write(
+        StreamElement.update(entity, attribute, UUID.randomUUID().toString(),
+            key, attribute.getName(),
+            System.currentTimeMillis(),
+            new byte[] { 1, 2, 3 }),
+        (s, err) -> { });
+    Rpc.MultiGetRequest request = Rpc.MultiGetRequest.newBuilder()
+        .addGet(Rpc.GetRequest.newBuilder()
+            .setEntity(entity.getName())
+            .setAttribute(attribute.getName())
+            .setKey(key))
+        .addGet(Rpc.GetRequest.newBuilder()
+            .setEntity(entity.getName())
+            .setAttribute(attribute.getName())
+            .setKey("some-not-existing-key"))
+        .addGet(Rpc.GetRequest.newBuilder())
+        .build();
+
+    final List<Rpc.MultiGetResponse> responses = new ArrayList<>();
+    final AtomicBoolean finished = new AtomicBoolean(false);
+    final StreamObserver<Rpc.MultiGetResponse> responseObserver;
+    responseObserver = new StreamObserver<Rpc.MultiGetResponse>() {
+      @Override
+      public void onNext(Rpc.MultiGetResponse res) {
+        responses.add(res);
+      }
+
+      @Override
+      public void onError(Throwable thrwbl) {
+        throw new RuntimeException(thrwbl);
+      }
+
+      @Override
+      public void onCompleted() {
+        finished.set(true);
+      }
+    };
+
+    retrieve.multiGet(request, responseObserver);
+
+    assertTrue(finished.get());
+    assertEquals(1, responses.size());
+    Rpc.MultiGetResponse response = responses.get(0);
+    assertEquals(3, response.getGetCount());
+    assertEquals(200, response.getGet(0).getStatus());
+    assertArrayEquals(
+        new byte[] { 1, 2, 3 }, response.getGet(0).getValue().toByteArray());
+    assertEquals(404, response.getGet(1).getStatus());
+    assertEquals(400, response.getGet(2).getStatus());
+  }
+
+  @Test
+  public void testMultiGetWithFailingReader() {
+    Repository repo = Repository.of(ConfigFactory.parseString(
+        "entities.failing.attributes.data.scheme: \"bytes:///\"\n"
+            + "attributeFamilies.failing-storage {\n"
+            + "  entity: failing\n"
+            + "  attributes: [ data ]\n"
+            + "  storage: \"failing:///failing\"\n"
+            + "  type: primary\n"
+            + "  access: \"random-access, read-only\"\n"
+            + "}\n").resolve());
+    RetrieveService retrieve = new RetrieveService(repo);
+    Rpc.MultiGetRequest request = Rpc.MultiGetRequest.newBuilder()
+        .addGet(Rpc.GetRequest.newBuilder()
+            .setEntity("failing")
+            .setAttribute("data")
+            .setKey("key"))
+        .addGet(Rpc.GetRequest.newBuilder())
+        .build();
+
+    final List<Rpc.MultiGetResponse> responses = new ArrayList<>();
+    final AtomicBoolean finished = new AtomicBoolean(false);
+    retrieve.multiGet(request, new StreamObserver<Rpc.MultiGetResponse>() {
+      @Override
+      public void onNext(Rpc.MultiGetResponse res) {
+        responses.add(res);
+      }
+
+      @Override
+      public void onError(Throwable thrwbl) {
+        throw new RuntimeException(thrwbl);
+      }
+
+      @Override
+      public void onCompleted() {
+        finished.set(true);
+      }
+    });
+
+    assertTrue(finished.get());
+    assertEquals(1, responses.size());
+    Rpc.MultiGetResponse response = responses.get(0);
+    assertEquals(2, response.getGetCount());
+    assertEquals(500, response.getGet(0).getStatus());
+    assertEquals("Failed to read key", response.getGet(0).getStatusMessage());
+    assertEquals(400, response.getGet(1).getStatus());
+  }
+
   @Test
   public void testGetNotFound() throws InterruptedException {
     final Rpc.GetRequest request = Rpc.GetRequest.newBuilder()
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.server;
+
+import cz.o2.proxima.repository.Context;
+import cz.o2.proxima.repository.EntityDescriptor;
+import cz.o2.proxima.storage.AbstractOnlineAttributeWriter;
+import cz.o2.proxima.storage.AttributeWriterBase;
+import cz.o2.proxima.storage.CommitCallback;
+import cz.o2.proxima.storage.DataAccessor;
+import cz.o2.proxima.storage.StorageDescriptor;
+import cz.o2.proxima.storage.StreamElement;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Storage with writer blocking the calling thread before confirming each
+ * write, as writers with blocking clients do. The blocking time in
+ * milliseconds is set by {@code latency-ms} in config of the family.
+ */
+public class SlowStorage extends StorageDescriptor {
+
+  public static final class Writer extends AbstractOnlineAttributeWriter {
+
+    private final long latencyMs;
+
+    private Writer(EntityDescriptor entityDesc, URI uri, long latencyMs) {
+      super(entityDesc, uri);
+      this.latencyMs = latencyMs;
+    }
+
+    @Override
+    public void write(StreamElement data, CommitCallback statusCallback) {
+      try {
+        Thread.sleep(latencyMs);
+        statusCallback.commit(true, null);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        statusCallback.commit(false, ex);
+      }
+    }
+
+    @Override
+    public void close() {
+      // nop
+    }
+
+  }
+
+  public SlowStorage() {
+    super(Arrays.asList("slow"));
+  }
+
+  @Override
+  public DataAccessor getAccessor(
+      EntityDescriptor entityDesc, URI uri, Map<String, Object> cfg) {
+
+    long latencyMs = Optional.ofNullable(cfg.get("latency-ms"))
+        .map(Object::toString)
+        .map(Long::valueOf)
+        .orElse(1L);
+    Writer writer = new Writer(entityDesc, uri, latencyMs);
+    return new DataAccessor() {
+      @Override
+      public Optional<AttributeWriterBase> getWriter(Context context) {
+        return Optional.of(writer);
+      }
+    };
+  }
+
+}
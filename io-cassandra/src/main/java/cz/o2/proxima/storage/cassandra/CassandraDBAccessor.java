@@ -18,6 +18,7 @@ package cz.o2.proxima.storage.cassandra;
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.Statement;
 import com.google.common.annotations.VisibleForTesting;
@@ -117,6 +118,17 @@ public class CassandraDBAccessor extends AbstractStorage implements DataAccessor
 
   @VisibleForTesting
   ResultSet execute(Statement statement) {
+    logStatement(statement);
+    return session.execute(statement);
+  }
+
+  @VisibleForTesting
+  ResultSetFuture executeAsync(Statement statement) {
+    logStatement(statement);
+    return session.executeAsync(statement);
+  }
+
+  private void logStatement(Statement statement) {
     if (log.isDebugEnabled()) {
       if (statement instanceof BoundStatement) {
         BoundStatement s = (BoundStatement) statement;
@@ -131,7 +143,6 @@ public class CassandraDBAccessor extends AbstractStorage implements DataAccessor
             statement, statement.getOutgoingPayload());
       }
     }
-    return session.execute(statement);
   }
 
   @VisibleForTesting
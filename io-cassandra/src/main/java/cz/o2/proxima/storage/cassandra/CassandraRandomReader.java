@@ -17,19 +17,27 @@ package cz.o2.proxima.storage.cassandra;
 
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.Token;
+import com.google.common.util.concurrent.ListenableFuture;
 import cz.o2.proxima.functional.Consumer;
 import cz.o2.proxima.repository.AttributeDescriptor;
 import cz.o2.proxima.storage.AbstractStorage;
 import cz.o2.proxima.storage.cassandra.CqlFactory.KvIterable;
+import cz.o2.proxima.storage.randomaccess.KeyAttribute;
 import cz.o2.proxima.storage.randomaccess.KeyValue;
 import cz.o2.proxima.storage.randomaccess.RandomAccessReader;
 import cz.o2.proxima.storage.randomaccess.RandomOffset;
 import cz.o2.proxima.util.Pair;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
 import javax.annotation.Nullable;
 import lombok.extern.slf4j.Slf4j;
 
@@ -41,7 +49,11 @@ class CassandraRandomReader
     extends AbstractStorage
     implements RandomAccessReader {
 
+  /** Maximal number of concurrently executed reads in {@link #multiGet}. */
+  private static final int MAX_CONCURRENT_READS = 128;
+
   private final CassandraDBAccessor accessor;
+  private final Semaphore concurrentReads = new Semaphore(MAX_CONCURRENT_READS);
 
   CassandraRandomReader(CassandraDBAccessor accessor) {
     super(accessor.getEntityDescriptor(), accessor.getUri());
@@ -64,6 +76,94 @@ class CassandraRandomReader
     } catch (Exception ex) {
       throw new RuntimeException(ex);
     }
+    return toKeyValue(result, key, attribute, desc);
+  }
+
+  @Override
+  public <T> CompletableFuture<Optional<KeyValue<T>>> getAsync(
+      String key,
+      String attribute,
+      AttributeDescriptor<T> desc,
+      long stamp) {
+
+    CompletableFuture<Optional<KeyValue<T>>> ret = new CompletableFuture<>();
+    try {
+      ResultSetFuture future;
+      synchronized (this) {
+        Session session = accessor.ensureSession();
+        future = accessor.executeAsync(accessor.getCqlFactory()
+            .getReadStatement(key, attribute, desc, session));
+      }
+      whenDone(
+          future, ret,
+          result -> ret.complete(toKeyValue(result, key, attribute, desc)));
+    } catch (Exception ex) {
+      ret.completeExceptionally(ex);
+    }
+    return ret;
+  }
+
+  @Override
+  public List<Optional<KeyValue<?>>> multiGet(
+      List<KeyAttribute> requests, long stamp) {
+
+    // only bind the statements under the lock, the reads themselves
+    // must not block other calls of the reader
+    List<BoundStatement> statements = new ArrayList<>(requests.size());
+    synchronized (this) {
+      Session session = accessor.ensureSession();
+      for (KeyAttribute request : requests) {
+        statements.add(accessor.getCqlFactory().getReadStatement(
+            request.getKey(), request.getAttribute(),
+            request.getAttributeDescriptor(), session));
+      }
+    }
+    List<ResultSetFuture> futures = new ArrayList<>(statements.size());
+    try {
+      for (BoundStatement statement : statements) {
+        futures.add(executeBounded(statement));
+      }
+      List<Optional<KeyValue<?>>> ret = new ArrayList<>(requests.size());
+      for (int i = 0; i < requests.size(); i++) {
+        KeyAttribute request = requests.get(i);
+        ret.add(toKeyValue(
+            futures.get(i).getUninterruptibly(),
+            request.getKey(), request.getAttribute(),
+            request.getAttributeDescriptor()).map(kv -> kv));
+      }
+      return ret;
+    } catch (Exception ex) {
+      if (ex instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+      }
+      futures.forEach(f -> f.cancel(true));
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   * Execute statement asynchronously, waiting while there are
+   * {@link #MAX_CONCURRENT_READS} reads in progress.
+   */
+  private ResultSetFuture executeBounded(BoundStatement statement)
+      throws InterruptedException {
+
+    concurrentReads.acquire();
+    ResultSetFuture future;
+    try {
+      future = accessor.executeAsync(statement);
+    } catch (RuntimeException ex) {
+      concurrentReads.release();
+      throw ex;
+    }
+    future.addListener(concurrentReads::release, Runnable::run);
+    return future;
+  }
+
+  private <T> Optional<KeyValue<T>> toKeyValue(
+      ResultSet result, String key, String attribute,
+      AttributeDescriptor<T> desc) {
+
     // the row has to have format (value)
     for (Row row : result) {
       ByteBuffer val = row.getBytes(0);
@@ -132,31 +232,10 @@ class CassandraRandomReader
           (Offsets.Raw) offset, limit, session);
 
       ResultSet result = accessor.execute(statement);
-      // the row has to have format (attribute, value)
       for (Row row : result) {
-        Object attribute = row.getObject(0);
-        ByteBuffer val = row.getBytes(1);
-        if (val != null) {
-          byte[] rowValue = val.array();
-          // by convention
-          String name = wildcard.toAttributePrefix() + accessor.getConverter().asString(
-              attribute);
-
-          Optional parsed = wildcard.getValueSerializer().deserialize(rowValue);
-
-          if (parsed.isPresent()) {
-            consumer.accept((KeyValue) KeyValue.of(
-                getEntityDescriptor(),
-                (AttributeDescriptor) wildcard,
-                key,
-                name,
-                new Offsets.Raw(name),
-                parsed.get(),
-                rowValue));
-          } else {
-            log.error("Failed to parse value for key {} attribute {}.{}",
-                key, wildcard, attribute);
-          }
+        KeyValue<T> kv = toKeyValue(row, key, wildcard);
+        if (kv != null) {
+          consumer.accept(kv);
         }
       }
     } catch (Exception ex) {
@@ -166,6 +245,106 @@ class CassandraRandomReader
 
   }
 
+  @Override
+  public <T> CompletableFuture<List<KeyValue<T>>> scanWildcardAsync(
+      String key,
+      AttributeDescriptor<T> wildcard,
+      @Nullable RandomOffset offset,
+      long stamp,
+      int limit) {
+
+    CompletableFuture<List<KeyValue<T>>> ret = new CompletableFuture<>();
+    try {
+      ResultSetFuture future;
+      synchronized (this) {
+        Session session = accessor.ensureSession();
+        future = accessor.executeAsync(accessor.getCqlFactory().getListStatement(
+            key, wildcard, (Offsets.Raw) offset, limit, session));
+      }
+      List<KeyValue<T>> result = new ArrayList<>();
+      whenDone(future, ret, rs -> consumePage(rs, key, wildcard, result, ret));
+    } catch (Exception ex) {
+      ret.completeExceptionally(ex);
+    }
+    return ret;
+  }
+
+  /**
+   * Consume rows of result set that are available without fetching and
+   * asynchronously fetch the next page (if any).
+   */
+  private <T> void consumePage(
+      ResultSet rs, String key, AttributeDescriptor<T> wildcard,
+      List<KeyValue<T>> result, CompletableFuture<List<KeyValue<T>>> ret) {
+
+    for (int available = rs.getAvailableWithoutFetching(); available > 0; available--) {
+      KeyValue<T> kv = toKeyValue(rs.one(), key, wildcard);
+      if (kv != null) {
+        result.add(kv);
+      }
+    }
+    if (rs.isFullyFetched()) {
+      ret.complete(result);
+    } else {
+      whenDone(
+          rs.fetchMoreResults(), ret,
+          next -> consumePage(next, key, wildcard, result, ret));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Nullable
+  private <T> KeyValue<T> toKeyValue(
+      Row row, String key, AttributeDescriptor<T> wildcard) {
+
+    // the row has to have format (attribute, value)
+    Object attribute = row.getObject(0);
+    ByteBuffer val = row.getBytes(1);
+    if (val != null) {
+      byte[] rowValue = val.array();
+      // by convention
+      String name = wildcard.toAttributePrefix() + accessor.getConverter().asString(
+          attribute);
+
+      Optional parsed = wildcard.getValueSerializer().deserialize(rowValue);
+
+      if (parsed.isPresent()) {
+        return (KeyValue) KeyValue.of(
+            getEntityDescriptor(),
+            (AttributeDescriptor) wildcard,
+            key,
+            name,
+            new Offsets.Raw(name),
+            parsed.get(),
+            rowValue);
+      } else {
+        log.error("Failed to parse value for key {} attribute {}.{}",
+            key, wildcard, attribute);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Pass result of the future to given consumer when done. The consumer is
+   * called in the thread completing the future, so it must not block.
+   */
+  private static void whenDone(
+      ListenableFuture<ResultSet> future,
+      CompletableFuture<?> ret,
+      Consumer<ResultSet> onSuccess) {
+
+    future.addListener(() -> {
+      try {
+        onSuccess.accept(future.get());
+      } catch (ExecutionException ex) {
+        ret.completeExceptionally(ex.getCause());
+      } catch (Exception ex) {
+        ret.completeExceptionally(ex);
+      }
+    }, Runnable::run);
+  }
+
   @Override
   public synchronized void listEntities(
       RandomOffset offset,
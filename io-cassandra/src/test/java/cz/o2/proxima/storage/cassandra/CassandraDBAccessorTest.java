@@ -18,6 +18,7 @@ package cz.o2.proxima.storage.cassandra;
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.Statement;
@@ -30,6 +31,7 @@ import cz.o2.proxima.repository.Repository;
 import cz.o2.proxima.storage.Partition;
 import cz.o2.proxima.storage.StreamElement;
 import cz.o2.proxima.storage.batch.BatchLogObserver;
+import cz.o2.proxima.storage.randomaccess.KeyAttribute;
 import cz.o2.proxima.storage.randomaccess.KeyValue;
 import cz.o2.proxima.storage.randomaccess.RandomAccessReader;
 import java.net.URI;
@@ -44,6 +46,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -51,6 +54,8 @@ import lombok.Getter;
 import lombok.Setter;
 import org.junit.Test;
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -79,6 +84,24 @@ public class CassandraDBAccessorTest {
       return res;
     }
 
+    @Override
+    ResultSetFuture executeAsync(Statement statement) {
+      ResultSet result = execute(statement);
+      ResultSetFuture future = mock(ResultSetFuture.class);
+      when(future.getUninterruptibly()).thenReturn(result);
+      try {
+        when(future.get()).thenReturn(result);
+      } catch (InterruptedException | ExecutionException ex) {
+        throw new IllegalStateException(ex);
+      }
+      // the future is already done, so run listeners immediately
+      doAnswer(invocation -> {
+        ((Runnable) invocation.getArguments()[0]).run();
+        return null;
+      }).when(future).addListener(any(), any());
+      return future;
+    }
+
     @Override
     Cluster getCluster(URI uri) {
       Cluster ret = mock(Cluster.class);
@@ -358,6 +381,124 @@ public class CassandraDBAccessorTest {
   }
 
 
+  /**
+   * Test batch get of attributes.
+   */
+  @Test
+  public void testMultiGetSuccess() {
+    entity = EntityDescriptor.newBuilder()
+        .setName("dummy")
+        .build();
+
+    byte[] payload = new byte[] { 1, 2 };
+    Row row = mock(Row.class);
+    when(row.getBytes(0)).thenReturn(ByteBuffer.wrap(payload));
+    List<Row> rows = Collections.singletonList(row);
+
+    ResultSet res = mock(ResultSet.class);
+    when(res.iterator()).thenAnswer(invocation -> rows.iterator());
+
+    TestDBAccessor accessor = new TestDBAccessor(
+        entity, URI.create("cassandra://localhost/"),
+        getCfg(TestCqlFactory.class));
+    RandomAccessReader db = accessor.newRandomReader();
+
+    accessor.setRes(res);
+
+    List<Optional<KeyValue<?>>> values = db.multiGet(Arrays.asList(
+        KeyAttribute.of("key1", attr), KeyAttribute.of("key2", attr)));
+    assertEquals(2, values.size());
+    assertEquals(2, accessor.getExecuted().size());
+    assertEquals("key1", values.get(0).get().getKey());
+    assertEquals("key2", values.get(1).get().getKey());
+    assertArrayEquals(payload, (byte[]) values.get(1).get().getValue());
+  }
+
+
+  /**
+   * Test batch get of more attributes than concurrently executed reads.
+   */
+  @Test(timeout = 10000)
+  public void testMultiGetReleasesConcurrentReads() {
+    entity = EntityDescriptor.newBuilder()
+        .setName("dummy")
+        .build();
+
+    Row row = mock(Row.class);
+    when(row.getBytes(0)).thenReturn(ByteBuffer.wrap(new byte[] { 1 }));
+    List<Row> rows = Collections.singletonList(row);
+
+    ResultSet res = mock(ResultSet.class);
+    when(res.iterator()).thenAnswer(invocation -> rows.iterator());
+
+    TestDBAccessor accessor = new TestDBAccessor(
+        entity, URI.create("cassandra://localhost/"),
+        getCfg(TestCqlFactory.class));
+    RandomAccessReader db = accessor.newRandomReader();
+
+    accessor.setRes(res);
+
+    List<KeyAttribute> requests = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      requests.add(KeyAttribute.of("key" + i, attr));
+    }
+    for (int round = 0; round < 2; round++) {
+      List<Optional<KeyValue<?>>> values = db.multiGet(requests);
+      assertEquals(300, values.size());
+      assertEquals("key299", values.get(299).get().getKey());
+    }
+  }
+
+
+  /**
+   * Test asynchronous get of attribute.
+   */
+  @Test
+  public void testGetAsyncSuccess() throws Exception {
+    entity = EntityDescriptor.newBuilder()
+        .setName("dummy")
+        .build();
+
+    byte[] payload = new byte[] { 1, 2 };
+    Row row = mock(Row.class);
+    when(row.getBytes(0)).thenReturn(ByteBuffer.wrap(payload));
+    List<Row> rows = Collections.singletonList(row);
+
+    ResultSet res = mock(ResultSet.class);
+    when(res.iterator()).thenReturn(rows.iterator());
+
+    TestDBAccessor accessor = new TestDBAccessor(
+        entity, URI.create("cassandra://localhost/"),
+        getCfg(TestCqlFactory.class));
+    RandomAccessReader db = accessor.newRandomReader();
+
+    accessor.setRes(res);
+
+    Optional<KeyValue<byte[]>> value = db.getAsync("key", attr).get();
+    assertTrue(value.isPresent());
+    assertEquals("key", value.get().getKey());
+    assertArrayEquals(payload, (byte[]) value.get().getValue());
+  }
+
+
+  /**
+   * Test failed asynchronous get completes the future exceptionally.
+   */
+  @Test(expected = ExecutionException.class)
+  public void testGetAsyncFailed() throws Exception {
+    entity = EntityDescriptor.newBuilder()
+        .setName("dummy")
+        .build();
+
+    TestDBAccessor accessor = new TestDBAccessor(
+        entity, URI.create("cassandra://localhost/"),
+        getCfg(ThrowingTestCqlFactory.class));
+    CassandraRandomReader db = accessor.newRandomReader();
+
+    db.getAsync("key", attr).get();
+  }
+
+
   /**
    * Test failed get does throw exceptions.
    */
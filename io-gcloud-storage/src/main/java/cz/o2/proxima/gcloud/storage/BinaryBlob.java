@@ -22,6 +22,8 @@ import cz.o2.proxima.gcloud.storage.proto.Serialization;
 import cz.o2.proxima.repository.AttributeDescriptor;
 import cz.o2.proxima.repository.EntityDescriptor;
 import cz.o2.proxima.storage.StreamElement;
+import cz.o2.proxima.storage.StreamElementCodec;
+import javax.annotation.Nullable;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
@@ -35,6 +37,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -47,13 +50,25 @@ public class BinaryBlob {
 
   private static final String MAGIC = "gs::proxima";
 
+  /** Version of blobs with elements serialized as protobuf. */
+  private static final int PROTO_VERSION = 1;
+
+  /** Version of blobs with elements encoded by {@link StreamElementCodec}. */
+  private static final int CODEC_VERSION = 2;
+
   public static class Writer implements Closeable {
 
     private final boolean gzip;
+    @Nullable
+    private final StreamElementCodec codec;
     private DataOutputStream blobStream = null;
 
-    Writer(boolean gzip, OutputStream out) throws IOException {
+    Writer(
+        boolean gzip, @Nullable StreamElementCodec codec,
+        OutputStream out) throws IOException {
+
       this.gzip = gzip;
+      this.codec = codec;
       try {
         writeHeader(out);
         blobStream = toOutputStream(out);
@@ -72,12 +87,14 @@ public class BinaryBlob {
     private void writeHeader(OutputStream out) throws IOException {
       // don't close this
       DataOutputStream dos = new DataOutputStream(out);
-      byte[] header = Serialization.Header.newBuilder()
+      Serialization.Header.Builder builder = Serialization.Header.newBuilder()
           .setMagic(MAGIC)
-          .setVersion(1)
-          .setGzip(gzip)
-          .build()
-          .toByteArray();
+          .setVersion(codec == null ? PROTO_VERSION : CODEC_VERSION)
+          .setGzip(gzip);
+      if (codec != null) {
+        builder.addAllAttributes(codec.getDictionary());
+      }
+      byte[] header = builder.build().toByteArray();
       writeBytes(dos, header);
       dos.flush();
     }
@@ -95,6 +112,9 @@ public class BinaryBlob {
     }
 
     private byte[] toBytes(StreamElement data) {
+      if (codec != null) {
+        return codec.encode(data, true);
+      }
       return Serialization.Element.newBuilder()
           .setKey(data.getKey())
           .setUuid(data.getUuid())
@@ -124,11 +144,16 @@ public class BinaryBlob {
     private final Parser<Serialization.Element> parser = Serialization.Element.parser();
     private final EntityDescriptor entity;
     private final Serialization.Header header;
+    @Nullable
+    private final StreamElementCodec codec;
     private DataInputStream blobStream = null;
 
     private Reader(EntityDescriptor entity, InputStream in) throws IOException {
       this.entity = entity;
       header = readHeader(in);
+      codec = header.getVersion() >= CODEC_VERSION
+          ? StreamElementCodec.of(entity, header.getAttributesList())
+          : null;
       blobStream = toInputStream(in);
     }
 
@@ -196,6 +221,11 @@ public class BinaryBlob {
     }
 
     private StreamElement fromBytes(byte[] data) throws IOException {
+      if (codec != null) {
+        // fields are decoded on access, writers with the same dictionary
+        // copy the bytes through
+        return codec.decodeLazy(ByteBuffer.wrap(data), null);
+      }
       Serialization.Element parsed = parser.parseFrom(data);
       if (parsed.getDelete()) {
         if (parsed.getDeleteWildcard()) {
@@ -237,11 +267,33 @@ public class BinaryBlob {
   public static Writer writer(
       boolean gzip, OutputStream out) throws IOException {
 
-    return new Writer(gzip, out);
+    return writer(gzip, null, out);
+  }
+
+  /**
+   * Create writer from given {@link OutputStream}.
+   * @param gzip {@code true} if the output be gzipped
+   * @param codec codec to encode elements with, {@code null} to serialize
+   *              elements as protobuf
+   * @param out the {@link OutputStream}
+   * @return writer
+   * @throws IOException on IO errors
+   */
+  public static Writer writer(
+      boolean gzip, @Nullable StreamElementCodec codec,
+      OutputStream out) throws IOException {
+
+    return new Writer(gzip, codec, out);
   }
 
   public Writer writer(boolean gzip) throws IOException {
-    return new Writer(gzip, new FileOutputStream(path));
+    return writer(gzip, (StreamElementCodec) null);
+  }
+
+  public Writer writer(
+      boolean gzip, @Nullable StreamElementCodec codec) throws IOException {
+
+    return new Writer(gzip, codec, new FileOutputStream(path));
   }
 
   /**
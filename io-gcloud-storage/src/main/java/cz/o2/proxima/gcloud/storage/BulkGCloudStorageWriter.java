@@ -25,6 +25,7 @@ import cz.o2.proxima.repository.EntityDescriptor;
 import cz.o2.proxima.storage.BulkAttributeWriter;
 import cz.o2.proxima.storage.CommitCallback;
 import cz.o2.proxima.storage.StreamElement;
+import cz.o2.proxima.storage.StreamElementCodec;
 import cz.seznam.euphoria.core.util.ExceptionUtils;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import lombok.extern.slf4j.Slf4j;
@@ -107,7 +108,7 @@ public class BulkGCloudStorageWriter
     BucketData() {
       try {
         blob = createLocalBlob();
-        writer = blob.writer(gzip);
+        writer = blob.writer(gzip, codec);
       } catch (IOException ex) {
         throw new RuntimeException(ex);
       }
@@ -118,6 +119,8 @@ public class BulkGCloudStorageWriter
   private final File tmpDir;
   private final long rollPeriod;
   private final boolean gzip;
+  @Nullable
+  private final StreamElementCodec codec;
   private final int bufferSize;
   private final long allowedLateness;
   private final long flushAttemptDelay;
@@ -154,6 +157,12 @@ public class BulkGCloudStorageWriter
         .map(Boolean::valueOf)
         .orElse(false);
 
+    boolean compact = Optional.ofNullable(cfg.get("compact"))
+        .map(Object::toString)
+        .map(Boolean::valueOf)
+        .orElse(false);
+    codec = compact ? StreamElementCodec.of(entityDesc) : null;
+
     bufferSize = Optional.ofNullable(cfg.get("buffer-size"))
         .map(Object::toString)
         .map(Integer::valueOf)
@@ -21,6 +21,7 @@ import cz.o2.proxima.repository.AttributeDescriptorBase;
 import cz.o2.proxima.repository.EntityDescriptor;
 import cz.o2.proxima.repository.Repository;
 import cz.o2.proxima.storage.StreamElement;
+import cz.o2.proxima.storage.StreamElementCodec;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
@@ -107,4 +108,34 @@ public class BinaryBlobTest {
 
   }
 
+  @Test
+  public void testWriteAndReadWithCodec() throws IOException {
+    StreamElement update = StreamElement.update(
+        entity, wildcard, UUID.randomUUID().toString(),
+        "key", "wildcard.1", System.currentTimeMillis(), new byte[] { 1, 2 });
+    StreamElement delete = StreamElement.deleteWildcard(
+        entity, wildcard, UUID.randomUUID().toString(),
+        "key", System.currentTimeMillis());
+
+    try (BinaryBlob.Writer writer = blob.writer(
+        gzip, StreamElementCodec.of(entity))) {
+      writer.write(update);
+      writer.write(delete);
+    }
+
+    try (BinaryBlob.Reader reader = blob.reader(entity)) {
+      int matched = 0;
+      for (StreamElement e : reader) {
+        StreamElement expected = matched == 0 ? update : delete;
+        assertEquals(expected.getUuid(), e.getUuid());
+        assertEquals(expected.getKey(), e.getKey());
+        assertEquals(expected.getAttribute(), e.getAttribute());
+        assertEquals(expected.getStamp(), e.getStamp());
+        assertEquals(expected.isDeleteWildcard(), e.isDeleteWildcard());
+        matched++;
+      }
+      assertEquals(2, matched);
+    }
+  }
+
 }
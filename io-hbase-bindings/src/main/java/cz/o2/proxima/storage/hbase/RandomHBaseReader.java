@@ -18,6 +18,7 @@ package cz.o2.proxima.storage.hbase;
 import cz.o2.proxima.functional.Consumer;
 import cz.o2.proxima.repository.AttributeDescriptor;
 import cz.o2.proxima.repository.EntityDescriptor;
+import cz.o2.proxima.storage.randomaccess.KeyAttribute;
 import cz.o2.proxima.storage.randomaccess.KeyValue;
 import cz.o2.proxima.storage.randomaccess.RandomAccessReader;
 import cz.o2.proxima.storage.randomaccess.RandomOffset;
@@ -26,6 +27,8 @@ import cz.o2.proxima.util.Pair;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import org.apache.hadoop.conf.Configuration;
@@ -88,6 +91,35 @@ public class RandomHBaseReader extends HBaseClientWrapper
     }
   }
 
+  @SuppressWarnings("unchecked")
+  @Override
+  public List<Optional<KeyValue<?>>> multiGet(
+      List<KeyAttribute> requests, long stamp) {
+
+    ensureClient();
+    List<Get> gets = new ArrayList<>(requests.size());
+    for (KeyAttribute request : requests) {
+      Get get = new Get(request.getKey().getBytes(UTF8));
+      get.addColumn(family, request.getAttribute().getBytes(UTF8));
+      gets.add(get);
+    }
+    try {
+      Result[] results = client.get(gets);
+      List<Optional<KeyValue<?>>> ret = new ArrayList<>(requests.size());
+      for (int i = 0; i < results.length; i++) {
+        KeyAttribute request = requests.get(i);
+        Cell cell = results[i].getColumnLatestCell(
+            family, request.getAttribute().getBytes(UTF8));
+        ret.add(Optional.ofNullable(cell == null
+            ? null
+            : kv(request.getAttributeDescriptor(), cell)));
+      }
+      return ret;
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
   @SuppressWarnings("unchecked")
   @Override
   public <T> void scanWildcard(
@@ -20,6 +20,7 @@ import cz.o2.proxima.repository.AttributeDescriptor;
 import cz.o2.proxima.repository.ConfigRepository;
 import cz.o2.proxima.repository.EntityDescriptor;
 import cz.o2.proxima.repository.Repository;
+import cz.o2.proxima.storage.randomaccess.KeyAttribute;
 import cz.o2.proxima.storage.randomaccess.KeyValue;
 import cz.o2.proxima.storage.randomaccess.RandomOffset;
 import cz.o2.proxima.util.Pair;
@@ -111,6 +112,22 @@ public class RandomHBaseReaderTest {
     assertEquals(now, res.get().getStamp());
   }
 
+  @Test
+  public void testMultiGet() throws IOException {
+    long now = 1500000000000L;
+    write("key1", "dummy", "value1", now);
+    write("key2", "wildcard.1", "value2", now);
+    List<Optional<KeyValue<?>>> res = reader.multiGet(Arrays.asList(
+        KeyAttribute.of("key1", attr),
+        KeyAttribute.of("missing", attr),
+        KeyAttribute.of("key2", "wildcard.1", wildcard)));
+    assertEquals(3, res.size());
+    assertArrayEquals(bytes("value1"), res.get(0).get().getValueBytes());
+    assertFalse(res.get(1).isPresent());
+    assertEquals("wildcard.1", res.get(2).get().getAttribute());
+    assertArrayEquals(bytes("value2"), res.get(2).get().getValueBytes());
+  }
+
   @Test
   public void testScanWildcard() throws IOException {
     long now = 1500000000000L;
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.kafka;
+
+import cz.o2.proxima.metrics.AbsoluteMetric;
+import cz.o2.proxima.metrics.ApproxPercentileMetric;
+import cz.o2.proxima.metrics.Metric;
+import cz.o2.proxima.metrics.MetricsRegistry;
+import cz.o2.proxima.metrics.TimeAveragingMetric;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import lombok.Getter;
+
+/**
+ * Metrics of a named consumer of kafka topic, registered to JMX in group
+ * {@link #GROUP} with names prefixed by name of the consumer. Consumers
+ * with the same name share the metrics. Metrics of anonymous consumers
+ * are not registered.
+ */
+final class ConsumerMetrics {
+
+  /** Group of the metrics. */
+  static final String GROUP = "cz.o2.proxima.kafka";
+
+  /** Interval in milliseconds of update of consumer lag. */
+  static final long LAG_UPDATE_INTERVAL_MS = 5_000L;
+
+  private static final long PERCENTILE_DURATION = Duration.ofMinutes(5).toMillis();
+  private static final long PERCENTILE_WINDOW = Duration.ofSeconds(30).toMillis();
+
+  private static final Map<String, ConsumerMetrics> METRICS = new ConcurrentHashMap<>();
+
+  /**
+   * Retrieve metrics of consumer with given name.
+   * @param name name of the consumer, {@code null} for anonymous consumer
+   * @return the metrics
+   */
+  static ConsumerMetrics get(@Nullable String name) {
+    if (name == null) {
+      return new ConsumerMetrics("anonymous", false);
+    }
+    return METRICS.computeIfAbsent(name, n -> new ConsumerMetrics(n, true));
+  }
+
+  private final String name;
+  private final boolean registered;
+
+  /** Number of polled records per second. */
+  @Getter
+  private final Metric<Double> records;
+
+  /** Number of polled bytes per second. */
+  @Getter
+  private final Metric<Double> bytes;
+
+  /** Duration of poll in milliseconds. */
+  @Getter
+  private final ApproxPercentileMetric pollLatency;
+
+  /** Duration of processing of element or batch by observer in microseconds. */
+  @Getter
+  private final ApproxPercentileMetric processingLatency;
+
+  /** Sum of lags of all partitions. */
+  @Getter
+  private final AbsoluteMetric lag;
+
+  private final Map<Integer, AbsoluteMetric> partitionLags = new ConcurrentHashMap<>();
+
+  private ConsumerMetrics(String name, boolean registered) {
+    this.name = name;
+    this.registered = registered;
+    this.records = TimeAveragingMetric.of(GROUP, name + "-records", 1_000);
+    this.bytes = TimeAveragingMetric.of(GROUP, name + "-bytes", 1_000);
+    this.pollLatency = ApproxPercentileMetric.of(
+        GROUP, name + "-poll-latency-ms", PERCENTILE_DURATION, PERCENTILE_WINDOW);
+    this.processingLatency = ApproxPercentileMetric.of(
+        GROUP, name + "-processing-latency-us",
+        PERCENTILE_DURATION, PERCENTILE_WINDOW);
+    this.lag = AbsoluteMetric.of(GROUP, name + "-lag");
+    register(records, bytes, pollLatency, processingLatency, lag);
+  }
+
+  private void register(Metric<?>... metrics) {
+    if (registered) {
+      MetricsRegistry.register(metrics);
+    }
+  }
+
+  /**
+   * Record single poll.
+   * @param numRecords number of polled records
+   * @param numBytes size of polled keys and values
+   * @param durationNanos duration of the poll
+   */
+  void polled(int numRecords, long numBytes, long durationNanos) {
+    if (numRecords > 0) {
+      records.increment(numRecords);
+      bytes.increment(numBytes);
+    }
+    pollLatency.increment(TimeUnit.NANOSECONDS.toMillis(durationNanos));
+  }
+
+  /**
+   * Record processing of element or batch by observer.
+   * @param durationNanos duration of the processing
+   */
+  void processed(long durationNanos) {
+    processingLatency.increment(TimeUnit.NANOSECONDS.toMicros(durationNanos));
+  }
+
+  /**
+   * Update lag of partitions.
+   * @param lags map of partition to difference of end offset and committed offset
+   * @param revoked partitions no longer consumed, which lag is reset
+   */
+  void updateLag(Map<Integer, Long> lags, Collection<Integer> revoked) {
+    revoked.forEach(p -> partitionLag(p).setValue(0.0));
+    lags.forEach((p, l) -> partitionLag(p).setValue(l));
+    lag.setValue(partitionLags.values().stream()
+        .mapToDouble(AbsoluteMetric::getValue)
+        .sum());
+  }
+
+  private AbsoluteMetric partitionLag(int partition) {
+    return partitionLags.computeIfAbsent(partition, p -> {
+      AbsoluteMetric metric = AbsoluteMetric.of(GROUP, name + "-lag-" + p);
+      register(metric);
+      return metric;
+    });
+  }
+
+  /**
+   * Retrieve lag of given partition.
+   * @param partition the partition
+   * @return the lag or -1 if unknown
+   */
+  double getLag(int partition) {
+    AbsoluteMetric metric = partitionLags.get(partition);
+    return metric == null ? -1 : metric.getValue();
+  }
+
+}
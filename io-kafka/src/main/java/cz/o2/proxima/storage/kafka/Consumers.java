@@ -19,6 +19,7 @@ import com.google.common.base.MoreObjects;
 import cz.o2.proxima.functional.BiConsumer;
 import cz.o2.proxima.functional.Factory;
 import cz.o2.proxima.storage.StreamElement;
+import cz.o2.proxima.storage.commitlog.BatchedLogObserver;
 import cz.o2.proxima.storage.commitlog.BulkLogObserver;
 import cz.o2.proxima.storage.commitlog.LogObserverBase;
 import java.util.Collections;
@@ -29,7 +30,6 @@ import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
 
@@ -43,6 +43,16 @@ class Consumers {
 
     final Map<Integer, Long> committed = Collections.synchronizedMap(new HashMap<>());
     final Map<Integer, Long> processing = Collections.synchronizedMap(new HashMap<>());
+    final ConsumerMetrics metrics;
+
+    ConsumerBase(ConsumerMetrics metrics) {
+      this.metrics = metrics;
+    }
+
+    @Override
+    public ConsumerMetrics getMetrics() {
+      return metrics;
+    }
 
     @Override
     public void onCompleted() {
@@ -61,7 +71,7 @@ class Consumers {
 
     @Override
     public void onAssign(
-        KafkaConsumer<String, byte[]> consumer,
+        org.apache.kafka.clients.consumer.Consumer<String, byte[]> consumer,
         List<TopicOffset> offsets) {
 
       committed.clear();
@@ -77,14 +87,16 @@ class Consumers {
   static final class OnlineConsumer extends ConsumerBase {
 
     private final KafkaLogObserver observer;
-    private final OffsetCommitter<TopicPartition> committer;
+    private final OffsetTracker<TopicPartition> committer;
     private final Factory<Map<TopicPartition, OffsetAndMetadata>> prepareCommit;
 
     OnlineConsumer(
         KafkaLogObserver observer,
-        OffsetCommitter<TopicPartition> committer,
-        Factory<Map<TopicPartition, OffsetAndMetadata>> prepareCommit) {
+        OffsetTracker<TopicPartition> committer,
+        Factory<Map<TopicPartition, OffsetAndMetadata>> prepareCommit,
+        ConsumerMetrics metrics) {
 
+      super(metrics);
       this.observer = observer;
       this.committer = committer;
       this.prepareCommit = prepareCommit;
@@ -98,7 +110,8 @@ class Consumers {
 
       processing.put(tp.partition(), offset);
       if (element != null) {
-        return observer.onNext(element, (succ, exc) -> {
+        long start = System.nanoTime();
+        boolean ret = observer.onNext(element, (succ, exc) -> {
           if (succ) {
             committed.compute(
                 tp.partition(),
@@ -108,6 +121,8 @@ class Consumers {
             errorHandler.accept(exc);
           }
         }, tp::partition);
+        metrics.processed(System.nanoTime() - start);
+        return ret;
       }
       committed.compute(
           tp.partition(),
@@ -138,7 +153,7 @@ class Consumers {
 
     @Override
     public void onAssign(
-        KafkaConsumer<String, byte[]> consumer,
+        org.apache.kafka.clients.consumer.Consumer<String, byte[]> consumer,
         List<TopicOffset> offsets) {
 
       super.onAssign(consumer, offsets);
@@ -160,8 +175,10 @@ class Consumers {
         String topic,
         BulkLogObserver observer,
         BiConsumer<TopicPartition, Long> commit,
-        Factory<Map<TopicPartition, OffsetAndMetadata>> prepareCommit) {
+        Factory<Map<TopicPartition, OffsetAndMetadata>> prepareCommit,
+        ConsumerMetrics metrics) {
 
+      super(metrics);
       this.topic = topic;
       this.observer = observer;
       this.commit = commit;
@@ -176,9 +193,40 @@ class Consumers {
 
       processing.put(tp.partition(), offset);
       if (element != null) {
-        return observer.onNext(
+        long start = System.nanoTime();
+        boolean ret = observer.onNext(
             element, tp::partition,
             bulkCommitter(tp, offset, errorHandler));
+        metrics.processed(System.nanoTime() - start);
+        return ret;
+      }
+      return true;
+    }
+
+    @Override
+    public boolean isBulk() {
+      return true;
+    }
+
+    @Override
+    public boolean isBatch() {
+      return observer instanceof BatchedLogObserver;
+    }
+
+    @Override
+    public boolean consumeBatchWithConfirm(
+        List<StreamElement> elements,
+        TopicPartition tp, long offset,
+        Consumer<Throwable> errorHandler) {
+
+      processing.put(tp.partition(), offset);
+      if (!elements.isEmpty()) {
+        long start = System.nanoTime();
+        boolean ret = ((BatchedLogObserver) observer).onNextBatch(
+            elements, tp::partition,
+            bulkCommitter(tp, offset, errorHandler));
+        metrics.processed(System.nanoTime() - start);
+        return ret;
       }
       return true;
     }
@@ -221,7 +269,7 @@ class Consumers {
     @SuppressWarnings("unchecked")
     @Override
     public void onAssign(
-        KafkaConsumer<String, byte[]> consumer,
+        org.apache.kafka.clients.consumer.Consumer<String, byte[]> consumer,
         List<TopicOffset> offsets) {
 
       super.onAssign(consumer, offsets);
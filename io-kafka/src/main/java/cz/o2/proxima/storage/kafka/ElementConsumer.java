@@ -20,7 +20,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
 import javax.annotation.Nullable;
-import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
 
@@ -44,6 +43,43 @@ interface ElementConsumer {
       TopicPartition tp, long offset,
       Consumer<Throwable> errorHandler);
 
+  /**
+   * Check if elements are confirmed by commit of their offsets, so that
+   * the elements may reference the consumed records until their offsets
+   * are committed.
+   * @return {@code true} for consumers of bulk observers
+   */
+  default boolean isBulk() {
+    return false;
+  }
+
+  /**
+   * Check if the consumer processes elements in batches
+   * by {@link #consumeBatchWithConfirm}.
+   * @return {@code true} if the consumer accepts batches
+   */
+  default boolean isBatch() {
+    return false;
+  }
+
+  /**
+   * Process all elements of single partition read by single poll and return
+   * result of {@code onNextBatch} call to the observer.
+   * @param elements elements to process
+   * @param tp partition
+   * @param offset offset of the last record of the batch
+   * @param errorHandler function to call on error
+   * @return result of {@code onNextBatch} call
+   */
+  default boolean consumeBatchWithConfirm(
+      List<StreamElement> elements,
+      TopicPartition tp, long offset,
+      Consumer<Throwable> errorHandler) {
+
+    throw new UnsupportedOperationException(
+        "Consumer " + getClass() + " does not process batches");
+  }
+
   /**
    * Retrieve map of offsets that should be committed right away.
    * The offset map has to be atomically cloned and swapped with empty map
@@ -61,6 +97,11 @@ interface ElementConsumer {
    */
   List<TopicOffset> getCommittedOffsets();
 
+  /**
+   * @return metrics of the consumer
+   */
+  ConsumerMetrics getMetrics();
+
   /**
    * Called when processing finishes.
    */
@@ -84,7 +125,7 @@ interface ElementConsumer {
    * @param offsets the assigned partitions
    */
   void onAssign(
-      KafkaConsumer<String, byte[]> consumer,
+      org.apache.kafka.clients.consumer.Consumer<String, byte[]> consumer,
       List<TopicOffset> offsets);
 
 }
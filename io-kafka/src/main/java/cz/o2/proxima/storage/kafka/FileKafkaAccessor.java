@@ -0,0 +1,124 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.kafka;
+
+import cz.o2.proxima.repository.EntityDescriptor;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * {@link LocalKafkaAccessor} of topic stored in memory-mapped segment files
+ * in local directory given by path of the URI, e.g.
+ * {@code kafka-file:///data/topic}.
+ * Each partition is stored in subdirectory {@code partition-<id>} and committed
+ * offsets of consumer groups in subdirectory {@code groups}, so both data
+ * and offsets survive restart of the JVM. Existing topic keeps its number
+ * of partitions.
+ */
+@Slf4j
+public class FileKafkaAccessor extends LocalKafkaAccessor {
+
+  /** Size of segment files in bytes. Defaults to 64 MiB. */
+  public static final String SEGMENT_BYTES_CFG = "file.segment-bytes";
+
+  /**
+   * Time in milliseconds after which segments are deleted.
+   * Defaults to 0, which keeps all segments.
+   */
+  public static final String RETENTION_MS_CFG = "file.retention-ms";
+
+  private static final String PARTITION_PREFIX = "partition-";
+
+  @Getter
+  private final int segmentBytes;
+
+  @Getter
+  private final long retentionMs;
+
+  public FileKafkaAccessor(
+      EntityDescriptor entity, URI uri, Map<String, Object> cfg) {
+
+    super(entity, uri, cfg);
+    this.segmentBytes = Optional.ofNullable(cfg.get(SEGMENT_BYTES_CFG))
+        .map(v -> Integer.valueOf(v.toString()))
+        .orElse(64 * 1024 * 1024);
+    this.retentionMs = Optional.ofNullable(cfg.get(RETENTION_MS_CFG))
+        .map(v -> Long.valueOf(v.toString()))
+        .orElse(0L);
+    if (segmentBytes <= 0) {
+      throw new IllegalArgumentException(
+          "Size of segments must be positive, got " + segmentBytes);
+    }
+    log.info(
+        "Using segment bytes {} and retention {} ms for URI {}",
+        segmentBytes, retentionMs, uri);
+  }
+
+  @Override
+  LocalKafkaTopic topic() {
+    return LocalKafkaTopic.of(getUri(), this::open);
+  }
+
+  private LocalKafkaTopic open(URI uri) {
+    Path dir = Paths.get(uri.getPath());
+    String name = Utils.topic(uri);
+    try {
+      int partitions = existingPartitions(dir);
+      if (partitions == 0) {
+        partitions = getNumPartitions();
+      } else if (partitions != getNumPartitions()) {
+        log.warn(
+            "Topic {} has {} partitions, ignoring configured {}",
+            uri, partitions, getNumPartitions());
+      }
+      log.info("Opening file topic {} with {} partitions", uri, partitions);
+      List<PartitionLog> logs = new ArrayList<>(partitions);
+      for (int i = 0; i < partitions; i++) {
+        logs.add(MappedPartitionLog.open(
+            new TopicPartition(name, i), dir.resolve(PARTITION_PREFIX + i),
+            segmentBytes, retentionMs));
+      }
+      return new LocalKafkaTopic(
+          name, logs, new FileOffsetStore(dir.resolve("groups")));
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  private static int existingPartitions(Path dir) throws IOException {
+    if (!Files.isDirectory(dir)) {
+      return 0;
+    }
+    try (Stream<Path> files = Files.list(dir)) {
+      return (int) files
+          .filter(Files::isDirectory)
+          .filter(p -> p.getFileName().toString().startsWith(PARTITION_PREFIX))
+          .count();
+    }
+  }
+
+}
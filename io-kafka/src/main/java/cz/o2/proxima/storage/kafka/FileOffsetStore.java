@@ -0,0 +1,91 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.kafka;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * {@link LocalKafkaTopic.OffsetStore} keeping committed offsets of each
+ * consumer group in a properties file in a directory. Files are replaced
+ * atomically, so that a failure does not leave corrupted offsets.
+ */
+class FileOffsetStore implements LocalKafkaTopic.OffsetStore {
+
+  private static final String SUFFIX = ".offsets";
+
+  private final Path dir;
+
+  FileOffsetStore(Path dir) {
+    this.dir = dir;
+  }
+
+  @Override
+  public Map<Integer, Long> load(String group) {
+    Path file = file(group);
+    Map<Integer, Long> ret = new HashMap<>();
+    if (!Files.exists(file)) {
+      return ret;
+    }
+    Properties props = new Properties();
+    try (InputStream in = Files.newInputStream(file)) {
+      props.load(in);
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+    props.forEach((k, v) -> ret.put(
+        Integer.valueOf(k.toString()), Long.valueOf(v.toString())));
+    return ret;
+  }
+
+  @Override
+  public synchronized void store(String group, Map<Integer, Long> committed) {
+    Path file = file(group);
+    Properties props = new Properties();
+    committed.forEach((p, o) -> props.put(String.valueOf(p), String.valueOf(o)));
+    try {
+      Files.createDirectories(dir);
+      Path tmp = dir.resolve(file.getFileName() + ".tmp");
+      try (OutputStream out = Files.newOutputStream(tmp)) {
+        props.store(out, null);
+      }
+      Files.move(
+          tmp, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  private Path file(String group) {
+    try {
+      // group names can contain characters not allowed in file names
+      return dir.resolve(URLEncoder.encode(group, "UTF-8") + SUFFIX);
+    } catch (UnsupportedEncodingException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+}
@@ -35,6 +35,10 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
 import lombok.AccessLevel;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.Serdes;
 
 /**
  * Kafka writer and commit log using {@code KafkaProducer}.
@@ -46,6 +50,16 @@ public class KafkaAccessor extends AbstractStorage implements DataAccessor {
   public static final String POLL_INTERVAL_CFG = "poll.interval";
   /** Partitioner class for entity key-attribute pair. */
   public static final String PARTITIONER_CLASS = "partitioner";
+  /**
+   * Encoding of entity key and attribute in kafka records. Either {@code key}
+   * (the default) with record key {@code key#attribute}, or {@code header}
+   * with entity key as record key and attribute in {@link #ATTRIBUTE_HEADER}.
+   */
+  public static final String KEY_ENCODING_CFG = "key-encoding";
+  /** Name of the header with attribute when using {@code header} encoding. */
+  public static final String ATTRIBUTE_HEADER = "proxima.attribute";
+  /** Interval in milliseconds of refresh of number of partitions of the topic. */
+  public static final String PARTITIONS_REFRESH_CFG = "partitions.refresh-interval";
 
   public static final String WRITER_CONFIG_PREFIX = "kafka.";
   private static final int PRODUCE_CONFIG_PREFIX_LENGTH = WRITER_CONFIG_PREFIX.length();
@@ -61,17 +75,39 @@ public class KafkaAccessor extends AbstractStorage implements DataAccessor {
   @Getter(AccessLevel.PACKAGE)
   private long consumerPollInterval = 100;
 
+  @Getter(AccessLevel.PACKAGE)
+  private boolean headerEncoding = false;
+
+  @Getter(AccessLevel.PACKAGE)
+  private long partitionsRefreshInterval = 60_000L;
+
   public KafkaAccessor(
       EntityDescriptor entity,
       URI uri,
       Map<String, Object> cfg) {
 
+    this(entity, uri, cfg, true);
+  }
+
+  /**
+   * Create the accessor.
+   * @param entity the entity
+   * @param uri URI of the topic
+   * @param cfg configuration of the family
+   * @param brokers {@code true} if authority of the URI must specify brokers
+   */
+  KafkaAccessor(
+      EntityDescriptor entity,
+      URI uri,
+      Map<String, Object> cfg,
+      boolean brokers) {
+
     super(entity, uri);
 
     if (uri.getPath().length() <= 1) {
       throw new IllegalArgumentException("Specify topic by path in URI");
     }
-    if (Strings.isNullOrEmpty(uri.getAuthority())) {
+    if (brokers && Strings.isNullOrEmpty(uri.getAuthority())) {
       throw new IllegalArgumentException("Specify brokers by authority in URI");
     }
 
@@ -97,9 +133,25 @@ public class KafkaAccessor extends AbstractStorage implements DataAccessor {
         })
         .orElse(this.partitioner);
 
+    String encoding = Optional.ofNullable(cfg.get(KEY_ENCODING_CFG))
+        .map(Object::toString)
+        .orElse("key");
+    if (!encoding.equals("key") && !encoding.equals("header")) {
+      throw new IllegalArgumentException(
+          "Unknown " + KEY_ENCODING_CFG + " " + encoding
+              + ", expected one of key, header");
+    }
+    this.headerEncoding = encoding.equals("header");
+
+    this.partitionsRefreshInterval = Optional.ofNullable(
+        cfg.get(PARTITIONS_REFRESH_CFG))
+        .map(v -> Long.valueOf(v.toString()))
+        .orElse(partitionsRefreshInterval);
+
     log.info(
-        "Using consumerPollInterval {} and partitionerClass {} for URI {}",
-        consumerPollInterval, partitioner.getClass(), getUri());
+        "Using consumerPollInterval {}, partitionerClass {} and key encoding {} "
+            + "for URI {}",
+        consumerPollInterval, partitioner.getClass(), encoding, getUri());
   }
 
 
@@ -123,6 +175,22 @@ public class KafkaAccessor extends AbstractStorage implements DataAccessor {
     return new KafkaConsumerFactory(getUri(), createProps());
   }
 
+  /**
+   * Create producer for writing to the topic.
+   * @return the producer
+   */
+  Producer<String, byte[]> createProducer() {
+    // defaults that can be overridden by kafka.* settings of the family,
+    // e.g. kafka.linger.ms, kafka.compression.type or kafka.enable.idempotence
+    Properties props = new Properties();
+    props.put(ProducerConfig.ACKS_CONFIG, "all");
+    props.put(ProducerConfig.BATCH_SIZE_CONFIG, 16384);
+    props.putAll(createProps());
+    props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, getUri().getAuthority());
+    return new KafkaProducer<>(
+        props, Serdes.String().serializer(), Serdes.ByteArray().serializer());
+  }
+
   @Override
   public Optional<AttributeWriterBase> getWriter(Context context) {
     return Optional.of(newWriter());
@@ -142,7 +210,7 @@ public class KafkaAccessor extends AbstractStorage implements DataAccessor {
   public Optional<PartitionedCachedView> getCachedView(Context context) {
     return Optional.of(new LocalCachedPartitionedView(
         getEntityDescriptor(), newReader(context),
-        newWriter()));
+        newWriter(), cfg));
   }
 
   KafkaWriter newWriter() {
@@ -24,6 +24,7 @@ import java.util.Properties;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
@@ -51,7 +52,7 @@ public class KafkaConsumerFactory {
     this.topic = Utils.topic(uri);
   }
 
-  public KafkaConsumer<String, byte[]> create(
+  public Consumer<String, byte[]> create(
       String name,
       @Nullable ConsumerRebalanceListener listener) {
 
@@ -65,7 +66,7 @@ public class KafkaConsumerFactory {
         Serdes.String().deserializer().getClass());
     cloned.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG,
         Serdes.ByteArray().deserializer().getClass());
-    KafkaConsumer<String, byte[]> ret = new KafkaConsumer<>(cloned);
+    Consumer<String, byte[]> ret = new KafkaConsumer<>(cloned);
     if (listener == null) {
       ret.subscribe(Collections.singletonList(topic));
     } else {
@@ -79,11 +80,11 @@ public class KafkaConsumerFactory {
    * @param name name of the consumer
    * @return {@link KafkaConsumer} of given name
    */
-  public KafkaConsumer<String, byte[]> create(String name) {
+  public Consumer<String, byte[]> create(String name) {
     return create(name, null);
   }
 
-  public KafkaConsumer<String, byte[]> create(Collection<Partition> partitions) {
+  public Consumer<String, byte[]> create(Collection<Partition> partitions) {
     log.debug("Creating unnamed consumer for partitions {}", partitions);
     Properties cloned = clone(this.props);
     cloned.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, uri.getAuthority());
@@ -92,7 +93,7 @@ public class KafkaConsumerFactory {
         Serdes.String().deserializer().getClass());
     cloned.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG,
         Serdes.ByteArray().deserializer().getClass());
-    KafkaConsumer<String, byte[]> ret = new KafkaConsumer<>(cloned);
+    Consumer<String, byte[]> ret = new KafkaConsumer<>(cloned);
     List<TopicPartition> topicPartitions = partitions.stream()
         .map(p -> new TopicPartition(topic, p.getId()))
         .collect(Collectors.toList());
@@ -106,7 +107,7 @@ public class KafkaConsumerFactory {
    * Create an unnamed consumer consuming all partitions.
    * @return unnamed {@link KafkaConsumer} for all partitions
    */
-  public KafkaConsumer<String, byte[]> create() {
+  public Consumer<String, byte[]> create() {
     log.debug("Creating unnamed consumer for all partitions of topic {}", topic);
     Properties cloned = clone(this.props);
     cloned.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, uri.getAuthority());
@@ -115,7 +116,7 @@ public class KafkaConsumerFactory {
         Serdes.String().deserializer().getClass());
     cloned.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG,
         Serdes.ByteArray().deserializer().getClass());
-    KafkaConsumer<String, byte[]> ret = new KafkaConsumer<>(cloned);
+    Consumer<String, byte[]> ret = new KafkaConsumer<>(cloned);
 
     List<TopicPartition> partitions = ret.partitionsFor(topic).stream()
         .map(p -> new TopicPartition(topic, p.partition()))
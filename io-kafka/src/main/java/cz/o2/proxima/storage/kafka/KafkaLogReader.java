@@ -22,6 +22,7 @@ import cz.o2.proxima.repository.AttributeDescriptor;
 import cz.o2.proxima.repository.Context;
 import cz.o2.proxima.storage.AbstractStorage;
 import cz.o2.proxima.storage.Partition;
+import cz.o2.proxima.storage.StreamElement;
 import cz.o2.proxima.storage.commitlog.BulkLogObserver;
 import cz.o2.proxima.storage.commitlog.CommitLogReader;
 import cz.o2.proxima.storage.commitlog.LogObserver;
@@ -30,6 +31,8 @@ import cz.o2.proxima.storage.commitlog.Offset;
 import cz.o2.proxima.storage.commitlog.Position;
 import cz.o2.proxima.storage.kafka.Consumers.BulkConsumer;
 import cz.o2.proxima.storage.kafka.Consumers.OnlineConsumer;
+import cz.o2.proxima.storage.kafka.MappedPartitionLog.Lease;
+import cz.o2.proxima.storage.kafka.MappedPartitionLog.MappedRecord;
 import cz.o2.proxima.view.PartitionedLogObserver;
 import cz.o2.proxima.view.PartitionedView;
 import cz.o2.proxima.view.input.DataSourceUtils;
@@ -38,10 +41,14 @@ import cz.seznam.euphoria.core.client.flow.Flow;
 import cz.seznam.euphoria.core.client.io.DataSource;
 import cz.seznam.euphoria.core.client.operator.MapElements;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -49,6 +56,7 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -57,13 +65,14 @@ import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
-import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
 
 /**
  * A {@link CommitLogReader} implementation for Kafka.
@@ -78,6 +87,11 @@ public class KafkaLogReader extends AbstractStorage
   private final AtomicBoolean shutdown = new AtomicBoolean();
   private final long consumerPollInterval;
   private final String topic;
+  private final boolean headerEncoding;
+
+  // attribute name (or wildcard prefix followed by `*') -> descriptor
+  @Nullable
+  private transient Map<String, AttributeDescriptor<Object>> attributeCache;
 
   KafkaLogReader(KafkaAccessor accessor, Context context) {
     super(accessor.getEntityDescriptor(), accessor.getUri());
@@ -85,6 +99,7 @@ public class KafkaLogReader extends AbstractStorage
     this.context = context;
     this.consumerPollInterval = accessor.getConsumerPollInterval();
     this.topic = accessor.getTopic();
+    this.headerEncoding = accessor.isHeaderEncoding();
   }
 
   /**
@@ -217,7 +232,7 @@ public class KafkaLogReader extends AbstractStorage
   @Override
   public List<Partition> getPartitions() {
     final List<PartitionInfo> partitions;
-    try (KafkaConsumer<String, byte[]> consumer = createConsumer()) {
+    try (Consumer<String, byte[]> consumer = createConsumer()) {
       partitions = consumer.partitionsFor(topic);
     }
     return partitions.stream()
@@ -294,28 +309,21 @@ public class KafkaLogReader extends AbstractStorage
       KafkaLogObserver observer,
       ExecutorService executor) throws InterruptedException {
 
-    // offsets that should be committed to kafka
-    Map<TopicPartition, OffsetAndMetadata> kafkaCommitMap;
-    kafkaCommitMap = Collections.synchronizedMap(new HashMap<>());
-
-    OffsetCommitter<TopicPartition> offsetCommitter = new OffsetCommitter<>();
+    OffsetTracker<TopicPartition> offsetTracker = new OffsetTracker<>();
 
     BiConsumer<TopicPartition, ConsumerRecord<String, byte[]>> preWrite = (tp, r) ->
-        offsetCommitter.register(tp, r.offset(), 1,
-            () -> {
-              OffsetAndMetadata mtd = new OffsetAndMetadata(r.offset() + 1);
-              if (commitToKafka) {
-                kafkaCommitMap.put(tp, mtd);
-              }
-            });
+        offsetTracker.register(tp, r.offset(), 1);
 
-    OnlineConsumer onlineConsumer = new OnlineConsumer(observer, offsetCommitter, () -> {
-      synchronized (kafkaCommitMap) {
-        Map<TopicPartition, OffsetAndMetadata> clone = new HashMap<>(kafkaCommitMap);
-        kafkaCommitMap.clear();
-        return clone;
+    OnlineConsumer onlineConsumer = new OnlineConsumer(observer, offsetTracker, () -> {
+      // offsets that should be committed to kafka
+      Map<TopicPartition, Long> committable = offsetTracker.drainCommittable();
+      if (!commitToKafka || committable.isEmpty()) {
+        return Collections.emptyMap();
       }
-    });
+      Map<TopicPartition, OffsetAndMetadata> ret = new HashMap<>();
+      committable.forEach((tp, offset) -> ret.put(tp, new OffsetAndMetadata(offset)));
+      return ret;
+    }, ConsumerMetrics.get(name));
 
     AtomicReference<ObserveHandle> handle = new AtomicReference<>();
     submitConsumerWithObserver(
@@ -362,7 +370,8 @@ public class KafkaLogReader extends AbstractStorage
             kafkaCommitMap.clear();
             return clone;
           }
-        });
+        },
+        ConsumerMetrics.get(name));
 
     AtomicReference<ObserveHandle> handle = new AtomicReference<>();
     submitConsumerWithObserver(
@@ -415,9 +424,11 @@ public class KafkaLogReader extends AbstractStorage
         }
 
       });
-      final AtomicReference<KafkaConsumer<String, byte[]>> consumerRef;
+      final AtomicReference<Consumer<String, byte[]>> consumerRef;
       consumerRef = new AtomicReference<>();
-      try (KafkaConsumer<String, byte[]> kafka = createConsumer(
+      // leases of mapped records held until the records are processed
+      final Map<Integer, Deque<Lease>> leases = new HashMap<>();
+      try (Consumer<String, byte[]> kafka = createConsumer(
           name, offsets, listener(name, consumerRef, consumer), position)) {
         consumerRef.set(kafka);
 
@@ -457,12 +468,19 @@ public class KafkaLogReader extends AbstractStorage
               .collect(Collectors.toList()));
         }
 
+        final ConsumerMetrics metrics = consumer.getMetrics();
+        final Set<Integer> lagPartitions = new HashSet<>();
+        long lastLagUpdate = 0L;
+        long pollStart = System.nanoTime();
         ConsumerRecords<String, byte[]> poll = kafka.poll(consumerPollInterval);
+        long pollNanos = System.nanoTime() - pollStart;
 
         latch.countDown();
 
         AtomicReference<Throwable> error = new AtomicReference<>();
         do {
+          long polledBytes = 0L;
+          holdLeases(poll, leases);
           synchronized (seekOffsets) {
             if (!seekOffsets.isEmpty()) {
               Utils.seekToOffsets(topic, offsets, kafka);
@@ -474,33 +492,38 @@ public class KafkaLogReader extends AbstractStorage
               poll = ConsumerRecords.empty();
             }
           }
-          for (ConsumerRecord<String, byte[]> r : poll) {
-            String key = r.key();
-            byte[] value = r.value();
-            TopicPartition tp = new TopicPartition(r.topic(), r.partition());
-            preWrite.accept(tp, r);
-            // in kafka, each entity attribute is separated by `#' from entity key
-            int hashPos = key.lastIndexOf('#');
-            KafkaStreamElement ingest = null;
-            if (hashPos < 0 || hashPos >= key.length()) {
-              log.error("Invalid key in kafka topic: {}", key);
+          for (TopicPartition tp : poll.partitions()) {
+            List<ConsumerRecord<String, byte[]>> records = poll.records(tp);
+            if (records.isEmpty()) {
+              continue;
+            }
+            long lastOffset = -1L;
+            boolean cont = true;
+            if (consumer.isBatch()) {
+              List<StreamElement> batch = new ArrayList<>(records.size());
+              for (ConsumerRecord<String, byte[]> r : records) {
+                preWrite.accept(tp, r);
+                polledBytes += recordSize(r);
+                KafkaStreamElement ingest = toStreamElement(r, consumer.isBulk());
+                if (ingest != null) {
+                  batch.add(ingest);
+                }
+              }
+              lastOffset = records.get(records.size() - 1).offset();
+              cont = consumer.consumeBatchWithConfirm(
+                  batch, tp, lastOffset, error::set);
             } else {
-              String entityKey = key.substring(0, hashPos);
-              String attribute = key.substring(hashPos + 1);
-              Optional<AttributeDescriptor<Object>> attr = getEntityDescriptor()
-                    .findAttribute(attribute, true /* allow reading protected */);
-              if (!attr.isPresent()) {
-                log.error("Invalid attribute {} in kafka key {}", attribute, key);
-              } else {
-                ingest = new KafkaStreamElement(
-                    getEntityDescriptor(), attr.get(),
-                    String.valueOf(r.topic() + "#" + r.partition() + "#" + r.offset()),
-                    entityKey, attribute, r.timestamp(), value, r.partition(),
-                    r.offset());
+              for (ConsumerRecord<String, byte[]> r : records) {
+                preWrite.accept(tp, r);
+                polledBytes += recordSize(r);
+                lastOffset = r.offset();
+                cont = consumer.consumeWithConfirm(
+                    toStreamElement(r, consumer.isBulk()), tp, r.offset(), error::set);
+                if (!cont) {
+                  break;
+                }
               }
             }
-            boolean cont = consumer.consumeWithConfirm(
-                ingest, tp, r.offset(), error::set);
             if (!cont) {
               log.info("Terminating consumption by request");
               completed.set(true);
@@ -508,16 +531,23 @@ public class KafkaLogReader extends AbstractStorage
             }
             if (stopAtCurrent) {
               Long end = endOffsets.get(tp);
-              if (end != null && end - 1 <= r.offset()) {
+              if (end != null && end - 1 <= lastOffset) {
                 endOffsets.remove(tp);
               }
             }
           }
+          metrics.polled(poll.count(), polledBytes, pollNanos);
           Map<TopicPartition, OffsetAndMetadata> commitMapClone;
           commitMapClone = consumer.prepareOffsetsForCommit();
           if (!commitMapClone.isEmpty()) {
             kafka.commitSync(commitMapClone);
           }
+          releaseLeases(leases, consumer);
+          long now = System.currentTimeMillis();
+          if (now - lastLagUpdate >= ConsumerMetrics.LAG_UPDATE_INTERVAL_MS) {
+            updateLag(kafka, consumer, lagPartitions);
+            lastLagUpdate = now;
+          }
           if (stopAtCurrent && endOffsets.isEmpty()) {
             log.info("Reached end of current data. Terminating consumption.");
             completed.set(true);
@@ -526,7 +556,9 @@ public class KafkaLogReader extends AbstractStorage
           if (errorThrown != null) {
             throw new RuntimeException(errorThrown);
           }
+          pollStart = System.nanoTime();
           poll = kafka.poll(consumerPollInterval);
+          pollNanos = System.nanoTime() - pollStart;
         } while (!shutdown.get() && !completed.get()
             && !Thread.currentThread().isInterrupted());
 
@@ -548,20 +580,203 @@ public class KafkaLogReader extends AbstractStorage
             throw new RuntimeException(ex);
           }
         }
+      } finally {
+        leases.values().forEach(held -> held.forEach(Lease::release));
       }
     });
     latch.await();
   }
 
+  /**
+   * Hold leases of mapped records of given poll.
+   * @param poll the polled records
+   * @param leases held leases by partition
+   */
+  private static void holdLeases(
+      ConsumerRecords<String, byte[]> poll, Map<Integer, Deque<Lease>> leases) {
+
+    for (ConsumerRecord<String, byte[]> r : poll) {
+      if (r instanceof MappedRecord) {
+        Lease lease = ((MappedRecord) r).getLease();
+        Deque<Lease> held = leases.computeIfAbsent(
+            r.partition(), p -> new ArrayDeque<>());
+        // records read under the same lease are adjacent
+        if (held.peekLast() != lease) {
+          held.add(lease);
+        }
+      }
+    }
+  }
+
+  /**
+   * Release leases of mapped records that are no longer referenced.
+   * Elements of bulk consumers reference the records until their offsets
+   * are committed, other elements copy the records when created.
+   * @param leases held leases by partition
+   * @param consumer consumer of the elements
+   */
+  private static void releaseLeases(
+      Map<Integer, Deque<Lease>> leases, ElementConsumer consumer) {
+
+    if (leases.isEmpty()) {
+      return;
+    }
+    Map<Integer, Long> committed = consumer.isBulk()
+        ? consumer.getCommittedOffsets()
+            .stream()
+            .collect(Collectors.toMap(
+                o -> o.getPartition().getId(), TopicOffset::getOffset, Math::max))
+        : null;
+    leases.forEach((partition, held) -> {
+      long offset = committed == null
+          ? Long.MAX_VALUE
+          : committed.getOrDefault(partition, 0L);
+      held.removeIf(lease -> {
+        if (lease.getLastOffset() < offset) {
+          lease.release();
+          return true;
+        }
+        return false;
+      });
+    });
+  }
+
+
+  /**
+   * Convert record to element.
+   * @param r the record
+   * @param zeroCopy {@code true} to read value of mapped record
+   *                 from the record on access
+   * @return the element or {@code null} if the record is invalid
+   */
+  @Nullable
+  private KafkaStreamElement toStreamElement(
+      ConsumerRecord<String, byte[]> r, boolean zeroCopy) {
+
+    String key = r.key();
+    String entityKey;
+    String attribute = headerEncoding ? attributeHeader(r) : null;
+    if (attribute != null) {
+      entityKey = key;
+    } else {
+      // in kafka, each entity attribute is separated by `#' from entity key
+      int hashPos = key.lastIndexOf('#');
+      if (hashPos < 0 || hashPos >= key.length()) {
+        log.error("Invalid key in kafka topic: {}", key);
+        return null;
+      }
+      entityKey = key.substring(0, hashPos);
+      attribute = key.substring(hashPos + 1);
+    }
+    AttributeDescriptor<Object> attr = findAttribute(attribute);
+    if (attr == null) {
+      log.error("Invalid attribute {} in kafka key {}", attribute, key);
+      return null;
+    }
+    if (zeroCopy && r instanceof MappedRecord) {
+      return new MappedKafkaStreamElement(
+          getEntityDescriptor(), attr, entityKey, attribute, (MappedRecord) r);
+    }
+    return new KafkaStreamElement(
+        getEntityDescriptor(), attr, r.topic(),
+        entityKey, attribute, r.timestamp(), r.value(), r.partition(),
+        r.offset());
+  }
+
+  @Nullable
+  private static String attributeHeader(ConsumerRecord<String, byte[]> r) {
+    if (r instanceof MappedRecord) {
+      return ((MappedRecord) r).lastHeader(KafkaAccessor.ATTRIBUTE_HEADER);
+    }
+    Header header = r.headers().lastHeader(KafkaAccessor.ATTRIBUTE_HEADER);
+    return header == null
+        ? null
+        : new String(header.value(), StandardCharsets.UTF_8);
+  }
+
+  private static long recordSize(ConsumerRecord<String, byte[]> r) {
+    return Math.max(r.serializedKeySize(), 0) + Math.max(r.serializedValueSize(), 0);
+  }
+
+  /**
+   * Update lag metrics of partitions assigned to given kafka consumer.
+   * @param kafka the kafka consumer
+   * @param consumer consumer of the elements
+   * @param lagPartitions partitions with lag updated by the previous call
+   */
+  private void updateLag(
+      Consumer<String, byte[]> kafka, ElementConsumer consumer,
+      Set<Integer> lagPartitions) {
+
+    try {
+      Set<TopicPartition> assignment = kafka.assignment();
+      Map<TopicPartition, Long> ends = assignment.isEmpty()
+          ? Collections.emptyMap()
+          : kafka.endOffsets(assignment);
+      Map<Integer, Long> committed = consumer.getCommittedOffsets()
+          .stream()
+          .collect(Collectors.toMap(
+              o -> o.getPartition().getId(), TopicOffset::getOffset, Math::max));
+      Map<Integer, Long> lags = new HashMap<>();
+      ends.forEach((tp, end) -> {
+        Long offset = committed.get(tp.partition());
+        if (offset != null) {
+          lags.put(tp.partition(), Math.max(end - offset, 0L));
+        }
+      });
+      lagPartitions.removeAll(lags.keySet());
+      consumer.getMetrics().updateLag(lags, lagPartitions);
+      lagPartitions.clear();
+      lagPartitions.addAll(lags.keySet());
+    } catch (Exception ex) {
+      log.warn("Failed to update lag of consumer of topic {}", topic, ex);
+    }
+  }
+
+  @Nullable
+  private AttributeDescriptor<Object> findAttribute(String attribute) {
+    Map<String, AttributeDescriptor<Object>> cache = attributeCache;
+    if (cache == null) {
+      cache = new ConcurrentHashMap<>();
+      // exact names are cached upfront, so that a miss can be looked up
+      // by wildcard prefixes without shadowing an exact attribute
+      for (AttributeDescriptor<?> a : getEntityDescriptor().getAllAttributes(true)) {
+        if (!a.isWildcard()) {
+          cache.put(a.getName(), (AttributeDescriptor) a);
+        }
+      }
+      attributeCache = cache;
+    }
+    AttributeDescriptor<Object> attr = cache.get(attribute);
+    if (attr == null) {
+      // names of wildcard attributes are unbounded, so cache them
+      // by the wildcard (e.g. `prefix.*') only
+      int dot = attribute.lastIndexOf('.');
+      while (attr == null && dot >= 0) {
+        attr = cache.get(attribute.substring(0, dot + 1) + "*");
+        dot = attribute.lastIndexOf('.', dot - 1);
+      }
+    }
+    if (attr == null) {
+      attr = getEntityDescriptor()
+          .findAttribute(attribute, true /* allow reading protected */)
+          .orElse(null);
+      if (attr != null && attr.isWildcard()) {
+        cache.put(attr.getName(), attr);
+      }
+    }
+    return attr;
+  }
+
 
-  private KafkaConsumer<String, byte[]> createConsumer() {
+  private Consumer<String, byte[]> createConsumer() {
     return createConsumer(
         UUID.randomUUID().toString(), null, null, Position.NEWEST);
   }
 
   /** Create kafka consumer for the data. */
   @SuppressWarnings("unchecked")
-  private KafkaConsumer<String, byte[]> createConsumer(
+  private Consumer<String, byte[]> createConsumer(
       @Nullable String name,
       @Nullable Collection<Offset> offsets,
       @Nullable ConsumerRebalanceListener listener,
@@ -571,7 +786,7 @@ public class KafkaLogReader extends AbstractStorage
         name != null || listener == null,
         "Please use either named group (with listener) or offsets without listener");
     KafkaConsumerFactory factory = accessor.createConsumerFactory();
-    final KafkaConsumer<String, byte[]> consumer;
+    final Consumer<String, byte[]> consumer;
 
     if ("".equals(name)) {
       throw new IllegalArgumentException("Consumer group cannot be empty string");
@@ -654,7 +869,7 @@ public class KafkaLogReader extends AbstractStorage
   // create rebalance listener from consumer
   private ConsumerRebalanceListener listener(
       String name,
-      AtomicReference<KafkaConsumer<String, byte[]>> kafka,
+      AtomicReference<Consumer<String, byte[]>> kafka,
       ElementConsumer consumer) {
 
     if (name == null) {
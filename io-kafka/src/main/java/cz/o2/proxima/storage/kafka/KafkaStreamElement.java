@@ -18,10 +18,13 @@ package cz.o2.proxima.storage.kafka;
 import cz.o2.proxima.repository.AttributeDescriptor;
 import cz.o2.proxima.repository.EntityDescriptor;
 import cz.o2.proxima.storage.StreamElement;
+import java.nio.ByteBuffer;
+import javax.annotation.Nullable;
 import lombok.Getter;
 
 /**
- * Data read from a kafka partition.
+ * Data read from a kafka partition. The UUID {@code topic#partition#offset}
+ * is created on first call to {@link #getUuid}.
  */
 public class KafkaStreamElement extends StreamElement {
 
@@ -30,17 +33,44 @@ public class KafkaStreamElement extends StreamElement {
   @Getter
   private final long offset;
 
+  private final String topic;
+
+  @Nullable
+  private transient String uuid;
+
   KafkaStreamElement(
       EntityDescriptor entityDesc,
       AttributeDescriptor attributeDesc,
-      String uuid, String key, String attribute,
+      String topic, String key, String attribute,
       long stamp, byte[] value, int partition, long offset) {
 
-    super(entityDesc, attributeDesc, uuid, key, attribute, stamp, value);
+    super(entityDesc, attributeDesc, key, attribute, stamp, value);
+    this.topic = topic;
     this.partition = partition;
     this.offset = offset;
   }
 
+  @Override
+  public String getUuid() {
+    if (uuid == null) {
+      uuid = topic + "#" + partition + "#" + offset;
+    }
+    return uuid;
+  }
+
+  /**
+   * Retrieve read-only view of the value. Elements of {@code kafka-file}
+   * storage passed to bulk observers are backed by the mapped log and
+   * the view is valid only until the offset of the element is committed
+   * or the observation ends, use {@link #getValue} to keep the value longer.
+   * @return the view or {@code null} for delete
+   */
+  @Nullable
+  public ByteBuffer getValueBuffer() {
+    byte[] value = getValue();
+    return value == null ? null : ByteBuffer.wrap(value).asReadOnlyBuffer();
+  }
+
   @Override
   public String toString() {
     return "KafkaStreamElement(entityDesc=" + getEntityDescriptor()
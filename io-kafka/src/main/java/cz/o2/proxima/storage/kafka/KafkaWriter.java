@@ -19,14 +19,15 @@ import cz.o2.proxima.storage.commitlog.Partitioner;
 import cz.o2.proxima.storage.AbstractOnlineAttributeWriter;
 import cz.o2.proxima.storage.CommitCallback;
 import cz.o2.proxima.storage.StreamElement;
-import java.util.Properties;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
 import javax.annotation.Nullable;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.kafka.clients.producer.KafkaProducer;
-import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
-import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.header.internals.RecordHeader;
 
 /**
  * ${link OnlineAttributeWriter} implementation for Kafka.
@@ -38,50 +39,113 @@ public class KafkaWriter extends AbstractOnlineAttributeWriter {
   final KafkaAccessor accessor;
   private final Partitioner partitioner;
   private final String topic;
+  private final boolean headerEncoding;
+  private final long partitionsRefreshInterval;
 
   @Nullable
-  private transient KafkaProducer<String, byte[]> producer;
+  private transient Producer<String, byte[]> producer;
+
+  private transient volatile int numPartitions;
+  private transient volatile long partitionsRefreshed;
 
   KafkaWriter(KafkaAccessor accessor) {
     super(accessor.getEntityDescriptor(), accessor.getUri());
     this.accessor = accessor;
     this.partitioner = accessor.getPartitioner();
     this.topic = accessor.getTopic();
+    this.headerEncoding = accessor.isHeaderEncoding();
+    this.partitionsRefreshInterval = accessor.getPartitionsRefreshInterval();
   }
 
   @Override
-  @SuppressWarnings("unchecked")
   public void write(StreamElement data, CommitCallback callback) {
     try {
-      if (producer == null) {
-        producer = createProducer();
+      send(data, producer(), numPartitions(), callback);
+    } catch (Exception ex) {
+      log.warn("Failed to write ingest {}", data, ex);
+      callback.commit(false, ex);
+    }
+  }
+
+  /**
+   * Write group of elements. All elements are passed to the producer
+   * at once and the callback is committed when all of them are acked.
+   */
+  @Override
+  public void writeBatch(List<StreamElement> data, CommitCallback callback) {
+    CommitCallback commit = CommitCallback.afterNumCommits(data.size(), callback);
+    Producer<String, byte[]> current;
+    int partitions;
+    try {
+      current = producer();
+      partitions = numPartitions();
+    } catch (Exception ex) {
+      log.warn("Failed to write {} ingests", data.size(), ex);
+      commit.commit(false, ex);
+      return;
+    }
+    for (StreamElement element : data) {
+      try {
+        send(element, current, partitions, commit);
+      } catch (Exception ex) {
+        log.warn("Failed to write ingest {}", element, ex);
+        commit.commit(false, ex);
+        return;
       }
-      int partition = (partitioner.getPartitionId(data) & Integer.MAX_VALUE)
-          % producer.partitionsFor(topic).size();
-      producer.send(
-          new ProducerRecord(
-              topic, partition, data.getStamp(),
-              data.getKey() + "#" + data.getAttribute(), data.getValue()),
-          (metadata, exception) -> {
+    }
+  }
+
+  private void send(
+      StreamElement data, Producer<String, byte[]> producer,
+      int partitions, CommitCallback callback) {
+
+    int partition = (partitioner.getPartitionId(data) & Integer.MAX_VALUE)
+        % partitions;
+    producer.send(
+        toProducerRecord(data, partition),
+        (metadata, exception) -> {
+          if (exception == null) {
             log.debug(
                 "Written {} to topic {} offset {} and partition {}",
                 data, metadata.topic(), metadata.offset(), metadata.partition());
-            callback.commit(exception == null, exception);
-          });
-    } catch (Exception ex) {
-      log.warn("Failed to write ingest {}", data, ex);
-      callback.commit(false, ex);
+          }
+          callback.commit(exception == null, exception);
+        });
+  }
+
+  private Producer<String, byte[]> producer() {
+    if (producer == null) {
+      producer = accessor.createProducer();
+    }
+    return producer;
+  }
+
+  /**
+   * Retrieve number of partitions of the topic, which is refreshed after
+   * configured interval to reflect added partitions.
+   */
+  private int numPartitions() {
+    long now = System.currentTimeMillis();
+    if (numPartitions <= 0 || now - partitionsRefreshed >= partitionsRefreshInterval) {
+      numPartitions = producer().partitionsFor(topic).size();
+      partitionsRefreshed = now;
     }
+    return numPartitions;
   }
 
-  @SuppressWarnings("unchecked")
-  private KafkaProducer<String, byte[]> createProducer() {
-    Properties props = accessor.createProps();
-    props.put(ProducerConfig.ACKS_CONFIG, "all");
-    props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, getUri().getAuthority());
-    props.put(ProducerConfig.BATCH_SIZE_CONFIG, 16384);
-    return new KafkaProducer<>(
-        props, Serdes.String().serializer(), Serdes.ByteArray().serializer());
+  private ProducerRecord<String, byte[]> toProducerRecord(
+      StreamElement data, int partition) {
+
+    if (headerEncoding) {
+      return new ProducerRecord<>(
+          topic, partition, data.getStamp(), data.getKey(), data.getValue(),
+          Collections.singletonList(new RecordHeader(
+              KafkaAccessor.ATTRIBUTE_HEADER,
+              data.getAttribute().getBytes(StandardCharsets.UTF_8))));
+    }
+    return new ProducerRecord<>(
+        topic, partition, data.getStamp(),
+        data.getKey() + "#" + data.getAttribute(), data.getValue());
   }
 
   @Override
@@ -90,6 +154,7 @@ public class KafkaWriter extends AbstractOnlineAttributeWriter {
       this.producer.close();
       this.producer = null;
     }
+    this.numPartitions = 0;
   }
 
 }
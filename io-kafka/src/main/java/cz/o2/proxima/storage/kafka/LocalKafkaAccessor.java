@@ -0,0 +1,161 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.kafka;
+
+import cz.o2.proxima.repository.EntityDescriptor;
+import cz.o2.proxima.storage.Partition;
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import javax.annotation.Nullable;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * {@link KafkaAccessor} of topic held in memory of the JVM instead of kafka
+ * brokers. The readers and writers are the same as of {@link KafkaAccessor},
+ * so this can be used to benchmark the whole pipeline without network and
+ * brokers. Partitions are read by consumers of the same name as consumer
+ * groups, polls return at most {@code kafka.max.poll.records} records and
+ * acknowledgement of writes can be delayed by configured latency.
+ * Accessors with the same URI share the topic, e.g.
+ * {@code kafka-local:///topic}.
+ */
+@Slf4j
+public class LocalKafkaAccessor extends KafkaAccessor {
+
+  /** Number of partitions of the topic. Defaults to 1. */
+  public static final String NUM_PARTITIONS_CFG = "local.partitions";
+
+  /** Latency in milliseconds of writes. Defaults to 0. */
+  public static final String LATENCY_CFG = "local.latency-ms";
+
+  /**
+   * Maximal number of records kept in each partition.
+   * Defaults to 0, which keeps all records.
+   */
+  public static final String RETENTION_CFG = "local.retention-records";
+
+  private static final int DEFAULT_MAX_POLL_RECORDS = 500;
+
+  @Getter
+  private final int numPartitions;
+
+  @Getter
+  private final long latencyMs;
+
+  @Getter
+  private final long retention;
+
+  private final int maxPollRecords;
+
+  public LocalKafkaAccessor(
+      EntityDescriptor entity, URI uri, Map<String, Object> cfg) {
+
+    super(entity, uri, cfg, false);
+    this.numPartitions = Optional.ofNullable(cfg.get(NUM_PARTITIONS_CFG))
+        .map(v -> Integer.valueOf(v.toString()))
+        .orElse(1);
+    this.latencyMs = Optional.ofNullable(cfg.get(LATENCY_CFG))
+        .map(v -> Long.valueOf(v.toString()))
+        .orElse(0L);
+    this.retention = Optional.ofNullable(cfg.get(RETENTION_CFG))
+        .map(v -> Long.valueOf(v.toString()))
+        .orElse(0L);
+    this.maxPollRecords = Optional.ofNullable(
+        createProps().getProperty(ConsumerConfig.MAX_POLL_RECORDS_CONFIG))
+        .map(Integer::valueOf)
+        .orElse(DEFAULT_MAX_POLL_RECORDS);
+    if (numPartitions <= 0) {
+      throw new IllegalArgumentException(
+          "Number of partitions must be positive, got " + numPartitions);
+    }
+    log.info(
+        "Using {} partitions, latency {} ms, retention {} and max poll records {} "
+            + "for URI {}",
+        numPartitions, latencyMs, retention, maxPollRecords, uri);
+  }
+
+  /**
+   * Retrieve the topic of the accessor. Topic is created with the first
+   * accessor of given URI, so settings of the later accessors are ignored.
+   */
+  LocalKafkaTopic topic() {
+    return LocalKafkaTopic.of(getUri(), numPartitions, retention);
+  }
+
+  @Override
+  public KafkaConsumerFactory createConsumerFactory() {
+    return new LocalConsumerFactory();
+  }
+
+  @Override
+  Producer<String, byte[]> createProducer() {
+    return new LocalKafkaProducer(topic(), latencyMs);
+  }
+
+  private class LocalConsumerFactory extends KafkaConsumerFactory {
+
+    LocalConsumerFactory() {
+      super(getUri(), createProps());
+    }
+
+    @Override
+    public Consumer<String, byte[]> create(
+        String name, @Nullable ConsumerRebalanceListener listener) {
+
+      log.debug("Creating named local consumer with name {}", name);
+      LocalKafkaTopic topic = topic();
+      Consumer<String, byte[]> ret = new LocalKafkaConsumer(
+          topic, name, maxPollRecords);
+      ret.subscribe(Collections.singletonList(topic.getName()), listener);
+      return ret;
+    }
+
+    @Override
+    public Consumer<String, byte[]> create(Collection<Partition> partitions) {
+      LocalKafkaTopic topic = topic();
+      Consumer<String, byte[]> ret = new LocalKafkaConsumer(
+          topic, null, maxPollRecords);
+      ret.assign(partitions.stream()
+          .map(p -> new TopicPartition(topic.getName(), p.getId()))
+          .collect(Collectors.toList()));
+      return ret;
+    }
+
+    @Override
+    public Consumer<String, byte[]> create() {
+      LocalKafkaTopic topic = topic();
+      Consumer<String, byte[]> ret = new LocalKafkaConsumer(
+          topic, null, maxPollRecords);
+      ret.assign(IntStream.range(0, topic.getNumPartitions())
+          .mapToObj(p -> new TopicPartition(topic.getName(), p))
+          .collect(Collectors.toList()));
+      return ret;
+    }
+
+  }
+
+}
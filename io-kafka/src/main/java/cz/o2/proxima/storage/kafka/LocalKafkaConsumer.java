@@ -0,0 +1,460 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.kafka;
+
+import cz.o2.proxima.storage.kafka.LocalKafkaTopic.Group;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.InterruptException;
+import org.apache.kafka.common.errors.WakeupException;
+
+/**
+ * {@link Consumer} of {@link LocalKafkaTopic}. Like {@code KafkaConsumer}
+ * the consumer must be used from single thread, only {@link #wakeup()}
+ * can be called concurrently. Subscribed consumers join consumer group
+ * immediately, but rebalance listener is called from {@link #poll(long)}.
+ * Partitions without committed offset start at the end of the partition.
+ */
+@Slf4j
+class LocalKafkaConsumer implements Consumer<String, byte[]> {
+
+  private final LocalKafkaTopic topic;
+  @Nullable
+  private final Group group;
+  private final int maxPollRecords;
+  private final Map<TopicPartition, Long> positions = new LinkedHashMap<>();
+  private final Set<TopicPartition> paused = new HashSet<>();
+  private final AtomicBoolean wakeup = new AtomicBoolean();
+
+  private boolean subscribed = false;
+  @Nullable
+  private ConsumerRebalanceListener listener;
+  /** Generation of the group of current assignment. */
+  private int generation = -1;
+  /** {@code true} if the listener was notified about current assignment. */
+  private boolean notified = false;
+  /** Partition to start the next poll with. */
+  private int nextPartition = 0;
+  private volatile boolean closed = false;
+
+  LocalKafkaConsumer(
+      LocalKafkaTopic topic, @Nullable String groupName, int maxPollRecords) {
+
+    this.topic = topic;
+    this.group = groupName == null ? null : topic.group(groupName);
+    this.maxPollRecords = maxPollRecords;
+  }
+
+  @Override
+  public Set<TopicPartition> assignment() {
+    return Collections.unmodifiableSet(new HashSet<>(positions.keySet()));
+  }
+
+  @Override
+  public Set<String> subscription() {
+    return subscribed
+        ? Collections.singleton(topic.getName())
+        : Collections.emptySet();
+  }
+
+  @Override
+  public void subscribe(Collection<String> topics) {
+    subscribe(topics, null);
+  }
+
+  @Override
+  public void subscribe(
+      Collection<String> topics, @Nullable ConsumerRebalanceListener listener) {
+
+    ensureOpen();
+    if (group == null) {
+      throw new IllegalStateException("Cannot subscribe consumer without group");
+    }
+    if (!topics.equals(Collections.singleton(topic.getName()))) {
+      throw new IllegalArgumentException(
+          "Consumer can subscribe only topic " + topic.getName()
+              + ", got " + topics);
+    }
+    if (!subscribed) {
+      subscribed = true;
+      group.join(this);
+    }
+    this.listener = listener;
+    // assign partitions so that the consumer can seek before the first
+    // poll, the listener is notified by the poll
+    rebalance(false);
+  }
+
+  @Override
+  public void subscribe(
+      Pattern pattern, @Nullable ConsumerRebalanceListener listener) {
+
+    if (pattern.matcher(topic.getName()).matches()) {
+      subscribe(Collections.singleton(topic.getName()), listener);
+    }
+  }
+
+  @Override
+  public void subscribe(Pattern pattern) {
+    subscribe(pattern, null);
+  }
+
+  @Override
+  public void assign(Collection<TopicPartition> partitions) {
+    ensureOpen();
+    if (subscribed) {
+      throw new IllegalStateException("Cannot assign partitions of subscribed consumer");
+    }
+    Map<TopicPartition, Long> current = new HashMap<>(positions);
+    positions.clear();
+    for (TopicPartition tp : partitions) {
+      Long position = current.get(tp);
+      positions.put(tp, position == null ? initialPosition(tp) : position);
+    }
+  }
+
+  @Override
+  public void unsubscribe() {
+    if (subscribed) {
+      subscribed = false;
+      group.leave(this);
+    }
+    positions.clear();
+    paused.clear();
+    listener = null;
+    generation = -1;
+    notified = false;
+  }
+
+  @Override
+  public ConsumerRecords<String, byte[]> poll(long timeout) {
+    ensureOpen();
+    rebalance(true);
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    Map<TopicPartition, List<ConsumerRecord<String, byte[]>>> records = fetch();
+    long remaining;
+    while (records.isEmpty() && !wakeup.get()
+        && (remaining = deadline - System.nanoTime()) > 0) {
+
+      try {
+        topic.await(this::hasData, remaining);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new InterruptException(ex);
+      }
+      records = fetch();
+    }
+    if (records.isEmpty() && wakeup.getAndSet(false)) {
+      throw new WakeupException();
+    }
+    return new ConsumerRecords<>(records);
+  }
+
+  /**
+   * Update assignment after change of members of the group.
+   * @param notify {@code true} to notify the rebalance listener
+   */
+  private void rebalance(boolean notify) {
+    if (!subscribed
+        || (group.generation() == generation && (notified || !notify))) {
+      return;
+    }
+    final int current;
+    final List<Integer> assigned;
+    synchronized (group) {
+      current = group.generation();
+      assigned = group.assignment(this);
+    }
+    if (current != generation) {
+      if (notified && listener != null) {
+        listener.onPartitionsRevoked(assignment());
+      }
+      positions.clear();
+      paused.clear();
+      for (int p : assigned) {
+        TopicPartition tp = new TopicPartition(topic.getName(), p);
+        positions.put(tp, initialPosition(tp));
+      }
+      log.debug(
+          "Consumer in group {} of topic {} assigned partitions {}",
+          group.getName(), topic.getName(), assigned);
+      generation = current;
+      notified = false;
+    }
+    if (notify && !notified) {
+      notified = true;
+      if (listener != null) {
+        listener.onPartitionsAssigned(assignment());
+      }
+    }
+  }
+
+  private long initialPosition(TopicPartition tp) {
+    PartitionLog partition = partitionLog(tp);
+    Long committed = group == null ? null : group.committed(tp.partition());
+    return committed == null
+        ? partition.end()
+        : Math.max(committed, partition.start());
+  }
+
+  private Map<TopicPartition, List<ConsumerRecord<String, byte[]>>> fetch() {
+    Map<TopicPartition, List<ConsumerRecord<String, byte[]>>> ret = new HashMap<>();
+    if (positions.isEmpty()) {
+      return ret;
+    }
+    // rotate the first partition so that all partitions get their share
+    // of the poll when the consumer is lagging
+    List<TopicPartition> assigned = new ArrayList<>(positions.keySet());
+    int first = nextPartition++ % assigned.size();
+    int budget = maxPollRecords;
+    for (int i = 0; i < assigned.size() && budget > 0; i++) {
+      TopicPartition tp = assigned.get((first + i) % assigned.size());
+      if (paused.contains(tp)) {
+        continue;
+      }
+      List<ConsumerRecord<String, byte[]>> records = new ArrayList<>();
+      long position = partitionLog(tp).read(positions.get(tp), budget, records);
+      positions.put(tp, position);
+      if (!records.isEmpty()) {
+        ret.put(tp, records);
+        budget -= records.size();
+      }
+    }
+    return ret;
+  }
+
+  private boolean hasData() {
+    if (wakeup.get()) {
+      return true;
+    }
+    for (Map.Entry<TopicPartition, Long> e : positions.entrySet()) {
+      if (!paused.contains(e.getKey())
+          && e.getValue() < partitionLog(e.getKey()).end()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void commitSync() {
+    Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+    positions.forEach((tp, o) -> offsets.put(tp, new OffsetAndMetadata(o)));
+    commitSync(offsets);
+  }
+
+  @Override
+  public void commitSync(Map<TopicPartition, OffsetAndMetadata> offsets) {
+    ensureOpen();
+    if (group == null) {
+      throw new IllegalStateException("Cannot commit offsets of consumer without group");
+    }
+    Map<Integer, Long> committed = new HashMap<>();
+    offsets.forEach((tp, o) -> committed.put(tp.partition(), o.offset()));
+    group.commit(committed);
+  }
+
+  @Override
+  public void commitAsync() {
+    commitSync();
+  }
+
+  @Override
+  public void commitAsync(@Nullable OffsetCommitCallback callback) {
+    Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+    positions.forEach((tp, o) -> offsets.put(tp, new OffsetAndMetadata(o)));
+    commitAsync(offsets, callback);
+  }
+
+  @Override
+  public void commitAsync(
+      Map<TopicPartition, OffsetAndMetadata> offsets,
+      @Nullable OffsetCommitCallback callback) {
+
+    Exception error = null;
+    try {
+      commitSync(offsets);
+    } catch (Exception ex) {
+      error = ex;
+    }
+    if (callback != null) {
+      callback.onComplete(offsets, error);
+    } else if (error != null) {
+      log.warn("Failed to commit offsets {}", offsets, error);
+    }
+  }
+
+  @Override
+  public void seek(TopicPartition partition, long offset) {
+    checkAssigned(partition);
+    positions.put(partition, offset);
+  }
+
+  @Override
+  public void seekToBeginning(Collection<TopicPartition> partitions) {
+    for (TopicPartition tp : partitions.isEmpty() ? assignment() : partitions) {
+      seek(tp, partitionLog(tp).start());
+    }
+  }
+
+  @Override
+  public void seekToEnd(Collection<TopicPartition> partitions) {
+    for (TopicPartition tp : partitions.isEmpty() ? assignment() : partitions) {
+      seek(tp, partitionLog(tp).end());
+    }
+  }
+
+  @Override
+  public long position(TopicPartition partition) {
+    checkAssigned(partition);
+    return positions.get(partition);
+  }
+
+  @Override
+  @Nullable
+  public OffsetAndMetadata committed(TopicPartition partition) {
+    Long committed = group == null ? null : group.committed(partition.partition());
+    return committed == null ? null : new OffsetAndMetadata(committed);
+  }
+
+  @Override
+  public Map<MetricName, ? extends Metric> metrics() {
+    return Collections.emptyMap();
+  }
+
+  @Override
+  public List<PartitionInfo> partitionsFor(String topicName) {
+    return topic.getName().equals(topicName)
+        ? topic.partitionInfos()
+        : Collections.emptyList();
+  }
+
+  @Override
+  public Map<String, List<PartitionInfo>> listTopics() {
+    return Collections.singletonMap(topic.getName(), topic.partitionInfos());
+  }
+
+  @Override
+  public Set<TopicPartition> paused() {
+    return Collections.unmodifiableSet(new HashSet<>(paused));
+  }
+
+  @Override
+  public void pause(Collection<TopicPartition> partitions) {
+    partitions.forEach(this::checkAssigned);
+    paused.addAll(partitions);
+  }
+
+  @Override
+  public void resume(Collection<TopicPartition> partitions) {
+    paused.removeAll(partitions);
+  }
+
+  @Override
+  public Map<TopicPartition, OffsetAndTimestamp> offsetsForTimes(
+      Map<TopicPartition, Long> timestampsToSearch) {
+
+    Map<TopicPartition, OffsetAndTimestamp> ret = new HashMap<>();
+    timestampsToSearch.forEach((tp, stamp) -> {
+      ConsumerRecord<String, byte[]> record = partitionLog(tp).find(stamp);
+      ret.put(tp, record == null
+          ? null
+          : new OffsetAndTimestamp(record.offset(), record.timestamp()));
+    });
+    return ret;
+  }
+
+  @Override
+  public Map<TopicPartition, Long> beginningOffsets(
+      Collection<TopicPartition> partitions) {
+
+    Map<TopicPartition, Long> ret = new HashMap<>();
+    partitions.forEach(tp -> ret.put(tp, partitionLog(tp).start()));
+    return ret;
+  }
+
+  @Override
+  public Map<TopicPartition, Long> endOffsets(
+      Collection<TopicPartition> partitions) {
+
+    Map<TopicPartition, Long> ret = new HashMap<>();
+    partitions.forEach(tp -> ret.put(tp, partitionLog(tp).end()));
+    return ret;
+  }
+
+  @Override
+  public void close() {
+    if (!closed) {
+      unsubscribe();
+      closed = true;
+    }
+  }
+
+  @Override
+  public void close(long timeout, TimeUnit unit) {
+    close();
+  }
+
+  @Override
+  public void wakeup() {
+    wakeup.set(true);
+    topic.wakeup();
+  }
+
+  private PartitionLog partitionLog(TopicPartition tp) {
+    if (!tp.topic().equals(topic.getName())
+        || tp.partition() < 0 || tp.partition() >= topic.getNumPartitions()) {
+      throw new IllegalArgumentException("Unknown partition " + tp);
+    }
+    return topic.partition(tp.partition());
+  }
+
+  private void checkAssigned(TopicPartition tp) {
+    if (!positions.containsKey(tp)) {
+      throw new IllegalStateException("Partition " + tp + " is not assigned");
+    }
+  }
+
+  private void ensureOpen() {
+    if (closed) {
+      throw new IllegalStateException("The consumer has already been closed");
+    }
+  }
+
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.kafka;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.InterruptException;
+
+/**
+ * {@link Producer} appending to {@link LocalKafkaTopic}. Without latency
+ * records are appended and acked by the sending thread. With latency records
+ * are appended and acked by single thread of the producer after the latency
+ * elapses, which keeps order of records sent by the producer.
+ */
+@Slf4j
+class LocalKafkaProducer implements Producer<String, byte[]> {
+
+  private final LocalKafkaTopic topic;
+  private final long latencyMs;
+  @Nullable
+  private final ScheduledExecutorService scheduler;
+  private volatile boolean closed = false;
+
+  LocalKafkaProducer(LocalKafkaTopic topic, long latencyMs) {
+    this.topic = topic;
+    this.latencyMs = latencyMs;
+    this.scheduler = latencyMs > 0
+        ? Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "local-kafka-producer-" + topic.getName());
+            t.setDaemon(true);
+            return t;
+          })
+        : null;
+  }
+
+  @Override
+  public Future<RecordMetadata> send(ProducerRecord<String, byte[]> record) {
+    return send(record, null);
+  }
+
+  @Override
+  public Future<RecordMetadata> send(
+      ProducerRecord<String, byte[]> record, @Nullable Callback callback) {
+
+    if (closed) {
+      throw new IllegalStateException("Cannot send after the producer is closed");
+    }
+    if (!topic.getName().equals(record.topic())) {
+      throw new IllegalArgumentException(
+          "Producer can send only to topic " + topic.getName()
+              + ", got " + record.topic());
+    }
+    ProducerRecord<String, byte[]> toAppend = record.partition() == null
+        ? new ProducerRecord<>(
+            record.topic(), partition(record.key()), record.timestamp(),
+            record.key(), record.value(), record.headers())
+        : record;
+    CompletableFuture<RecordMetadata> ret = new CompletableFuture<>();
+    Runnable append = () -> {
+      RecordMetadata metadata = topic.append(toAppend);
+      if (callback != null) {
+        try {
+          callback.onCompletion(metadata, null);
+        } catch (Exception ex) {
+          log.error("Error executing callback of record {}", metadata, ex);
+        }
+      }
+      ret.complete(metadata);
+    };
+    if (scheduler == null) {
+      append.run();
+    } else {
+      scheduler.schedule(append, latencyMs, TimeUnit.MILLISECONDS);
+    }
+    return ret;
+  }
+
+  private int partition(@Nullable String key) {
+    return key == null
+        ? 0
+        : (key.hashCode() & Integer.MAX_VALUE) % topic.getNumPartitions();
+  }
+
+  @Override
+  public void flush() {
+    if (scheduler != null && !scheduler.isShutdown()) {
+      try {
+        // records are appended in order, so this completes after all
+        // records sent so far
+        scheduler.schedule(() -> { }, latencyMs, TimeUnit.MILLISECONDS).get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new InterruptException(ex);
+      } catch (ExecutionException ex) {
+        throw new IllegalStateException(ex.getCause());
+      }
+    }
+  }
+
+  @Override
+  public List<PartitionInfo> partitionsFor(String topicName) {
+    return topic.getName().equals(topicName)
+        ? topic.partitionInfos()
+        : Collections.emptyList();
+  }
+
+  @Override
+  public Map<MetricName, ? extends Metric> metrics() {
+    return Collections.emptyMap();
+  }
+
+  @Override
+  public void close() {
+    close(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void close(long timeout, TimeUnit unit) {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (scheduler != null) {
+      scheduler.shutdown();
+      try {
+        if (!scheduler.awaitTermination(timeout, unit)) {
+          log.warn(
+              "Dropping records not appended to topic {} on close",
+              topic.getName());
+          scheduler.shutdownNow();
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        scheduler.shutdownNow();
+      }
+    }
+  }
+
+  @Override
+  public void initTransactions() {
+    throw new UnsupportedOperationException("Transactions are not supported");
+  }
+
+  @Override
+  public void beginTransaction() {
+    throw new UnsupportedOperationException("Transactions are not supported");
+  }
+
+  @Override
+  public void sendOffsetsToTransaction(
+      Map<TopicPartition, OffsetAndMetadata> offsets, String consumerGroupId) {
+
+    throw new UnsupportedOperationException("Transactions are not supported");
+  }
+
+  @Override
+  public void commitTransaction() {
+    throw new UnsupportedOperationException("Transactions are not supported");
+  }
+
+  @Override
+  public void abortTransaction() {
+    throw new UnsupportedOperationException("Transactions are not supported");
+  }
+
+}
@@ -0,0 +1,377 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.kafka;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.TimestampType;
+
+/**
+ * Topic of {@link LocalKafkaAccessor} held by the JVM. Topics are shared by
+ * all accessors with the same URI. Each partition is a {@link PartitionLog},
+ * kept in memory by default. Consumer groups keep committed offsets,
+ * optionally persisted by {@link OffsetStore}, and assign partitions
+ * to their members round-robin.
+ */
+@Slf4j
+final class LocalKafkaTopic {
+
+  private static final Map<URI, LocalKafkaTopic> TOPICS = new ConcurrentHashMap<>();
+
+  /**
+   * Retrieve topic with given URI, create it if it does not exist.
+   * @param uri URI of the topic
+   * @param numPartitions number of partitions of created topic
+   * @param retention maximal number of records kept in each partition
+   *                  of created topic, zero for unlimited
+   * @return the topic
+   */
+  static LocalKafkaTopic of(URI uri, int numPartitions, long retention) {
+    return of(uri, u -> {
+      log.info(
+          "Creating local topic {} with {} partitions and retention {}",
+          u, numPartitions, retention);
+      String name = Utils.topic(u);
+      List<PartitionLog> logs = new ArrayList<>(numPartitions);
+      for (int i = 0; i < numPartitions; i++) {
+        logs.add(new MemoryLog(new TopicPartition(name, i), retention));
+      }
+      return new LocalKafkaTopic(name, logs, null);
+    });
+  }
+
+  /**
+   * Retrieve topic with given URI, create it if it does not exist.
+   * @param uri URI of the topic
+   * @param factory factory of the topic if it does not exist
+   * @return the topic
+   */
+  static LocalKafkaTopic of(URI uri, Function<URI, LocalKafkaTopic> factory) {
+    return TOPICS.computeIfAbsent(uri, factory);
+  }
+
+  /**
+   * Remove topic with given URI and close it. Data of topics held in memory
+   * are lost.
+   * @param uri URI of the topic
+   */
+  static void drop(URI uri) {
+    LocalKafkaTopic topic = TOPICS.remove(uri);
+    if (topic != null) {
+      topic.close();
+    }
+  }
+
+  /**
+   * Storage of committed offsets of consumer groups.
+   */
+  interface OffsetStore {
+
+    /**
+     * Load committed offsets of given group.
+     * @param group name of the group
+     * @return map of partition to committed offset
+     */
+    Map<Integer, Long> load(String group);
+
+    /**
+     * Store committed offsets of given group.
+     * @param group name of the group
+     * @param committed map of partition to committed offset
+     */
+    void store(String group, Map<Integer, Long> committed);
+
+  }
+
+  /**
+   * Log of single partition held in memory. Records are stored in segments
+   * of fixed size, segments falling out of retention are dropped as a whole.
+   */
+  static final class MemoryLog implements PartitionLog {
+
+    private static final int SEGMENT_SIZE = 1024;
+
+    private final TopicPartition tp;
+    private final long retention;
+    private final Map<Long, ConsumerRecord<String, byte[]>[]> segments =
+        new ConcurrentHashMap<>();
+    /** First retained offset. */
+    private volatile long start = 0L;
+    /** Offset of the next appended record. */
+    private volatile long end = 0L;
+
+    MemoryLog(TopicPartition tp, long retention) {
+      this.tp = tp;
+      this.retention = retention;
+    }
+
+    @Override
+    public long start() {
+      return start;
+    }
+
+    @Override
+    public long end() {
+      return end;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public synchronized RecordMetadata append(ProducerRecord<String, byte[]> record) {
+      long offset = end;
+      long base = offset - offset % SEGMENT_SIZE;
+      ConsumerRecord<String, byte[]>[] segment = segments.get(base);
+      if (segment == null) {
+        segment = new ConsumerRecord[SEGMENT_SIZE];
+        segments.put(base, segment);
+      }
+      long timestamp = record.timestamp() == null
+          ? System.currentTimeMillis()
+          : record.timestamp();
+      // length of the key in chars is good enough for size of ascii keys
+      int keySize = record.key() == null ? -1 : record.key().length();
+      int valueSize = record.value() == null ? -1 : record.value().length;
+      segment[(int) (offset - base)] = new ConsumerRecord<>(
+          tp.topic(), tp.partition(), offset, timestamp,
+          TimestampType.CREATE_TIME, 0L, keySize, valueSize,
+          record.key(), record.value(), record.headers());
+      // publishes the record to readers
+      end = offset + 1;
+      if (retention > 0 && end - start > retention) {
+        expire(end - retention);
+      }
+      return new RecordMetadata(tp, offset, 0, timestamp, 0L, keySize, valueSize);
+    }
+
+    private void expire(long newStart) {
+      long base = start - start % SEGMENT_SIZE;
+      // move start first so that readers do not look for dropped segments
+      start = newStart;
+      for (; base + SEGMENT_SIZE <= newStart; base += SEGMENT_SIZE) {
+        segments.remove(base);
+      }
+    }
+
+    @Override
+    public long read(long from, int max, List<ConsumerRecord<String, byte[]>> into) {
+      long last = end;
+      long offset = Math.max(from, start);
+      int read = 0;
+      while (offset < last && read < max) {
+        long base = offset - offset % SEGMENT_SIZE;
+        ConsumerRecord<String, byte[]>[] segment = segments.get(base);
+        if (segment == null) {
+          // the segment has just expired
+          long current = start;
+          if (current <= offset) {
+            break;
+          }
+          offset = current;
+          continue;
+        }
+        int limit = (int) Math.min(SEGMENT_SIZE, last - base);
+        for (int i = (int) (offset - base); i < limit && read < max; i++) {
+          into.add(segment[i]);
+          read++;
+          offset++;
+        }
+      }
+      return offset;
+    }
+
+  }
+
+  /**
+   * Consumer group of the topic.
+   */
+  static final class Group {
+
+    @Getter
+    private final String name;
+    private final int numPartitions;
+    @Nullable
+    private final OffsetStore store;
+    private final Map<Integer, Long> committed = new ConcurrentHashMap<>();
+    private final List<Object> members = new ArrayList<>();
+    /** Incremented on each change of members. */
+    private volatile int generation = 0;
+
+    Group(String name, int numPartitions, @Nullable OffsetStore store) {
+      this.name = name;
+      this.numPartitions = numPartitions;
+      this.store = store;
+      if (store != null) {
+        committed.putAll(store.load(name));
+      }
+    }
+
+    int generation() {
+      return generation;
+    }
+
+    synchronized void join(Object member) {
+      members.add(member);
+      generation++;
+    }
+
+    synchronized void leave(Object member) {
+      if (members.remove(member)) {
+        generation++;
+      }
+    }
+
+    /**
+     * Retrieve partitions assigned to given member in current generation.
+     * Lock of the group has to be held together with reading of
+     * {@link #generation()} to get consistent result.
+     */
+    synchronized List<Integer> assignment(Object member) {
+      int index = members.indexOf(member);
+      if (index < 0) {
+        return Collections.emptyList();
+      }
+      List<Integer> ret = new ArrayList<>();
+      for (int p = index; p < numPartitions; p += members.size()) {
+        ret.add(p);
+      }
+      return ret;
+    }
+
+    @Nullable
+    Long committed(int partition) {
+      return committed.get(partition);
+    }
+
+    synchronized void commit(Map<Integer, Long> offsets) {
+      committed.putAll(offsets);
+      if (store != null) {
+        store.store(name, new HashMap<>(committed));
+      }
+    }
+
+  }
+
+  @Getter
+  private final String name;
+  private final List<PartitionLog> partitions;
+  @Nullable
+  private final OffsetStore offsetStore;
+  private final Map<String, Group> groups = new ConcurrentHashMap<>();
+  private final Object dataLock = new Object();
+  private final AtomicInteger waiting = new AtomicInteger();
+
+  LocalKafkaTopic(
+      String name, List<PartitionLog> partitions,
+      @Nullable OffsetStore offsetStore) {
+
+    this.name = name;
+    this.partitions = Collections.unmodifiableList(new ArrayList<>(partitions));
+    this.offsetStore = offsetStore;
+  }
+
+  int getNumPartitions() {
+    return partitions.size();
+  }
+
+  PartitionLog partition(int partition) {
+    return partitions.get(partition);
+  }
+
+  Group group(String groupName) {
+    return groups.computeIfAbsent(
+        groupName, n -> new Group(n, partitions.size(), offsetStore));
+  }
+
+  List<PartitionInfo> partitionInfos() {
+    List<PartitionInfo> ret = new ArrayList<>(partitions.size());
+    for (int i = 0; i < partitions.size(); i++) {
+      ret.add(new PartitionInfo(name, i, null, new Node[0], new Node[0]));
+    }
+    return ret;
+  }
+
+  /**
+   * Append record to partition given by the record.
+   * @param record the record to append
+   * @return metadata of the appended record
+   */
+  RecordMetadata append(ProducerRecord<String, byte[]> record) {
+    RecordMetadata ret = partitions.get(record.partition()).append(record);
+    if (waiting.get() > 0) {
+      wakeup();
+    }
+    return ret;
+  }
+
+  /** Wake up all consumers waiting for data. */
+  void wakeup() {
+    synchronized (dataLock) {
+      dataLock.notifyAll();
+    }
+  }
+
+  /**
+   * Wait until data are available or timeout elapses.
+   * @param ready check of the available data
+   * @param timeoutNanos maximal time to wait
+   * @throws InterruptedException when interrupted
+   */
+  void await(BooleanSupplier ready, long timeoutNanos)
+      throws InterruptedException {
+
+    waiting.incrementAndGet();
+    try {
+      synchronized (dataLock) {
+        // appends notify only when someone is waiting, so the check has
+        // to follow the increment
+        if (!ready.getAsBoolean()) {
+          TimeUnit.NANOSECONDS.timedWait(dataLock, timeoutNanos);
+        }
+      }
+    } finally {
+      waiting.decrementAndGet();
+    }
+  }
+
+  private void close() {
+    for (PartitionLog partition : partitions) {
+      try {
+        partition.close();
+      } catch (Exception ex) {
+        log.warn("Failed to close partition of topic {}", name, ex);
+      }
+    }
+  }
+
+}
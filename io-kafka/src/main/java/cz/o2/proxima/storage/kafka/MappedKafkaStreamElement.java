@@ -0,0 +1,75 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.kafka;
+
+import cz.o2.proxima.repository.AttributeDescriptor;
+import cz.o2.proxima.repository.EntityDescriptor;
+import cz.o2.proxima.storage.kafka.MappedPartitionLog.MappedRecord;
+import java.io.ObjectStreamException;
+import java.nio.ByteBuffer;
+import javax.annotation.Nullable;
+
+/**
+ * {@link KafkaStreamElement} backed by record of {@link MappedPartitionLog}.
+ * The value is copied from the mapped segment on first call to
+ * {@link #getValue} and can be read without copy by {@link #getValueBuffer}
+ * while the lease of the record is held.
+ */
+final class MappedKafkaStreamElement extends KafkaStreamElement {
+
+  private final transient MappedRecord record;
+
+  MappedKafkaStreamElement(
+      EntityDescriptor entityDesc,
+      AttributeDescriptor attributeDesc,
+      String key, String attribute,
+      MappedRecord record) {
+
+    super(
+        entityDesc, attributeDesc, record.topic(), key, attribute,
+        record.timestamp(), null, record.partition(), record.offset());
+    this.record = record;
+  }
+
+  @Override
+  @Nullable
+  public byte[] getValue() {
+    return record.value();
+  }
+
+  @Override
+  public boolean isDelete() {
+    return record.serializedValueSize() < 0;
+  }
+
+  @Override
+  @Nullable
+  public ByteBuffer getValueBuffer() {
+    return record.valueBuffer();
+  }
+
+  /**
+   * Serialize as {@link KafkaStreamElement} holding the value, because
+   * the record is not serializable.
+   */
+  private Object writeReplace() throws ObjectStreamException {
+    return new KafkaStreamElement(
+        getEntityDescriptor(), getAttributeDescriptor(), record.topic(),
+        getKey(), getAttribute(), getStamp(), getValue(),
+        getPartition(), getOffset());
+  }
+
+}
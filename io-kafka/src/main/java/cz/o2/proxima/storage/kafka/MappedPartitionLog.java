@@ -0,0 +1,801 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.kafka;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+
+/**
+ * {@link PartitionLog} stored in memory-mapped segment files in a directory.
+ * Each segment consists of file {@code <base offset>.log} with records and
+ * file {@code <base offset>.index} with position of each record in the log
+ * file. Records read from the log point to the mapped files and copy their
+ * fields on first access only. Segments are rolled when full and segments
+ * with all records older than the retention are deleted when rolling.
+ * Deleted segments are unmapped as soon as all {@link Lease}s of readers
+ * of the segment are released.
+ *
+ * Record in the log file consists of length of the rest of the record,
+ * timestamp, key, value and headers, each array prefixed by its length
+ * or -1 for {@code null}. Records are flushed to disk by the operating system,
+ * so only records in closed segments are guaranteed to survive failure
+ * of the machine. The directory is locked, so that it can be used by single
+ * process only.
+ */
+@Slf4j
+final class MappedPartitionLog implements PartitionLog {
+
+  private static final String LOG_SUFFIX = ".log";
+  private static final String INDEX_SUFFIX = ".index";
+
+  /** Size of record with empty key and value and no headers. */
+  private static final int MIN_RECORD_SIZE = 4 + 8 + 4 + 4 + 4;
+
+  /** Headers passed to {@link ConsumerRecord}, records decode their own. */
+  private static final Headers EMPTY_HEADERS = new RecordHeaders();
+
+  /** Function unmapping mapped buffer, {@code null} if not supported. */
+  @Nullable
+  private static final java.util.function.Consumer<ByteBuffer> UNMAPPER = unmapper();
+
+  private static final class Segment {
+
+    final long base;
+    final Path logFile;
+    final Path indexFile;
+    final MappedByteBuffer data;
+    /** Positions of records in data increased by one, zero if missing. */
+    final MappedByteBuffer index;
+    /** Number of mapped segments of the log. */
+    final AtomicInteger mapped;
+    /** References of the log and of readers, the files are unmapped at zero. */
+    final AtomicInteger refs = new AtomicInteger(1);
+    /** Position of the next appended record. */
+    int position;
+    /** Maximal timestamp of records in the segment. */
+    long maxTimestamp = Long.MIN_VALUE;
+
+    Segment(
+        long base, Path logFile, Path indexFile,
+        MappedByteBuffer data, MappedByteBuffer index, AtomicInteger mapped) {
+
+      this.base = base;
+      this.logFile = logFile;
+      this.indexFile = indexFile;
+      this.data = data;
+      this.index = index;
+      this.mapped = mapped;
+      mapped.incrementAndGet();
+    }
+
+    int capacity() {
+      return index.capacity() / Integer.BYTES;
+    }
+
+    int position(long offset) {
+      return index.getInt((int) (offset - base) * Integer.BYTES) - 1;
+    }
+
+    /**
+     * Add reference to the segment.
+     * @return {@code false} if the segment was already unmapped
+     */
+    boolean acquire() {
+      int current;
+      do {
+        current = refs.get();
+        if (current <= 0) {
+          return false;
+        }
+      } while (!refs.compareAndSet(current, current + 1));
+      return true;
+    }
+
+    /**
+     * Add reference to the segment that was not yet unmapped.
+     * @throws IllegalStateException if the segment was already unmapped
+     */
+    void checkedAcquire() {
+      if (!acquire()) {
+        throw new IllegalStateException(
+            "Segment " + logFile + " was unmapped before the record was read");
+      }
+    }
+
+    /** Remove reference to the segment, unmap it if it was the last one. */
+    void release() {
+      if (refs.decrementAndGet() == 0) {
+        unmap(data);
+        unmap(index);
+        mapped.decrementAndGet();
+      }
+    }
+
+    /**
+     * Copy bytes of the segment.
+     * @param position position of the first byte
+     * @param length number of bytes to copy
+     * @return the bytes
+     * @throws IllegalStateException if the segment was already unmapped
+     */
+    byte[] copy(int position, int length) {
+      checkedAcquire();
+      try {
+        byte[] ret = new byte[length];
+        ByteBuffer buffer = data.duplicate();
+        buffer.position(position);
+        buffer.get(ret);
+        return ret;
+      } finally {
+        release();
+      }
+    }
+
+  }
+
+  /**
+   * Reference of a reader to a segment shared by records read from
+   * the segment by single call to {@link #read}. The segment stays mapped
+   * until the lease is released, records of released leases are decoded
+   * only if the segment is still retained.
+   */
+  static final class Lease {
+
+    private final Segment segment;
+    private final AtomicBoolean released = new AtomicBoolean();
+    private long lastOffset;
+
+    private Lease(Segment segment) {
+      this.segment = segment;
+    }
+
+    /**
+     * Retrieve offset of the last record read under the lease.
+     * @return the offset
+     */
+    long getLastOffset() {
+      return lastOffset;
+    }
+
+    /** Release the lease, calls after the first one are ignored. */
+    void release() {
+      if (released.compareAndSet(false, true)) {
+        segment.release();
+      }
+    }
+
+  }
+
+  /**
+   * Record pointing to the mapped segment. The key, value and headers
+   * are copied on first access, the value can be read without copy
+   * by {@link #valueBuffer} until the lease of the record is released.
+   */
+  static final class MappedRecord extends ConsumerRecord<String, byte[]> {
+
+    private final Lease lease;
+    private final int keyPosition;
+    private final int valuePosition;
+    private final int headersPosition;
+
+    @Nullable
+    private String key;
+    @Nullable
+    private byte[] value;
+    @Nullable
+    private Headers headers;
+
+    private MappedRecord(
+        TopicPartition tp, long offset, long timestamp, Lease lease,
+        int keyPosition, int keyLength, int valuePosition, int valueLength,
+        int headersPosition) {
+
+      super(
+          tp.topic(), tp.partition(), offset, timestamp,
+          TimestampType.CREATE_TIME, 0L, keyLength, valueLength,
+          null, null, EMPTY_HEADERS);
+      this.lease = lease;
+      this.keyPosition = keyPosition;
+      this.valuePosition = valuePosition;
+      this.headersPosition = headersPosition;
+    }
+
+    /**
+     * Retrieve lease of the segment the record was read from.
+     * @return the lease
+     */
+    Lease getLease() {
+      return lease;
+    }
+
+    @Override
+    @Nullable
+    public String key() {
+      if (key == null && serializedKeySize() >= 0) {
+        key = new String(
+            lease.segment.copy(keyPosition, serializedKeySize()),
+            StandardCharsets.UTF_8);
+      }
+      return key;
+    }
+
+    @Override
+    @Nullable
+    public byte[] value() {
+      if (value == null && serializedValueSize() >= 0) {
+        value = lease.segment.copy(valuePosition, serializedValueSize());
+      }
+      return value;
+    }
+
+    /**
+     * Retrieve read-only view of the value in the mapped segment.
+     * The view is valid only until the lease of the record is released.
+     * @return the view or {@code null} for record with {@code null} value
+     */
+    @Nullable
+    ByteBuffer valueBuffer() {
+      if (serializedValueSize() < 0) {
+        return null;
+      }
+      ByteBuffer ret = lease.segment.data.asReadOnlyBuffer();
+      ret.position(valuePosition);
+      ret.limit(valuePosition + serializedValueSize());
+      return ret.slice();
+    }
+
+    @Override
+    public Headers headers() {
+      if (headers == null) {
+        Segment segment = lease.segment;
+        segment.checkedAcquire();
+        try {
+          ByteBuffer buffer = segment.data.duplicate();
+          buffer.position(headersPosition);
+          int numHeaders = buffer.getInt();
+          List<Header> decoded = new ArrayList<>(numHeaders);
+          for (int i = 0; i < numHeaders; i++) {
+            decoded.add(new RecordHeader(
+                new String(get(buffer), StandardCharsets.UTF_8), get(buffer)));
+          }
+          headers = new RecordHeaders(decoded);
+        } finally {
+          segment.release();
+        }
+      }
+      return headers;
+    }
+
+    /**
+     * Retrieve value of the last header with given key without copying
+     * the other headers.
+     * @param name key of the header
+     * @return value of the header decoded as UTF-8 string or {@code null}
+     */
+    @Nullable
+    String lastHeader(String name) {
+      if (headers != null) {
+        Header header = headers.lastHeader(name);
+        return header == null
+            ? null
+            : new String(header.value(), StandardCharsets.UTF_8);
+      }
+      byte[] expected = name.getBytes(StandardCharsets.UTF_8);
+      Segment segment = lease.segment;
+      segment.checkedAcquire();
+      try {
+        ByteBuffer buffer = segment.data.duplicate();
+        buffer.position(headersPosition);
+        int numHeaders = buffer.getInt();
+        int found = -1;
+        for (int i = 0; i < numHeaders; i++) {
+          int keyLength = buffer.getInt();
+          boolean matches = keyLength == expected.length;
+          for (int j = 0; matches && j < keyLength; j++) {
+            matches = buffer.get(buffer.position() + j) == expected[j];
+          }
+          buffer.position(buffer.position() + keyLength);
+          if (matches) {
+            found = buffer.position();
+          }
+          int valueLength = buffer.getInt();
+          buffer.position(buffer.position() + Math.max(valueLength, 0));
+        }
+        if (found < 0) {
+          return null;
+        }
+        buffer.position(found);
+        byte[] value = get(buffer);
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+      } finally {
+        segment.release();
+      }
+    }
+
+  }
+
+  /**
+   * Open log in given directory, create the directory if it does not exist.
+   * @param tp the partition of the log
+   * @param dir the directory
+   * @param segmentBytes size of the created log files of segments
+   * @param retentionMs time after which segments are deleted,
+   *                    zero to keep all segments
+   * @return the log
+   * @throws IOException on failure to open the log
+   */
+  static MappedPartitionLog open(
+      TopicPartition tp, Path dir, int segmentBytes, long retentionMs)
+      throws IOException {
+
+    Files.createDirectories(dir);
+    FileChannel lockChannel = FileChannel.open(
+        dir.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    FileLock lock = lockChannel.tryLock();
+    if (lock == null) {
+      lockChannel.close();
+      throw new IllegalStateException(
+          "Directory " + dir + " is used by another process");
+    }
+    MappedPartitionLog ret = new MappedPartitionLog(
+        tp, dir, segmentBytes, retentionMs, lock);
+    ret.recover();
+    return ret;
+  }
+
+  private final TopicPartition tp;
+  private final Path dir;
+  private final int segmentBytes;
+  private final long retentionMs;
+  private final FileLock lock;
+  private final ConcurrentNavigableMap<Long, Segment> segments =
+      new ConcurrentSkipListMap<>();
+  private final AtomicInteger mapped = new AtomicInteger();
+  @Nullable
+  private Segment active;
+  private boolean closed = false;
+  /** First retained offset. */
+  private volatile long start = 0L;
+  /** Offset of the next appended record. */
+  private volatile long end = 0L;
+
+  private MappedPartitionLog(
+      TopicPartition tp, Path dir, int segmentBytes,
+      long retentionMs, FileLock lock) {
+
+    this.tp = tp;
+    this.dir = dir;
+    this.segmentBytes = segmentBytes;
+    this.retentionMs = retentionMs;
+    this.lock = lock;
+  }
+
+  private void recover() throws IOException {
+    List<Long> bases;
+    try (Stream<Path> files = Files.list(dir)) {
+      bases = files
+          .map(p -> p.getFileName().toString())
+          .filter(n -> n.endsWith(LOG_SUFFIX))
+          .map(n -> Long.valueOf(n.substring(0, n.length() - LOG_SUFFIX.length())))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+    for (long base : bases) {
+      Segment segment = map(base);
+      int count = recover(segment);
+      if (count == 0 && base != bases.get(bases.size() - 1)) {
+        log.warn("Deleting empty segment {} of {}", segment.logFile, tp);
+        delete(segment);
+        segment.release();
+        continue;
+      }
+      if (segments.isEmpty()) {
+        start = base;
+      }
+      segments.put(base, segment);
+      active = segment;
+      end = base + count;
+    }
+    log.info(
+        "Opened {} with {} segments and offsets from {} to {}",
+        tp, segments.size(), start, end);
+    expire();
+  }
+
+  /**
+   * Count records of the segment that were completely written.
+   * @return number of records
+   */
+  private int recover(Segment segment) {
+    int capacity = segment.capacity();
+    int count = 0;
+    while (count < capacity) {
+      int position = segment.position(segment.base + count);
+      if (position < 0 || position + 4 > segment.data.capacity()) {
+        break;
+      }
+      int length = segment.data.getInt(position);
+      if (length < MIN_RECORD_SIZE - 4
+          || position + 4 + length > segment.data.capacity()) {
+        break;
+      }
+      segment.maxTimestamp = Math.max(
+          segment.maxTimestamp, segment.data.getLong(position + 4));
+      segment.position = position + 4 + length;
+      count++;
+    }
+    return count;
+  }
+
+  private Segment map(long base) throws IOException {
+    String name = String.format("%020d", base);
+    Path logFile = dir.resolve(name + LOG_SUFFIX);
+    Path indexFile = dir.resolve(name + INDEX_SUFFIX);
+    MappedByteBuffer data = map(logFile, segmentBytes);
+    MappedByteBuffer index = map(
+        indexFile, segmentBytes / MIN_RECORD_SIZE * Integer.BYTES);
+    return new Segment(base, logFile, indexFile, data, index, mapped);
+  }
+
+  private static MappedByteBuffer map(Path file, int size) throws IOException {
+    try (FileChannel channel = FileChannel.open(
+        file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+
+      // keep size of existing files, the size of segments might have changed
+      long mapped = channel.size() > 0 ? channel.size() : size;
+      // the mapping stays valid after the channel is closed
+      return channel.map(FileChannel.MapMode.READ_WRITE, 0, mapped);
+    }
+  }
+
+  @Override
+  public long start() {
+    return start;
+  }
+
+  @Override
+  public long end() {
+    return end;
+  }
+
+  @Override
+  public synchronized RecordMetadata append(ProducerRecord<String, byte[]> record) {
+    Preconditions.checkState(!closed, "Log %s is closed", dir);
+    byte[] key = record.key() == null
+        ? null
+        : record.key().getBytes(StandardCharsets.UTF_8);
+    byte[] value = record.value();
+    Header[] headers = record.headers().toArray();
+    int length = MIN_RECORD_SIZE - 4 + length(key) + length(value);
+    for (Header h : headers) {
+      length += 8 + h.key().getBytes(StandardCharsets.UTF_8).length + length(h.value());
+    }
+    if (4 + length > segmentBytes) {
+      throw new IllegalArgumentException(
+          "Record of size " + length + " does not fit segment of size "
+              + segmentBytes);
+    }
+    long offset = end;
+    Segment segment = active;
+    if (segment == null
+        || offset - segment.base >= segment.capacity()
+        || segment.position + 4 + length > segment.data.capacity()) {
+      segment = roll(offset);
+    }
+    long timestamp = record.timestamp() == null
+        ? System.currentTimeMillis()
+        : record.timestamp();
+    int position = segment.position;
+    ByteBuffer buffer = segment.data.duplicate();
+    buffer.position(position);
+    buffer.putInt(length);
+    buffer.putLong(timestamp);
+    put(buffer, key);
+    put(buffer, value);
+    buffer.putInt(headers.length);
+    for (Header h : headers) {
+      put(buffer, h.key().getBytes(StandardCharsets.UTF_8));
+      put(buffer, h.value());
+    }
+    // the index publishes the record after restart, end publishes
+    // it to readers of this process
+    segment.index.putInt((int) (offset - segment.base) * Integer.BYTES, position + 1);
+    segment.position = buffer.position();
+    segment.maxTimestamp = Math.max(segment.maxTimestamp, timestamp);
+    end = offset + 1;
+    return new RecordMetadata(
+        tp, offset, 0, timestamp, 0L, length(key), length(value));
+  }
+
+  private static int length(@Nullable byte[] bytes) {
+    return bytes == null ? 0 : bytes.length;
+  }
+
+  private static void put(ByteBuffer buffer, @Nullable byte[] bytes) {
+    if (bytes == null) {
+      buffer.putInt(-1);
+    } else {
+      buffer.putInt(bytes.length);
+      buffer.put(bytes);
+    }
+  }
+
+  @Nullable
+  private static byte[] get(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] ret = new byte[length];
+    buffer.get(ret);
+    return ret;
+  }
+
+  private Segment roll(long base) {
+    Segment previous = active;
+    Segment segment;
+    try {
+      segment = map(base);
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+    segments.put(base, segment);
+    active = segment;
+    if (previous != null) {
+      previous.data.force();
+      previous.index.force();
+    }
+    log.debug("Rolled segment {} of {}", segment.logFile, tp);
+    expire();
+    return segment;
+  }
+
+  /** Delete segments with all records older than the retention. */
+  private void expire() {
+    if (retentionMs <= 0) {
+      return;
+    }
+    long threshold = System.currentTimeMillis() - retentionMs;
+    for (Segment segment : segments.values()) {
+      if (segment == active || segment.maxTimestamp >= threshold) {
+        break;
+      }
+      // move start first so that readers do not look for deleted segment
+      start = segments.higherKey(segment.base);
+      segments.remove(segment.base);
+      log.info("Deleting expired segment {} of {}", segment.logFile, tp);
+      delete(segment);
+      // readers holding lease of the segment keep it mapped
+      segment.release();
+    }
+  }
+
+  private static void delete(Segment segment) {
+    try {
+      Files.deleteIfExists(segment.logFile);
+      Files.deleteIfExists(segment.indexFile);
+    } catch (IOException ex) {
+      log.warn("Failed to delete segment {}", segment.logFile, ex);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * The records are {@link MappedRecord}s holding {@link Lease} of their
+   * segment, the caller releases the leases when the records are processed.
+   * Leases that are not released keep the segment mapped until garbage
+   * collection of the records.
+   */
+  @Override
+  public long read(long from, int max, List<ConsumerRecord<String, byte[]>> into) {
+    long last = end;
+    long offset = Math.max(from, start);
+    int read = 0;
+    while (offset < last && read < max) {
+      Map.Entry<Long, Segment> entry = segments.floorEntry(offset);
+      if (entry == null || !entry.getValue().acquire()) {
+        // the segment has just expired
+        long current = start;
+        if (current <= offset) {
+          break;
+        }
+        offset = current;
+        continue;
+      }
+      Segment segment = entry.getValue();
+      Lease lease = new Lease(segment);
+      Long next = segments.higherKey(segment.base);
+      long limit = next == null ? last : Math.min(next, last);
+      if (offset >= limit) {
+        lease.release();
+        break;
+      }
+      for (; offset < limit && read < max; offset++, read++) {
+        into.add(decode(lease, offset));
+      }
+      lease.lastOffset = offset - 1;
+    }
+    return offset;
+  }
+
+  private MappedRecord decode(Lease lease, long offset) {
+    Segment segment = lease.segment;
+    int position = segment.position(offset);
+    long timestamp = segment.data.getLong(position + 4);
+    int keyPosition = position + 4 + 8 + 4;
+    int keyLength = segment.data.getInt(keyPosition - 4);
+    int valuePosition = keyPosition + Math.max(keyLength, 0) + 4;
+    int valueLength = segment.data.getInt(valuePosition - 4);
+    return new MappedRecord(
+        tp, offset, timestamp, lease,
+        keyPosition, keyLength, valuePosition, valueLength,
+        valuePosition + Math.max(valueLength, 0));
+  }
+
+  @Override
+  @Nullable
+  public ConsumerRecord<String, byte[]> find(long timestamp) {
+    // timestamps need not be ordered, so scan the whole log, but read
+    // only timestamps of the records
+    long offset = start;
+    long last = end;
+    while (offset < last) {
+      Map.Entry<Long, Segment> entry = segments.floorEntry(offset);
+      if (entry == null || !entry.getValue().acquire()) {
+        long current = start;
+        if (current <= offset) {
+          break;
+        }
+        offset = current;
+        continue;
+      }
+      Segment segment = entry.getValue();
+      Lease lease = new Lease(segment);
+      try {
+        Long next = segments.higherKey(segment.base);
+        long limit = next == null ? last : Math.min(next, last);
+        for (; offset < limit; offset++) {
+          int position = segment.position(offset);
+          if (segment.data.getLong(position + 4) >= timestamp) {
+            MappedRecord record = decode(lease, offset);
+            // copy the record, so that it outlives the lease
+            return new ConsumerRecord<>(
+                tp.topic(), tp.partition(), offset, record.timestamp(),
+                TimestampType.CREATE_TIME, 0L,
+                record.serializedKeySize(), record.serializedValueSize(),
+                record.key(), record.value(), record.headers());
+          }
+        }
+      } finally {
+        lease.release();
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (active != null) {
+      active.data.force();
+      active.index.force();
+    }
+    // readers holding lease of a segment keep it mapped
+    segments.values().forEach(Segment::release);
+    try {
+      lock.release();
+      lock.channel().close();
+    } catch (IOException ex) {
+      log.warn("Failed to release lock of {}", dir, ex);
+    }
+  }
+
+  /**
+   * Retrieve number of segments of the log that are still mapped.
+   * @return the number of segments
+   */
+  @VisibleForTesting
+  int mappedSegments() {
+    return mapped.get();
+  }
+
+  private static void unmap(MappedByteBuffer buffer) {
+    if (UNMAPPER != null) {
+      UNMAPPER.accept(buffer);
+    }
+  }
+
+  /**
+   * Create function unmapping mapped buffers, which is not part of public
+   * API of java. Buffers are unmapped on garbage collection if the function
+   * is not available.
+   */
+  @Nullable
+  private static java.util.function.Consumer<ByteBuffer> unmapper() {
+    try {
+      // java 9 and newer
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      Object unsafe = theUnsafe.get(null);
+      return buffer -> invoke(invokeCleaner, unsafe, buffer);
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      log.trace("Unsafe.invokeCleaner not available", ex);
+    }
+    try {
+      // java 8
+      Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+      Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+      return buffer -> {
+        Object bufferCleaner = invoke(cleaner, buffer);
+        if (bufferCleaner != null) {
+          invoke(clean, bufferCleaner);
+        }
+      };
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      log.debug(
+          "Unmapping of buffers not supported, segments are unmapped "
+              + "on garbage collection", ex);
+      return null;
+    }
+  }
+
+  @Nullable
+  private static Object invoke(Method method, Object target, Object... args) {
+    try {
+      return method.invoke(target, args);
+    } catch (ReflectiveOperationException ex) {
+      throw new IllegalStateException("Failed to unmap buffer", ex);
+    }
+  }
+
+}
@@ -0,0 +1,307 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.kafka;
+
+import com.google.common.base.Preconditions;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A lock-free tracker of offsets that can be committed. This has the same
+ * semantics as {@link OffsetCommitter} - an offset is committable when all
+ * actions of the offset and of all preceding offsets of the same partition
+ * have been confirmed - but does not allocate when registering or confirming
+ * offsets (unless the ring of the partition has to grow).
+ *
+ * Each partition keeps a ring of registered offsets and counters of their
+ * pending actions indexed by sequence number of registration, so gaps between
+ * offsets take no space, and a watermark of the first sequence number with
+ * pending actions, which is advanced by compare-and-set by any thread
+ * confirming an action. Offsets must be registered by single thread
+ * in ascending order, registering an offset lower than the last registered
+ * one resets the partition (e.g. after seek). When the ring is full,
+ * the registering thread doubles its size, so the registration never waits
+ * for confirms. Committable offsets are polled by {@link #drainCommittable()}.
+ */
+@Slf4j
+public class OffsetTracker<ID> {
+
+  /** Default initial number of offsets in flight per partition. */
+  public static final int DEFAULT_CAPACITY = 1 << 14;
+
+  /**
+   * Value of slots of ring moved to grown ring. Confirms decrementing
+   * moved slot retry on the grown ring.
+   */
+  private static final int MOVED = Integer.MAX_VALUE / 2;
+
+  private static final class Ring {
+
+    final AtomicIntegerArray actions;
+    final AtomicLongArray offsets;
+    final int mask;
+
+    Ring(int capacity) {
+      this.actions = new AtomicIntegerArray(capacity);
+      this.offsets = new AtomicLongArray(capacity);
+      this.mask = capacity - 1;
+    }
+
+    int index(long seq) {
+      return (int) seq & mask;
+    }
+
+  }
+
+  private static final class Window {
+
+    volatile Ring ring;
+    /** First offset of the window. */
+    final long first;
+    /** Sequence number of first offset with pending actions (or equal to tail). */
+    final AtomicLong head = new AtomicLong();
+    /** Sequence number following the last registered offset. */
+    volatile long tail;
+    /** Offset following the last registered offset. */
+    long next;
+    /** Last value returned by {@link #drainCommittable}. */
+    long drained;
+
+    Window(int capacity, long offset) {
+      this.ring = new Ring(capacity);
+      this.first = offset;
+      this.next = offset;
+      this.drained = offset;
+    }
+
+    void register(long offset, int numActions) {
+      long t = tail;
+      if (t - head.get() > ring.mask) {
+        grow();
+      }
+      Ring r = ring;
+      r.offsets.lazySet(r.index(t), offset);
+      r.actions.lazySet(r.index(t), numActions);
+      next = offset + 1;
+      tail = t + 1;
+      if (numActions <= 0) {
+        advance();
+      }
+    }
+
+    /**
+     * Move pending actions to ring of double size.
+     * Each slot is moved atomically, confirms of moved slots wait until
+     * the grown ring is published.
+     */
+    private void grow() {
+      Ring old = ring;
+      long h = head.get();
+      int capacity = old.actions.length();
+      Preconditions.checkState(
+          capacity < (1 << 30), "Too many offsets in flight: %s", tail - h);
+      log.debug(
+          "Growing ring of tracked offsets from {} to {}", capacity, capacity << 1);
+      Ring grown = new Ring(capacity << 1);
+      for (long seq = h; seq < tail; seq++) {
+        grown.offsets.lazySet(grown.index(seq), old.offsets.get(old.index(seq)));
+        grown.actions.lazySet(
+            grown.index(seq), old.actions.getAndSet(old.index(seq), MOVED));
+      }
+      ring = grown;
+      advance();
+    }
+
+    void confirm(long offset) {
+      long h;
+      long seq;
+      Ring r;
+      do {
+        h = head.get();
+        long t = tail;
+        r = ring;
+        seq = find(r, h, t, offset);
+        // slots before head might be reused while searching, so retry
+        // the search if the head moved
+      } while (seq < 0 && head.get() != h);
+      if (seq < 0) {
+        log.debug("Ignoring confirm of offset {} outside of tracked window", offset);
+        return;
+      }
+      int left;
+      while ((left = r.actions.decrementAndGet(r.index(seq))) >= MOVED / 2) {
+        // the slot was moved to grown ring, which might not be published yet
+        Ring moved = r;
+        while ((r = ring) == moved) {
+          Thread.yield();
+        }
+      }
+      if (left < 0) {
+        log.error("Decremented too many, actions now {}", left);
+      }
+      if (left <= 0) {
+        advance();
+      }
+    }
+
+    /**
+     * Find sequence number of registered offset.
+     * @return the sequence number or -1 if the offset is not between
+     *         sequence numbers {@code from} (inclusive) and {@code to}
+     */
+    private static long find(Ring r, long from, long to, long offset) {
+      long low = from;
+      long high = to - 1;
+      while (low <= high) {
+        long mid = (low + high) >>> 1;
+        long o = r.offsets.get(r.index(mid));
+        if (o < offset) {
+          low = mid + 1;
+        } else if (o > offset) {
+          high = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+      return -1;
+    }
+
+    void advance() {
+      Ring r = ring;
+      long h;
+      // moved slots are positive, so the head never moves past them
+      while ((h = head.get()) < tail && r.actions.get(r.index(h)) <= 0) {
+        // slot cannot be reused before head moves past it, so failed
+        // CAS just means that other thread advanced the head
+        head.compareAndSet(h, h + 1);
+      }
+    }
+
+    /**
+     * Retrieve the first offset with pending actions or offset following
+     * the last registered offset if all actions were confirmed.
+     */
+    long committable() {
+      while (true) {
+        long h = head.get();
+        long t = tail;
+        Ring r = ring;
+        long committable;
+        if (h < t) {
+          committable = r.offsets.get(r.index(h));
+        } else if (t > 0) {
+          committable = r.offsets.get(r.index(t - 1)) + 1;
+        } else {
+          return first;
+        }
+        // the slot cannot be reused while head and tail stay the same
+        if (head.get() == h && tail == t) {
+          return committable;
+        }
+      }
+    }
+
+  }
+
+  private final int capacity;
+  private final ConcurrentMap<ID, Window> windows = new ConcurrentHashMap<>();
+
+  public OffsetTracker() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Create the tracker.
+   * @param capacity initial number of offsets in flight per partition,
+   *                 must be power of two
+   */
+  public OffsetTracker(int capacity) {
+    Preconditions.checkArgument(
+        capacity > 0 && Integer.bitCount(capacity) == 1,
+        "Capacity must be positive power of two, got %s", capacity);
+    this.capacity = capacity;
+  }
+
+  /**
+   * Register number of actions to be performed before offset can be committed.
+   * Must be called from single thread.
+   * @param id id of the partition
+   * @param offset the registered offset
+   * @param numActions how many times {@link #confirm} should be called to
+   *                   consider the action as done
+   */
+  public void register(ID id, long offset, int numActions) {
+    Window window = windows.get(id);
+    if (window == null || offset < window.next) {
+      if (window != null) {
+        log.info(
+            "Resetting tracked offsets of {} from {} to {}",
+            id, window.next, offset);
+      }
+      window = new Window(capacity, offset);
+      windows.put(id, window);
+    }
+    window.register(offset, numActions);
+  }
+
+  /**
+   * Confirm that action associated with given offset has been performed.
+   * @param id id of the partition
+   * @param offset the offset to confirm
+   */
+  public void confirm(ID id, long offset) {
+    Window window = windows.get(id);
+    if (window != null) {
+      window.confirm(offset);
+    }
+  }
+
+  /**
+   * Retrieve offset following the highest offset that can be committed.
+   * @param id id of the partition
+   * @return the offset to commit or -1 if nothing was registered
+   */
+  public long getCommittable(ID id) {
+    Window window = windows.get(id);
+    return window == null ? -1L : window.committable();
+  }
+
+  /**
+   * Retrieve offsets that became committable since the last call.
+   * Must be called from single thread.
+   * @return map of partition to offset following the highest offset that
+   * can be committed
+   */
+  public Map<ID, Long> drainCommittable() {
+    Map<ID, Long> ret = new HashMap<>();
+    for (Map.Entry<ID, Window> e : windows.entrySet()) {
+      Window window = e.getValue();
+      long committable = window.committable();
+      if (committable > window.drained) {
+        window.drained = committable;
+        ret.put(e.getKey(), committable);
+      }
+    }
+    return ret;
+  }
+
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.kafka;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+
+/**
+ * Append-only log of single partition of {@link LocalKafkaTopic}.
+ * Records are appended by single thread at a time and read concurrently
+ * without locking.
+ */
+interface PartitionLog extends Closeable {
+
+  /**
+   * Retrieve offset of the first retained record.
+   * @return the offset
+   */
+  long start();
+
+  /**
+   * Retrieve offset of the next appended record.
+   * @return the offset
+   */
+  long end();
+
+  /**
+   * Append record to the log.
+   * @param record the record to append
+   * @return metadata of the appended record
+   */
+  RecordMetadata append(ProducerRecord<String, byte[]> record);
+
+  /**
+   * Read records starting at given offset.
+   * @param from offset of the first record to read, offsets of expired
+   *             records are moved to the first retained record
+   * @param max maximal number of records to read
+   * @param into list to add the records to
+   * @return offset of the next record to read
+   */
+  long read(long from, int max, List<ConsumerRecord<String, byte[]>> into);
+
+  /**
+   * Find the first record with timestamp equal to or greater
+   * than given timestamp.
+   * @param timestamp the timestamp
+   * @return the record or {@code null} if there is no such record
+   */
+  @Nullable
+  default ConsumerRecord<String, byte[]> find(long timestamp) {
+    // timestamps need not be ordered, so scan the whole log
+    List<ConsumerRecord<String, byte[]>> records = new ArrayList<>();
+    long offset = start();
+    long last = end();
+    while (offset < last) {
+      records.clear();
+      long next = read(offset, 1024, records);
+      for (ConsumerRecord<String, byte[]> r : records) {
+        if (r.timestamp() >= timestamp) {
+          return r;
+        }
+      }
+      if (next <= offset) {
+        break;
+      }
+      offset = next;
+    }
+    return null;
+  }
+
+  @Override
+  default void close() {
+    // nop
+  }
+
+}
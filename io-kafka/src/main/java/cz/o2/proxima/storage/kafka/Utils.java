@@ -20,7 +20,6 @@ import cz.o2.proxima.storage.UriUtil;
 import cz.o2.proxima.storage.commitlog.Offset;
 import java.net.URI;
 import java.util.Collection;
-import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.common.TopicPartition;
 
 /**
@@ -59,7 +58,7 @@ class Utils {
   static void seekToOffsets(
       String topic,
       Collection<Offset> offsets,
-      final KafkaConsumer<String, byte[]> consumer) {
+      final org.apache.kafka.clients.consumer.Consumer<String, byte[]> consumer) {
 
     // seek to given offsets
     offsets.forEach(o -> {
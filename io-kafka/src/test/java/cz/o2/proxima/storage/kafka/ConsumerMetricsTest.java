@@ -0,0 +1,60 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.kafka;
+
+import com.google.common.collect.ImmutableMap;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import javax.management.ObjectName;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test {@link ConsumerMetrics}.
+ */
+public class ConsumerMetricsTest {
+
+  @Test
+  public void testLagUpdate() throws Exception {
+    ConsumerMetrics metrics = ConsumerMetrics.get("test-lag-update");
+    metrics.updateLag(ImmutableMap.of(0, 10L, 1, 5L), Collections.emptyList());
+    assertEquals(10.0, metrics.getLag(0), 0.0001);
+    assertEquals(5.0, metrics.getLag(1), 0.0001);
+    assertEquals(15.0, metrics.getLag().getValue(), 0.0001);
+    metrics.updateLag(ImmutableMap.of(0, 2L), Collections.singletonList(1));
+    assertEquals(0.0, metrics.getLag(1), 0.0001);
+    assertEquals(2.0, metrics.getLag().getValue(), 0.0001);
+    assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(
+        new ObjectName(ConsumerMetrics.GROUP
+            + ".test-lag-update-lag-0:type=AbsoluteMetric")));
+  }
+
+  @Test
+  public void testSharedByName() {
+    assertSame(ConsumerMetrics.get("test-shared"), ConsumerMetrics.get("test-shared"));
+    assertNotSame(ConsumerMetrics.get(null), ConsumerMetrics.get(null));
+  }
+
+  @Test
+  public void testPolled() {
+    ConsumerMetrics metrics = ConsumerMetrics.get("test-polled");
+    metrics.polled(10, 1000, 1_000_000L);
+    metrics.processed(1_000L);
+    assertEquals(1.0, metrics.getPollLatency().getValue().get50(), 0.0001);
+    assertEquals(1.0, metrics.getProcessingLatency().getValue().get50(), 0.0001);
+  }
+
+}
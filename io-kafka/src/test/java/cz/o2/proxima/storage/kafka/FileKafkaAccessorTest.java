@@ -0,0 +1,286 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.kafka;
+
+import com.typesafe.config.ConfigFactory;
+import cz.o2.proxima.repository.AttributeDescriptor;
+import cz.o2.proxima.repository.AttributeDescriptorBase;
+import cz.o2.proxima.repository.ConfigRepository;
+import cz.o2.proxima.repository.Context;
+import cz.o2.proxima.repository.EntityDescriptor;
+import cz.o2.proxima.repository.Repository;
+import cz.o2.proxima.storage.StreamElement;
+import cz.o2.proxima.storage.commitlog.BulkLogObserver;
+import cz.o2.proxima.storage.commitlog.CommitLogReader;
+import cz.o2.proxima.storage.commitlog.ObserveHandle;
+import cz.o2.proxima.storage.commitlog.Position;
+import java.io.File;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Test {@link FileKafkaAccessor}.
+ */
+public class FileKafkaAccessorTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Repository repo = ConfigRepository.Builder
+      .ofTest(ConfigFactory.empty())
+      .build();
+  private final AttributeDescriptorBase<byte[]> attr;
+  private final EntityDescriptor entity;
+  private URI uri;
+
+  public FileKafkaAccessorTest() throws Exception {
+    this.attr = AttributeDescriptor
+        .newBuilder(repo)
+        .setEntity("entity")
+        .setName("attr")
+        .setSchemeUri(new URI("bytes:///"))
+        .build();
+    this.entity = EntityDescriptor.newBuilder()
+        .setName("entity")
+        .addAttribute(attr)
+        .build();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    File dir = new File(folder.getRoot(), "topic");
+    this.uri = new URI("kafka-file://" + dir.getAbsolutePath());
+  }
+
+  @After
+  public void tearDown() {
+    LocalKafkaTopic.drop(uri);
+  }
+
+  @Test(timeout = 10000)
+  public void testReopenKeepsDataAndCommittedOffsets() {
+    Map<String, Object> cfg = cfg(2);
+    FileKafkaAccessor accessor = accessor(cfg);
+    write(accessor, updates(20, System.currentTimeMillis()));
+    try (Consumer<String, byte[]> consumer =
+        accessor.createConsumerFactory().create("group")) {
+
+      consumer.poll(0);
+      consumer.seekToBeginning(consumer.assignment());
+      assertEquals(20, pollAll(consumer).size());
+      consumer.commitSync();
+    }
+    LocalKafkaTopic.drop(uri);
+
+    // the configured number of partitions is ignored for existing topic
+    accessor = accessor(cfg(4));
+    assertEquals(2, accessor.topic().getNumPartitions());
+    write(accessor, updates(5, System.currentTimeMillis()));
+    try (Consumer<String, byte[]> consumer =
+        accessor.createConsumerFactory().create("group")) {
+
+      List<ConsumerRecord<String, byte[]>> polled = pollAll(consumer);
+      assertEquals(5, polled.size());
+      long committed = 0;
+      for (int p = 0; p < 2; p++) {
+        committed += consumer.committed(
+            new TopicPartition(accessor.topic().getName(), p)).offset();
+      }
+      assertEquals(20L, committed);
+    }
+    try (Consumer<String, byte[]> consumer =
+        accessor.createConsumerFactory().create()) {
+
+      consumer.seekToBeginning(consumer.assignment());
+      List<ConsumerRecord<String, byte[]>> polled = pollAll(consumer);
+      assertEquals(25, polled.size());
+      assertArrayEquals(new byte[] { 1, 2, 3 }, polled.get(0).value());
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testSegmentRoll() {
+    Map<String, Object> cfg = cfg(1);
+    cfg.put(FileKafkaAccessor.SEGMENT_BYTES_CFG, "1024");
+    FileKafkaAccessor accessor = accessor(cfg);
+    write(accessor, updates(500, System.currentTimeMillis()));
+    File partition = new File(new File(uri.getPath()), "partition-0");
+    assertTrue(partition.list((d, n) -> n.endsWith(".log")).length > 1);
+    LocalKafkaTopic.drop(uri);
+
+    accessor = accessor(cfg);
+    try (Consumer<String, byte[]> consumer =
+        accessor.createConsumerFactory().create()) {
+
+      consumer.seekToBeginning(consumer.assignment());
+      List<ConsumerRecord<String, byte[]>> polled = pollAll(consumer);
+      assertEquals(500, polled.size());
+      for (int i = 0; i < polled.size(); i++) {
+        assertEquals(i, polled.get(i).offset());
+      }
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testRetention() {
+    Map<String, Object> cfg = cfg(1);
+    cfg.put(FileKafkaAccessor.SEGMENT_BYTES_CFG, "1024");
+    cfg.put(FileKafkaAccessor.RETENTION_MS_CFG, "60000");
+    FileKafkaAccessor accessor = accessor(cfg);
+    long now = System.currentTimeMillis();
+    write(accessor, updates(200, now - 3600_000L));
+    write(accessor, updates(200, now));
+    TopicPartition tp = new TopicPartition(accessor.topic().getName(), 0);
+    try (Consumer<String, byte[]> consumer =
+        accessor.createConsumerFactory().create()) {
+
+      long beginning = consumer.beginningOffsets(Collections.singleton(tp)).get(tp);
+      assertTrue(beginning > 0);
+      assertTrue(beginning <= 200);
+      consumer.seekToBeginning(Collections.singleton(tp));
+      List<ConsumerRecord<String, byte[]>> polled = pollAll(consumer);
+      assertEquals(400 - beginning, polled.size());
+      assertEquals(beginning, polled.get(0).offset());
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testExpiredSegmentsUnmappedAfterCommit() throws InterruptedException {
+    Map<String, Object> cfg = cfg(1);
+    cfg.put(FileKafkaAccessor.SEGMENT_BYTES_CFG, "1024");
+    cfg.put(FileKafkaAccessor.RETENTION_MS_CFG, "500");
+    FileKafkaAccessor accessor = accessor(cfg);
+    MappedPartitionLog partition = (MappedPartitionLog) accessor.topic().partition(0);
+    write(accessor, updates(200, System.currentTimeMillis()));
+    int mapped = partition.mappedSegments();
+    assertTrue(mapped > 1);
+
+    CommitLogReader reader = accessor.getCommitLogReader(context()).get();
+    AtomicBoolean direct = new AtomicBoolean(true);
+    AtomicReference<BulkLogObserver.OffsetCommitter> last = new AtomicReference<>();
+    CountDownLatch latch = new CountDownLatch(200);
+    ObserveHandle handle = reader.observeBulk(
+        "group", Position.OLDEST, new BulkLogObserver() {
+
+          @Override
+          public boolean onNext(StreamElement ingest, OffsetCommitter committer) {
+            ByteBuffer value = ((KafkaStreamElement) ingest).getValueBuffer();
+            if (!value.isDirect() || value.get(0) != 1) {
+              direct.set(false);
+            }
+            last.set(committer);
+            latch.countDown();
+            return true;
+          }
+
+          @Override
+          public boolean onError(Throwable error) {
+            throw new RuntimeException(error);
+          }
+
+        });
+    latch.await();
+    assertTrue(direct.get());
+
+    // roll segments with all records out of retention
+    TimeUnit.MILLISECONDS.sleep(600);
+    write(accessor, updates(50, System.currentTimeMillis()));
+    assertTrue(partition.start() >= 100);
+    // expired segments are kept mapped for the observer
+    assertTrue(partition.mappedSegments() > mapped);
+
+    last.get().confirm();
+    File dir = new File(new File(uri.getPath()), "partition-0");
+    while (partition.mappedSegments() > dir.list((d, n) -> n.endsWith(".log")).length) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+    handle.cancel();
+  }
+
+  private static List<ConsumerRecord<String, byte[]>> pollAll(
+      Consumer<String, byte[]> consumer) {
+
+    List<ConsumerRecord<String, byte[]>> ret = new ArrayList<>();
+    ConsumerRecords<String, byte[]> polled;
+    while (!(polled = consumer.poll(100)).isEmpty()) {
+      polled.forEach(ret::add);
+    }
+    return ret;
+  }
+
+  private void write(FileKafkaAccessor accessor, List<StreamElement> updates) {
+    KafkaWriter writer = accessor.newWriter();
+    CountDownLatch written = new CountDownLatch(1);
+    writer.writeBatch(updates, (succ, exc) -> {
+      assertTrue(succ);
+      written.countDown();
+    });
+    try {
+      written.await();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(ex);
+    }
+    writer.close();
+  }
+
+  private List<StreamElement> updates(int count, long stamp) {
+    return IntStream.range(0, count)
+        .mapToObj(i -> StreamElement.update(
+            entity, attr, UUID.randomUUID().toString(),
+            "key" + i, attr.getName(), stamp,
+            new byte[] { 1, 2, 3 }))
+        .collect(Collectors.toList());
+  }
+
+  private FileKafkaAccessor accessor(Map<String, Object> cfg) {
+    return new FileKafkaStorage().getAccessor(entity, uri, cfg);
+  }
+
+  private static Map<String, Object> cfg(int partitions) {
+    Map<String, Object> ret = new HashMap<>();
+    ret.put(LocalKafkaAccessor.NUM_PARTITIONS_CFG, String.valueOf(partitions));
+    return ret;
+  }
+
+  private static Context context() {
+    return new Context(() -> Executors.newCachedThreadPool()) { };
+  }
+
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.kafka;
+
+import java.io.File;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test {@link KafkaLogReader} reading {@code kafka-file} storage.
+ */
+public class FileKafkaLogReaderTest extends AbstractKafkaLogReaderTest {
+
+  @Rule
+  public transient TemporaryFolder folder = new TemporaryFolder();
+
+  private URI uri;
+
+  public FileKafkaLogReaderTest() throws Exception {
+    super();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    File dir = new File(folder.getRoot(), "topic");
+    this.uri = new URI("kafka-file://" + dir.getAbsolutePath());
+  }
+
+  @After
+  public void tearDown() {
+    LocalKafkaTopic.drop(uri);
+  }
+
+  @Override
+  FileKafkaAccessor accessor(Map<String, Object> cfg) {
+    return new FileKafkaStorage().getAccessor(entity, uri, cfg);
+  }
+
+  @Override
+  Map<String, Object> partitionsCfg(int partitions) {
+    Map<String, Object> ret = new HashMap<>();
+    ret.put(LocalKafkaAccessor.NUM_PARTITIONS_CFG, String.valueOf(partitions));
+    return ret;
+  }
+
+}
@@ -0,0 +1,255 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.kafka;
+
+import com.typesafe.config.ConfigFactory;
+import cz.o2.proxima.repository.AttributeDescriptor;
+import cz.o2.proxima.repository.AttributeDescriptorBase;
+import cz.o2.proxima.repository.ConfigRepository;
+import cz.o2.proxima.repository.Context;
+import cz.o2.proxima.repository.EntityDescriptor;
+import cz.o2.proxima.repository.Repository;
+import cz.o2.proxima.storage.StreamElement;
+import cz.o2.proxima.storage.commitlog.CommitLogReader;
+import cz.o2.proxima.storage.commitlog.LogObserver;
+import cz.o2.proxima.storage.commitlog.ObserveHandle;
+import cz.o2.proxima.storage.commitlog.Position;
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test {@link LocalKafkaAccessor}.
+ */
+public class LocalKafkaAccessorTest {
+
+  private final Repository repo = ConfigRepository.Builder
+      .ofTest(ConfigFactory.empty())
+      .build();
+  private final AttributeDescriptorBase<byte[]> attr;
+  private final EntityDescriptor entity;
+  private final URI uri;
+
+  public LocalKafkaAccessorTest() throws Exception {
+    this.attr = AttributeDescriptor
+        .newBuilder(repo)
+        .setEntity("entity")
+        .setName("attr")
+        .setSchemeUri(new URI("bytes:///"))
+        .build();
+    this.entity = EntityDescriptor.newBuilder()
+        .setName("entity")
+        .addAttribute(attr)
+        .build();
+    this.uri = new URI("kafka-local://local/topic-" + UUID.randomUUID());
+  }
+
+  @After
+  public void tearDown() {
+    LocalKafkaTopic.drop(uri);
+  }
+
+  @Test(timeout = 10000)
+  public void testWriteAndObserveFromOldest() throws InterruptedException {
+    LocalKafkaAccessor accessor = accessor(cfg(3));
+    KafkaWriter writer = accessor.newWriter();
+    CountDownLatch written = new CountDownLatch(1);
+    writer.writeBatch(updates(100), (succ, exc) -> {
+      assertTrue(succ);
+      written.countDown();
+    });
+    written.await();
+
+    CommitLogReader reader = accessor.getCommitLogReader(context()).get();
+    Set<String> keys = Collections.synchronizedSet(new HashSet<>());
+    CountDownLatch latch = new CountDownLatch(100);
+    ObserveHandle handle = reader.observe("group", Position.OLDEST, new LogObserver() {
+
+      @Override
+      public boolean onNext(StreamElement ingest, OffsetCommitter committer) {
+        keys.add(ingest.getKey());
+        committer.confirm();
+        latch.countDown();
+        return true;
+      }
+
+      @Override
+      public boolean onError(Throwable error) {
+        throw new RuntimeException(error);
+      }
+
+    });
+    latch.await();
+    handle.cancel();
+    assertEquals(100, keys.size());
+  }
+
+  @Test(timeout = 10000)
+  public void testConsumerGroupSplitsPartitions() {
+    LocalKafkaAccessor accessor = accessor(cfg(4));
+    KafkaConsumerFactory factory = accessor.createConsumerFactory();
+    try (Consumer<String, byte[]> first = factory.create("group");
+        Consumer<String, byte[]> second = factory.create("group")) {
+
+      first.poll(0);
+      second.poll(0);
+      Set<TopicPartition> assigned = new HashSet<>(first.assignment());
+      assertEquals(2, assigned.size());
+      assertEquals(2, second.assignment().size());
+      assigned.addAll(second.assignment());
+      assertEquals(4, assigned.size());
+
+      second.close();
+      first.poll(0);
+      assertEquals(4, first.assignment().size());
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testResumeFromCommittedOffsets() {
+    LocalKafkaAccessor accessor = accessor(cfg(1));
+    KafkaConsumerFactory factory = accessor.createConsumerFactory();
+    TopicPartition tp = new TopicPartition(accessor.getTopic(), 0);
+    try (Consumer<String, byte[]> consumer = factory.create("group")) {
+      consumer.poll(0);
+      write(accessor, 10);
+      assertEquals(10, consumer.poll(1000).count());
+      consumer.commitSync();
+    }
+    write(accessor, 5);
+    try (Consumer<String, byte[]> consumer = factory.create("group")) {
+      assertEquals(10L, consumer.committed(tp).offset());
+      assertEquals(5, consumer.poll(1000).count());
+      assertEquals(15L, consumer.position(tp));
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testMaxPollRecords() {
+    Map<String, Object> cfg = cfg(1);
+    cfg.put("kafka.max.poll.records", "10");
+    LocalKafkaAccessor accessor = accessor(cfg);
+    write(accessor, 25);
+    try (Consumer<String, byte[]> consumer = accessor.createConsumerFactory().create()) {
+      consumer.seekToBeginning(consumer.assignment());
+      assertEquals(10, consumer.poll(1000).count());
+      assertEquals(10, consumer.poll(1000).count());
+      assertEquals(5, consumer.poll(1000).count());
+      assertTrue(consumer.poll(0).isEmpty());
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testPollWaitsForData() throws Exception {
+    LocalKafkaAccessor accessor = accessor(cfg(1));
+    try (Consumer<String, byte[]> consumer = accessor.createConsumerFactory().create()) {
+      Executors.newSingleThreadScheduledExecutor()
+          .schedule(() -> write(accessor, 1), 100, TimeUnit.MILLISECONDS);
+      long start = System.currentTimeMillis();
+      ConsumerRecords<String, byte[]> polled = consumer.poll(5000);
+      assertEquals(1, polled.count());
+      assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testLatency() throws InterruptedException {
+    Map<String, Object> cfg = cfg(1);
+    cfg.put(LocalKafkaAccessor.LATENCY_CFG, "200");
+    LocalKafkaAccessor accessor = accessor(cfg);
+    TopicPartition tp = new TopicPartition(accessor.getTopic(), 0);
+    KafkaWriter writer = accessor.newWriter();
+    CountDownLatch latch = new CountDownLatch(1);
+    long start = System.currentTimeMillis();
+    writer.write(updates(1).get(0), (succ, exc) -> latch.countDown());
+    try (Consumer<String, byte[]> consumer = accessor.createConsumerFactory().create()) {
+      assertEquals(0L, (long) consumer.endOffsets(Collections.singleton(tp)).get(tp));
+      latch.await();
+      assertTrue(System.currentTimeMillis() - start >= 200);
+      assertEquals(1L, (long) consumer.endOffsets(Collections.singleton(tp)).get(tp));
+    }
+    writer.close();
+  }
+
+  @Test(timeout = 10000)
+  public void testRetention() {
+    Map<String, Object> cfg = cfg(1);
+    cfg.put(LocalKafkaAccessor.RETENTION_CFG, "1500");
+    LocalKafkaAccessor accessor = accessor(cfg);
+    TopicPartition tp = new TopicPartition(accessor.getTopic(), 0);
+    write(accessor, 5000);
+    try (Consumer<String, byte[]> consumer = accessor.createConsumerFactory().create()) {
+      long beginning = consumer.beginningOffsets(Collections.singleton(tp)).get(tp);
+      assertEquals(3500L, beginning);
+      consumer.seekToBeginning(Collections.singleton(tp));
+      long expected = beginning;
+      ConsumerRecords<String, byte[]> polled;
+      while (!(polled = consumer.poll(0)).isEmpty()) {
+        for (ConsumerRecord<String, byte[]> r : polled) {
+          assertEquals(expected++, r.offset());
+        }
+      }
+      assertEquals(5000L, expected);
+    }
+  }
+
+  private void write(LocalKafkaAccessor accessor, int count) {
+    KafkaWriter writer = accessor.newWriter();
+    writer.writeBatch(updates(count), (succ, exc) -> assertTrue(succ));
+    writer.close();
+  }
+
+  private List<StreamElement> updates(int count) {
+    return IntStream.range(0, count)
+        .mapToObj(i -> StreamElement.update(
+            entity, attr, UUID.randomUUID().toString(),
+            "key" + i, attr.getName(), System.currentTimeMillis(),
+            new byte[] { 1 }))
+        .collect(Collectors.toList());
+  }
+
+  private LocalKafkaAccessor accessor(Map<String, Object> cfg) {
+    return new LocalKafkaStorage().getAccessor(entity, uri, cfg);
+  }
+
+  private static Map<String, Object> cfg(int partitions) {
+    Map<String, Object> ret = new HashMap<>();
+    ret.put(LocalKafkaAccessor.NUM_PARTITIONS_CFG, String.valueOf(partitions));
+    return ret;
+  }
+
+  private static Context context() {
+    return new Context(() -> Executors.newCachedThreadPool()) { };
+  }
+
+}
@@ -16,9 +16,9 @@
 package cz.o2.proxima.storage.kafka;
 
 import com.google.common.base.Preconditions;
+import cz.o2.proxima.repository.AttributeDescriptor;
 import cz.o2.proxima.repository.Context;
 import cz.o2.proxima.repository.EntityDescriptor;
-import cz.o2.proxima.storage.CommitCallback;
 import cz.o2.proxima.storage.Partition;
 import cz.o2.proxima.storage.StorageDescriptor;
 import cz.o2.proxima.storage.StreamElement;
@@ -38,11 +38,19 @@ import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.header.internals.RecordHeaders;
 import org.apache.kafka.common.record.TimestampType;
 
 import javax.annotation.Nullable;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -55,6 +63,7 @@ import java.util.Properties;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.PartitionInfo;
 
 import static org.mockito.Matchers.any;
@@ -135,6 +144,12 @@ public class LocalKafkaCommitLogDescriptor extends StorageDescriptor {
     transient Map<ConsumerId, List<Pair<Integer, AtomicInteger>>> consumerOffsets;
     // (consumer name, partition id) -> committed offset
     transient Map<Pair<String, Integer>, AtomicInteger> committedOffsets;
+    // number of requests for partitions of the topic by producers
+    transient AtomicInteger partitionsRequests;
+    // number of records sent by producers
+    transient AtomicInteger sends;
+    // number of sends after which producers throw exception, -1 for no failure
+    transient volatile int failSendsAfter;
 
     public Accessor(
         EntityDescriptor entity, URI uri,
@@ -147,6 +162,9 @@ public class LocalKafkaCommitLogDescriptor extends StorageDescriptor {
       this.written = Collections.synchronizedList(new ArrayList<>());
       this.consumerGroups = Collections.synchronizedMap(new HashMap<>());
       this.committedOffsets = Collections.synchronizedMap(new HashMap<>());
+      this.partitionsRequests = new AtomicInteger();
+      this.sends = new AtomicInteger();
+      this.failSendsAfter = -1;
 
       numPartitions = Optional.ofNullable(cfg.get(CFG_NUM_PARTITIONS))
           .filter(o -> o != null)
@@ -164,53 +182,131 @@ public class LocalKafkaCommitLogDescriptor extends StorageDescriptor {
     }
 
     @Override
-    public KafkaConsumerFactory createConsumerFactory() {
+    public MockConsumerFactory createConsumerFactory() {
+      return new MockConsumerFactory();
+    }
 
-      return new KafkaConsumerFactory(getUri(), new Properties()) {
+    /**
+     * Create mock producer appending the records to the written partitions,
+     * so that {@link KafkaWriter} is tested with its own partitioning and
+     * encoding of records.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    Producer<String, byte[]> createProducer() {
+      Producer<String, byte[]> mock = mock(Producer.class);
 
-        @Override
-        public KafkaConsumer<String, byte[]> create() {
-          return create(allPartitions());
-        }
+      doAnswer(invocation -> {
+        partitionsRequests.incrementAndGet();
+        return IntStream.range(0, numPartitions)
+            .mapToObj(i -> new PartitionInfo(getTopic(), i, null, null, null))
+            .collect(Collectors.toList());
+      }).when(mock).partitionsFor(eq(getTopic()));
 
-        @Override
-        public KafkaConsumer<String, byte[]> create(Collection<Partition> partitions) {
-          String name = "unnamed-consumer-" + UUID.randomUUID().toString();
-          ConsumerGroup group = new ConsumerGroup(name, getTopic(), numPartitions);
-          return mockKafkaConsumer(name, group, partitions, null);
+      doAnswer(invocation -> {
+        ProducerRecord<String, byte[]> record;
+        record = (ProducerRecord<String, byte[]>) invocation.getArguments()[0];
+        Callback callback = (Callback) invocation.getArguments()[1];
+        if (sends.getAndIncrement() >= failSendsAfter && failSendsAfter >= 0) {
+          throw new KafkaException("Failed to send " + record);
         }
-
-        @Override
-        public KafkaConsumer<String, byte[]> create(String name) {
-          return create(name, null);
+        int partition = record.partition();
+        StreamElement data = fromProducerRecord(record);
+        List<StreamElement> partitionData = written.get(partition);
+        long offset;
+        synchronized (partitionData) {
+          partitionData.add(data);
+          offset = partitionData.size() - 1;
         }
+        log.debug(
+            "Written data {} to LocalKafkaCommitLog descriptorId {} URI {}, "
+                + "partition {} at offset {}",
+            data, descriptorId, getUri(), partition, offset);
+        callback.onCompletion(
+            new RecordMetadata(
+                new TopicPartition(getTopic(), partition), offset, 0,
+                record.timestamp(), null, -1, -1),
+            null);
+        return null;
+      }).when(mock).send(any(), any());
+
+      return mock;
+    }
+
+    private StreamElement fromProducerRecord(
+        ProducerRecord<String, byte[]> record) {
+
+      String key = record.key();
+      String attribute;
+      Header header = record.headers().lastHeader(KafkaAccessor.ATTRIBUTE_HEADER);
+      if (header != null) {
+        attribute = new String(header.value(), StandardCharsets.UTF_8);
+      } else {
+        int hashPos = key.lastIndexOf('#');
+        attribute = key.substring(hashPos + 1);
+        key = key.substring(0, hashPos);
+      }
+      AttributeDescriptor<?> attr = getEntityDescriptor()
+          .findAttribute(attribute, true)
+          .orElseThrow(() -> new IllegalArgumentException(
+              "Invalid attribute " + attribute));
+      return StreamElement.update(
+          getEntityDescriptor(), attr, UUID.randomUUID().toString(),
+          key, attribute, record.timestamp(), record.value());
+    }
 
-        @Override
-        public KafkaConsumer<String, byte[]> create(
-            String name,
-            @Nullable ConsumerRebalanceListener listener) {
+    /**
+     * Factory of mock consumers, returns {@link KafkaConsumer}s so that
+     * tests can use the consumers directly.
+     */
+    class MockConsumerFactory extends KafkaConsumerFactory {
 
-          synchronized (LocalKafkaCommitLogDescriptor.class) {
-            ConsumerGroup group = consumerGroups.get(name);
-            if (group == null) {
-              group = new ConsumerGroup(name, getTopic(), numPartitions);
-              consumerGroups.put(name, group);
-            }
+      MockConsumerFactory() {
+        super(getUri(), new Properties());
+      }
 
-            return mockKafkaConsumer(name, group, null, listener);
+      @Override
+      public KafkaConsumer<String, byte[]> create() {
+        return create(allPartitions());
+      }
+
+      @Override
+      public KafkaConsumer<String, byte[]> create(Collection<Partition> partitions) {
+        String name = "unnamed-consumer-" + UUID.randomUUID().toString();
+        ConsumerGroup group = new ConsumerGroup(name, getTopic(), numPartitions);
+        return mockKafkaConsumer(name, group, partitions, null);
+      }
+
+      @Override
+      public KafkaConsumer<String, byte[]> create(String name) {
+        return create(name, null);
+      }
+
+      @Override
+      public KafkaConsumer<String, byte[]> create(
+          String name,
+          @Nullable ConsumerRebalanceListener listener) {
+
+        synchronized (LocalKafkaCommitLogDescriptor.class) {
+          ConsumerGroup group = consumerGroups.get(name);
+          if (group == null) {
+            group = new ConsumerGroup(name, getTopic(), numPartitions);
+            consumerGroups.put(name, group);
           }
+
+          return mockKafkaConsumer(name, group, null, listener);
         }
+      }
 
-        private List<Partition> allPartitions() {
-          List<Partition> ret = new ArrayList<>();
-          for (int i = 0; i < numPartitions; i++) {
-            int id = i;
-            ret.add(() -> id);
-          }
-          return ret;
+      private List<Partition> allPartitions() {
+        List<Partition> ret = new ArrayList<>();
+        for (int i = 0; i < numPartitions; i++) {
+          int id = i;
+          ret.add(() -> id);
         }
+        return ret;
+      }
 
-      };
     }
 
 
@@ -479,6 +575,22 @@ public class LocalKafkaCommitLogDescriptor extends StorageDescriptor {
 
     private ConsumerRecord<String, byte[]> toConsumerRecord(
         StreamElement ingest, int partitionId, int offset) {
+      if (isHeaderEncoding()) {
+        return new ConsumerRecord<>(
+            getTopic(),
+            partitionId,
+            offset,
+            ingest.getStamp(),
+            TimestampType.CREATE_TIME,
+            0L,
+            -1,
+            -1,
+            ingest.getKey(),
+            ingest.getValue(),
+            new RecordHeaders(Collections.singletonList(new RecordHeader(
+                KafkaAccessor.ATTRIBUTE_HEADER,
+                ingest.getAttribute().getBytes(StandardCharsets.UTF_8)))));
+      }
       return new ConsumerRecord<>(
           getTopic(),
           partitionId,
@@ -520,7 +632,7 @@ public class LocalKafkaCommitLogDescriptor extends StorageDescriptor {
 
     @Override
     LocalKafkaWriter newWriter() {
-      return new LocalKafkaWriter(this, numPartitions, descriptorId);
+      return new LocalKafkaWriter(this);
     }
 
     @Override
@@ -545,6 +657,9 @@ public class LocalKafkaCommitLogDescriptor extends StorageDescriptor {
       this.consumerGroups = original.consumerGroups;
       this.consumerOffsets = original.consumerOffsets;
       this.written = original.written;
+      this.partitionsRequests = original.partitionsRequests;
+      this.sends = original.sends;
+      this.failSendsAfter = original.failSendsAfter;
     }
 
   }
@@ -640,31 +755,8 @@ public class LocalKafkaCommitLogDescriptor extends StorageDescriptor {
 
   public static class LocalKafkaWriter extends KafkaWriter {
 
-    private final int numPartitions;
-    private final int descriptorId;
-
-    public LocalKafkaWriter(
-        LocalKafkaCommitLogDescriptor.Accessor accessor,
-        int numPartitions, int descriptorId) {
-
+    public LocalKafkaWriter(LocalKafkaCommitLogDescriptor.Accessor accessor) {
       super(accessor);
-      this.numPartitions = numPartitions;
-      this.descriptorId = descriptorId;
-    }
-
-    @Override
-    public void write(StreamElement data, CommitCallback callback) {
-      int partitionId = accessor.getPartitioner().getPartitionId(data);
-      int partition = (partitionId & Integer.MAX_VALUE) % numPartitions;
-      Accessor local = (LocalKafkaCommitLogDescriptor.Accessor) accessor;
-      local.written.get(partition).add(data);
-      long offset = local.written.get(partition).size() - 1;
-      log.debug(
-          "Written data {} to LocalKafkaCommitLog descriptorId {} URI {}, "
-              + "partition {} at offset {}",
-          data, descriptorId, getUri(), partition, offset);
-
-      callback.commit(true, null);
     }
 
     @Override
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.kafka;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Throughput of tracking of committable offsets by {@link OffsetTracker}
+ * compared to {@link OffsetCommitter}. Each invocation registers a window of
+ * offsets of a partition owned by the benchmark thread and confirms them in
+ * random order, so that the committed offset moves in bursts as it does with
+ * asynchronous writers.
+ * Run {@link #main} from test classpath to get results for 1 to 32 threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OffsetTrackerBenchmark {
+
+  /** Number of offsets registered before they are confirmed. */
+  @Param({ "64" })
+  int window;
+
+  @Param({ "tracker", "committer" })
+  String mode;
+
+  OffsetTracker<Integer> tracker;
+  OffsetCommitter<Integer> committer;
+  final AtomicLong partitions = new AtomicLong();
+
+  @State(Scope.Thread)
+  public static class Partition {
+
+    Integer id;
+    long offset;
+    int[] order;
+
+    @Setup
+    public void setup(OffsetTrackerBenchmark benchmark) {
+      id = (int) benchmark.partitions.getAndIncrement();
+      order = new int[benchmark.window];
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      for (int i = 0; i < order.length; i++) {
+        int j = random.nextInt(i + 1);
+        order[i] = order[j];
+        order[j] = i;
+      }
+    }
+
+  }
+
+  @Setup
+  public void setup() {
+    tracker = new OffsetTracker<>();
+    committer = new OffsetCommitter<>();
+  }
+
+  @Benchmark
+  public void registerAndConfirm(Partition partition, Blackhole bh) {
+    long start = partition.offset;
+    if (mode.equals("tracker")) {
+      for (int i = 0; i < window; i++) {
+        tracker.register(partition.id, start + i, 1);
+      }
+      for (int i : partition.order) {
+        tracker.confirm(partition.id, start + i);
+      }
+      bh.consume(tracker.getCommittable(partition.id));
+    } else {
+      for (int i = 0; i < window; i++) {
+        long offset = start + i;
+        committer.register(partition.id, offset, 1, () -> bh.consume(offset));
+      }
+      for (int i : partition.order) {
+        committer.confirm(partition.id, start + i);
+      }
+    }
+    partition.offset += window;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    for (int threads = 1; threads <= 32; threads *= 2) {
+      Options opts = new OptionsBuilder()
+          .include(OffsetTrackerBenchmark.class.getSimpleName())
+          .threads(threads)
+          .build();
+      new Runner(opts).run();
+    }
+  }
+
+}
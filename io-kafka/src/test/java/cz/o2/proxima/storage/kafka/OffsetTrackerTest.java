@@ -0,0 +1,204 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.kafka;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test {@link OffsetTracker}.
+ */
+public class OffsetTrackerTest {
+
+  OffsetTracker<String> tracker;
+
+  @Before
+  public void setUp() {
+    tracker = new OffsetTracker<>(8);
+  }
+
+  @Test
+  public void testSimpleCommit() {
+    String id = "dummy-0";
+    long offset = 1;
+    tracker.register(id, offset, 5);
+    assertEquals(offset, tracker.getCommittable(id));
+    for (int i = 0; i < 5; i++) {
+      tracker.confirm(id, offset);
+    }
+    assertEquals(offset + 1, tracker.getCommittable(id));
+  }
+
+  @Test
+  public void testFourOffsetCommit() {
+    String id = "dummy-0";
+    long offset = 1;
+    tracker.register(id, offset, 5);
+    tracker.register(id, offset + 1, 6);
+    tracker.register(id, offset + 2, 4);
+    tracker.register(id, offset + 3, 3);
+    for (int i = 0; i < 4; i++) {
+      tracker.confirm(id, offset + 2);
+    }
+    for (int i = 0; i < 6; i++) {
+      tracker.confirm(id, offset + 1);
+    }
+    assertEquals(offset, tracker.getCommittable(id));
+    for (int i = 0; i < 5; i++) {
+      tracker.confirm(id, offset);
+    }
+    assertEquals(offset + 3, tracker.getCommittable(id));
+  }
+
+  @Test
+  public void testCommitWithZeroActions() {
+    String id = "dummy-0";
+    long offset = 1;
+    tracker.register(id, offset, 5);
+    tracker.register(id, offset + 1, 0);
+    for (int i = 0; i < 4; i++) {
+      tracker.confirm(id, offset);
+    }
+    assertEquals(offset, tracker.getCommittable(id));
+    tracker.confirm(id, offset);
+    assertEquals(offset + 2, tracker.getCommittable(id));
+  }
+
+  @Test
+  public void testGapsInOffsets() {
+    String id = "dummy-0";
+    tracker.register(id, 1, 1);
+    tracker.register(id, 5, 1);
+    tracker.confirm(id, 1);
+    assertEquals(5, tracker.getCommittable(id));
+    tracker.confirm(id, 5);
+    // gap larger than capacity of the ring
+    tracker.register(id, 100, 1);
+    tracker.confirm(id, 100);
+    assertEquals(101, tracker.getCommittable(id));
+  }
+
+  @Test(timeout = 10000)
+  public void testLargeGapsWhileHeadPending() {
+    String id = "dummy-0";
+    long gap = 1L << 40;
+    tracker.register(id, 0, 1);
+    // gaps do not take space in the ring, which grows only by number
+    // of offsets in flight
+    for (long i = 1; i <= 100; i++) {
+      tracker.register(id, i * gap, 1);
+    }
+    for (long i = 100; i > 1; i--) {
+      tracker.confirm(id, i * gap);
+    }
+    assertEquals(0, tracker.getCommittable(id));
+    tracker.confirm(id, 0);
+    assertEquals(gap, tracker.getCommittable(id));
+    // offset inside of a gap is not tracked
+    tracker.confirm(id, gap + 1);
+    assertEquals(gap, tracker.getCommittable(id));
+    tracker.confirm(id, gap);
+    assertEquals(100 * gap + 1, tracker.getCommittable(id));
+  }
+
+  @Test(timeout = 10000)
+  public void testRingGrowsWhenNotConfirmed() {
+    String id = "dummy-0";
+    // more offsets than capacity of the ring, none confirmed
+    for (long offset = 0; offset < 100; offset++) {
+      tracker.register(id, offset, 1);
+    }
+    assertEquals(0, tracker.getCommittable(id));
+    for (long offset = 99; offset > 0; offset--) {
+      tracker.confirm(id, offset);
+    }
+    assertEquals(0, tracker.getCommittable(id));
+    tracker.confirm(id, 0);
+    assertEquals(100, tracker.getCommittable(id));
+  }
+
+  @Test
+  public void testResetOnLowerOffset() {
+    String id = "dummy-0";
+    tracker.register(id, 10, 1);
+    tracker.register(id, 3, 1);
+    assertEquals(3, tracker.getCommittable(id));
+    tracker.confirm(id, 3);
+    assertEquals(4, tracker.getCommittable(id));
+  }
+
+  @Test
+  public void testDrainCommittable() {
+    tracker.register("a", 0, 1);
+    tracker.register("b", 0, 1);
+    assertTrue(tracker.drainCommittable().isEmpty());
+    tracker.confirm("a", 0);
+    assertEquals(Collections.singletonMap("a", 1L), tracker.drainCommittable());
+    assertTrue(tracker.drainCommittable().isEmpty());
+  }
+
+  @Test(timeout = 20000)
+  public void testConcurrentConfirms() throws Exception {
+    String id = "dummy-0";
+    int numOffsets = 10_000;
+    int numThreads = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      List<List<Long>> confirms = new ArrayList<>();
+      for (int i = 0; i < numThreads; i++) {
+        confirms.add(Collections.synchronizedList(new ArrayList<>()));
+      }
+      for (int i = 0; i < numThreads; i++) {
+        List<Long> toConfirm = confirms.get(i);
+        futures.add(executor.submit(() -> {
+          int confirmed = 0;
+          while (confirmed < numOffsets) {
+            if (toConfirm.size() > confirmed) {
+              tracker.confirm(id, toConfirm.get(confirmed++));
+            } else {
+              Thread.yield();
+            }
+          }
+        }));
+      }
+      // each offset has one action in each thread, the ring is smaller
+      // than number of offsets, so it grows while being confirmed
+      for (long offset = 0; offset < numOffsets; offset++) {
+        tracker.register(id, offset, numThreads);
+        for (List<Long> toConfirm : confirms) {
+          toConfirm.add(offset);
+        }
+      }
+      for (Future<?> f : futures) {
+        f.get();
+      }
+      Map<String, Long> committable = tracker.drainCommittable();
+      assertEquals((long) numOffsets, (long) committable.get(id));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+}
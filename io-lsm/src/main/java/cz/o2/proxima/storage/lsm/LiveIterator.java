@@ -0,0 +1,119 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.lsm;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import javax.annotation.Nullable;
+
+/**
+ * Iterator of merged records that drops values deleted by tombstones.
+ * Prefix tombstones precede all row keys with the prefix, so the iterator
+ * keeps stack of enclosing prefix tombstones while iterating. Tombstones
+ * themselves are returned only when not older than given threshold,
+ * which is used by compaction to keep recent tombstones.
+ */
+final class LiveIterator implements Iterator<Map.Entry<String, Record>> {
+
+  private final Iterator<Map.Entry<String, Record>> merged;
+  private final long tombstoneThreshold;
+  private final Deque<Map.Entry<String, Record>> prefixes = new ArrayDeque<>();
+  @Nullable
+  private Map.Entry<String, Record> next;
+
+  /**
+   * Create iterator returning only values.
+   * @param merged the merged records
+   * @param enclosing prefix tombstones of row keys preceding the first
+   *                  merged record, ordered by row keys
+   */
+  LiveIterator(
+      Iterator<Map.Entry<String, Record>> merged,
+      Iterable<Map.Entry<String, Record>> enclosing) {
+
+    this(merged, enclosing, Long.MAX_VALUE);
+  }
+
+  /**
+   * Create the iterator.
+   * @param merged the merged records
+   * @param enclosing prefix tombstones of row keys preceding the first
+   *                  merged record, ordered by row keys
+   * @param tombstoneThreshold minimal timestamp of returned tombstones
+   */
+  LiveIterator(
+      Iterator<Map.Entry<String, Record>> merged,
+      Iterable<Map.Entry<String, Record>> enclosing,
+      long tombstoneThreshold) {
+
+    this.merged = merged;
+    this.tombstoneThreshold = tombstoneThreshold;
+    enclosing.forEach(prefixes::push);
+    advance();
+  }
+
+  private void advance() {
+    next = null;
+    while (next == null && merged.hasNext()) {
+      Map.Entry<String, Record> e = merged.next();
+      String rowKey = e.getKey();
+      while (!prefixes.isEmpty() && !rowKey.startsWith(prefixes.peek().getKey())) {
+        prefixes.pop();
+      }
+      Record record = e.getValue();
+      if (record.isPut()) {
+        if (!isDeleted(record)) {
+          next = e;
+        }
+      } else {
+        if (record.getType() == Record.Type.DELETE_PREFIX) {
+          prefixes.push(e);
+        }
+        if (record.getStamp() >= tombstoneThreshold) {
+          next = e;
+        }
+      }
+    }
+  }
+
+  private boolean isDeleted(Record record) {
+    for (Map.Entry<String, Record> prefix : prefixes) {
+      if (prefix.getValue().getStamp() >= record.getStamp()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return next != null;
+  }
+
+  @Override
+  public Map.Entry<String, Record> next() {
+    if (next == null) {
+      throw new NoSuchElementException();
+    }
+    Map.Entry<String, Record> ret = next;
+    advance();
+    return ret;
+  }
+
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.lsm;
+
+import cz.o2.proxima.repository.Context;
+import cz.o2.proxima.repository.EntityDescriptor;
+import cz.o2.proxima.storage.AbstractStorage;
+import cz.o2.proxima.storage.AttributeWriterBase;
+import cz.o2.proxima.storage.DataAccessor;
+import cz.o2.proxima.storage.batch.BatchLogObservable;
+import cz.o2.proxima.storage.randomaccess.RandomAccessReader;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Optional;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * {@link DataAccessor} of attribute family stored in embedded
+ * log-structured store in local directory given by path of the URI,
+ * e.g. {@code lsm:///var/lib/proxima/gateway}.
+ */
+@Slf4j
+public class LsmDataAccessor extends AbstractStorage implements DataAccessor {
+
+  /** Size of memtable in bytes that triggers its flush. Defaults to 16 MiB. */
+  public static final String MEMTABLE_BYTES_CFG = "lsm.memtable-bytes";
+
+  /** Number of records per entry of sparse index of segments. Defaults to 16. */
+  public static final String INDEX_INTERVAL_CFG = "lsm.index-interval";
+
+  /** False positive probability of bloom filters of segments. Defaults to 0.01. */
+  public static final String BLOOM_FPP_CFG = "lsm.bloom-fpp";
+
+  /** Number of segments that triggers their compaction. Defaults to 8. */
+  public static final String COMPACTION_SEGMENTS_CFG = "lsm.compaction-segments";
+
+  /**
+   * Time in milliseconds after which compaction drops tombstones.
+   * Deletes older than this time might be overwritten by writes with lower
+   * timestamp arriving later. Defaults to one day.
+   */
+  public static final String TOMBSTONE_GRACE_MS_CFG = "lsm.tombstone-grace-ms";
+
+  /**
+   * Sync write-ahead log to disk after each write, so that written data
+   * survive failure of the machine. Defaults to {@code false}, which
+   * protects the data from failure of the process only.
+   */
+  public static final String SYNC_WRITES_CFG = "lsm.sync-writes";
+
+  private final LsmStore.Settings settings;
+
+  public LsmDataAccessor(
+      EntityDescriptor entity, URI uri, Map<String, Object> cfg) {
+
+    super(entity, uri);
+    if (uri.getPath() == null || uri.getPath().length() <= 1) {
+      throw new IllegalArgumentException("Specify directory by path in URI " + uri);
+    }
+    this.settings = new LsmStore.Settings(cfg);
+    log.info(
+        "Using memtable bytes {}, index interval {}, compaction segments {} "
+            + "and sync writes {} for URI {}",
+        settings.getMemtableBytes(), settings.getIndexInterval(),
+        settings.getCompactionSegments(), settings.isSyncWrites(), uri);
+  }
+
+  /**
+   * Retrieve directory of the store.
+   * @param uri URI of the store
+   * @return the directory
+   */
+  static Path dir(URI uri) {
+    return Paths.get(uri.getPath());
+  }
+
+  @Override
+  public Optional<AttributeWriterBase> getWriter(Context context) {
+    return Optional.of(new LsmWriter(getEntityDescriptor(), getUri(), settings));
+  }
+
+  @Override
+  public Optional<RandomAccessReader> getRandomAccessReader(Context context) {
+    return Optional.of(new LsmRandomAccessReader(
+        getEntityDescriptor(), getUri(), settings));
+  }
+
+  @Override
+  public Optional<BatchLogObservable> getBatchLogObservable(Context context) {
+    return Optional.of(new LsmLogObservable(
+        getEntityDescriptor(), getUri(), settings,
+        context::getExecutorService));
+  }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.lsm;
+
+import cz.o2.proxima.functional.Factory;
+import cz.o2.proxima.repository.AttributeDescriptor;
+import cz.o2.proxima.repository.EntityDescriptor;
+import cz.o2.proxima.storage.AbstractStorage;
+import cz.o2.proxima.storage.Partition;
+import cz.o2.proxima.storage.StreamElement;
+import cz.o2.proxima.storage.batch.BatchLogObservable;
+import cz.o2.proxima.storage.batch.BatchLogObserver;
+import cz.o2.proxima.storage.batch.BoundedPartition;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * {@link BatchLogObservable} of {@link LsmStore}. The store is read
+ * as single partition with the latest version of each attribute.
+ */
+@Slf4j
+class LsmLogObservable extends AbstractStorage implements BatchLogObservable {
+
+  private final LsmStore.Settings settings;
+  private final Factory<Executor> executorFactory;
+  private transient Executor executor;
+
+  LsmLogObservable(
+      EntityDescriptor entity, URI uri, LsmStore.Settings settings,
+      Factory<Executor> executorFactory) {
+
+    super(entity, uri);
+    this.settings = settings;
+    this.executorFactory = executorFactory;
+  }
+
+  @Override
+  public List<Partition> getPartitions(long startStamp, long endStamp) {
+    return Collections.singletonList(new BoundedPartition(0));
+  }
+
+  @Override
+  public void observe(
+      List<Partition> partitions,
+      List<AttributeDescriptor<?>> attributes,
+      BatchLogObserver observer) {
+
+    executor().execute(() -> {
+      try {
+        LsmStore store = LsmStore.of(LsmDataAccessor.dir(getUri()), settings);
+        Partition partition = partitions.get(0);
+        Iterator<Map.Entry<String, Record>> it = new LiveIterator(
+            store.scan("", String.valueOf(Character.MAX_VALUE), null),
+            Collections.emptyList());
+        while (it.hasNext() && !Thread.currentThread().isInterrupted()) {
+          Map.Entry<String, Record> e = it.next();
+          Optional<StreamElement> element = toStreamElement(
+              e.getKey(), e.getValue(), attributes);
+          if (element.isPresent() && !observer.onNext(element.get(), partition)) {
+            break;
+          }
+        }
+        observer.onCompleted();
+      } catch (Throwable err) {
+        log.warn("Failed to observe partitions {}", partitions, err);
+        observer.onError(err);
+      }
+    });
+  }
+
+  private Optional<StreamElement> toStreamElement(
+      String rowKey, Record record, List<AttributeDescriptor<?>> attributes) {
+
+    String attribute = Record.attribute(rowKey);
+    return getEntityDescriptor().findAttribute(attribute, true)
+        .filter(attributes::contains)
+        .map(desc -> StreamElement.update(
+            getEntityDescriptor(), desc, UUID.randomUUID().toString(),
+            Record.key(rowKey), attribute, record.getStamp(), record.getValue()));
+  }
+
+  private Executor executor() {
+    if (executor == null) {
+      executor = executorFactory.apply();
+    }
+    return executor;
+  }
+
+}
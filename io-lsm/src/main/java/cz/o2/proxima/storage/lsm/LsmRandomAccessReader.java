@@ -0,0 +1,197 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.lsm;
+
+import cz.o2.proxima.functional.Consumer;
+import cz.o2.proxima.repository.AttributeDescriptor;
+import cz.o2.proxima.repository.EntityDescriptor;
+import cz.o2.proxima.storage.AbstractStorage;
+import cz.o2.proxima.storage.randomaccess.KeyValue;
+import cz.o2.proxima.storage.randomaccess.RandomAccessReader;
+import cz.o2.proxima.storage.randomaccess.RandomOffset;
+import cz.o2.proxima.storage.randomaccess.RawOffset;
+import cz.o2.proxima.util.Pair;
+import java.net.URI;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * {@link RandomAccessReader} of {@link LsmStore}. Attributes of each key
+ * are stored next to each other ordered by name, so scans of wildcard
+ * attributes read single range of row keys. Reads always return the latest
+ * version, the timestamp of reads is ignored.
+ */
+@Slf4j
+class LsmRandomAccessReader extends AbstractStorage implements RandomAccessReader {
+
+  private final LsmStore.Settings settings;
+  private transient LsmStore store;
+
+  LsmRandomAccessReader(
+      EntityDescriptor entity, URI uri, LsmStore.Settings settings) {
+
+    super(entity, uri);
+    this.settings = settings;
+  }
+
+  @Override
+  public RandomOffset fetchOffset(Listing type, String key) {
+    return new RawOffset(key);
+  }
+
+  @Override
+  public <T> Optional<KeyValue<T>> get(
+      String key, String attribute, AttributeDescriptor<T> desc, long stamp) {
+
+    Record record = store().get(Record.rowKey(key, attribute));
+    if (record == null || !record.isPut()) {
+      return Optional.empty();
+    }
+    if (desc.isWildcard() && !attribute.equals(desc.toAttributePrefix())) {
+      Record deleted = store().get(Record.rowKey(key, desc.toAttributePrefix()));
+      if (deleted != null
+          && deleted.getType() == Record.Type.DELETE_PREFIX
+          && deleted.getStamp() >= record.getStamp()) {
+        return Optional.empty();
+      }
+    }
+    return Optional.of(kv(desc, key, attribute, record));
+  }
+
+  @Override
+  public <T> void scanWildcard(
+      String key, AttributeDescriptor<T> wildcard, @Nullable RandomOffset offset,
+      long stamp, int limit, Consumer<KeyValue<T>> consumer) {
+
+    String prefix = Record.rowKey(key, wildcard.toAttributePrefix());
+    int count = 0;
+    for (Iterator<Map.Entry<String, Record>> it = scan(key, prefix, offset);
+        it.hasNext() && (limit <= 0 || count < limit);) {
+
+      Map.Entry<String, Record> e = it.next();
+      consumer.accept(kv(wildcard, key, Record.attribute(e.getKey()), e.getValue()));
+      count++;
+    }
+  }
+
+  @Override
+  public void scanWildcardAll(
+      String key, @Nullable RandomOffset offset, long stamp,
+      int limit, Consumer<KeyValue<?>> consumer) {
+
+    String prefix = Record.rowKey(key, "");
+    int count = 0;
+    for (Iterator<Map.Entry<String, Record>> it = scan(key, prefix, offset);
+        it.hasNext() && (limit <= 0 || count < limit);) {
+
+      Map.Entry<String, Record> e = it.next();
+      String attribute = Record.attribute(e.getKey());
+      Optional<AttributeDescriptor<Object>> desc = getEntityDescriptor()
+          .findAttribute(attribute, true);
+      if (desc.isPresent()) {
+        consumer.accept(kv(desc.get(), key, attribute, e.getValue()));
+        count++;
+      } else {
+        log.warn(
+            "Unknown attribute {} in entity {}",
+            attribute, getEntityDescriptor());
+      }
+    }
+  }
+
+  /**
+   * Scan live records with given row key prefix after given offset.
+   */
+  private Iterator<Map.Entry<String, Record>> scan(
+      String key, String prefix, @Nullable RandomOffset offset) {
+
+    if (offset == null) {
+      return new LiveIterator(
+          store().scan(prefix, Record.upperBound(prefix), key),
+          Collections.emptyList());
+    }
+    String attribute = ((RawOffset) offset).getOffset();
+    // prefix tombstones of wildcard attributes enclosing the offset
+    // precede the scanned range
+    List<Map.Entry<String, Record>> enclosing = new ArrayList<>();
+    for (AttributeDescriptor<?> desc : getEntityDescriptor().getAllAttributes(true)) {
+      if (desc.isWildcard() && attribute.startsWith(desc.toAttributePrefix())) {
+        String rowKey = Record.rowKey(key, desc.toAttributePrefix());
+        Record deleted = store().get(rowKey);
+        if (deleted != null && deleted.getType() == Record.Type.DELETE_PREFIX) {
+          enclosing.add(new AbstractMap.SimpleImmutableEntry<>(rowKey, deleted));
+        }
+      }
+    }
+    enclosing.sort(Map.Entry.comparingByKey());
+    // the offset itself is excluded
+    String from = Record.rowKey(key, attribute) + Record.SEPARATOR;
+    return new LiveIterator(
+        store().scan(from, Record.upperBound(prefix), key), enclosing);
+  }
+
+  @Override
+  public void listEntities(
+      @Nullable RandomOffset offset, int limit,
+      Consumer<Pair<RandomOffset, String>> consumer) {
+
+    String from = offset == null
+        ? ""
+        : Record.upperBound(Record.rowKey(((RawOffset) offset).getOffset(), ""));
+    Iterator<Map.Entry<String, Record>> it = new LiveIterator(
+        store().scan(from, String.valueOf(Character.MAX_VALUE), null),
+        Collections.emptyList());
+    String last = null;
+    int count = 0;
+    while (it.hasNext() && (limit <= 0 || count < limit)) {
+      String key = Record.key(it.next().getKey());
+      if (!key.equals(last)) {
+        consumer.accept(Pair.of(new RawOffset(key), key));
+        last = key;
+        count++;
+      }
+    }
+  }
+
+  private <T> KeyValue<T> kv(
+      AttributeDescriptor<T> desc, String key, String attribute, Record record) {
+
+    return KeyValue.of(
+        getEntityDescriptor(), desc, key, attribute,
+        new RawOffset(attribute), record.getValue(), record.getStamp());
+  }
+
+  private LsmStore store() {
+    if (store == null) {
+      store = LsmStore.of(LsmDataAccessor.dir(getUri()), settings);
+    }
+    return store;
+  }
+
+  @Override
+  public void close() {
+    // the store is shared by all writers and readers of the directory
+    store = null;
+  }
+
+}
@@ -0,0 +1,510 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.lsm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Embedded log-structured key-value store in local directory.
+ *
+ * Writes are appended to write-ahead log and applied to in-memory
+ * {@link Memtable}. Full memtable is flushed in background to immutable
+ * {@link Segment} file sorted by row keys and its write-ahead log
+ * is deleted. When number of segments reaches configured limit, all
+ * segments are merged to single segment in background, dropping
+ * overwritten values, deleted values and tombstones older than configured
+ * grace period. Reads merge the memtables and the segments, the version with
+ * the highest timestamp wins, versions with the same timestamp are resolved
+ * in favor of the latest write.
+ *
+ * Stores are shared by all accessors with the same directory within the JVM,
+ * the directory is locked, so that it can be used by single process only.
+ */
+@Slf4j
+final class LsmStore {
+
+  /** Settings of the store, see {@link LsmDataAccessor} for description. */
+  @Getter
+  static final class Settings implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long memtableBytes;
+    private final int indexInterval;
+    private final double bloomFpp;
+    private final int compactionSegments;
+    private final long tombstoneGraceMs;
+    private final boolean syncWrites;
+
+    Settings(Map<String, Object> cfg) {
+      this.memtableBytes = Optional.ofNullable(cfg.get(
+          LsmDataAccessor.MEMTABLE_BYTES_CFG))
+          .map(v -> Long.valueOf(v.toString()))
+          .orElse(16L * 1024 * 1024);
+      this.indexInterval = Optional.ofNullable(cfg.get(
+          LsmDataAccessor.INDEX_INTERVAL_CFG))
+          .map(v -> Integer.valueOf(v.toString()))
+          .orElse(16);
+      this.bloomFpp = Optional.ofNullable(cfg.get(
+          LsmDataAccessor.BLOOM_FPP_CFG))
+          .map(v -> Double.valueOf(v.toString()))
+          .orElse(0.01);
+      this.compactionSegments = Optional.ofNullable(cfg.get(
+          LsmDataAccessor.COMPACTION_SEGMENTS_CFG))
+          .map(v -> Integer.valueOf(v.toString()))
+          .orElse(8);
+      this.tombstoneGraceMs = Optional.ofNullable(cfg.get(
+          LsmDataAccessor.TOMBSTONE_GRACE_MS_CFG))
+          .map(v -> Long.valueOf(v.toString()))
+          .orElse(86_400_000L);
+      this.syncWrites = Optional.ofNullable(cfg.get(
+          LsmDataAccessor.SYNC_WRITES_CFG))
+          .map(v -> Boolean.valueOf(v.toString()))
+          .orElse(false);
+      if (indexInterval <= 0) {
+        throw new IllegalArgumentException(
+            "Index interval must be positive, got " + indexInterval);
+      }
+      if (compactionSegments < 2) {
+        throw new IllegalArgumentException(
+            "Compaction needs at least two segments, got " + compactionSegments);
+      }
+    }
+
+  }
+
+  private static final String SEGMENT_SUFFIX = ".sst";
+  private static final String COMPACTED_SUFFIX = ".compact";
+  private static final String WAL_SUFFIX = ".wal";
+  private static final String TMP_SUFFIX = ".tmp";
+
+  private static final Map<Path, LsmStore> STORES = new ConcurrentHashMap<>();
+
+  /**
+   * Retrieve store in given directory, open it if it is not open.
+   * @param dir the directory
+   * @param settings settings of opened store
+   * @return the store
+   */
+  static LsmStore of(Path dir, Settings settings) {
+    return STORES.computeIfAbsent(dir.toAbsolutePath().normalize(), d -> {
+      try {
+        return new LsmStore(d, settings);
+      } catch (IOException ex) {
+        throw new RuntimeException(ex);
+      }
+    });
+  }
+
+  /**
+   * Close store in given directory. Data written so far are kept in the
+   * write-ahead log and the segments.
+   * @param dir the directory
+   */
+  static void close(Path dir) {
+    LsmStore store = STORES.remove(dir.toAbsolutePath().normalize());
+    if (store != null) {
+      store.close();
+    }
+  }
+
+  @Getter
+  private final Path dir;
+  private final Settings settings;
+  private final FileLock lock;
+  private final AtomicLong nextId = new AtomicLong();
+  private final ExecutorService background;
+  private final Object writeLock = new Object();
+  private final Object stateLock = new Object();
+
+  /** Memtable receiving writes. */
+  private volatile Memtable active;
+  /** Memtables waiting for flush, the newest first. */
+  private volatile List<Memtable> immutables = Collections.emptyList();
+  /** Segments, the newest first. */
+  private volatile List<Segment> segments = Collections.emptyList();
+
+  private FileOutputStream walFile;
+  private DataOutputStream wal;
+
+  private LsmStore(Path dir, Settings settings) throws IOException {
+    this.dir = dir;
+    this.settings = settings;
+    Files.createDirectories(dir);
+    FileChannel lockChannel = FileChannel.open(
+        dir.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    this.lock = lockChannel.tryLock();
+    if (lock == null) {
+      lockChannel.close();
+      throw new IllegalStateException(
+          "Directory " + dir + " is used by another process");
+    }
+    this.background = Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "lsm-" + dir.getFileName());
+      t.setDaemon(true);
+      return t;
+    });
+    recover();
+    synchronized (writeLock) {
+      active = new Memtable(nextId.getAndIncrement());
+      openWal(active.getId());
+    }
+    background.execute(this::compactIfNeeded);
+  }
+
+  private void recover() throws IOException {
+    for (Path tmp : list(TMP_SUFFIX)) {
+      Files.delete(tmp);
+    }
+    // compaction was interrupted after the merged segment was written,
+    // so it replaces all segments up to its id
+    for (Path compacted : list(COMPACTED_SUFFIX)) {
+      long id = id(compacted);
+      for (Path segment : list(SEGMENT_SUFFIX)) {
+        if (id(segment) <= id) {
+          Files.delete(segment);
+        }
+      }
+      Files.move(compacted, segmentPath(id), StandardCopyOption.ATOMIC_MOVE);
+    }
+    long maxId = -1;
+    List<Segment> opened = new ArrayList<>();
+    for (Path path : list(SEGMENT_SUFFIX)) {
+      Segment segment = Segment.open(id(path), path);
+      opened.add(segment);
+      maxId = Math.max(maxId, segment.getId());
+    }
+    for (Path path : list(WAL_SUFFIX)) {
+      long id = id(path);
+      Memtable memtable = replay(id, path);
+      if (!memtable.isEmpty()) {
+        opened.removeIf(s -> s.getId() == id);
+        opened.add(flush(memtable));
+      }
+      Files.delete(path);
+      maxId = Math.max(maxId, id);
+    }
+    opened.sort(Comparator.comparingLong(Segment::getId).reversed());
+    segments = Collections.unmodifiableList(opened);
+    nextId.set(maxId + 1);
+    log.info("Opened store {} with {} segments", dir, opened.size());
+  }
+
+  private Memtable replay(long id, Path path) throws IOException {
+    Memtable ret = new Memtable(id);
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(path)))) {
+
+      while (true) {
+        String rowKey = Record.readKey(in);
+        ret.put(rowKey, Record.read(in));
+      }
+    } catch (EOFException ex) {
+      log.debug("Replayed {} records of {}", ret.count(), path);
+    } catch (IOException | RuntimeException ex) {
+      // torn write at the end of the log
+      log.warn("Failed to replay tail of {}, replayed {} records", path, ret.count(), ex);
+    }
+    return ret;
+  }
+
+  private List<Path> list(String suffix) throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files
+          .filter(p -> p.getFileName().toString().endsWith(suffix))
+          .sorted(Comparator.comparingLong(LsmStore::id))
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static long id(Path path) {
+    String name = path.getFileName().toString();
+    return Long.parseLong(name.substring(0, name.indexOf('.')));
+  }
+
+  private Path path(long id, String suffix) {
+    return dir.resolve(String.format("%020d", id) + suffix);
+  }
+
+  private Path segmentPath(long id) {
+    return path(id, SEGMENT_SUFFIX);
+  }
+
+  private void openWal(long id) throws IOException {
+    walFile = new FileOutputStream(path(id, WAL_SUFFIX).toFile(), true);
+    wal = new DataOutputStream(new BufferedOutputStream(walFile, 65536));
+  }
+
+  /**
+   * Write record.
+   * @param rowKey the row key
+   * @param record the record
+   */
+  void write(String rowKey, Record record) {
+    write(Collections.singletonList(
+        new AbstractMap.SimpleImmutableEntry<>(rowKey, record)));
+  }
+
+  /**
+   * Write records with single write to the write-ahead log.
+   * @param records row keys and records to write
+   */
+  void write(List<Map.Entry<String, Record>> records) {
+    synchronized (writeLock) {
+      if (wal == null) {
+        throw new IllegalStateException("Store " + dir + " is closed");
+      }
+      try {
+        for (Map.Entry<String, Record> e : records) {
+          e.getValue().write(e.getKey(), wal);
+        }
+        wal.flush();
+        if (settings.isSyncWrites()) {
+          walFile.getFD().sync();
+        }
+      } catch (IOException ex) {
+        throw new RuntimeException(ex);
+      }
+      Memtable memtable = active;
+      for (Map.Entry<String, Record> e : records) {
+        memtable.put(e.getKey(), e.getValue());
+      }
+      if (memtable.size() >= settings.getMemtableBytes()) {
+        rotate();
+      }
+    }
+  }
+
+  private void rotate() {
+    Memtable full = active;
+    try {
+      wal.close();
+      synchronized (stateLock) {
+        // readers see the full memtable either as active or as immutable
+        immutables = prepend(full, immutables);
+      }
+      active = new Memtable(nextId.getAndIncrement());
+      openWal(active.getId());
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+    background.execute(() -> flushImmutable(full));
+  }
+
+  private void flushImmutable(Memtable memtable) {
+    try {
+      Segment segment = memtable.isEmpty() ? null : flush(memtable);
+      synchronized (stateLock) {
+        if (segment != null) {
+          segments = prepend(segment, segments);
+        }
+        List<Memtable> remaining = new ArrayList<>(immutables);
+        remaining.remove(memtable);
+        immutables = Collections.unmodifiableList(remaining);
+      }
+      Files.deleteIfExists(path(memtable.getId(), WAL_SUFFIX));
+      compactIfNeeded();
+    } catch (Exception ex) {
+      // the memtable stays readable and its write-ahead log is replayed on open
+      log.error("Failed to flush memtable {} of {}", memtable.getId(), dir, ex);
+    }
+  }
+
+  private Segment flush(Memtable memtable) throws IOException {
+    Path path = segmentPath(memtable.getId());
+    int count = Segment.write(
+        path, memtable.iterator(), memtable.count(),
+        settings.getIndexInterval(), settings.getBloomFpp());
+    log.debug("Flushed {} records to {}", count, path);
+    return Segment.open(memtable.getId(), path);
+  }
+
+  private void compactIfNeeded() {
+    List<Segment> inputs = segments;
+    if (inputs.size() < settings.getCompactionSegments()) {
+      return;
+    }
+    try {
+      compact(inputs);
+    } catch (Exception ex) {
+      log.error("Failed to compact segments of {}", dir, ex);
+    }
+  }
+
+  private void compact(List<Segment> inputs) throws IOException {
+    // the merged segment takes id of the newest input, so that it is ordered
+    // before all segments flushed later
+    long id = inputs.get(0).getId();
+    Path compacted = path(id, COMPACTED_SUFFIX);
+    List<Iterator<Map.Entry<String, Record>>> iterators = inputs.stream()
+        .map(Segment::iterator)
+        .collect(Collectors.toList());
+    long threshold = System.currentTimeMillis() - settings.getTombstoneGraceMs();
+    int count = Segment.write(
+        compacted,
+        new LiveIterator(
+            new MergingIterator(iterators), Collections.emptyList(), threshold),
+        inputs.stream().mapToLong(Segment::getCount).sum(),
+        settings.getIndexInterval(), settings.getBloomFpp());
+    // the merged segment is complete, from now on it replaces the inputs
+    // even after restart
+    for (Segment segment : inputs) {
+      Files.deleteIfExists(segment.getPath());
+    }
+    Path path = segmentPath(id);
+    Files.move(compacted, path, StandardCopyOption.ATOMIC_MOVE);
+    Segment merged = Segment.open(id, path);
+    synchronized (stateLock) {
+      List<Segment> current = new ArrayList<>(segments);
+      current.removeAll(inputs);
+      current.add(merged);
+      segments = Collections.unmodifiableList(current);
+    }
+    log.info(
+        "Compacted {} segments of {} to {} records",
+        inputs.size(), dir, count);
+  }
+
+  private static <T> List<T> prepend(T first, List<T> list) {
+    List<T> ret = new ArrayList<>(list.size() + 1);
+    ret.add(first);
+    ret.addAll(list);
+    return Collections.unmodifiableList(ret);
+  }
+
+  /**
+   * Retrieve current sources of records, the newest first.
+   * @return the sources
+   */
+  private List<Source> sources() {
+    // the order of reads matches the order of updates in rotate and flush,
+    // so that each record is present in at least one source
+    Memtable memtable = active;
+    List<Memtable> flushing = immutables;
+    List<Segment> files = segments;
+    List<Source> ret = new ArrayList<>(1 + flushing.size() + files.size());
+    ret.add(memtable);
+    ret.addAll(flushing);
+    ret.addAll(files);
+    return ret;
+  }
+
+  /**
+   * Retrieve the latest record of given row key.
+   * @param rowKey the row key
+   * @return the record, which might be a tombstone, or {@code null}
+   */
+  @Nullable
+  Record get(String rowKey) {
+    Record ret = null;
+    for (Source source : sources()) {
+      Record record = source.get(rowKey);
+      if (record != null && (ret == null || !ret.replaces(record))) {
+        ret = record;
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Iterate the latest records in given range of row keys.
+   * @param from the first row key (inclusive)
+   * @param to the last row key (exclusive)
+   * @param key entity key of all the row keys in the range, if known,
+   *            used to skip segments not containing the key
+   * @return iterator of the latest records, including tombstones
+   */
+  Iterator<Map.Entry<String, Record>> scan(
+      String from, String to, @Nullable String key) {
+
+    List<Iterator<Map.Entry<String, Record>>> iterators = new ArrayList<>();
+    for (Source source : sources()) {
+      if (key == null || source.mightContain(key)) {
+        iterators.add(source.iterator(from, to));
+      }
+    }
+    return new MergingIterator(iterators);
+  }
+
+  /**
+   * Wait until all full memtables are flushed and pending compaction
+   * is finished.
+   * @throws InterruptedException when interrupted
+   */
+  void awaitBackground() throws InterruptedException {
+    try {
+      background.submit(() -> { }).get();
+    } catch (ExecutionException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private void close() {
+    background.shutdown();
+    try {
+      if (!background.awaitTermination(1, TimeUnit.MINUTES)) {
+        log.warn("Background tasks of {} did not finish in time", dir);
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (writeLock) {
+      try {
+        if (wal != null) {
+          wal.close();
+          wal = null;
+        }
+        lock.release();
+        lock.channel().close();
+      } catch (IOException ex) {
+        log.warn("Failed to close store {}", dir, ex);
+      }
+    }
+  }
+
+}
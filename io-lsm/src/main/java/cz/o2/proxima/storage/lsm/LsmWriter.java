@@ -0,0 +1,101 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.lsm;
+
+import cz.o2.proxima.repository.EntityDescriptor;
+import cz.o2.proxima.storage.AbstractOnlineAttributeWriter;
+import cz.o2.proxima.storage.CommitCallback;
+import cz.o2.proxima.storage.StreamElement;
+import java.net.URI;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Writer to {@link LsmStore}. Batches of elements are appended to the
+ * write-ahead log of the store at once.
+ */
+@Slf4j
+class LsmWriter extends AbstractOnlineAttributeWriter {
+
+  private final LsmStore.Settings settings;
+  private transient LsmStore store;
+
+  LsmWriter(EntityDescriptor entity, URI uri, LsmStore.Settings settings) {
+    super(entity, uri);
+    this.settings = settings;
+  }
+
+  @Override
+  public void write(StreamElement data, CommitCallback statusCallback) {
+    try {
+      store().write(rowKey(data), record(data));
+      statusCallback.commit(true, null);
+    } catch (Exception ex) {
+      log.error("Failed to write {}", data, ex);
+      statusCallback.commit(false, ex);
+    }
+  }
+
+  @Override
+  public void writeBatch(List<StreamElement> data, CommitCallback statusCallback) {
+    try {
+      List<Map.Entry<String, Record>> records = new ArrayList<>(data.size());
+      for (StreamElement element : data) {
+        records.add(new AbstractMap.SimpleImmutableEntry<>(
+            rowKey(element), record(element)));
+      }
+      store().write(records);
+      statusCallback.commit(true, null);
+    } catch (Exception ex) {
+      log.error("Failed to write batch of {} elements", data.size(), ex);
+      statusCallback.commit(false, ex);
+    }
+  }
+
+  private static String rowKey(StreamElement data) {
+    String attribute = data.isDeleteWildcard()
+        ? data.getAttributeDescriptor().toAttributePrefix()
+        : data.getAttribute();
+    return Record.rowKey(data.getKey(), attribute);
+  }
+
+  private static Record record(StreamElement data) {
+    if (data.isDeleteWildcard()) {
+      return Record.deletePrefix(data.getStamp());
+    }
+    if (data.isDelete()) {
+      return Record.delete(data.getStamp());
+    }
+    return Record.put(data.getStamp(), data.getValue());
+  }
+
+  private LsmStore store() {
+    if (store == null) {
+      store = LsmStore.of(LsmDataAccessor.dir(getUri()), settings);
+    }
+    return store;
+  }
+
+  @Override
+  public void close() {
+    // the store is shared by all writers and readers of the directory
+    store = null;
+  }
+
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.lsm;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import lombok.Getter;
+
+/**
+ * Sorted records held in memory before they are flushed to segment file.
+ * Each memtable has its write-ahead log with the same id.
+ */
+final class Memtable implements Source {
+
+  @Getter
+  private final long id;
+  private final ConcurrentNavigableMap<String, Record> data =
+      new ConcurrentSkipListMap<>();
+  private final AtomicLong size = new AtomicLong();
+
+  Memtable(long id) {
+    this.id = id;
+  }
+
+  /**
+   * Apply record to the memtable.
+   * @param rowKey the row key
+   * @param record the record
+   */
+  void put(String rowKey, Record record) {
+    data.compute(rowKey, (k, old) -> {
+      if (!record.replaces(old)) {
+        return old;
+      }
+      size.addAndGet(record.size(k) - (old == null ? 0 : old.size(k)));
+      return record;
+    });
+  }
+
+  /**
+   * Retrieve estimated size of data in the memtable.
+   * @return size in bytes
+   */
+  long size() {
+    return size.get();
+  }
+
+  boolean isEmpty() {
+    return data.isEmpty();
+  }
+
+  int count() {
+    return data.size();
+  }
+
+  @Nullable
+  @Override
+  public Record get(String rowKey) {
+    return data.get(rowKey);
+  }
+
+  @Override
+  public Iterator<Map.Entry<String, Record>> iterator(String from, String to) {
+    return data.subMap(from, true, to, false).entrySet().iterator();
+  }
+
+  /**
+   * Iterate all records of the memtable.
+   * @return iterator of row keys and records
+   */
+  Iterator<Map.Entry<String, Record>> iterator() {
+    return data.entrySet().iterator();
+  }
+
+}
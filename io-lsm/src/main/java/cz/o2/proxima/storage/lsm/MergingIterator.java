@@ -0,0 +1,105 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.lsm;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Iterator merging sorted iterators of several sources into single sorted
+ * iterator with single record per row key. The record that replaces all
+ * other records of the row key is returned, see {@link Record#replaces}.
+ */
+final class MergingIterator implements Iterator<Map.Entry<String, Record>> {
+
+  private static final class Head implements Comparable<Head> {
+
+    /** Index of the source, lower index means newer source. */
+    final int source;
+    final Iterator<Map.Entry<String, Record>> iterator;
+    Map.Entry<String, Record> current;
+
+    Head(int source, Iterator<Map.Entry<String, Record>> iterator) {
+      this.source = source;
+      this.iterator = iterator;
+      this.current = iterator.next();
+    }
+
+    boolean advance() {
+      if (iterator.hasNext()) {
+        current = iterator.next();
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public int compareTo(Head other) {
+      int cmp = current.getKey().compareTo(other.current.getKey());
+      return cmp != 0 ? cmp : Integer.compare(source, other.source);
+    }
+
+  }
+
+  private final PriorityQueue<Head> heads;
+
+  /**
+   * Create the iterator.
+   * @param iterators iterators of sources ordered from the newest source
+   */
+  MergingIterator(List<Iterator<Map.Entry<String, Record>>> iterators) {
+    this.heads = new PriorityQueue<>(Math.max(iterators.size(), 1));
+    for (int i = 0; i < iterators.size(); i++) {
+      if (iterators.get(i).hasNext()) {
+        heads.add(new Head(i, iterators.get(i)));
+      }
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    return !heads.isEmpty();
+  }
+
+  @Override
+  public Map.Entry<String, Record> next() {
+    Head head = heads.poll();
+    if (head == null) {
+      throw new NoSuchElementException();
+    }
+    // the newest source of the row key comes first
+    Map.Entry<String, Record> ret = head.current;
+    requeue(head);
+    while (!heads.isEmpty() && heads.peek().current.getKey().equals(ret.getKey())) {
+      Head older = heads.poll();
+      if (!ret.getValue().replaces(older.current.getValue())) {
+        ret = older.current;
+      }
+      requeue(older);
+    }
+    return ret;
+  }
+
+  private void requeue(Head head) {
+    if (head.advance()) {
+      heads.add(head);
+    }
+  }
+
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.lsm;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import javax.annotation.Nullable;
+import lombok.Getter;
+
+/**
+ * Version of value of single (key, attribute) pair of {@link LsmStore}.
+ * Records are stored under row key {@code <key>\0<attribute>}, so that
+ * attributes of each key and attributes with common prefix are stored
+ * next to each other.
+ */
+final class Record {
+
+  /** Type of the record. */
+  enum Type {
+    /** Value of the attribute. */
+    PUT,
+    /** Deleted attribute. */
+    DELETE,
+    /** Deleted all attributes with prefix given by the attribute. */
+    DELETE_PREFIX
+  }
+
+  /** Separator of entity key and attribute in row keys. */
+  static final char SEPARATOR = '\0';
+
+  /**
+   * Create row key of given (key, attribute) pair.
+   * @param key key of the entity
+   * @param attribute the attribute or prefix of attributes
+   * @return the row key
+   */
+  static String rowKey(String key, String attribute) {
+    return key + SEPARATOR + attribute;
+  }
+
+  /**
+   * Retrieve exclusive upper bound of row keys starting with given prefix.
+   * @param prefix the prefix
+   * @return the upper bound
+   */
+  static String upperBound(String prefix) {
+    return prefix + Character.MAX_VALUE;
+  }
+
+  /**
+   * Retrieve entity key of given row key.
+   * @param rowKey the row key
+   * @return the entity key
+   */
+  static String key(String rowKey) {
+    return rowKey.substring(0, rowKey.indexOf(SEPARATOR));
+  }
+
+  /**
+   * Retrieve attribute of given row key.
+   * @param rowKey the row key
+   * @return the attribute
+   */
+  static String attribute(String rowKey) {
+    return rowKey.substring(rowKey.indexOf(SEPARATOR) + 1);
+  }
+
+  static Record put(long stamp, byte[] value) {
+    return new Record(Type.PUT, stamp, value);
+  }
+
+  static Record delete(long stamp) {
+    return new Record(Type.DELETE, stamp, null);
+  }
+
+  static Record deletePrefix(long stamp) {
+    return new Record(Type.DELETE_PREFIX, stamp, null);
+  }
+
+  @Getter
+  private final Type type;
+
+  @Getter
+  private final long stamp;
+
+  @Getter
+  @Nullable
+  private final byte[] value;
+
+  private Record(Type type, long stamp, @Nullable byte[] value) {
+    this.type = type;
+    this.stamp = stamp;
+    this.value = value;
+  }
+
+  boolean isPut() {
+    return type == Type.PUT;
+  }
+
+  /**
+   * Check if this record replaces given older version. Records with higher
+   * timestamp win, records with the same timestamp replace the older version.
+   * @param older the version written before this record
+   * @return {@code true} if this record replaces the older version
+   */
+  boolean replaces(@Nullable Record older) {
+    return older == null || stamp >= older.stamp;
+  }
+
+  /**
+   * Estimate size of the record held in memory.
+   * @param rowKey row key of the record
+   * @return the estimated size in bytes
+   */
+  long size(String rowKey) {
+    // object headers, fields and node of the skip list
+    return 64 + 2L * rowKey.length() + (value == null ? 0 : value.length);
+  }
+
+  /**
+   * Write the record with its row key.
+   * @param rowKey row key of the record
+   * @param out the output
+   * @throws IOException on failure to write
+   */
+  void write(String rowKey, DataOutput out) throws IOException {
+    byte[] bytes = rowKey.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+    out.writeByte(type.ordinal());
+    out.writeLong(stamp);
+    if (value == null) {
+      out.writeInt(-1);
+    } else {
+      out.writeInt(value.length);
+      out.write(value);
+    }
+  }
+
+  /**
+   * Read row key written by {@link #write}.
+   * @param in the input
+   * @return the row key
+   * @throws IOException on failure to read
+   */
+  static String readKey(DataInput in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Read record following its row key written by {@link #write}.
+   * @param in the input
+   * @return the record
+   * @throws IOException on failure to read
+   */
+  static Record read(DataInput in) throws IOException {
+    Type type = Type.values()[in.readByte()];
+    long stamp = in.readLong();
+    int length = in.readInt();
+    byte[] value = null;
+    if (length >= 0) {
+      value = new byte[length];
+      in.readFully(value);
+    }
+    return new Record(type, stamp, value);
+  }
+
+  /**
+   * Read row key written by {@link #write} from buffer.
+   * @param buffer the buffer positioned at the row key
+   * @return the row key
+   */
+  static String readKey(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Skip record following its row key in buffer.
+   * @param buffer the buffer positioned after the row key
+   */
+  static void skip(ByteBuffer buffer) {
+    buffer.position(buffer.position() + 1 + Long.BYTES);
+    int length = buffer.getInt();
+    if (length > 0) {
+      buffer.position(buffer.position() + length);
+    }
+  }
+
+  /**
+   * Read record following its row key from buffer.
+   * @param buffer the buffer positioned after the row key
+   * @return the record
+   */
+  static Record read(ByteBuffer buffer) {
+    Type type = Type.values()[buffer.get()];
+    long stamp = buffer.getLong();
+    int length = buffer.getInt();
+    byte[] value = null;
+    if (length >= 0) {
+      value = new byte[length];
+      buffer.get(value);
+    }
+    return new Record(type, stamp, value);
+  }
+
+}
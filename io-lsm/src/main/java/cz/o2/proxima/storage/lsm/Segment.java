@@ -0,0 +1,301 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.lsm;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import javax.annotation.Nullable;
+import lombok.Getter;
+
+/**
+ * Immutable file with records sorted by row keys. The file consists of
+ * the records, sparse index with row key and position of every n-th record,
+ * bloom filter of entity keys and footer with positions of the index and
+ * the bloom filter. The file is memory-mapped, the index and the bloom
+ * filter are held on heap. The bloom filter skips the file for both reads
+ * of single attributes and scans of attributes of missing entity keys.
+ */
+final class Segment implements Source {
+
+  private static final long MAGIC = 0x70726f78696d6131L;
+  private static final int FOOTER_SIZE = 3 * Integer.BYTES + Long.BYTES;
+  private static final Funnel<CharSequence> FUNNEL =
+      Funnels.stringFunnel(StandardCharsets.UTF_8);
+
+  /**
+   * Write records to segment file. The file is first written to temporary
+   * file, which is then atomically moved to the target path.
+   * @param path path of the file
+   * @param records records ordered by row keys
+   * @param expectedKeys expected number of entity keys
+   * @param indexInterval number of records per entry of the index
+   * @param bloomFpp false positive probability of the bloom filter
+   * @return number of written records
+   * @throws IOException on failure to write the file
+   */
+  static int write(
+      Path path, Iterator<Map.Entry<String, Record>> records,
+      long expectedKeys, int indexInterval, double bloomFpp)
+      throws IOException {
+
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    BloomFilter<CharSequence> bloom = BloomFilter.create(
+        FUNNEL, Math.max(expectedKeys, 1), bloomFpp);
+    List<String> indexKeys = new ArrayList<>();
+    List<Integer> indexPositions = new ArrayList<>();
+    int count = 0;
+    try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(file, 65536))) {
+
+      String lastKey = null;
+      while (records.hasNext()) {
+        Map.Entry<String, Record> e = records.next();
+        if (count % indexInterval == 0) {
+          indexKeys.add(e.getKey());
+          indexPositions.add(out.size());
+        }
+        String key = Record.key(e.getKey());
+        if (!key.equals(lastKey)) {
+          bloom.put(key);
+          lastKey = key;
+        }
+        e.getValue().write(e.getKey(), out);
+        count++;
+        if (out.size() == Integer.MAX_VALUE) {
+          throw new IllegalStateException(
+              "Segment " + path + " exceeds maximal size of 2 GiB");
+        }
+      }
+      int indexOffset = out.size();
+      out.writeInt(indexKeys.size());
+      for (int i = 0; i < indexKeys.size(); i++) {
+        byte[] bytes = indexKeys.get(i).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.writeInt(indexPositions.get(i));
+      }
+      int bloomOffset = out.size();
+      bloom.writeTo(out);
+      out.writeInt(indexOffset);
+      out.writeInt(bloomOffset);
+      out.writeInt(count);
+      out.writeLong(MAGIC);
+      out.flush();
+      file.getFD().sync();
+    }
+    Files.move(
+        tmp, path, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    return count;
+  }
+
+  /**
+   * Open segment file.
+   * @param id id of the segment
+   * @param path path of the file
+   * @return the segment
+   * @throws IOException on failure to read the file
+   */
+  static Segment open(long id, Path path) throws IOException {
+    MappedByteBuffer data;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE || channel.size() < FOOTER_SIZE) {
+        throw new IOException(
+            "Invalid size " + channel.size() + " of segment " + path);
+      }
+      // the mapping stays valid after the channel is closed
+      data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    int footer = data.capacity() - FOOTER_SIZE;
+    if (data.getLong(footer + 3 * Integer.BYTES) != MAGIC) {
+      throw new IOException("Corrupted segment " + path);
+    }
+    int indexOffset = data.getInt(footer);
+    int bloomOffset = data.getInt(footer + Integer.BYTES);
+    int count = data.getInt(footer + 2 * Integer.BYTES);
+
+    ByteBuffer buffer = data.duplicate();
+    buffer.position(indexOffset);
+    int indexSize = buffer.getInt();
+    String[] indexKeys = new String[indexSize];
+    int[] indexPositions = new int[indexSize];
+    for (int i = 0; i < indexSize; i++) {
+      indexKeys[i] = Record.readKey(buffer);
+      indexPositions[i] = buffer.getInt();
+    }
+    byte[] bloomBytes = new byte[footer - bloomOffset];
+    buffer.position(bloomOffset);
+    buffer.get(bloomBytes);
+    BloomFilter<CharSequence> bloom = BloomFilter.readFrom(
+        new ByteArrayInputStream(bloomBytes), FUNNEL);
+    return new Segment(
+        id, path, data, indexOffset, count, indexKeys, indexPositions, bloom);
+  }
+
+  @Getter
+  private final long id;
+  @Getter
+  private final Path path;
+  private final MappedByteBuffer data;
+  /** End of the records. */
+  private final int limit;
+  @Getter
+  private final int count;
+  private final String[] indexKeys;
+  private final int[] indexPositions;
+  private final BloomFilter<CharSequence> bloom;
+
+  private Segment(
+      long id, Path path, MappedByteBuffer data, int limit, int count,
+      String[] indexKeys, int[] indexPositions,
+      BloomFilter<CharSequence> bloom) {
+
+    this.id = id;
+    this.path = path;
+    this.data = data;
+    this.limit = limit;
+    this.count = count;
+    this.indexKeys = indexKeys;
+    this.indexPositions = indexPositions;
+    this.bloom = bloom;
+  }
+
+  @Override
+  public boolean mightContain(String key) {
+    return bloom.mightContain(key);
+  }
+
+  @Nullable
+  @Override
+  public Record get(String rowKey) {
+    if (!bloom.mightContain(Record.key(rowKey))) {
+      return null;
+    }
+    int block = block(rowKey);
+    if (block < 0) {
+      return null;
+    }
+    ByteBuffer buffer = data.duplicate();
+    buffer.position(indexPositions[block]);
+    int end = block + 1 < indexPositions.length ? indexPositions[block + 1] : limit;
+    while (buffer.position() < end) {
+      int cmp = Record.readKey(buffer).compareTo(rowKey);
+      if (cmp == 0) {
+        return Record.read(buffer);
+      }
+      if (cmp > 0) {
+        break;
+      }
+      Record.skip(buffer);
+    }
+    return null;
+  }
+
+  @Override
+  public Iterator<Map.Entry<String, Record>> iterator(String from, String to) {
+    int block = block(from);
+    return new SegmentIterator(
+        block < 0 ? 0 : indexPositions[block], from, to);
+  }
+
+  /**
+   * Iterate all records of the segment.
+   * @return iterator of row keys and records
+   */
+  Iterator<Map.Entry<String, Record>> iterator() {
+    return new SegmentIterator(0, null, null);
+  }
+
+  /** Find last block starting with row key lower or equal to given key. */
+  private int block(String rowKey) {
+    int pos = Arrays.binarySearch(indexKeys, rowKey);
+    return pos >= 0 ? pos : -pos - 2;
+  }
+
+  private class SegmentIterator implements Iterator<Map.Entry<String, Record>> {
+
+    private final ByteBuffer buffer = data.duplicate();
+    @Nullable
+    private final String to;
+    @Nullable
+    private Map.Entry<String, Record> next;
+
+    SegmentIterator(int position, @Nullable String from, @Nullable String to) {
+      this.to = to;
+      buffer.position(position);
+      while (from != null && buffer.position() < limit) {
+        int start = buffer.position();
+        if (Record.readKey(buffer).compareTo(from) >= 0) {
+          buffer.position(start);
+          break;
+        }
+        Record.skip(buffer);
+      }
+      advance();
+    }
+
+    private void advance() {
+      next = null;
+      if (buffer.position() < limit) {
+        String key = Record.readKey(buffer);
+        if (to == null || key.compareTo(to) < 0) {
+          next = new AbstractMap.SimpleImmutableEntry<>(key, Record.read(buffer));
+        } else {
+          buffer.position(limit);
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public Map.Entry<String, Record> next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      Map.Entry<String, Record> ret = next;
+      advance();
+      return ret;
+    }
+
+  }
+
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.lsm;
+
+import java.util.Iterator;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Sorted source of records of {@link LsmStore}, either memtable
+ * or segment file.
+ */
+interface Source {
+
+  /**
+   * Retrieve record with given row key.
+   * @param rowKey the row key
+   * @return the record or {@code null} if there is no such record
+   */
+  @Nullable
+  Record get(String rowKey);
+
+  /**
+   * Iterate records with row keys in given range ordered by row keys.
+   * @param from the first row key (inclusive)
+   * @param to the last row key (exclusive)
+   * @return iterator of row keys and records
+   */
+  Iterator<Map.Entry<String, Record>> iterator(String from, String to);
+
+  /**
+   * Check if the source might contain records of given entity key.
+   * @param key the entity key
+   * @return {@code false} if the source has no records of the key
+   */
+  default boolean mightContain(String key) {
+    return true;
+  }
+
+}
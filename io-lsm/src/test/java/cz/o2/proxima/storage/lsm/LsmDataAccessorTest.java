@@ -0,0 +1,293 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.storage.lsm;
+
+import com.typesafe.config.ConfigFactory;
+import cz.o2.proxima.repository.AttributeDescriptor;
+import cz.o2.proxima.repository.AttributeDescriptorBase;
+import cz.o2.proxima.repository.ConfigRepository;
+import cz.o2.proxima.repository.Context;
+import cz.o2.proxima.repository.EntityDescriptor;
+import cz.o2.proxima.repository.Repository;
+import cz.o2.proxima.storage.OnlineAttributeWriter;
+import cz.o2.proxima.storage.Partition;
+import cz.o2.proxima.storage.StreamElement;
+import cz.o2.proxima.storage.batch.BatchLogObservable;
+import cz.o2.proxima.storage.batch.BatchLogObserver;
+import cz.o2.proxima.storage.randomaccess.KeyValue;
+import cz.o2.proxima.storage.randomaccess.RandomAccessReader;
+import cz.o2.proxima.storage.randomaccess.RawOffset;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Test {@link LsmDataAccessor}.
+ */
+public class LsmDataAccessorTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Repository repo = ConfigRepository.Builder
+      .ofTest(ConfigFactory.empty())
+      .build();
+  private final AttributeDescriptorBase<byte[]> armed;
+  private final AttributeDescriptorBase<byte[]> device;
+  private final EntityDescriptor entity;
+  private final Map<String, Object> cfg = new HashMap<>();
+  private URI uri;
+
+  public LsmDataAccessorTest() throws Exception {
+    this.armed = AttributeDescriptor
+        .newBuilder(repo)
+        .setEntity("gateway")
+        .setName("armed")
+        .setSchemeUri(new URI("bytes:///"))
+        .build();
+    this.device = AttributeDescriptor
+        .newBuilder(repo)
+        .setEntity("gateway")
+        .setName("device.*")
+        .setSchemeUri(new URI("bytes:///"))
+        .build();
+    this.entity = EntityDescriptor.newBuilder()
+        .setName("gateway")
+        .addAttribute(armed)
+        .addAttribute(device)
+        .build();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    uri = new URI("lsm://" + folder.newFolder().getAbsolutePath());
+  }
+
+  @After
+  public void tearDown() {
+    LsmStore.close(LsmDataAccessor.dir(uri));
+  }
+
+  @Test
+  public void testWriteAndGet() {
+    OnlineAttributeWriter writer = writer();
+    write(writer, update("gw1", "armed", 1L, 1));
+    write(writer, update("gw1", "device.1", 1L, 2));
+    RandomAccessReader reader = reader();
+    KeyValue<byte[]> kv = reader.get("gw1", armed).get();
+    assertArrayEquals(new byte[] { 1 }, kv.getValue());
+    assertEquals(1L, kv.getStamp());
+    assertArrayEquals(
+        new byte[] { 2 }, reader.get("gw1", "device.1", device).get().getValue());
+    assertFalse(reader.get("gw2", armed).isPresent());
+    assertFalse(reader.get("gw1", "device.2", device).isPresent());
+  }
+
+  @Test
+  public void testLatestStampWins() {
+    OnlineAttributeWriter writer = writer();
+    write(writer, update("gw1", "armed", 2L, 2));
+    write(writer, update("gw1", "armed", 1L, 1));
+    assertArrayEquals(new byte[] { 2 }, reader().get("gw1", armed).get().getValue());
+    write(writer, update("gw1", "armed", 3L, 3));
+    assertArrayEquals(new byte[] { 3 }, reader().get("gw1", armed).get().getValue());
+  }
+
+  @Test
+  public void testDelete() {
+    OnlineAttributeWriter writer = writer();
+    write(writer, update("gw1", "armed", 1L, 1));
+    write(writer, StreamElement.delete(
+        entity, armed, UUID.randomUUID().toString(), "gw1", "armed", 2L));
+    assertFalse(reader().get("gw1", armed).isPresent());
+  }
+
+  @Test
+  public void testDeleteWildcard() {
+    OnlineAttributeWriter writer = writer();
+    write(writer, update("gw1", "device.1", 1L, 1));
+    write(writer, update("gw1", "device.2", 3L, 2));
+    write(writer, update("gw1", "armed", 1L, 3));
+    write(writer, StreamElement.deleteWildcard(
+        entity, device, UUID.randomUUID().toString(), "gw1", 2L));
+    RandomAccessReader reader = reader();
+    assertFalse(reader.get("gw1", "device.1", device).isPresent());
+    assertTrue(reader.get("gw1", "device.2", device).isPresent());
+    List<KeyValue<byte[]>> scanned = new ArrayList<>();
+    reader.scanWildcard("gw1", device, scanned::add);
+    assertEquals(
+        Collections.singletonList("device.2"),
+        scanned.stream().map(KeyValue::getAttribute).collect(Collectors.toList()));
+    List<KeyValue<?>> all = new ArrayList<>();
+    reader.scanWildcardAll("gw1", all::add);
+    assertEquals(
+        Arrays.asList("armed", "device.2"),
+        all.stream().map(KeyValue::getAttribute).collect(Collectors.toList()));
+  }
+
+  @Test
+  public void testScanWildcardWithOffsetAndLimit() {
+    OnlineAttributeWriter writer = writer();
+    for (int i = 0; i < 10; i++) {
+      write(writer, update("gw1", "device." + i, 1L, i));
+    }
+    write(writer, update("gw2", "device.0", 1L, 0));
+    RandomAccessReader reader = reader();
+    List<KeyValue<byte[]>> scanned = new ArrayList<>();
+    reader.scanWildcard("gw1", device, null, 3, scanned::add);
+    assertEquals(3, scanned.size());
+    reader.scanWildcard(
+        "gw1", device, scanned.get(scanned.size() - 1).getOffset(), -1, scanned::add);
+    assertEquals(
+        Arrays.asList(
+            "device.0", "device.1", "device.2", "device.3", "device.4",
+            "device.5", "device.6", "device.7", "device.8", "device.9"),
+        scanned.stream().map(KeyValue::getAttribute).collect(Collectors.toList()));
+  }
+
+  @Test
+  public void testListEntities() {
+    OnlineAttributeWriter writer = writer();
+    for (int i = 0; i < 5; i++) {
+      write(writer, update("gw" + i, "armed", 1L, i));
+      write(writer, update("gw" + i, "device.1", 1L, i));
+    }
+    List<String> keys = new ArrayList<>();
+    RandomAccessReader reader = reader();
+    reader.listEntities(null, 2, p -> keys.add(p.getSecond()));
+    assertEquals(Arrays.asList("gw0", "gw1"), keys);
+    reader.listEntities(new RawOffset("gw1"), -1, p -> keys.add(p.getSecond()));
+    assertEquals(Arrays.asList("gw0", "gw1", "gw2", "gw3", "gw4"), keys);
+  }
+
+  @Test
+  public void testReadAfterFlushAndCompaction() throws InterruptedException {
+    cfg.put(LsmDataAccessor.MEMTABLE_BYTES_CFG, 1024);
+    cfg.put(LsmDataAccessor.COMPACTION_SEGMENTS_CFG, 3);
+    OnlineAttributeWriter writer = writer();
+    for (int i = 0; i < 500; i++) {
+      write(writer, update("gw" + (i % 50), "device." + i, 1L, i));
+    }
+    write(writer, StreamElement.deleteWildcard(
+        entity, device, UUID.randomUUID().toString(), "gw0", 2L));
+    LsmStore.of(LsmDataAccessor.dir(uri), null).awaitBackground();
+    RandomAccessReader reader = reader();
+    for (int i = 0; i < 500; i++) {
+      String key = "gw" + (i % 50);
+      assertEquals(
+          !key.equals("gw0"),
+          reader.get(key, "device." + i, device).isPresent());
+    }
+    List<KeyValue<byte[]>> scanned = new ArrayList<>();
+    reader.scanWildcard("gw1", device, scanned::add);
+    assertEquals(10, scanned.size());
+  }
+
+  @Test
+  public void testReopen() throws Exception {
+    cfg.put(LsmDataAccessor.MEMTABLE_BYTES_CFG, 4096);
+    OnlineAttributeWriter writer = writer();
+    for (int i = 0; i < 200; i++) {
+      write(writer, update("gw" + i, "armed", 1L, i));
+    }
+    LsmStore.close(LsmDataAccessor.dir(uri));
+
+    // data are read both from segments and from write-ahead log
+    RandomAccessReader reader = reader();
+    for (int i = 0; i < 200; i++) {
+      assertArrayEquals(
+          new byte[] { (byte) i }, reader.get("gw" + i, armed).get().getValue());
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testBatchObserve() throws InterruptedException {
+    OnlineAttributeWriter writer = writer();
+    writer.writeBatch(
+        Arrays.asList(
+            update("gw1", "armed", 1L, 1),
+            update("gw1", "device.1", 1L, 2),
+            update("gw2", "device.1", 1L, 3)),
+        (succ, exc) -> assertTrue(succ));
+    BatchLogObservable observable = accessor()
+        .getBatchLogObservable(context()).get();
+    List<StreamElement> observed = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch latch = new CountDownLatch(1);
+    observable.observe(
+        observable.getPartitions(),
+        Collections.singletonList(device),
+        new BatchLogObserver() {
+
+          @Override
+          public boolean onNext(StreamElement element, Partition partition) {
+            observed.add(element);
+            return true;
+          }
+
+          @Override
+          public void onCompleted() {
+            latch.countDown();
+          }
+
+        });
+    latch.await();
+    assertEquals(
+        Arrays.asList("gw1", "gw2"),
+        observed.stream().map(StreamElement::getKey).collect(Collectors.toList()));
+  }
+
+  private StreamElement update(String key, String attribute, long stamp, int value) {
+    return StreamElement.update(
+        entity, attribute.equals("armed") ? armed : device,
+        UUID.randomUUID().toString(), key, attribute, stamp,
+        new byte[] { (byte) value });
+  }
+
+  private static void write(OnlineAttributeWriter writer, StreamElement element) {
+    writer.write(element, (succ, exc) -> assertTrue(succ));
+  }
+
+  private LsmDataAccessor accessor() {
+    return new LsmStorageDescriptor().getAccessor(entity, uri, cfg);
+  }
+
+  private OnlineAttributeWriter writer() {
+    return accessor().getWriter(context()).get().online();
+  }
+
+  private RandomAccessReader reader() {
+    return accessor().getRandomAccessReader(context()).get();
+  }
+
+  private static Context context() {
+    return new Context(() -> Executors.newCachedThreadPool()) { };
+  }
+
+}
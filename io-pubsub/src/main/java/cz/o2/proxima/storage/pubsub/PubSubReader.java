@@ -35,6 +35,7 @@ import cz.o2.proxima.repository.EntityDescriptor;
 import cz.o2.proxima.storage.AbstractStorage;
 import cz.o2.proxima.storage.Partition;
 import cz.o2.proxima.storage.StreamElement;
+import cz.o2.proxima.storage.commitlog.BatchedLogObserver;
 import cz.o2.proxima.storage.commitlog.BulkLogObserver;
 import cz.o2.proxima.storage.commitlog.CommitLogReader;
 import cz.o2.proxima.storage.commitlog.LogObserver;
@@ -54,6 +55,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -164,6 +166,9 @@ class PubSubReader extends AbstractStorage implements CommitLogReader {
     validateNotStopAtCurrent(stopAtCurrent);
 
     validatePosition(position);
+    if (observer instanceof BatchedLogObserver) {
+      return observeBatch(name, (BatchedLogObserver) observer);
+    }
     AtomicReference<List<AckReplyConsumer>> unconfirmed = new AtomicReference<>(
         new ArrayList<>());
     Object lock = new Object();
@@ -201,6 +206,85 @@ class PubSubReader extends AbstractStorage implements CommitLogReader {
         observer::onCancelled);
   }
 
+  /**
+   * Observe PubSub in batches. Messages received while the observer
+   * processes a batch are delivered as the next batch by the thread
+   * that finishes processing of the previous batch.
+   */
+  private ObserveHandle observeBatch(
+      @Nullable String name, BatchedLogObserver observer) {
+
+    AtomicReference<List<AckReplyConsumer>> unconfirmed = new AtomicReference<>(
+        new ArrayList<>());
+    List<StreamElement> pending = new ArrayList<>();
+    ReentrantLock lock = new ReentrantLock();
+    Object listLock = new Object();
+    AtomicLong globalOffset = new AtomicLong();
+    AtomicBoolean completed = new AtomicBoolean();
+    return consume(name,
+        (e, c) -> {
+          if (completed.get()) {
+            c.nack();
+            return false;
+          }
+          synchronized (listLock) {
+            unconfirmed.get().add(c);
+            pending.add(e);
+          }
+          do {
+            if (!lock.tryLock()) {
+              // the thread holding the lock will deliver the element
+              return true;
+            }
+            try {
+              while (true) {
+                if (completed.get()) {
+                  // elements received concurrently with stopping are not delivered
+                  return false;
+                }
+                final List<StreamElement> batch;
+                AtomicLong confirmUntil = new AtomicLong();
+                synchronized (listLock) {
+                  if (pending.isEmpty()) {
+                    break;
+                  }
+                  batch = new ArrayList<>(pending);
+                  pending.clear();
+                  // all unconfirmed messages are either in the batch or before it
+                  confirmUntil.set(unconfirmed.get().size() + globalOffset.get());
+                }
+                BulkLogObserver.OffsetCommitter committer = createBulkCommitter(
+                    listLock, confirmUntil, globalOffset, unconfirmed);
+                try {
+                  if (!observer.onNextBatch(batch, () -> 0, committer)) {
+                    completed.set(true);
+                    observer.onCompleted();
+                    return false;
+                  }
+                } catch (Exception ex) {
+                  log.error("Error calling onNextBatch", ex);
+                  committer.fail(ex);
+                  throw new RuntimeException(ex);
+                }
+              }
+            } finally {
+              lock.unlock();
+            }
+            // recheck elements added after the last drain
+          } while (hasPending(listLock, pending));
+          return true;
+        }, observer::onError,
+        () -> observer.onRestart(Arrays.asList(() -> () -> 0)),
+        () -> observer.onRestart(Arrays.asList(() -> () -> 0)),
+        observer::onCancelled);
+  }
+
+  private static boolean hasPending(Object listLock, List<StreamElement> pending) {
+    synchronized (listLock) {
+      return !pending.isEmpty();
+    }
+  }
+
   private BulkLogObserver.OffsetCommitter createBulkCommitter(
       Object listLock,
       AtomicLong confirmUntil,
@@ -395,6 +479,7 @@ class PubSubReader extends AbstractStorage implements CommitLogReader {
         if (elem.isPresent()) {
           if (!consumer.apply(elem.get(), c)) {
             log.info("Terminating consumption by request.");
+            stopProcessing.set(true);
             stopAsync(subscriber);
           }
         } else {
@@ -15,6 +15,7 @@
  */
 package cz.o2.proxima.storage.pubsub;
 
+import com.google.cloud.pubsub.v1.AckReplyConsumer;
 import com.google.cloud.pubsub.v1.MessageReceiver;
 import com.google.cloud.pubsub.v1.Subscriber;
 import com.google.pubsub.v1.ProjectSubscriptionName;
@@ -27,7 +28,9 @@ import cz.o2.proxima.repository.ConfigRepository;
 import cz.o2.proxima.repository.Context;
 import cz.o2.proxima.repository.EntityDescriptor;
 import cz.o2.proxima.repository.Repository;
+import cz.o2.proxima.storage.Partition;
 import cz.o2.proxima.storage.StreamElement;
+import cz.o2.proxima.storage.commitlog.BatchedLogObserver;
 import cz.o2.proxima.storage.commitlog.BulkLogObserver;
 import cz.o2.proxima.storage.commitlog.LogObserver;
 import cz.o2.proxima.storage.commitlog.ObserveHandle;
@@ -40,6 +43,7 @@ import java.util.Collections;
 import java.util.Deque;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -69,10 +73,11 @@ public class PubSubReaderTest {
   private class TestPubSubReader extends PubSubReader {
 
     private final Context context;
-    private final Set<Integer> acked = new HashSet<>();
-    private final Set<Integer> nacked = new HashSet<>();
+    private final Set<Integer> acked = Collections.synchronizedSet(new HashSet<>());
+    private final Set<Integer> nacked = Collections.synchronizedSet(new HashSet<>());
 
     private Supplier<PubsubMessage> supplier;
+    private volatile MessageReceiver receiver;
 
     public TestPubSubReader(Context context) {
       super(accessor, context);
@@ -83,11 +88,29 @@ public class PubSubReaderTest {
       this.supplier = supplier;
     }
 
+    /**
+     * Deliver message concurrently with messages of the subscriber.
+     */
+    void receive(int id, PubsubMessage message) {
+      receiver.receiveMessage(message, new AckReplyConsumer() {
+        @Override
+        public void ack() {
+          acked.add(id);
+        }
+
+        @Override
+        public void nack() {
+          nacked.add(id);
+        }
+      });
+    }
+
     @Override
     Subscriber newSubscriber(
         ProjectSubscriptionName subscription,
         MessageReceiver receiver) {
 
+      this.receiver = receiver;
       return MockSubscriber.create(
           subscription, receiver, supplier, acked, nacked,
           context.getExecutorService());
@@ -291,4 +314,114 @@ public class PubSubReaderTest {
     assertEquals(Sets.newHashSet(0, 1, 2), reader.acked);
   }
 
+  @Test(timeout = 10000)
+  public void testObserveBatch() throws InterruptedException {
+    long now = System.currentTimeMillis();
+    Deque<PubsubMessage> inputs = new LinkedList<>(
+        Arrays.asList(update("key0", "attr", new byte[] { 1 }, now)));
+    reader.setSupplier(() -> {
+      if (inputs.isEmpty()) {
+        LockSupport.park();
+      }
+      return inputs.pop();
+    });
+    List<List<StreamElement>> batches = new CopyOnWriteArrayList<>();
+    CountDownLatch firstBatch = new CountDownLatch(1);
+    CountDownLatch received = new CountDownLatch(1);
+    CountDownLatch secondBatch = new CountDownLatch(1);
+    AtomicReference<BulkLogObserver.OffsetCommitter> commit = new AtomicReference<>();
+    ObserveHandle handle = reader.observeBulk("dummy", new BatchedLogObserver() {
+      @Override
+      public boolean onNextBatch(
+          List<StreamElement> elements, Partition partition,
+          OffsetCommitter committer) {
+
+        batches.add(elements);
+        commit.set(committer);
+        if (batches.size() == 1) {
+          firstBatch.countDown();
+          // messages received while processing the batch form the next one
+          awaitUninterruptibly(received);
+        } else {
+          secondBatch.countDown();
+        }
+        return true;
+      }
+
+      @Override
+      public boolean onError(Throwable error) {
+        throw new RuntimeException(error);
+      }
+    });
+    firstBatch.await();
+    reader.receive(1, update("key1", "attr", new byte[] { 2 }, now));
+    reader.receive(2, update("key2", "attr", new byte[] { 3 }, now));
+    received.countDown();
+    secondBatch.await();
+    assertEquals(2, batches.size());
+    assertEquals(1, batches.get(0).size());
+    assertEquals("key0", batches.get(0).get(0).getKey());
+    assertEquals(2, batches.get(1).size());
+    assertEquals("key1", batches.get(1).get(0).getKey());
+    assertEquals("key2", batches.get(1).get(1).getKey());
+    assertTrue(reader.acked.isEmpty());
+
+    // commit of the batch acks the batch and all preceding messages
+    commit.get().confirm();
+    assertEquals(Sets.newHashSet(0, 1, 2), reader.acked);
+    assertTrue(reader.nacked.isEmpty());
+    handle.cancel();
+  }
+
+  @Test(timeout = 10000)
+  public void testObserveBatchStoppedByObserver() throws InterruptedException {
+    long now = System.currentTimeMillis();
+    Deque<PubsubMessage> inputs = new LinkedList<>(
+        Arrays.asList(update("key0", "attr", new byte[] { 1 }, now)));
+    reader.setSupplier(() -> {
+      if (inputs.isEmpty()) {
+        LockSupport.park();
+      }
+      return inputs.pop();
+    });
+    List<List<StreamElement>> batches = new CopyOnWriteArrayList<>();
+    CountDownLatch completed = new CountDownLatch(1);
+    reader.observeBulk("dummy", new BatchedLogObserver() {
+      @Override
+      public boolean onNextBatch(
+          List<StreamElement> elements, Partition partition,
+          OffsetCommitter committer) {
+
+        batches.add(elements);
+        return false;
+      }
+
+      @Override
+      public void onCompleted() {
+        completed.countDown();
+      }
+
+      @Override
+      public boolean onError(Throwable error) {
+        throw new RuntimeException(error);
+      }
+    });
+    completed.await();
+    // messages received after stopping are nacked and not delivered
+    reader.receive(1, update("key1", "attr", new byte[] { 2 }, now));
+    assertEquals(1, batches.size());
+    assertEquals("key0", batches.get(0).get(0).getKey());
+    assertEquals(Collections.singleton(1), reader.nacked);
+    assertTrue(reader.acked.isEmpty());
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(ex);
+    }
+  }
+
 }
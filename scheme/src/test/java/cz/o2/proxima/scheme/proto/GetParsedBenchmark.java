@@ -0,0 +1,116 @@
+/**
+ * Copyright 2017-2018 O2 Czech Republic, a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.o2.proxima.scheme.proto;
+
+import com.google.protobuf.ByteString;
+import com.typesafe.config.ConfigFactory;
+import cz.o2.proxima.repository.AttributeDescriptor;
+import cz.o2.proxima.repository.AttributeDescriptorBase;
+import cz.o2.proxima.repository.ConfigRepository;
+import cz.o2.proxima.repository.EntityDescriptor;
+import cz.o2.proxima.repository.Repository;
+import cz.o2.proxima.scheme.proto.test.Scheme.Device;
+import cz.o2.proxima.storage.StreamElement;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Throughput of elements of proto-schemed wildcard attribute that are
+ * parsed by several consumers (validation in ingest server, cached view,
+ * transformation, user observer). With {@code cache} disabled every
+ * consumer parses the value again, which is how elements behaved before
+ * the parsed value was cached.
+ * Run {@link #main} from test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GetParsedBenchmark {
+
+  @Param({ "true", "false" })
+  boolean cache;
+
+  /** Number of consumers of each element. */
+  @Param({ "4" })
+  int consumers;
+
+  /** Size of payload of the parsed message. */
+  @Param({ "64", "4096" })
+  int payloadSize;
+
+  EntityDescriptor entity;
+  AttributeDescriptor<Device> device;
+  byte[] value;
+
+  @Setup
+  public void setup() throws URISyntaxException {
+    Repository repo = ConfigRepository.Builder
+        .ofTest(ConfigFactory.empty())
+        .build();
+    AttributeDescriptorBase<Device> attr = AttributeDescriptor
+        .newBuilder(repo)
+        .setEntity("gateway")
+        .setName("device.*")
+        .setSchemeUri(new URI("proto:cz.o2.proxima.scheme.proto.test.Scheme.Device"))
+        .build();
+    device = attr;
+    entity = EntityDescriptor.newBuilder()
+        .setName("gateway")
+        .addAttribute(attr)
+        .build();
+    value = Device.newBuilder()
+        .setType("motion-sensor")
+        .setPayload(ByteString.copyFrom(new byte[payloadSize]))
+        .build()
+        .toByteArray();
+  }
+
+  @Benchmark
+  public void parse(Blackhole bh) {
+    StreamElement element = StreamElement.update(
+        entity, device, "uuid", "gw", "device.1",
+        System.currentTimeMillis(), value);
+    for (int i = 0; i < consumers; i++) {
+      bh.consume(element.getParsed(cache));
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(GetParsedBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+
+}